@@ -34,6 +34,8 @@ import java.nio.charset.Charset;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /** The JavaBuilder main called by bazel. */
 public abstract class BazelJavaBuilder {
@@ -55,37 +57,70 @@ public abstract class BazelJavaBuilder {
   }
 
   private static int runPersistentWorker() {
-    while (true) {
-      try {
-        WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
+    // Requests with a request id come from a multiplexing Bazel, which sends new requests before
+    // the previous ones are answered and bounds the number of requests in flight itself.
+    ExecutorService multiplexExecutor = null;
+    try {
+      while (true) {
+        try {
+          WorkRequest request = WorkRequest.parseDelimitedFrom(System.in);
 
-        if (request == null) {
-          break;
-        }
+          if (request == null) {
+            break;
+          }
+
+          if (request.getRequestId() != 0) {
+            if (multiplexExecutor == null) {
+              multiplexExecutor = Executors.newCachedThreadPool();
+            }
+            multiplexExecutor.execute(
+                () -> {
+                  try {
+                    writeResponse(processWorkRequest(request));
+                  } catch (IOException e) {
+                    e.printStackTrace();
+                  }
+                });
+            continue;
+          }
 
-        try (StringWriter sw = new StringWriter();
-            PrintWriter pw = new PrintWriter(sw)) {
-          int exitCode = processRequest(request.getArgumentsList(), pw);
-          WorkResponse.newBuilder()
-              .setOutput(sw.toString())
-              .setExitCode(exitCode)
-              .build()
-              .writeDelimitedTo(System.out);
-          System.out.flush();
+          writeResponse(processWorkRequest(request));
 
           // Hint to the system that now would be a good time to run a gc.  After a compile
           // completes lots of objects should be available for collection and it should be cheap to
           // collect them.
           System.gc();
+        } catch (IOException e) {
+          e.printStackTrace();
+          return 1;
         }
-      } catch (IOException e) {
-        e.printStackTrace();
-        return 1;
+      }
+    } finally {
+      if (multiplexExecutor != null) {
+        multiplexExecutor.shutdownNow();
       }
     }
     return 0;
   }
 
+  private static WorkResponse processWorkRequest(WorkRequest request) throws IOException {
+    try (StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw)) {
+      int exitCode = processRequest(request.getArgumentsList(), pw);
+      return WorkResponse.newBuilder()
+          .setOutput(sw.toString())
+          .setExitCode(exitCode)
+          .setRequestId(request.getRequestId())
+          .build();
+    }
+  }
+
+  /** Writes a response to stdout; responses of concurrent requests must not interleave. */
+  private static synchronized void writeResponse(WorkResponse response) throws IOException {
+    response.writeDelimitedTo(System.out);
+    System.out.flush();
+  }
+
   public static int processRequest(List<String> args, PrintWriter err) {
     try {
       JavaLibraryBuildRequest build = parse(args);
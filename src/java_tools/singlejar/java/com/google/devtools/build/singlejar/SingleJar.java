@@ -79,6 +79,9 @@ public class SingleJar {
   private boolean checkDesugarDeps = false;
   private OutputMode outputMode = OutputMode.FORCE_STORED;
 
+  /** The number of threads to compress and decompress entries on. */
+  private int compressionThreads = 1;
+
   /** Whether to include build-data.properties file */
   protected boolean includeBuildData = true;
 
@@ -181,7 +184,7 @@ public class SingleJar {
 
     ZipCombiner combiner = null;
     try (OutputStream out = fileSystem.getOutputStream(outputJar)) {
-      combiner = new ZipCombiner(outputMode, createEntryFilterHelper(), out);
+      combiner = new ZipCombiner(outputMode, createEntryFilterHelper(), out, compressionThreads);
       if (launcherBin != null) {
         combiner.prependExecutable(fileSystem.getInputStream(launcherBin));
       }
@@ -363,6 +366,18 @@ public class SingleJar {
         outputMode = OutputMode.FORCE_DEFLATE;
       } else if (arg.equals("--dont_change_compression")) {
         outputMode = OutputMode.DONT_CARE;
+      } else if (arg.equals("--compression_threads")) {
+        String value = getArgument(args, i, arg);
+        try {
+          compressionThreads = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+          compressionThreads = 0;
+        }
+        if (compressionThreads < 1) {
+          throw new IOException(
+              "--compression_threads must be a positive integer: '" + value + "'");
+        }
+        i++;
       } else if (arg.equals("--normalize")) {
         normalize = true;
       } else if (arg.equals("--include_prefixes")) {
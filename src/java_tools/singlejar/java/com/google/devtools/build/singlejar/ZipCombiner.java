@@ -31,11 +31,21 @@ import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
 import java.util.zip.Deflater;
 import java.util.zip.DeflaterInputStream;
@@ -59,6 +69,12 @@ import javax.annotation.Nullable;
  * at the end of processing to ensure that the output buffers are flushed and
  * the ZIP file is complete.
  *
+ * <p>When created with more than one thread, entries that must be compressed or decompressed are
+ * processed concurrently, while entries are still written in the order they were added, so the
+ * output is byte-for-byte the same as with a single thread. Input ZIP files are then read through
+ * memory mappings, and entries whose compression already agrees with the {@link OutputMode} are
+ * copied verbatim from the mapping.
+ *
  * <p>This class performs only rudimentary data checking. If the input files
  * are damaged, the output will likely also be damaged.
  *
@@ -235,6 +251,17 @@ public class ZipCombiner implements AutoCloseable {
     }
   }
 
+  /** An entry whose data may still be being prepared on the executor. */
+  private static final class PendingEntry {
+    private final ZipFileEntry entry;
+    private final Future<ByteBuffer> data;
+
+    PendingEntry(ZipFileEntry entry, Future<ByteBuffer> data) {
+      this.entry = entry;
+      this.data = data;
+    }
+  }
+
   /** Returns a {@link Deflater} for performing ZIP compression. */
   private static Deflater getDeflater() {
     return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
@@ -257,6 +284,53 @@ public class ZipCombiner implements AutoCloseable {
     return total;
   }
 
+  /** Returns the deflated contents of the input stream. */
+  private static byte[] deflate(InputStream in) throws IOException {
+    Deflater deflater = getDeflater();
+    try {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+      copyStream(new DeflaterInputStream(in, deflater), compressed);
+      return compressed.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /** Returns the inflated contents of the input stream. */
+  private static byte[] inflate(InputStream in) throws IOException {
+    Inflater inflater = getInflater();
+    try {
+      ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+      copyStream(new InflaterInputStream(in, inflater), uncompressed);
+      return uncompressed.toByteArray();
+    } finally {
+      inflater.end();
+    }
+  }
+
+  /** Returns an input stream over the remaining bytes of the buffer. */
+  private static InputStream newInputStream(ByteBuffer buffer) {
+    if (buffer.hasArray()) {
+      return new ByteArrayInputStream(
+          buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+    }
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return new ByteArrayInputStream(bytes);
+  }
+
+  /** Returns an executor with the given number of daemon threads. */
+  private static ExecutorService newExecutor(int threads) {
+    AtomicInteger count = new AtomicInteger();
+    return Executors.newFixedThreadPool(
+        threads,
+        runnable -> {
+          Thread thread = new Thread(runnable, "singlejar-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
   private final OutputMode mode;
   private final ZipEntryFilter entryFilter;
   private final FilterCallback callback;
@@ -265,6 +339,10 @@ public class ZipCombiner implements AutoCloseable {
   private final Map<String, ZipFileEntry> entries;
   private final Map<String, EntryAction> actions;
 
+  @Nullable private final ExecutorService executor;
+  private final int maxPendingEntries;
+  private final Deque<PendingEntry> pending;
+
   /**
    * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
    * {@link ZipEntryFilter}, and destination {@link OutputStream}.
@@ -274,12 +352,32 @@ public class ZipCombiner implements AutoCloseable {
    * @param out the {@link OutputStream} for writing the combined ZIP file
    */
   public ZipCombiner(OutputMode mode, ZipEntryFilter entryFilter, OutputStream out) {
+    this(mode, entryFilter, out, 1);
+  }
+
+  /**
+   * Creates a {@link ZipCombiner} for combining ZIP files using the specified {@link OutputMode},
+   * {@link ZipEntryFilter}, and destination {@link OutputStream}, compressing and decompressing
+   * entries on the specified number of threads.
+   *
+   * @param mode the compression preference for the output ZIP file
+   * @param entryFilter the filter to use when adding ZIP files to the combined output
+   * @param out the {@link OutputStream} for writing the combined ZIP file
+   * @param threads the number of threads to prepare entries on; with a single thread, entries are
+   *     prepared as they are written
+   */
+  public ZipCombiner(
+      OutputMode mode, ZipEntryFilter entryFilter, OutputStream out, int threads) {
+    checkArgument(threads > 0, "The number of threads must be positive, was %s.", threads);
     this.mode = mode;
     this.entryFilter = entryFilter;
     this.callback = new FilterCallback();
     this.out = new ZipWriter(new BufferedOutputStream(out), UTF_8);
     this.entries = new HashMap<>();
     this.actions = new HashMap<>();
+    this.executor = threads > 1 ? newExecutor(threads) : null;
+    this.maxPendingEntries = 4 * threads;
+    this.pending = new ArrayDeque<>();
   }
 
   /**
@@ -324,6 +422,7 @@ public class ZipCombiner implements AutoCloseable {
    * @throws IOException if there is an error writing the prefix file
    */
   public void prependExecutable(InputStream in) throws IOException {
+    writePendingEntries(0);
     out.startPrefixFile();
     copyStream(in, out);
     out.endPrefixFile();
@@ -361,6 +460,10 @@ public class ZipCombiner implements AutoCloseable {
     entry.setCompressedSize(0);
     entry.setTime(date != null ? date.getTime() : new Date().getTime());
     entry.setExtra(new ExtraDataList(extra));
+    if (executor != null) {
+      writeEntryLater(entry, CompletableFuture.completedFuture(ByteBuffer.allocate(0)));
+      return;
+    }
     out.putNextEntry(entry);
     out.closeEntry();
     entries.put(filename, entry);
@@ -425,7 +528,8 @@ public class ZipCombiner implements AutoCloseable {
    *     combined ZIP file
    */
   public void addZip(File zipFile) throws IOException {
-    try (ZipReader zip = new ZipReader(zipFile)) {
+    boolean memoryMapped = executor != null;
+    try (ZipReader zip = new ZipReader(zipFile, UTF_8, /*strictEntries=*/ false, memoryMapped)) {
       for (ZipFileEntry entry : zip.entries()) {
         String filename = entry.getName();
         EntryAction action = getAction(filename);
@@ -481,6 +585,18 @@ public class ZipCombiner implements AutoCloseable {
 
   /** Writes an entry with the given name, date and external file attributes from the buffer. */
   private void writeEntryFromBuffer(ZipFileEntry entry, byte[] uncompressed) throws IOException {
+    if (executor != null) {
+      writeEntryLater(entry, executor.submit(() -> ByteBuffer.wrap(compress(entry, uncompressed))));
+    } else {
+      writeEntry(entry, new ByteArrayInputStream(compress(entry, uncompressed)));
+    }
+  }
+
+  /**
+   * Sets the CRC, sizes and method of the entry for the given uncompressed data, and returns the
+   * data to write for it.
+   */
+  private byte[] compress(ZipFileEntry entry, byte[] uncompressed) throws IOException {
     CRC32 crc = new CRC32();
     crc.update(uncompressed);
 
@@ -489,14 +605,12 @@ public class ZipCombiner implements AutoCloseable {
     if (mode == OutputMode.FORCE_STORED) {
       entry.setMethod(Compression.STORED);
       entry.setCompressedSize(uncompressed.length);
-      writeEntry(entry, new ByteArrayInputStream(uncompressed));
+      return uncompressed;
     } else {
-      ByteArrayOutputStream compressed = new ByteArrayOutputStream();
-      copyStream(new DeflaterInputStream(new ByteArrayInputStream(uncompressed), getDeflater()),
-          compressed);
+      byte[] compressed = deflate(new ByteArrayInputStream(uncompressed));
       entry.setMethod(Compression.DEFLATED);
-      entry.setCompressedSize(compressed.size());
-      writeEntry(entry, new ByteArrayInputStream(compressed.toByteArray()));
+      entry.setCompressedSize(compressed.length);
+      return compressed;
     }
   }
 
@@ -523,16 +637,20 @@ public class ZipCombiner implements AutoCloseable {
       outEntry.setTime(action.getDate().getTime());
     }
 
+    if (executor != null) {
+      writeEntryLater(zip, entry, outEntry);
+      return;
+    }
+
     InputStream data;
     if (mode == OutputMode.FORCE_DEFLATE && entry.getMethod() != Compression.DEFLATED) {
       // The output mode is deflate, but the entry compression is not. Create a deflater stream
       // from the raw file data and deflate to a temporary byte array to determine the deflated
       // size. Then use this byte array as the input stream for writing the entry.
-      ByteArrayOutputStream tmp = new ByteArrayOutputStream();
-      copyStream(new DeflaterInputStream(zip.getRawInputStream(entry), getDeflater()), tmp);
-      data = new ByteArrayInputStream(tmp.toByteArray());
+      byte[] compressed = deflate(zip.getRawInputStream(entry));
+      data = new ByteArrayInputStream(compressed);
       outEntry.setMethod(Compression.DEFLATED);
-      outEntry.setCompressedSize(tmp.size());
+      outEntry.setCompressedSize(compressed.length);
     } else if (mode == OutputMode.FORCE_STORED && entry.getMethod() != Compression.STORED) {
       // The output mode is stored, but the entry compression is not; create an inflater stream
       // from the raw file data. 
@@ -546,6 +664,88 @@ public class ZipCombiner implements AutoCloseable {
     writeEntry(outEntry, data);
   }
 
+  /**
+   * Queues the output entry for the input entry of the {@link ZipReader}, deflating or inflating
+   * its data on the executor if the output mode requires it, and copying it verbatim otherwise.
+   */
+  private void writeEntryLater(ZipReader zip, ZipFileEntry entry, ZipFileEntry outEntry)
+      throws IOException {
+    ByteBuffer raw = zip.getRawBuffer(entry);
+    if (mode == OutputMode.FORCE_DEFLATE && entry.getMethod() != Compression.DEFLATED) {
+      writeEntryLater(
+          outEntry,
+          executor.submit(
+              () -> {
+                byte[] compressed = deflate(newInputStream(raw));
+                outEntry.setMethod(Compression.DEFLATED);
+                outEntry.setCompressedSize(compressed.length);
+                return ByteBuffer.wrap(compressed);
+              }));
+    } else if (mode == OutputMode.FORCE_STORED && entry.getMethod() != Compression.STORED) {
+      writeEntryLater(
+          outEntry,
+          executor.submit(
+              () -> {
+                byte[] uncompressed = inflate(newInputStream(raw));
+                outEntry.setMethod(Compression.STORED);
+                outEntry.setCompressedSize(entry.getSize());
+                return ByteBuffer.wrap(uncompressed);
+              }));
+    } else {
+      writeEntryLater(outEntry, CompletableFuture.completedFuture(raw));
+    }
+  }
+
+  /**
+   * Queues the entry to be written once its data is ready, after all previously queued entries.
+   * The entry must not be modified by the caller afterwards, only by the computation of its data.
+   */
+  private void writeEntryLater(ZipFileEntry entry, Future<ByteBuffer> data) throws IOException {
+    pending.add(new PendingEntry(entry, data));
+    entries.put(entry.getName(), entry);
+    writePendingEntries(maxPendingEntries);
+  }
+
+  /**
+   * Writes queued entries in order, waiting for their data while more than {@code maxPending}
+   * remain, and stopping at the first entry whose data is not ready otherwise.
+   */
+  private void writePendingEntries(int maxPending) throws IOException {
+    while (!pending.isEmpty()
+        && (pending.size() > maxPending || pending.peek().data.isDone())) {
+      PendingEntry next = pending.remove();
+      ByteBuffer data;
+      try {
+        data = next.data.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while preparing " + next.entry.getName());
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+          throw (Error) cause;
+        }
+        throw new IOException(cause);
+      }
+      out.putNextEntry(next.entry);
+      if (data.hasArray()) {
+        out.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+      } else {
+        byte[] buf = new byte[0x1000];
+        while (data.hasRemaining()) {
+          int length = Math.min(buf.length, data.remaining());
+          data.get(buf, 0, length);
+          out.write(buf, 0, length);
+        }
+      }
+      out.closeEntry();
+    }
+  }
+
   /**
    * Writes the specified {@link ZipFileEntry} using the data from the given {@link InputStream}.
    */
@@ -592,6 +792,7 @@ public class ZipCombiner implements AutoCloseable {
         writeEntryFromBuffer(e, uncompressed.toByteArray());
       }
     }
+    writePendingEntries(0);
     out.finish();
   }
 
@@ -601,8 +802,14 @@ public class ZipCombiner implements AutoCloseable {
    * @throws IOException if the output stream or the filter throws an IOException
    */
   @Override public void close() throws IOException {
-    finish();
-    out.close();
+    try {
+      finish();
+      out.close();
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+    }
   }
 
   /** Ensures the truth of an expression involving one or more parameters to the calling method. */
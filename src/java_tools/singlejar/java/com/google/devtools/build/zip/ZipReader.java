@@ -22,12 +22,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.charset.Charset;
 import java.util.Collection;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
 
 /**
  * A ZIP file reader.
@@ -42,11 +46,17 @@ import java.util.zip.ZipFile;
  *
  * <p><em>NOTE:</em> The entries are read from the central directory. If the entry is not listed
  * there, it will not be returned from {@link #entries()} or {@link #getEntry(String)}.
+ *
+ * <p>A reader opened with {@code memoryMapped} set reads the file through a read-only mapping
+ * instead of the file channel. Its input streams and raw buffers do not share a file position, so
+ * they may be read from several threads at once, and they stay readable after the reader is
+ * closed.
  */
 public class ZipReader implements Closeable, AutoCloseable {
 
   private final File file;
   private final RandomAccessFile in;
+  @Nullable private final MappedByteBuffer mapped;
   private final ZipFileData zipData;
 
   /**
@@ -85,11 +95,32 @@ public class ZipReader implements Closeable, AutoCloseable {
    * @throws IOException if an I/O error has occurred
    */
   public ZipReader(File file, Charset charset, boolean strictEntries) throws IOException {
+    this(file, charset, strictEntries, false);
+  }
+
+  /**
+   * Opens a zip file for raw acceess.
+   *
+   * @param file the zip file
+   * @param charset the charset to use to decode the entry names and comments
+   * @param strictEntries force parsing to use the number of entries recorded in the end of
+   *     central directory as the correct value, not as an estimate
+   * @param memoryMapped read the file through a memory mapping; files too large to be mapped as a
+   *     single buffer are read through the file channel
+   * @throws ZipException if a ZIP format error has occurred
+   * @throws IOException if an I/O error has occurred
+   */
+  public ZipReader(File file, Charset charset, boolean strictEntries, boolean memoryMapped)
+      throws IOException {
     if (file == null || charset == null) {
       throw new NullPointerException();
     }
     this.file = file;
     this.in = new RandomAccessFile(file, "r");
+    this.mapped =
+        memoryMapped && in.length() <= Integer.MAX_VALUE
+            ? in.getChannel().map(MapMode.READ_ONLY, 0, in.length())
+            : null;
     this.zipData = new ZipFileData(charset);
     readCentralDirectory(strictEntries);
   }
@@ -172,6 +203,50 @@ public class ZipReader implements Closeable, AutoCloseable {
     return new ZipEntryInputStream(this, entry, /* raw */ true);
   }
 
+  /**
+   * Returns the raw contents of the specified ZIP file entry.
+   *
+   * <p>For a memory-mapped reader, the returned buffer is a read-only view of the mapping;
+   * otherwise the contents are read into a new heap buffer.
+   *
+   * @param entry the ZIP file entry
+   * @return a buffer positioned at the start of the entry data, with the compressed size remaining
+   * @throws ZipException if a ZIP format error has occurred
+   * @throws IOException if an I/O error has occurred
+   */
+  public ByteBuffer getRawBuffer(ZipFileEntry entry) throws IOException {
+    if (mapped == null) {
+      byte[] data = new byte[(int) entry.getCompressedSize()];
+      ZipUtil.readFully(getRawInputStream(entry), data);
+      return ByteBuffer.wrap(data);
+    }
+    if (!zipData.getEntry(entry.getName()).equals(entry)) {
+      throw new ZipException(String.format(
+          "Zip file '%s' does not contain the requested entry '%s'.", file.getName(),
+          entry.getName()));
+    }
+    byte[] fileHeader = new byte[LocalFileHeader.FIXED_DATA_SIZE];
+    ZipUtil.readFully(getStreamAt(entry.getLocalHeaderOffset()), fileHeader);
+    if (!ZipUtil.arrayStartsWith(fileHeader,
+        ZipUtil.intToLittleEndian(LocalFileHeader.SIGNATURE))) {
+      throw new ZipException(String.format("The file '%s' is not a correctly formatted zip file: "
+          + "Expected a File Header at file offset %d, but was not present.",
+          file.getName(), entry.getLocalHeaderOffset()));
+    }
+    long dataOffset = entry.getLocalHeaderOffset() + fileHeader.length
+        + ZipUtil.getUnsignedShort(fileHeader, LocalFileHeader.FILENAME_LENGTH_OFFSET)
+        + ZipUtil.getUnsignedShort(fileHeader, LocalFileHeader.EXTRA_FIELD_LENGTH_OFFSET);
+    if (dataOffset + entry.getCompressedSize() > mapped.capacity()) {
+      throw new ZipException(String.format(
+          "The data of entry '%s' extends past the end of zip file '%s'.", entry.getName(),
+          file.getName()));
+    }
+    ByteBuffer data = mapped.asReadOnlyBuffer();
+    data.position((int) dataOffset);
+    data.limit((int) (dataOffset + entry.getCompressedSize()));
+    return data.slice();
+  }
+
   /**
    * Closes the ZIP file.
    *
@@ -330,6 +405,46 @@ public class ZipReader implements Closeable, AutoCloseable {
    * @throws IOException if an I/O error has occurred
    */
   protected InputStream getStreamAt(long fileOffset) throws IOException {
+    if (mapped != null) {
+      ByteBuffer data = mapped.duplicate();
+      data.position((int) fileOffset);
+      return new ByteBufferInputStream(data);
+    }
     return new BufferedInputStream(Channels.newInputStream(in.getChannel().position(fileOffset)));
   }
+
+  /** An {@link InputStream} that reads the remaining bytes of a buffer. */
+  private static final class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override public int available() {
+      return buffer.remaining();
+    }
+
+    @Override public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      len = Math.min(len, buffer.remaining());
+      buffer.get(b, off, len);
+      return len;
+    }
+
+    @Override public long skip(long n) {
+      int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + skipped);
+      return skipped;
+    }
+  }
 }
@@ -0,0 +1,115 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.singlejar;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.singlejar.ZipCombiner.OutputMode;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures combining a synthetic set of jars with 10,000 entries in total, half of them stored and
+ * half deflated, in each {@link OutputMode} and with one or more threads.
+ */
+public class ZipCombinerBenchmark {
+  private static final int JARS = 10;
+  private static final int ENTRIES_PER_JAR = 1000;
+  private static final String[] WORDS = {
+    "java/lang/Object", "java/lang/String", "<init>", "Code", "LineNumberTable", "()V",
+    "com/google/devtools/build", "Ljava/util/List;", "StackMapTable", "SourceFile"
+  };
+
+  @Param OutputMode mode;
+
+  @Param({"1", "4"})
+  int threads;
+
+  private File dir;
+  private List<File> jars;
+
+  @BeforeExperiment
+  void setUp() throws IOException {
+    dir = Files.createTempDirectory("zip-combiner-benchmark").toFile();
+    jars = new ArrayList<>();
+    Random random = new Random(0);
+    for (int i = 0; i < JARS; i++) {
+      File jar = new File(dir, "lib" + i + ".jar");
+      try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+        for (int j = 0; j < ENTRIES_PER_JAR; j++) {
+          byte[] content = createContent(random);
+          ZipEntry entry = new ZipEntry("com/example/lib" + i + "/Class" + j + ".class");
+          if (j % 2 == 0) {
+            CRC32 crc = new CRC32();
+            crc.update(content);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(content.length);
+            entry.setCrc(crc.getValue());
+          }
+          out.putNextEntry(entry);
+          out.write(content);
+          out.closeEntry();
+        }
+      }
+      jars.add(jar);
+    }
+  }
+
+  /** Returns a few kilobytes of compressible content, like that of a class file. */
+  private static byte[] createContent(Random random) {
+    StringBuilder content = new StringBuilder();
+    int length = 1000 + random.nextInt(4000);
+    while (content.length() < length) {
+      content.append(WORDS[random.nextInt(WORDS.length)]).append((char) random.nextInt(32));
+    }
+    return content.toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  @AfterExperiment
+  void tearDown() {
+    for (File jar : jars) {
+      jar.delete();
+    }
+    dir.delete();
+  }
+
+  @Benchmark
+  int combine(int reps) throws IOException {
+    int size = 0;
+    for (int i = 0; i < reps; i++) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try (ZipCombiner combiner =
+          new ZipCombiner(mode, new CopyEntryFilter(), out, threads)) {
+        for (File jar : jars) {
+          combiner.addZip(jar);
+        }
+      }
+      size += out.size();
+    }
+    return size;
+  }
+}
@@ -797,4 +797,37 @@ public class ZipCombinerTest {
     assertThat(zipInput.getNextEntry()).isNull();
     new ZipTester(out.toByteArray()).validate();
   }
+
+  private byte[] combine(OutputMode mode, int threads, List<File> zips) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (ZipCombiner zipCombiner = new ZipCombiner(mode, new CopyEntryFilter(), out, threads)) {
+      zipCombiner.addDirectory("META-INF/", ZipCombiner.DOS_EPOCH);
+      zipCombiner.addFile("META-INF/MANIFEST.MF", ZipCombiner.DOS_EPOCH, asStream("Manifest!"));
+      for (File zip : zips) {
+        zipCombiner.addZip(zip);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  @Test
+  public void testParallelOutputIsSameAsSequential() throws IOException {
+    List<File> zips = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      ZipFactory factory = new ZipFactory();
+      for (int j = 0; j < 30; j++) {
+        StringBuilder content = new StringBuilder();
+        for (int k = 0; k < 100 * j; k++) {
+          content.append("Hello ").append(k % (i + j + 1)).append('!');
+        }
+        factory.addFile("dir" + i + "/hello" + j + ".txt", content.toString(), j % 2 == 0);
+      }
+      zips.add(writeInputStreamToFile(factory.toInputStream()));
+    }
+    for (OutputMode mode : OutputMode.values()) {
+      byte[] sequential = combine(mode, 1, zips);
+      byte[] parallel = combine(mode, 4, zips);
+      assertThat(parallel).isEqualTo(sequential);
+    }
+  }
 }
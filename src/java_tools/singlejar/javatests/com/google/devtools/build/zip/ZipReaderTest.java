@@ -28,6 +28,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -345,6 +346,53 @@ public class ZipReaderTest {
     }
   }
 
+  @Test public void testMemoryMappedFileData() throws IOException {
+    Deflater deflator = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try (ZipOutputStream zout = new ZipOutputStream(new FileOutputStream(test))) {
+      ZipEntry foo = new ZipEntry("foo");
+      foo.setMethod(ZipEntry.DEFLATED);
+      zout.putNextEntry(foo);
+      zout.write("foo".getBytes(UTF_8));
+      zout.closeEntry();
+
+      ZipEntry bar = new ZipEntry("bar");
+      bar.setMethod(ZipEntry.STORED);
+      bar.setSize("bar".length());
+      bar.setCompressedSize("bar".length());
+      CRC32 crc = new CRC32();
+      crc.update("bar".getBytes(UTF_8));
+      bar.setCrc(crc.getValue());
+      zout.putNextEntry(bar);
+      zout.write("bar".getBytes(UTF_8));
+      zout.closeEntry();
+    }
+
+    ByteBuffer fooRaw;
+    InputStream barIn;
+    try (ZipReader reader = new ZipReader(test, UTF_8, false, true)) {
+      ZipFileEntry fooEntry = reader.getEntry("foo");
+      assertThat(ByteStreams.toByteArray(reader.getInputStream(fooEntry)))
+          .isEqualTo("foo".getBytes(UTF_8));
+      fooRaw = reader.getRawBuffer(fooEntry);
+      assertThat(fooRaw.isReadOnly()).isTrue();
+      assertThat(fooRaw.remaining()).isEqualTo((int) fooEntry.getCompressedSize());
+
+      ZipFileEntry barEntry = reader.getEntry("bar");
+      barIn = reader.getRawInputStream(barEntry);
+      assertThat(reader.getRawBuffer(barEntry)).isEqualTo(ByteBuffer.wrap("bar".getBytes(UTF_8)));
+    }
+
+    // The mapping stays readable after the reader is closed.
+    byte[] fooData = new byte[fooRaw.remaining()];
+    fooRaw.get(fooData);
+    byte[] expectedFooData = new byte[fooData.length];
+    deflator.setInput("foo".getBytes(UTF_8));
+    deflator.finish();
+    deflator.deflate(expectedFooData);
+    assertThat(fooData).isEqualTo(expectedFooData);
+    assertThat(ByteStreams.toByteArray(barIn)).isEqualTo("bar".getBytes(UTF_8));
+  }
+
   @Test public void testSimultaneousReads() throws IOException {
     byte[] expectedFooData = "This is file foo. It contains a foo.".getBytes(UTF_8);
     byte[] expectedBarData = "This is a different file bar. It contains only a bar."
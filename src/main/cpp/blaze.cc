@@ -405,6 +405,16 @@ static vector<string> GetArgumentArray(
   } else {
     result.push_back("--noidle_server_tasks");
   }
+  if (globals->options->sharded_skyframe_graph) {
+    result.push_back("--experimental_sharded_skyframe_graph");
+  } else {
+    result.push_back("--noexperimental_sharded_skyframe_graph");
+  }
+  if (globals->options->mmap_action_cache) {
+    result.push_back("--experimental_mmap_action_cache");
+  } else {
+    result.push_back("--noexperimental_mmap_action_cache");
+  }
   if (globals->options->oom_more_eagerly) {
     result.push_back("--experimental_oom_more_eagerly");
   } else {
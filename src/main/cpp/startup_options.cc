@@ -96,6 +96,8 @@ StartupOptions::StartupOptions(const string &product_name,
       expand_configs_in_place(true),
       digest_function(),
       idle_server_tasks(true),
+      sharded_skyframe_graph(false),
+      mmap_action_cache(false),
       original_startup_options_(std::vector<RcStartupFlag>()),
 #if defined(__APPLE__)
       macos_qos_class(QOS_CLASS_DEFAULT),
@@ -136,7 +138,9 @@ StartupOptions::StartupOptions(const string &product_name,
   RegisterNullaryStartupFlag("client_debug");
   RegisterNullaryStartupFlag("deep_execroot");
   RegisterNullaryStartupFlag("expand_configs_in_place");
+  RegisterNullaryStartupFlag("experimental_mmap_action_cache");
   RegisterNullaryStartupFlag("experimental_oom_more_eagerly");
+  RegisterNullaryStartupFlag("experimental_sharded_skyframe_graph");
   RegisterNullaryStartupFlag("fatal_event_bus_exceptions");
   RegisterNullaryStartupFlag("host_jvm_debug");
   RegisterNullaryStartupFlag("idle_server_tasks");
@@ -337,6 +341,19 @@ blaze_exit_code::ExitCode StartupOptions::ProcessArg(
   } else if (GetNullaryOption(arg, "--noexperimental_oom_more_eagerly")) {
     oom_more_eagerly = false;
     option_sources["experimental_oom_more_eagerly"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_mmap_action_cache")) {
+    mmap_action_cache = true;
+    option_sources["experimental_mmap_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--noexperimental_mmap_action_cache")) {
+    mmap_action_cache = false;
+    option_sources["experimental_mmap_action_cache"] = rcfile;
+  } else if (GetNullaryOption(arg, "--experimental_sharded_skyframe_graph")) {
+    sharded_skyframe_graph = true;
+    option_sources["experimental_sharded_skyframe_graph"] = rcfile;
+  } else if (GetNullaryOption(arg,
+                              "--noexperimental_sharded_skyframe_graph")) {
+    sharded_skyframe_graph = false;
+    option_sources["experimental_sharded_skyframe_graph"] = rcfile;
   } else if ((value = GetUnaryOption(
                   arg, next_arg,
                   "--experimental_oom_more_eagerly_threshold")) != NULL) {
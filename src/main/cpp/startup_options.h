@@ -255,6 +255,13 @@ class StartupOptions {
 
   bool idle_server_tasks;
 
+  // If true, the server backs the Skyframe graph with one node map per
+  // SkyFunction.
+  bool sharded_skyframe_graph;
+
+  // If true, the server keeps the action cache in memory-mapped files.
+  bool mmap_action_cache;
+
   // The startup options as received from the user and rc files, tagged with
   // their origin. This is populated by ProcessArgs.
   std::vector<RcStartupFlag> original_startup_options_;
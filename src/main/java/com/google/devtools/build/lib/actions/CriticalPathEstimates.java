@@ -0,0 +1,127 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Durations of actions measured in earlier builds, and for each action an estimate of its remaining
+ * critical path: how long it takes from the start of the action until the longest chain of actions
+ * depending on it is done, assuming unlimited parallelism.
+ *
+ * <p>Actions are identified by the exec path of their primary output, which does not change when
+ * their inputs do, so estimates carry over to modified actions. After each build, the estimates of
+ * the actions of that build are merged in, and the estimates of the actions not seen for the most
+ * builds are dropped once there are more than {@link #MAX_ESTIMATES}.
+ */
+@ThreadSafe
+public final class CriticalPathEstimates {
+  private static final int MAX_ESTIMATES = 1 << 20;
+
+  private static final class Estimate {
+    private final long durationMillis;
+    private final long remainingMillis;
+    /** The number of the last merge that updated this estimate. */
+    private final int generation;
+
+    private Estimate(long durationMillis, long remainingMillis, int generation) {
+      this.durationMillis = durationMillis;
+      this.remainingMillis = remainingMillis;
+      this.generation = generation;
+    }
+  }
+
+  private final ConcurrentMap<PathFragment, Estimate> estimates = new ConcurrentHashMap<>();
+  private final int maxEstimates;
+  private volatile int generation;
+
+  public CriticalPathEstimates() {
+    this(MAX_ESTIMATES);
+  }
+
+  @VisibleForTesting
+  CriticalPathEstimates(int maxEstimates) {
+    this.maxEstimates = maxEstimates;
+  }
+
+  /**
+   * Returns the estimated remaining critical path of the given action in milliseconds, or 0 if the
+   * action was not seen before.
+   */
+  public long getRemainingMillis(ActionExecutionMetadata action) {
+    Estimate estimate = estimates.get(action.getPrimaryOutput().getExecPath());
+    return estimate == null ? 0 : estimate.remainingMillis;
+  }
+
+  /**
+   * Returns the duration of the action with the given primary output when it was last executed, or
+   * {@code defaultValue} if it was not seen before.
+   */
+  public long getDurationMillis(PathFragment primaryOutput, long defaultValue) {
+    Estimate estimate = estimates.get(primaryOutput);
+    return estimate == null ? defaultValue : estimate.durationMillis;
+  }
+
+  /** Records the duration and remaining critical path of the action with the given output. */
+  public void put(PathFragment primaryOutput, long durationMillis, long remainingMillis) {
+    estimates.put(primaryOutput, new Estimate(durationMillis, remainingMillis, generation));
+  }
+
+  public int size() {
+    return estimates.size();
+  }
+
+  public synchronized void clear() {
+    estimates.clear();
+    generation = 0;
+  }
+
+  /**
+   * Adds the estimates of {@code other} to these, replacing those of the same actions. If there are
+   * more than the maximum number of estimates afterwards, the estimates that were last updated by
+   * the earliest merges are dropped.
+   */
+  public synchronized void mergeFrom(CriticalPathEstimates other) {
+    generation++;
+    for (Map.Entry<PathFragment, Estimate> entry : other.estimates.entrySet()) {
+      Estimate estimate = entry.getValue();
+      estimates.put(
+          entry.getKey(),
+          new Estimate(estimate.durationMillis, estimate.remainingMillis, generation));
+    }
+    int excess = estimates.size() - maxEstimates;
+    if (excess <= 0) {
+      return;
+    }
+    int[] generations = new int[estimates.size()];
+    int i = 0;
+    for (Estimate estimate : estimates.values()) {
+      generations[i++] = estimate.generation;
+    }
+    Arrays.sort(generations, 0, i);
+    // Drop whole generations, so that the estimates of one build are kept or dropped together, but
+    // never those of the latest build.
+    int oldestKept = generations[Math.min(excess, i - 1)];
+    estimates.values().removeIf(estimate -> estimate.generation < oldestKept);
+    if (estimates.size() > maxEstimates && oldestKept != generation) {
+      estimates.values().removeIf(estimate -> estimate.generation == oldestKept);
+    }
+  }
+}
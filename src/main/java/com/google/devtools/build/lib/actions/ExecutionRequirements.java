@@ -147,6 +147,12 @@ public class ExecutionRequirements {
   public static final ImmutableMap<String, String> WORKER_MODE_ENABLED =
       ImmutableMap.of(SUPPORTS_WORKERS, "1");
 
+  /**
+   * If a persistent worker of an action can handle several requests concurrently, matching
+   * responses to requests by their request id.
+   */
+  public static final String SUPPORTS_MULTIPLEX_WORKERS = "supports-multiplex-workers";
+
   /**
    * Requires local execution without sandboxing for a spawn.
    *
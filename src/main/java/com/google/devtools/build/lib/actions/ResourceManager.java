@@ -23,12 +23,13 @@ import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.unix.ProcMeminfoParser;
 import com.google.devtools.build.lib.util.OS;
-import com.google.devtools.build.lib.util.Pair;
 import java.io.IOException;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Used to keep track of resources consumed by the Blaze action execution threads and throttle them
@@ -57,6 +58,17 @@ import java.util.concurrent.CountDownLatch;
  * guarantees that at least one thread will always be able to acquire any amount of requested
  * resources (even if it is greater than amount of available resources). Therefore, assuming that
  * threads correctly release acquired resources, Blaze will never be fully blocked.
+ *
+ * <p>Threads that have to wait are served in the order in which they arrived, unless scheduling
+ * by critical path is enabled with {@link #setPrioritizeByCriticalPath}. Then the threads whose
+ * actions have the longest estimated remaining critical path according to {@link
+ * #getCriticalPathEstimates} are served first.
+ *
+ * <p>The resources in use are an immutable snapshot that is updated with compare-and-set, so
+ * threads acquire and release resources without taking a lock as long as nobody waits. Only
+ * threads that have to wait, and releases while threads are waiting, take the lock guarding the
+ * waiting threads. While threads are waiting, new requests wait as well, and released resources
+ * are handed to the waiting threads under the lock, so that no other thread can take them first.
  */
 @ThreadSafe
 public class ResourceManager {
@@ -117,39 +129,106 @@ public class ResourceManager {
   private static final double MIN_NECESSARY_CPU_RATIO = 0.6;
   private static final double MIN_NECESSARY_RAM_RATIO = 1.0;
 
-  // List of blocked threads. Associated CountDownLatch object will always
-  // be initialized to 1 during creation in the acquire() method.
-  private final List<Pair<ResourceSet, CountDownLatch>> requestList;
+  /** A blocked thread. */
+  private static final class Request {
+    private final ResourceSet resources;
+    private final long priority;
+    private final long sequenceNumber;
+    private final CountDownLatch latch = new CountDownLatch(1);
+
+    private Request(ResourceSet resources, long priority, long sequenceNumber) {
+      this.resources = resources;
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+  }
 
-  // The total amount of resources on the local host. Must be set by
-  // an explicit call to setAvailableResources(), often using
-  // LocalHostCapacity.getLocalHostCapacity() as an argument.
-  private ResourceSet staticResources = null;
+  /** Serves requests with a higher priority first, and requests of equal priority in order. */
+  private static final Comparator<Request> REQUEST_ORDER =
+      Comparator.comparingLong((Request r) -> -r.priority)
+          .thenComparingLong(r -> r.sequenceNumber);
+
+  /** The amount of each resource in use. */
+  private static final class Usage {
+    private static final Usage NONE = new Usage(0, 0, 0);
+
+    // Used amount of CPU capacity (where 1.0 corresponds to the one fully
+    // occupied CPU core. Corresponds to the CPU resource definition in the
+    // ResourceSet class.
+    private final double cpu;
+
+    // Used amount of RAM capacity in MB. Corresponds to the RAM resource
+    // definition in the ResourceSet class.
+    private final double ram;
+
+    // Used local test count. Corresponds to the local test count definition in the ResourceSet
+    // class.
+    private final int localTestCount;
+
+    private Usage(double cpu, double ram, int localTestCount) {
+      this.cpu = cpu;
+      this.ram = ram;
+      this.localTestCount = localTestCount;
+    }
+
+    private boolean isZero() {
+      return cpu == 0.0 && ram == 0.0 && localTestCount == 0;
+    }
+
+    private Usage plus(ResourceSet resources) {
+      return new Usage(
+          cpu + resources.getCpuUsage(),
+          ram + resources.getMemoryMb(),
+          localTestCount + resources.getLocalTestCount());
+    }
+
+    private Usage minus(ResourceSet resources) {
+      double newCpu = cpu - resources.getCpuUsage();
+      double newRam = ram - resources.getMemoryMb();
+      // TODO(bazel-team): (2010) rounding error can accumulate and value below can end up being
+      // e.g. 1E-15. So if it is small enough, we set it to 0. But maybe there is a better solution.
+      double epsilon = 0.0001;
+      if (newCpu < epsilon) {
+        newCpu = 0;
+      }
+      if (newRam < epsilon) {
+        newRam = 0;
+      }
+      return new Usage(newCpu, newRam, localTestCount - resources.getLocalTestCount());
+    }
+  }
+
+  private final AtomicReference<Usage> usage = new AtomicReference<>(Usage.NONE);
+
+  /** Guards {@link #requestList} and {@link #requestCount}. */
+  private final Object waitingLock = new Object();
+
+  // Blocked threads, in the order in which they are served.
+  private final NavigableSet<Request> requestList = new TreeSet<>(REQUEST_ORDER);
+
+  private long requestCount;
 
-  @VisibleForTesting public ResourceSet availableResources = null;
+  /** The size of {@link #requestList}, readable without holding {@link #waitingLock}. */
+  private volatile int waitCount;
 
-  // Used amount of CPU capacity (where 1.0 corresponds to the one fully
-  // occupied CPU core. Corresponds to the CPU resource definition in the
-  // ResourceSet class.
-  private double usedCpu;
+  private final CriticalPathEstimates criticalPathEstimates = new CriticalPathEstimates();
+  private volatile boolean prioritizeByCriticalPath = false;
 
-  // Used amount of RAM capacity in MB. Corresponds to the RAM resource
-  // definition in the ResourceSet class.
-  private double usedRam;
+  // The total amount of resources on the local host. Must be set by
+  // an explicit call to setAvailableResources(), often using
+  // LocalHostCapacity.getLocalHostCapacity() as an argument.
+  private volatile ResourceSet staticResources = null;
 
-  // Used local test count. Corresponds to the local test count definition in the ResourceSet class.
-  private int usedLocalTestCount;
+  @VisibleForTesting public volatile ResourceSet availableResources = null;
 
   // Specifies how much of the RAM in staticResources we should allow to be used.
   public static final int DEFAULT_RAM_UTILIZATION_PERCENTAGE = 67;
-  private int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
+  private volatile int ramUtilizationPercentage = DEFAULT_RAM_UTILIZATION_PERCENTAGE;
 
   // Determines if local memory estimates are used.
-  private boolean localMemoryEstimate = false;
+  private volatile boolean localMemoryEstimate = false;
 
-  private ResourceManager() {
-    requestList = new LinkedList<>();
-  }
+  private ResourceManager() {}
 
   @VisibleForTesting public static ResourceManager instanceForTestingOnly() {
     return new ResourceManager();
@@ -159,35 +238,38 @@ public class ResourceManager {
    * Resets resource manager state and releases all thread locks.
    * Note - it does not reset available resources. Use separate call to setAvailableResources().
    */
-  public synchronized void resetResourceUsage() {
-    usedCpu = 0;
-    usedRam = 0;
-    usedLocalTestCount = 0;
-    for (Pair<ResourceSet, CountDownLatch> request : requestList) {
-      // CountDownLatch can be set only to 0 or 1.
-      request.second.countDown();
+  public void resetResourceUsage() {
+    usage.set(Usage.NONE);
+    synchronized (waitingLock) {
+      for (Request request : requestList) {
+        // CountDownLatch can be set only to 0 or 1.
+        request.latch.countDown();
+      }
+      requestList.clear();
+      waitCount = 0;
     }
-    requestList.clear();
   }
 
   /**
    * Sets available resources using given resource set. Must be called
    * at least once before using resource manager.
    */
-  public synchronized void setAvailableResources(ResourceSet resources) {
+  public void setAvailableResources(ResourceSet resources) {
     Preconditions.checkNotNull(resources);
-    staticResources = resources;
-    availableResources = ResourceSet.create(
-        staticResources.getMemoryMb() * this.ramUtilizationPercentage / 100.0,
-        staticResources.getCpuUsage(),
-        staticResources.getLocalTestCount());
-    processWaitingThreads();
+    synchronized (waitingLock) {
+      staticResources = resources;
+      availableResources = ResourceSet.create(
+          staticResources.getMemoryMb() * this.ramUtilizationPercentage / 100.0,
+          staticResources.getCpuUsage(),
+          staticResources.getLocalTestCount());
+      processWaitingThreads();
+    }
   }
 
   /**
    * Specify how much of the available RAM we should allow to be used.
    */
-  public synchronized void setRamUtilizationPercentage(int percentage) {
+  public void setRamUtilizationPercentage(int percentage) {
     ramUtilizationPercentage = percentage;
   }
 
@@ -199,6 +281,22 @@ public class ResourceManager {
     localMemoryEstimate = value;
   }
 
+  /**
+   * Returns the estimates of the remaining critical path of actions, which are kept for the
+   * lifetime of the server and updated after each build.
+   */
+  public CriticalPathEstimates getCriticalPathEstimates() {
+    return criticalPathEstimates;
+  }
+
+  /**
+   * If set to true, waiting threads are served in the order of the estimated remaining critical
+   * path of their actions, rather than in the order in which they arrived.
+   */
+  public void setPrioritizeByCriticalPath(boolean value) {
+    prioritizeByCriticalPath = value;
+  }
+
   /**
    * Acquires requested resource set. Will block if resource is not available.
    * NB! This method must be thread-safe!
@@ -213,13 +311,13 @@ public class ResourceManager {
     AutoProfiler p = profiled(owner.describe(), ProfilerTask.ACTION_LOCK);
     CountDownLatch latch = null;
     try {
-      latch = acquire(resources);
+      latch = acquire(owner, resources);
       if (latch != null) {
         latch.await();
       }
     } catch (InterruptedException e) {
-      // Synchronize on this to avoid any racing with #processWaitingThreads
-      synchronized (this) {
+      // Synchronize to avoid any racing with #processWaitingThreads
+      synchronized (waitingLock) {
         if (latch.getCount() == 0) {
           // Resources already acquired by other side. Release them, but not inside this
           // synchronized block to avoid deadlock.
@@ -254,16 +352,7 @@ public class ResourceManager {
     Preconditions.checkState(
         !threadHasResources(), "tryAcquire with existing resource lock during %s", owner);
 
-    boolean acquired = false;
-
-    synchronized (this) {
-      if (areResourcesAvailable(resources)) {
-        incrementResources(resources);
-        acquired = true;
-      }
-    }
-
-    if (acquired) {
+    if (tryIncrementResources(resources, getFreeRamEstimate())) {
       threadLocked.set(resources != ResourceSet.ZERO);
       return new ResourceHandle(this, owner, resources);
     }
@@ -271,17 +360,29 @@ public class ResourceManager {
     return null;
   }
 
-  private void incrementResources(ResourceSet resources) {
-    usedCpu += resources.getCpuUsage();
-    usedRam += resources.getMemoryMb();
-    usedLocalTestCount += resources.getLocalTestCount();
+  /**
+   * Marks the given resources as used if they are available.
+   *
+   * @param freeRamEstimate the result of {@link #getFreeRamEstimate}
+   * @return whether the resources were available
+   */
+  private boolean tryIncrementResources(ResourceSet resources, double freeRamEstimate) {
+    while (true) {
+      Usage current = usage.get();
+      if (!areResourcesAvailable(resources, current, getRemainingRam(current, freeRamEstimate))) {
+        return false;
+      }
+      if (usage.compareAndSet(current, current.plus(resources))) {
+        return true;
+      }
+    }
   }
 
   /**
    * Return true if any resources have been claimed through this manager.
    */
-  public synchronized boolean inUse() {
-    return usedCpu != 0.0 || usedRam != 0.0 || usedLocalTestCount != 0 || !requestList.isEmpty();
+  public boolean inUse() {
+    return !usage.get().isZero() || waitCount != 0;
   }
 
 
@@ -318,49 +419,68 @@ public class ResourceManager {
     }
   }
 
-  private synchronized CountDownLatch acquire(ResourceSet resources) {
-    if (areResourcesAvailable(resources)) {
-      incrementResources(resources);
+  private CountDownLatch acquire(ActionExecutionMetadata owner, ResourceSet resources) {
+    // Only take resources without waiting if nobody else is, so that waiting threads are served in
+    // order.
+    if (waitCount == 0 && tryIncrementResources(resources, getFreeRamEstimate())) {
       return null;
     }
-    Pair<ResourceSet, CountDownLatch> request =
-      new Pair<>(resources, new CountDownLatch(1));
-    requestList.add(request);
-    return request.second;
+    long priority = prioritizeByCriticalPath ? criticalPathEstimates.getRemainingMillis(owner) : 0;
+    synchronized (waitingLock) {
+      Request request = new Request(resources, priority, requestCount++);
+      requestList.add(request);
+      waitCount = requestList.size();
+      // Resources may have been released since they were found to be unavailable, by a thread
+      // that did not see this request yet.
+      processWaitingThreads();
+      return request.latch;
+    }
   }
 
-  private synchronized boolean release(ResourceSet resources) {
-    usedCpu -= resources.getCpuUsage();
-    usedRam -= resources.getMemoryMb();
-    usedLocalTestCount -= resources.getLocalTestCount();
-
-    // TODO(bazel-team): (2010) rounding error can accumulate and value below can end up being
-    // e.g. 1E-15. So if it is small enough, we set it to 0. But maybe there is a better solution.
-    double epsilon = 0.0001;
-    if (usedCpu < epsilon) {
-      usedCpu = 0;
-    }
-    if (usedRam < epsilon) {
-      usedRam = 0;
+  private boolean release(ResourceSet resources) {
+    if (waitCount != 0) {
+      // Hand the resources to the waiting threads before anyone else can take them.
+      synchronized (waitingLock) {
+        decrementResources(resources);
+        processWaitingThreads();
+      }
+      return true;
     }
-    if (!requestList.isEmpty()) {
-      processWaitingThreads();
+    decrementResources(resources);
+    if (waitCount != 0) {
+      // A thread started waiting before the resources were released.
+      synchronized (waitingLock) {
+        processWaitingThreads();
+      }
       return true;
     }
     return false;
   }
 
+  private void decrementResources(ResourceSet resources) {
+    Usage current;
+    do {
+      current = usage.get();
+    } while (!usage.compareAndSet(current, current.minus(resources)));
+  }
+
   /**
-   * Tries to unblock one or more waiting threads if there are sufficient resources available.
+   * Tries to unblock one or more waiting threads if there are sufficient resources available. Must
+   * be called while holding {@link #waitingLock}.
    */
-  private synchronized void processWaitingThreads() {
-    Iterator<Pair<ResourceSet, CountDownLatch>> iterator = requestList.iterator();
+  private void processWaitingThreads() {
+    if (requestList.isEmpty()) {
+      return;
+    }
+    double freeRamEstimate = getFreeRamEstimate();
+    Iterator<Request> iterator = requestList.iterator();
     while (iterator.hasNext()) {
-      Pair<ResourceSet, CountDownLatch> request = iterator.next();
-      if (request.second.getCount() != 0) {
-        if (areResourcesAvailable(request.first)) {
-          incrementResources(request.first);
-          request.second.countDown();
+      Request request = iterator.next();
+      if (request.latch.getCount() != 0) {
+        if (tryIncrementResources(request.resources, freeRamEstimate)) {
+          // The estimate of free RAM does not reflect the resources granted in this pass.
+          freeRamEstimate -= request.resources.getMemoryMb();
+          request.latch.countDown();
           iterator.remove();
         }
       } else {
@@ -368,38 +488,33 @@ public class ResourceManager {
         iterator.remove();
       }
     }
+    waitCount = requestList.size();
   }
 
-  // Method will return true if all requested resources are considered to be available.
-  private boolean areResourcesAvailable(ResourceSet resources) {
+  /**
+   * Returns the amount of RAM in MB that can still be used, given the resources in use and the
+   * result of {@link #getFreeRamEstimate}.
+   */
+  private double getRemainingRam(Usage current, double freeRamEstimate) {
     Preconditions.checkNotNull(availableResources);
-    // Comparison below is robust, since any calculation errors will be fixed
-    // by the release() method.
-    if (usedCpu == 0.0 && usedRam == 0.0 && usedLocalTestCount == 0) {
-      return true;
-    }
-    // Use only MIN_NECESSARY_???_RATIO of the resource value to check for
-    // allocation. This is necessary to account for the fact that most of the
-    // requested resource sets use pessimistic estimations. Note that this
-    // ratio is used only during comparison - for tracking we will actually
-    // mark whole requested amount as used.
-    double cpu = resources.getCpuUsage() * MIN_NECESSARY_CPU_RATIO;
-    double ram = resources.getMemoryMb() * MIN_NECESSARY_RAM_RATIO;
-    int localTestCount = resources.getLocalTestCount();
-
-    double availableCpu = availableResources.getCpuUsage();
-    double availableRam = availableResources.getMemoryMb();
-    int availableLocalTestCount = availableResources.getLocalTestCount();
-
-    double remainingRam = availableRam - usedRam;
+    return Double.isNaN(freeRamEstimate)
+        ? availableResources.getMemoryMb() - current.ram
+        : freeRamEstimate;
+  }
 
+  /**
+   * Returns the amount of free RAM in MB according to /proc/meminfo minus the reserve for other
+   * processes, or NaN if local memory estimates are disabled or unavailable. Reading /proc/meminfo
+   * is expensive, so this is called once per acquisition or pass over the waiting threads.
+   */
+  private double getFreeRamEstimate() {
     if (localMemoryEstimate && OS.getCurrent() == OS.LINUX) {
       try {
         ProcMeminfoParser memInfo = new ProcMeminfoParser();
         double totalFreeRam = memInfo.getFreeRamKb() / 1024;
         double reserveMemory =
             staticResources.getMemoryMb() * (100.0 - this.ramUtilizationPercentage) / 100.0;
-        remainingRam = totalFreeRam - reserveMemory;
+        return totalFreeRam - reserveMemory;
       } catch (IOException e) {
         // If we get an error trying to determine the currently free
         // system memory for any reason, just continue on.  It is not
@@ -408,13 +523,39 @@ public class ResourceManager {
         // misconfiguration such as not having permissions to read
         // /proc/meminfo.
         //
-        // remainingRam is initialized to a value that results in
-        // behavior as if localMemoryEstimate was disabled.
+        // Returning NaN results in behavior as if localMemoryEstimate
+        // was disabled.
       } catch (ProcMeminfoParser.KeywordNotFoundException e) {
         // Similarly fall back to the non-localMemoryEstimate
         // behavior.
       }
     }
+    return Double.NaN;
+  }
+
+  // Method will return true if all requested resources are considered to be available.
+  private boolean areResourcesAvailable(
+      ResourceSet resources, Usage current, double remainingRam) {
+    Preconditions.checkNotNull(availableResources);
+    // Comparison below is robust, since any calculation errors will be fixed
+    // by the release() method.
+    if (current.isZero()) {
+      return true;
+    }
+    double usedCpu = current.cpu;
+    double usedRam = current.ram;
+    int usedLocalTestCount = current.localTestCount;
+    // Use only MIN_NECESSARY_???_RATIO of the resource value to check for
+    // allocation. This is necessary to account for the fact that most of the
+    // requested resource sets use pessimistic estimations. Note that this
+    // ratio is used only during comparison - for tracking we will actually
+    // mark whole requested amount as used.
+    double cpu = resources.getCpuUsage() * MIN_NECESSARY_CPU_RATIO;
+    double ram = resources.getMemoryMb() * MIN_NECESSARY_RAM_RATIO;
+    int localTestCount = resources.getLocalTestCount();
+
+    double availableCpu = availableResources.getCpuUsage();
+    int availableLocalTestCount = availableResources.getLocalTestCount();
 
     // Resources are considered available if any one of the conditions below is true:
     // 1) If resource is not requested at all, it is available.
@@ -431,12 +572,18 @@ public class ResourceManager {
   }
 
   @VisibleForTesting
-  synchronized int getWaitCount() {
-    return requestList.size();
+  int getWaitCount() {
+    synchronized (waitingLock) {
+      return requestList.size();
+    }
   }
 
   @VisibleForTesting
-  synchronized boolean isAvailable(double ram, double cpu, int localTestCount) {
-    return areResourcesAvailable(ResourceSet.create(ram, cpu, localTestCount));
+  boolean isAvailable(double ram, double cpu, int localTestCount) {
+    Usage current = usage.get();
+    return areResourcesAvailable(
+        ResourceSet.create(ram, cpu, localTestCount),
+        current,
+        getRemainingRam(current, getFreeRamEstimate()));
   }
 }
@@ -17,15 +17,18 @@ import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.devtools.build.lib.actions.cache.Protos.ActionCacheStatistics;
 import com.google.devtools.build.lib.actions.cache.Protos.ActionCacheStatistics.MissReason;
 import com.google.devtools.build.lib.clock.Clock;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.util.CompactStringIndexer;
+import com.google.devtools.build.lib.util.MappedPersistentMap;
 import com.google.devtools.build.lib.util.PersistentMap;
 import com.google.devtools.build.lib.util.StringIndexer;
 import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 import java.io.ByteArrayOutputStream;
@@ -39,6 +42,8 @@ import java.util.Collection;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
@@ -48,6 +53,11 @@ import java.util.logging.Logger;
  * {@link CompactStringIndexer} to reduce memory footprint and saves
  * cached actions using the {@link PersistentMap}.
  *
+ * <p>Alternatively, cached actions and the file name index can be stored in
+ * {@link MappedPersistentMap}s, which keep them off-heap in memory-mapped,
+ * append-only files. This avoids reading the whole cache into the heap on
+ * startup and rewriting it on every save.
+ *
  * <p>This cache is not fully correct: as hashes are xor'd together, a permutation of input
  * file contents will erroneously be considered up to date.
  */
@@ -71,7 +81,37 @@ public class CompactPersistentActionCache implements ActionCache {
   private static final Logger logger =
       Logger.getLogger(CompactPersistentActionCache.class.getName());
 
-  private final class ActionMap extends PersistentMap<Integer, byte[]> {
+  /** Compacts the memory-mapped files of all caches in the background. */
+  private static final Executor compactionExecutor =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("action-cache-compaction")
+              .setDaemon(true)
+              .setPriority(Thread.MIN_PRIORITY)
+              .build());
+
+  /** Storage for the encoded cache entries, keyed by the index of the action key. */
+  private interface ActionStore extends Map<Integer, byte[]> {
+    /** Writes pending updates to disk and returns the size of the stored data. */
+    long save() throws IOException;
+
+    /** Releases the files held open by the store, if any. */
+    default void close() throws IOException {}
+  }
+
+  /** A {@link StringIndexer} that can be saved to disk. */
+  interface PersistentIndexer extends StringIndexer {
+    /** Writes the index to disk and returns the size of the stored data. */
+    long save() throws IOException;
+
+    /** Writes pending updates to disk if the storage supports it. */
+    void flush();
+
+    /** Releases the files held open by the index, if any. */
+    default void close() throws IOException {}
+  }
+
+  private final class ActionMap extends PersistentMap<Integer, byte[]> implements ActionStore {
     private final Clock clock;
     private long nextUpdateSecs;
 
@@ -155,30 +195,72 @@ public class CompactPersistentActionCache implements ActionCache {
     }
   }
 
-  private final PersistentMap<Integer, byte[]> map;
-  private final PersistentStringIndexer indexer;
+  private final class MappedActionMap extends MappedPersistentMap implements ActionStore {
+    private final Clock clock;
+    private long nextUpdateSecs;
+
+    public MappedActionMap(Clock clock, Path file) throws IOException {
+      super(VERSION, file, compactionExecutor);
+      this.clock = clock;
+      nextUpdateSecs = TimeUnit.NANOSECONDS.toSeconds(clock.nanoTime()) + SAVE_INTERVAL_SECONDS;
+    }
+
+    @Override
+    protected boolean shouldFlush() {
+      long timeSecs = TimeUnit.NANOSECONDS.toSeconds(clock.nanoTime());
+      if (SAVE_INTERVAL_SECONDS == 0 || timeSecs > nextUpdateSecs) {
+        nextUpdateSecs = timeSecs + SAVE_INTERVAL_SECONDS;
+        // As with the journal, filename index data must reach the disk before action cache data.
+        indexer.flush();
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private final ActionStore map;
+  private final PersistentIndexer indexer;
 
   private final AtomicInteger hits = new AtomicInteger();
   private final Map<MissReason, AtomicInteger> misses = new EnumMap<>(MissReason.class);
 
   public CompactPersistentActionCache(Path cacheRoot, Clock clock) throws IOException {
-    Path cacheFile = cacheFile(cacheRoot);
-    Path journalFile = journalFile(cacheRoot);
-    Path indexFile = cacheRoot.getChild("filename_index_v" + VERSION + ".blaze");
-    // we can now use normal hash map as backing map, since dependency checker
-    // will manually purge records from the action cache.
-    Map<Integer, byte[]> backingMap = new HashMap<>();
+    this(cacheRoot, clock, /*useMappedStorage=*/ false);
+  }
+
+  /**
+   * Loads the action cache stored in {@code cacheRoot}.
+   *
+   * @param useMappedStorage whether to store the cache in memory-mapped, append-only files rather
+   *     than in heap maps backed by a journal. The two formats use different files, and the files
+   *     of the other format are deleted.
+   */
+  public CompactPersistentActionCache(Path cacheRoot, Clock clock, boolean useMappedStorage)
+      throws IOException {
+    Path indexFile = useMappedStorage ? mappedIndexFile(cacheRoot) : indexFile(cacheRoot);
 
     try {
-      indexer = PersistentStringIndexer.newPersistentStringIndexer(indexFile, clock);
+      deleteFilesOfOtherFormat(cacheRoot, useMappedStorage);
+      indexer =
+          useMappedStorage
+              ? MappedStringIndexer.newMappedStringIndexer(indexFile, clock, compactionExecutor)
+              : PersistentStringIndexer.newPersistentStringIndexer(indexFile, clock);
     } catch (IOException e) {
       renameCorruptedFiles(cacheRoot);
       throw new IOException("Failed to load filename index data", e);
     }
 
     try {
-      map = new ActionMap(backingMap, clock, cacheFile, journalFile);
+      if (useMappedStorage) {
+        map = new MappedActionMap(clock, mappedCacheFile(cacheRoot));
+      } else {
+        // we can now use normal hash map as backing map, since dependency checker
+        // will manually purge records from the action cache.
+        Map<Integer, byte[]> backingMap = new HashMap<>();
+        map = new ActionMap(backingMap, clock, cacheFile(cacheRoot), journalFile(cacheRoot));
+      }
     } catch (IOException e) {
+      closeQuietly(indexer);
       renameCorruptedFiles(cacheRoot);
       throw new IOException("Failed to load action cache data", e);
     }
@@ -187,6 +269,8 @@ public class CompactPersistentActionCache implements ActionCache {
     if (!map.isEmpty()) {
       String integrityError = validateIntegrity(indexer.size(), map.get(VALIDATION_KEY));
       if (integrityError != null) {
+        closeQuietly(indexer);
+        closeQuietly(map);
         renameCorruptedFiles(cacheRoot);
         throw new IOException("Failed action cache referential integrity check: " + integrityError);
       }
@@ -202,6 +286,22 @@ public class CompactPersistentActionCache implements ActionCache {
     }
   }
 
+  private static void closeQuietly(PersistentIndexer indexer) {
+    try {
+      indexer.close();
+    } catch (IOException e) {
+      // The files are renamed away anyway.
+    }
+  }
+
+  private static void closeQuietly(ActionStore map) {
+    try {
+      map.close();
+    } catch (IOException e) {
+      // The files are renamed away anyway.
+    }
+  }
+
   /**
    * Rename corrupted files so they could be analyzed later. This would also ensure
    * that next initialization attempt will create empty cache.
@@ -245,6 +345,23 @@ public class CompactPersistentActionCache implements ActionCache {
     }
   }
 
+  /**
+   * Deletes the files of the storage format that is not in use, so that they don't go stale and
+   * waste disk space.
+   */
+  private static void deleteFilesOfOtherFormat(Path cacheRoot, boolean useMappedStorage)
+      throws IOException {
+    if (useMappedStorage) {
+      cacheFile(cacheRoot).delete();
+      journalFile(cacheRoot).delete();
+      indexFile(cacheRoot).delete();
+      FileSystemUtils.replaceExtension(indexFile(cacheRoot), ".journal").delete();
+    } else {
+      mappedCacheFile(cacheRoot).delete();
+      mappedIndexFile(cacheRoot).delete();
+    }
+  }
+
   public static Path cacheFile(Path cacheRoot) {
     return cacheRoot.getChild("action_cache_v" + VERSION + ".blaze");
   }
@@ -253,6 +370,19 @@ public class CompactPersistentActionCache implements ActionCache {
     return cacheRoot.getChild("action_journal_v" + VERSION + ".blaze");
   }
 
+  private static Path indexFile(Path cacheRoot) {
+    return cacheRoot.getChild("filename_index_v" + VERSION + ".blaze");
+  }
+
+  /** Returns the file holding the cache entries if memory-mapped storage is used. */
+  public static Path mappedCacheFile(Path cacheRoot) {
+    return cacheRoot.getChild("action_log_v" + VERSION + ".blaze");
+  }
+
+  private static Path mappedIndexFile(Path cacheRoot) {
+    return cacheRoot.getChild("filename_log_v" + VERSION + ".blaze");
+  }
+
   @Override
   public ActionCache.Entry get(String key) {
     int index = indexer.getIndex(key);
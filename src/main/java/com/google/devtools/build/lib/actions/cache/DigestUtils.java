@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.util.Fingerprint;
 import com.google.devtools.build.lib.util.VarInt;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
@@ -33,6 +34,7 @@ import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
 
 /**
  * Utility class for getting md5 digests of files.
@@ -41,7 +43,8 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * costly (i.e. when {@link Path#getFastDigest()} is not available). The cache can be enabled via
  * the {@link #configureCache(long)} function, but note that enabling this cache might have an
  * impact on correctness because not all changes to files can be purely detected from their
- * metadata.
+ * metadata. The digests can also be kept on disk across server restarts, see {@link
+ * #configurePersistentCache}.
  *
  * <p>Note that this class is responsible for digesting file metadata in an order-independent
  * manner. Care must be taken to do this properly. The digest must be a function of the set of
@@ -75,18 +78,21 @@ public class DigestUtils {
    * <p>The cache keys are derived from many properties of the file metadata in an attempt to be
    * able to detect most file changes.
    */
-  private static class CacheKey {
+  static final class CacheKey {
     /** Path to the file. */
-    private final PathFragment path;
+    final PathFragment path;
 
     /** File system identifier of the file (typically the inode number). */
-    private final long nodeId;
+    final long nodeId;
 
     /** Last modification time of the file. */
-    private final long modifiedTime;
+    final long modifiedTime;
+
+    /** Last change time of the file, which also covers changes of its metadata. */
+    final long changeTime;
 
     /** Size of the file. */
-    private final long size;
+    final long size;
 
     /**
      * Constructs a new cache key.
@@ -96,10 +102,20 @@ public class DigestUtils {
      * @throws IOException if reading the file status data fails
      */
     public CacheKey(Path path, FileStatus status) throws IOException {
-      this.path = path.asFragment();
-      this.nodeId = status.getNodeId();
-      this.modifiedTime = status.getLastModifiedTime();
-      this.size = status.getSize();
+      this(
+          path.asFragment(),
+          status.getNodeId(),
+          status.getLastModifiedTime(),
+          status.getLastChangeTime(),
+          status.getSize());
+    }
+
+    CacheKey(PathFragment path, long nodeId, long modifiedTime, long changeTime, long size) {
+      this.path = path;
+      this.nodeId = nodeId;
+      this.modifiedTime = modifiedTime;
+      this.changeTime = changeTime;
+      this.size = size;
     }
 
     @Override
@@ -113,6 +129,7 @@ public class DigestUtils {
         return path.equals(key.path)
             && nodeId == key.nodeId
             && modifiedTime == key.modifiedTime
+            && changeTime == key.changeTime
             && size == key.size;
       }
     }
@@ -123,6 +140,7 @@ public class DigestUtils {
       result = 31 * result + path.hashCode();
       result = 31 * result + Longs.hashCode(nodeId);
       result = 31 * result + Longs.hashCode(modifiedTime);
+      result = 31 * result + Longs.hashCode(changeTime);
       result = 31 * result + Longs.hashCode(size);
       return result;
     }
@@ -139,6 +157,13 @@ public class DigestUtils {
    */
   private static Cache<CacheKey, byte[]> globalCache = null;
 
+  /**
+   * On-disk cache of file digests, consulted when the global cache misses.
+   *
+   * <p>This is null when the persistent cache is disabled.
+   */
+  private static PersistentDigestCache persistentCache = null;
+
   /** Private constructor to prevent instantiation of utility class. */
   private DigestUtils() {}
 
@@ -204,6 +229,49 @@ public class DigestUtils {
     return cache.stats();
   }
 
+  /**
+   * Enables the persistent caching of file digests in the given file, which keeps file digests across
+   * server restarts. This has the same impact on correctness as {@link #configureCache(long)}.
+   *
+   * <p>Any previously configured persistent cache is flushed first. The file is read lazily, when the
+   * first digest is looked up. If the given file is null, the persistent cache is disabled.
+   *
+   * @param file the file to keep the cache in
+   * @param hashFunction the digest function of the file system; cached digests of another function
+   *     are discarded
+   * @param maximumSize maximum number of files whose digests are kept
+   * @throws IOException if flushing the previous persistent cache fails
+   */
+  public static void configurePersistentCache(
+      @Nullable Path file, DigestHashFunction hashFunction, long maximumSize) throws IOException {
+    PersistentDigestCache oldCache = persistentCache;
+    persistentCache =
+        file == null ? null : new PersistentDigestCache(file, hashFunction.toString(), maximumSize);
+    if (oldCache != null) {
+      oldCache.flush();
+    }
+  }
+
+  /** Writes the digests computed since the last flush to the persistent cache, if enabled. */
+  public static void flushPersistentCache() throws IOException {
+    PersistentDigestCache cache = persistentCache;
+    if (cache != null) {
+      cache.flush();
+    }
+  }
+
+  /**
+   * Obtains the hit and miss counts of the persistent cache.
+   *
+   * <p>The persistent cache must have previously been enabled by a call to {@link
+   * #configurePersistentCache}.
+   */
+  public static CacheStats getPersistentCacheStats() {
+    PersistentDigestCache cache = persistentCache;
+    Preconditions.checkNotNull(cache, "configurePersistentCache() must have been called");
+    return cache.getStats();
+  }
+
   /**
    * Enable or disable multi-threaded digesting even for large files.
    */
@@ -229,14 +297,26 @@ public class DigestUtils {
 
     // Attempt a cache lookup if the cache is enabled.
     Cache<CacheKey, byte[]> cache = globalCache;
+    PersistentDigestCache diskCache = persistentCache;
     CacheKey key = null;
-    if (cache != null) {
+    if (cache != null || diskCache != null) {
       key = new CacheKey(path, path.stat());
+    }
+    if (cache != null) {
       digest = cache.getIfPresent(key);
       if (digest != null) {
         return digest;
       }
     }
+    if (diskCache != null) {
+      digest = diskCache.get(key);
+      if (digest != null) {
+        if (cache != null) {
+          cache.put(key, digest);
+        }
+        return digest;
+      }
+    }
 
     // Compute digest from the file contents.
     if (fileSize > MULTI_THREADED_DIGEST_MAX_FILE_SIZE && !MULTI_THREADED_DIGEST.get()) {
@@ -253,6 +333,9 @@ public class DigestUtils {
     if (cache != null) {
       cache.put(key, digest);
     }
+    if (diskCache != null) {
+      diskCache.put(key, digest);
+    }
     return digest;
   }
 
@@ -0,0 +1,220 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.devtools.build.lib.clock.Clock;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ConditionallyThreadSafe;
+import com.google.devtools.build.lib.util.MappedPersistentMap;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+/**
+ * A string indexer whose strings are kept off-heap in a {@link MappedPersistentMap}.
+ *
+ * <p>The map holds the index to string direction of the mapping. The string to index direction is
+ * an open-addressing hash table of indices that is rebuilt at load time; candidates are compared
+ * against the mapped bytes, so the heap only holds two ints per string.
+ *
+ * <p>Unlike {@link PersistentStringIndexer}, all operations are synchronized.
+ */
+@ConditionallyThreadSafe // condition: each instance must instantiated with
+                         // different dataFile.
+final class MappedStringIndexer implements CompactPersistentActionCache.PersistentIndexer {
+  private static final int VERSION = 0x01;
+  private static final long SAVE_INTERVAL_NS = 3L * 1000 * 1000 * 1000;
+  private static final int INITIAL_CAPACITY = 1 << 14;
+
+  private static final class IndexMap extends MappedPersistentMap {
+    private final Clock clock;
+    private long nextUpdate;
+
+    private IndexMap(Path file, Clock clock, Executor compactionExecutor) throws IOException {
+      super(VERSION, file, compactionExecutor);
+      this.clock = clock;
+      nextUpdate = clock.nanoTime();
+    }
+
+    @Override
+    protected boolean shouldFlush() {
+      long time = clock.nanoTime();
+      if (SAVE_INTERVAL_NS == 0 || time > nextUpdate) {
+        nextUpdate = time + SAVE_INTERVAL_NS;
+        return true;
+      }
+      return false;
+    }
+  }
+
+  private final IndexMap intToString;
+  /** Open-addressing hash table holding index + 1 of each string, 0 marks an empty slot. */
+  private int[] table;
+  /** Hash of the string of each index. */
+  private int[] hashes;
+
+  private MappedStringIndexer(IndexMap intToString) {
+    this.intToString = intToString;
+    this.table = new int[INITIAL_CAPACITY];
+    this.hashes = new int[INITIAL_CAPACITY / 2];
+  }
+
+  /** Instantiates and loads an instance of the mapped string indexer. */
+  static MappedStringIndexer newMappedStringIndexer(
+      Path dataPath, Clock clock, Executor compactionExecutor) throws IOException {
+    MappedStringIndexer indexer =
+        new MappedStringIndexer(new IndexMap(dataPath, clock, compactionExecutor));
+    try {
+      indexer.rebuildTable();
+    } catch (IOException e) {
+      indexer.close();
+      throw e;
+    }
+    return indexer;
+  }
+
+  private void rebuildTable() throws IOException {
+    int size = intToString.size();
+    int capacity = INITIAL_CAPACITY;
+    while (capacity / 2 < size) {
+      capacity *= 2;
+    }
+    table = new int[capacity];
+    hashes = new int[capacity / 2];
+    for (int i = 0; i < size; i++) {
+      byte[] bytes = intToString.get(i);
+      if (bytes == null) {
+        throw new IOException("Corrupted filename index has no entry for " + i);
+      }
+      int hash = hash(bytes);
+      if (find(bytes, hash) >= 0) {
+        throw new IOException(
+            "Corrupted filename index has duplicate entry: " + new String(bytes, UTF_8));
+      }
+      insert(i, hash);
+    }
+  }
+
+  private static int hash(byte[] bytes) {
+    int h = Arrays.hashCode(bytes) * 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  /** Returns the index of the string with the given UTF-8 encoding, or -1. */
+  private int find(byte[] bytes, int hash) {
+    int mask = table.length - 1;
+    for (int i = hash & mask; table[i] != 0; i = (i + 1) & mask) {
+      int index = table[i] - 1;
+      if (hashes[index] == hash && intToString.valueEquals(index, bytes)) {
+        return index;
+      }
+    }
+    return -1;
+  }
+
+  private void insert(int index, int hash) {
+    if (index >= table.length / 2) {
+      int[] oldTable = table;
+      table = new int[oldTable.length * 2];
+      hashes = Arrays.copyOf(hashes, table.length / 2);
+      for (int slot : oldTable) {
+        if (slot != 0) {
+          insertIntoTable(slot - 1, hashes[slot - 1]);
+        }
+      }
+    }
+    hashes[index] = hash;
+    insertIntoTable(index, hash);
+  }
+
+  private void insertIntoTable(int index, int hash) {
+    int mask = table.length - 1;
+    int i = hash & mask;
+    while (table[i] != 0) {
+      i = (i + 1) & mask;
+    }
+    table[i] = index + 1;
+  }
+
+  @Override
+  public synchronized void clear() {
+    intToString.clear();
+    table = new int[INITIAL_CAPACITY];
+    hashes = new int[INITIAL_CAPACITY / 2];
+  }
+
+  @Override
+  public synchronized int size() {
+    return intToString.size();
+  }
+
+  @Override
+  public synchronized int getOrCreateIndex(String s) {
+    byte[] bytes = s.getBytes(UTF_8);
+    int hash = hash(bytes);
+    int index = find(bytes, hash);
+    if (index < 0) {
+      index = intToString.size();
+      intToString.put(index, bytes);
+      insert(index, hash);
+    }
+    return index;
+  }
+
+  @Override
+  public synchronized int getIndex(String s) {
+    byte[] bytes = s.getBytes(UTF_8);
+    return find(bytes, hash(bytes));
+  }
+
+  @Override
+  public synchronized boolean addString(String s) {
+    int originalSize = size();
+    getOrCreateIndex(s);
+    return (size() > originalSize);
+  }
+
+  @Override
+  public synchronized String getStringForIndex(int i) {
+    byte[] bytes = intToString.get(i);
+    return bytes != null ? new String(bytes, UTF_8) : null;
+  }
+
+  @Override
+  public synchronized long save() throws IOException {
+    return intToString.save();
+  }
+
+  @Override
+  public synchronized void flush() {
+    intToString.flush();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    intToString.close();
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("size = ").append(size()).append("\n");
+    for (int i = 0; i < size(); i++) {
+      builder.append(getStringForIndex(i)).append(" <==> ").append(i).append("\n");
+    }
+    return builder.toString();
+  }
+}
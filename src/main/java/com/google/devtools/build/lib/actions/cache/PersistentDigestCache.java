@@ -0,0 +1,275 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk cache of file digests that survives server restarts, backing the in-memory cache of
+ * {@link DigestUtils}.
+ *
+ * <p>Entries are validated with the same file metadata as {@link DigestUtils.CacheKey}, and only the
+ * latest entry of each path is kept. When the cache is full, the least recently used entries are
+ * evicted. The file is an append-only log of entries that is read on the first lookup and to which
+ * new entries are appended by {@link #flush}. It is rewritten when it holds mostly outdated or
+ * evicted entries.
+ */
+@ThreadSafe
+final class PersistentDigestCache {
+  private static final Logger logger = Logger.getLogger(PersistentDigestCache.class.getName());
+
+  private static final int MAGIC = 0x44494731; // "DIG1"
+  private static final int VERSION = 1;
+  private static final int MIN_RECORDS_FOR_COMPACTION = 10000;
+  private static final int MAX_PATH_LENGTH = 1 << 20;
+
+  private final Path file;
+  private final String hashFunctionName;
+  private final long maximumSize;
+
+  /** The latest known entry of each path, null until loaded. */
+  private volatile Cache<PathFragment, Entry> entries;
+
+  /** Entries that are not in the file yet, guarded by this. */
+  private List<Entry> pending = new ArrayList<>();
+
+  /** Serializes writes to the file, so that they don't block {@link #put}. */
+  private final Object fileLock = new Object();
+
+  /**
+   * Number of records in the file, including outdated ones; -1 if it has to be rewritten. Guarded
+   * by {@link #fileLock} once loaded.
+   */
+  private long recordsInFile;
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  private static final class Entry {
+    private final DigestUtils.CacheKey key;
+    private final byte[] digest;
+
+    private Entry(DigestUtils.CacheKey key, byte[] digest) {
+      this.key = key;
+      this.digest = digest;
+    }
+  }
+
+  /**
+   * @param file the file holding the cache
+   * @param hashFunctionName the name of the digest function; entries written with a different one
+   *     are discarded
+   * @param maximumSize the maximum number of files whose digests are cached
+   */
+  PersistentDigestCache(Path file, String hashFunctionName, long maximumSize) {
+    this.file = file;
+    this.hashFunctionName = hashFunctionName;
+    this.maximumSize = maximumSize;
+  }
+
+  Path getFile() {
+    return file;
+  }
+
+  /** Returns the cached digest of the file with the given key, or null. */
+  @Nullable
+  byte[] get(DigestUtils.CacheKey key) {
+    Entry entry = getEntries().getIfPresent(key.path);
+    if (entry != null && entry.key.equals(key)) {
+      hitCount.incrementAndGet();
+      return entry.digest;
+    }
+    missCount.incrementAndGet();
+    return null;
+  }
+
+  /** Adds the digest of a file; it is written to disk by the next {@link #flush}. */
+  void put(DigestUtils.CacheKey key, byte[] digest) {
+    Cache<PathFragment, Entry> entries = getEntries();
+    Entry entry = new Entry(key, digest);
+    entries.put(key.path, entry);
+    synchronized (this) {
+      pending.add(entry);
+    }
+  }
+
+  /** Returns the hit, miss and eviction counts of this cache. */
+  CacheStats getStats() {
+    Cache<PathFragment, Entry> entries = this.entries;
+    long evictionCount = entries != null ? entries.stats().evictionCount() : 0;
+    return new CacheStats(hitCount.get(), missCount.get(), 0, 0, 0, evictionCount);
+  }
+
+  private Cache<PathFragment, Entry> getEntries() {
+    Cache<PathFragment, Entry> result = entries;
+    if (result == null) {
+      synchronized (this) {
+        result = entries;
+        if (result == null) {
+          result = load();
+          entries = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  private Cache<PathFragment, Entry> load() {
+    // Entries are read in the order they were added, so older ones are evicted first.
+    Cache<PathFragment, Entry> result =
+        CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    recordsInFile = 0;
+    if (!file.exists()) {
+      return result;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(file.getInputStream()))) {
+      if (in.readInt() != MAGIC
+          || in.readInt() != VERSION
+          || !in.readUTF().equals(hashFunctionName)) {
+        logger.info("Discarding digest cache " + file + " of a different format");
+        recordsInFile = -1;
+        return result;
+      }
+      while (true) {
+        Entry entry = readEntry(in);
+        if (entry == null) {
+          break;
+        }
+        result.put(entry.key.path, entry);
+        recordsInFile++;
+      }
+    } catch (IOException e) {
+      // A torn write at the end of the file, or a corrupted file. Keep what could be read and
+      // replace the file on the next flush.
+      logger.log(Level.WARNING, "Failed to read digest cache " + file, e);
+      recordsInFile = -1;
+    }
+    return result;
+  }
+
+  @Nullable
+  private static Entry readEntry(DataInputStream in) throws IOException {
+    int firstByte = in.read();
+    if (firstByte < 0) {
+      return null;
+    }
+    // The first byte of the path length was read to detect the end of the file.
+    int pathLength = (firstByte << 24) | (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+    if (pathLength < 0 || pathLength > MAX_PATH_LENGTH) {
+      throw new IOException("Corrupted entry with path length " + pathLength);
+    }
+    byte[] path = new byte[pathLength];
+    in.readFully(path);
+    long nodeId = in.readLong();
+    long modifiedTime = in.readLong();
+    long changeTime = in.readLong();
+    long size = in.readLong();
+    byte[] digest = new byte[in.readUnsignedByte()];
+    in.readFully(digest);
+    return new Entry(
+        new DigestUtils.CacheKey(
+            PathFragment.create(new String(path, UTF_8)), nodeId, modifiedTime, changeTime, size),
+        digest);
+  }
+
+  private static void writeEntry(Entry entry, DataOutputStream out) throws IOException {
+    DigestUtils.CacheKey key = entry.key;
+    byte[] path = key.path.getPathString().getBytes(UTF_8);
+    out.writeInt(path.length);
+    out.write(path);
+    out.writeLong(key.nodeId);
+    out.writeLong(key.modifiedTime);
+    out.writeLong(key.changeTime);
+    out.writeLong(key.size);
+    out.writeByte(entry.digest.length);
+    out.write(entry.digest);
+  }
+
+  /**
+   * Writes the entries added since the last flush to disk. The whole file is rewritten instead if
+   * it is missing, unreadable or holds mostly outdated entries. Entries may be added concurrently;
+   * they are written by the next flush.
+   */
+  void flush() throws IOException {
+    Cache<PathFragment, Entry> entries = this.entries;
+    if (entries == null) {
+      return;
+    }
+    synchronized (fileLock) {
+      List<Entry> toWrite;
+      synchronized (this) {
+        toWrite = pending;
+        pending = new ArrayList<>();
+      }
+      if (toWrite.isEmpty() && recordsInFile >= 0) {
+        return;
+      }
+      long size = entries.size();
+      boolean rewrite =
+          recordsInFile < 0
+              || !file.exists()
+              || (recordsInFile > MIN_RECORDS_FOR_COMPACTION && recordsInFile > 2 * size);
+      long previousRecords = recordsInFile;
+      // Until the write succeeds, the file must be assumed to end with a partial record.
+      recordsInFile = -1;
+      if (rewrite) {
+        file.getParentDirectory().createDirectoryAndParents();
+        Path tmpFile = file.getParentDirectory().getChild(file.getBaseName() + ".tmp");
+        long written = 0;
+        try (DataOutputStream out = openOutput(tmpFile, /*append=*/ false)) {
+          out.writeInt(MAGIC);
+          out.writeInt(VERSION);
+          out.writeUTF(hashFunctionName);
+          for (Entry entry : entries.asMap().values()) {
+            writeEntry(entry, out);
+            written++;
+          }
+        }
+        tmpFile.renameTo(file);
+        recordsInFile = written;
+      } else {
+        try (DataOutputStream out = openOutput(file, /*append=*/ true)) {
+          for (Entry entry : toWrite) {
+            writeEntry(entry, out);
+          }
+        }
+        recordsInFile = previousRecords + toWrite.size();
+      }
+    }
+  }
+
+  private static DataOutputStream openOutput(Path path, boolean append) throws IOException {
+    OutputStream out = path.getOutputStream(append);
+    return new DataOutputStream(new BufferedOutputStream(out));
+  }
+}
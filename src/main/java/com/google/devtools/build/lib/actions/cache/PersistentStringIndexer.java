@@ -40,7 +40,8 @@ import java.util.concurrent.ConcurrentMap;
  */
 @ConditionallyThreadSafe // condition: each instance must instantiated with
                          // different dataFile.
-final class PersistentStringIndexer extends CanonicalStringIndexer {
+final class PersistentStringIndexer extends CanonicalStringIndexer
+    implements CompactPersistentActionCache.PersistentIndexer {
 
   /**
    * Persistent metadata map. Used as a backing map to provide a persistent
@@ -137,14 +138,16 @@ final class PersistentStringIndexer extends CanonicalStringIndexer {
   /**
    * Saves index data to the file.
    */
-  synchronized long save() throws IOException {
+  @Override
+  public synchronized long save() throws IOException {
     return persistentIndexMap.save();
   }
 
   /**
    * Flushes the journal.
    */
-  synchronized void flush() {
+  @Override
+  public synchronized void flush() {
     persistentIndexMap.flush();
   }
 
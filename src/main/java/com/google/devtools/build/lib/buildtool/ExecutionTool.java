@@ -661,6 +661,7 @@ public class ExecutionTool {
       resourceMgr.setRamUtilizationPercentage(100);
     }
     resourceMgr.setUseLocalMemoryEstimate(options.localMemoryEstimate);
+    resourceMgr.setPrioritizeByCriticalPath(options.scheduleLocalActionsByCriticalPath);
 
     resourceMgr.setAvailableResources(
         ResourceSet.create(
@@ -16,8 +16,10 @@ package com.google.devtools.build.lib.collect.nestedset;
 import static java.util.stream.Collectors.joining;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.common.flogger.GoogleLogger;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -52,13 +54,16 @@ public final class NestedSet<E> implements Iterable<E> {
    *
    * <p>Bits 31-2: size, bits 1-0: order enum ordinal. The order is assigned on construction time,
    * the size is computed on the first expansion and set afterwards so it's available for {@link
-   * #replay}.
+   * #replay}. Until then, the size bits hold an estimate of the size: the number of direct
+   * members plus the sizes (or estimates) of the subsets, which may overlap. It is used to decide
+   * whether to expand the set with {@link NestedSetExpander}.
    */
   private int orderAndSize;
 
   private final Object children;
   private byte[] memo;
 
+  private static final int MAX_SIZE = Integer.MAX_VALUE >> 2;
   private static final byte[] LEAF_MEMO = {};
   @AutoCodec static final Object[] EMPTY_CHILDREN = {};
 
@@ -102,6 +107,7 @@ public final class NestedSet<E> implements Iterable<E> {
     Object[] children = new Object[direct.size() + transitive.size()];
     int n = 0;  // current position in children
     boolean leaf = true;  // until we find otherwise
+    long sizeEstimate = 0;
 
     for (int pass = 0; pass <= 1; ++pass) {
       if ((pass == 0) == preorder && !direct.isEmpty()) {
@@ -129,6 +135,7 @@ public final class NestedSet<E> implements Iterable<E> {
             }
             children[n++] = a;
             leaf = false;
+            sizeEstimate += subset.sizeEstimate();
           } else {
             if (!alreadyInserted.contains(c)) {
               if (hoisted == null) {
@@ -145,6 +152,13 @@ public final class NestedSet<E> implements Iterable<E> {
     }
 
     // If we ended up wrapping exactly one item or one other set, dereference it.
+    // Direct members and hoisted singletons.
+    for (int i = 0; i < n; i++) {
+      if (!(children[i] instanceof Object[])) {
+        sizeEstimate++;
+      }
+    }
+    this.orderAndSize |= (int) Math.min(sizeEstimate, MAX_SIZE) << 2;
     if (n == 1) {
       this.children = children[0];
     } else if (n == 0) {
@@ -190,6 +204,16 @@ public final class NestedSet<E> implements Iterable<E> {
     return Order.getOrder(orderAndSize & 3);
   }
 
+  /** Returns the size of this set if it has been expanded or is a leaf, otherwise an estimate. */
+  private int sizeEstimate() {
+    return orderAndSize >>> 2;
+  }
+
+  private void setSize(int size) {
+    Preconditions.checkState(size < MAX_SIZE);
+    orderAndSize = (orderAndSize & 3) | (size << 2);
+  }
+
   /**
    * Returns the internal item or array. If the internal item is a deserialization future, blocks on
    * completion. For external use only by NestedSetVisitor and NestedSetView. Those two classes also
@@ -380,22 +404,54 @@ public final class NestedSet<E> implements Iterable<E> {
     }
   }
 
+  /**
+   * Returns an iterator over the elements of this set, in the order of {@link #toList}.
+   *
+   * <p>Except for the first iteration over a set, and for sets in {@link Order#LINK_ORDER}, the
+   * elements are not copied into a list: the iterator replays the traversal recorded by the first
+   * expansion, or iterates over the expansion memoized by {@link NestedSetExpander}. The first
+   * iteration walks the whole set before returning the first element.
+   */
   @Override
   public Iterator<E> iterator() {
-    // TODO: would it help to have a proper lazy iterator?  seems like it might reduce garbage.
-    return toList().iterator();
+    if (isSingleton() || isEmpty() || getOrder() == Order.LINK_ORDER) {
+      // Link order expansions are reversed, which the memo cannot be replayed in.
+      return toList().iterator();
+    }
+    try {
+      if (memo == LEAF_MEMO) {
+        return Iterators.forArray((E[]) children);
+      }
+      Object[] expanded = maybeExpandInParallel(/*handleInterruptedException=*/ true);
+      if (expanded != null) {
+        return Iterators.forArray((E[]) expanded);
+      }
+      CompactHashSet<E> members = lockedExpand(/*handleInterruptedException=*/ true);
+      if (members != null) {
+        return Iterators.unmodifiableIterator(members.iterator());
+      }
+    } catch (InterruptedException e) {
+      throw new IllegalStateException("InterruptedException should have already been caught", e);
+    }
+    return new ReplayIterator<>((Object[]) getChildren(), memo);
   }
 
   /**
-   * Implementation of {@link #toList}. Uses one of three strategies based on the value of {@code
-   * this.memo}: wrap our direct items in a list, call {@link #lockedExpand} to perform the initial
-   * {@link #walk}, or call {@link #replay} if we have a nontrivial memo.
+   * Implementation of {@link #toList}. Uses one of four strategies based on the value of {@code
+   * this.memo} and the size of the set: wrap our direct items in a list, expand a large set with
+   * {@link NestedSetExpander}, call {@link #lockedExpand} to perform the initial {@link #walk}, or
+   * call {@link #replay} if we have a nontrivial memo.
    */
   private ImmutableList<E> expand(boolean handleInterruptedException) throws InterruptedException {
     // This value is only set in the constructor, so safe to test here with no lock.
     if (memo == LEAF_MEMO) {
       return ImmutableList.copyOf(new ArraySharingCollection<>((Object[]) children));
     }
+    Object[] expanded = maybeExpandInParallel(handleInterruptedException);
+    if (expanded != null) {
+      // The array is shared with the expander's cache, which never modifies it.
+      return ImmutableList.copyOf(new ArraySharingCollection<>(expanded));
+    }
     CompactHashSet<E> members = lockedExpand(handleInterruptedException);
     if (members != null) {
       return ImmutableList.copyOf(members);
@@ -406,6 +462,37 @@ public final class NestedSet<E> implements Iterable<E> {
     return output.build();
   }
 
+  /**
+   * Returns the expansion of this set from {@link NestedSetExpander} if the set is large and has
+   * not been walked by {@link #lockedExpand}, or null otherwise. The expander memoizes the
+   * expansion for as long as this set is alive, so it is usually only computed once.
+   *
+   * <p>Once expanded, the size of the set is exact, and may be below the threshold of the expander
+   * although the estimate was not. Such a set keeps using its memoized expansion rather than being
+   * walked and memoized a second time by {@link #lockedExpand}.
+   */
+  @Nullable
+  private Object[] maybeExpandInParallel(boolean handleInterruptedException)
+      throws InterruptedException {
+    // Reading a stale null memo is harmless: both strategies yield the same expansion.
+    if (memo != null) {
+      return null;
+    }
+    Object[] children = (Object[]) getChildren(handleInterruptedException);
+    Object[] expanded;
+    if (NestedSetExpander.isLarge(sizeEstimate())) {
+      expanded = NestedSetExpander.expand(children);
+    } else {
+      expanded = NestedSetExpander.getIfExpanded(children);
+      if (expanded == null) {
+        return null;
+      }
+    }
+    // Racy, but every thread writes the same value.
+    setSize(expanded.length);
+    return expanded;
+  }
+
   // Hack to share our internal array with ImmutableList/ImmutableSet, or avoid
   // a copy in cases where we can preallocate an array of the correct size.
   private static final class ArraySharingCollection<E> extends AbstractCollection<E> {
@@ -449,8 +536,7 @@ public final class NestedSet<E> implements Iterable<E> {
     if (bytes <= memo.length - 16) {
       memo = Arrays.copyOf(memo, bytes);
     }
-    Preconditions.checkState(members.size() < (Integer.MAX_VALUE >> 2));
-    orderAndSize |= (members.size()) << 2;
+    setSize(members.size());
     return members;
   }
 
@@ -513,4 +599,50 @@ public final class NestedSet<E> implements Iterable<E> {
     }
     return pos;
   }
+
+  /** Lazily repeats a traversal recorded in a memo, like {@link #replay}. */
+  private static final class ReplayIterator<E> extends AbstractIterator<E> {
+    private final byte[] memo;
+    private Object[][] arrays = new Object[8][];
+    private int[] indexes = new int[8];
+    private int depth;
+    private int pos;
+
+    ReplayIterator(Object[] children, byte[] memo) {
+      this.memo = memo;
+      arrays[0] = children;
+      depth = 1;
+    }
+
+    @Override
+    protected E computeNext() {
+      while (depth > 0) {
+        Object[] array = arrays[depth - 1];
+        int index = indexes[depth - 1];
+        if (index == array.length) {
+          arrays[--depth] = null;
+          continue;
+        }
+        indexes[depth - 1] = index + 1;
+        Object child = array[index];
+        boolean taken = (memo[pos >> 3] & (1 << (pos & 7))) != 0;
+        ++pos;
+        if (!taken) {
+          continue;
+        }
+        if (child instanceof Object[]) {
+          if (depth == arrays.length) {
+            arrays = Arrays.copyOf(arrays, depth * 2);
+            indexes = Arrays.copyOf(indexes, depth * 2);
+          }
+          arrays[depth] = (Object[]) child;
+          indexes[depth] = 0;
+          ++depth;
+        } else {
+          return (E) child;
+        }
+      }
+      return endOfData();
+    }
+  }
 }
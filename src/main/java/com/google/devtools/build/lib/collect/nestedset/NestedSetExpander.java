@@ -0,0 +1,232 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.devtools.build.lib.collect.compacthashset.CompactHashSet;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * Expands large nested sets in parallel, and caches the expansions of their large interior nodes
+ * so that other sets containing the same nodes do not walk them again.
+ *
+ * <p>The expansion of a node is the same as for {@link NestedSet#toList}: the leaves of a
+ * depth-first traversal, keeping the first occurrence of every element. It is therefore also the
+ * concatenation of the expansions of the node's children with all elements dropped that appear in
+ * an earlier child, which lets the children be expanded independently and merged in order. Merging
+ * costs time proportional to the size of the children's expansions, so only the nodes at most
+ * {@link #MAX_FORK_DEPTH} levels below the root are expanded in separate tasks; deeper nodes are
+ * walked sequentially.
+ *
+ * <p>The expansions of the sets passed to {@link #expand} are memoized for as long as the sets are
+ * alive, up to a bound on the total number of memoized elements. The cache of interior nodes is keyed by the identity of the children arrays of nested
+ * sets, and holds them weakly, so entries go away with the sets. Its total size is bounded by the
+ * number of elements of the cached expansions.
+ *
+ * <p>Merging the children's expansions is sequential, and for sets whose subsets contain each other
+ * it hashes more elements than the sequential walk of {@link NestedSet} does, so this is disabled
+ * unless enabled with {@link #setParallelThreshold}.
+ */
+@ThreadSafe
+public final class NestedSetExpander {
+  /** Expansions of at least this many elements are cached. */
+  private static final int MIN_CACHED_SIZE = 1 << 10;
+
+  private static final long MAX_CACHED_ELEMENTS = 1 << 22;
+
+  private static final long MAX_MEMOIZED_ELEMENTS = 1 << 24;
+
+  private static final int MAX_FORK_DEPTH = 3;
+
+  private static final Cache<Object[], Object[]> cache =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .maximumWeight(MAX_CACHED_ELEMENTS)
+          .<Object[], Object[]>weigher((node, expansion) -> expansion.length)
+          .build();
+
+  /**
+   * The memoized expansions of the sets expanded by this class. {@link NestedSet} has no room to
+   * store them itself, so they are kept here, keyed weakly by the children arrays of the sets. An
+   * evicted expansion is computed again, mostly from the cache of interior nodes.
+   */
+  private static final LoadingCache<Object[], Object[]> expansions =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .maximumWeight(MAX_MEMOIZED_ELEMENTS)
+          .<Object[], Object[]>weigher((children, expansion) -> expansion.length)
+          .build(CacheLoader.from(NestedSetExpander::compute));
+
+  private static final AtomicLong computedExpansions = new AtomicLong();
+
+  /** Sets whose (estimated) size is at least this are expanded by this class. */
+  private static volatile int parallelThreshold = Integer.MAX_VALUE;
+
+  /** The pool is only created once a large set is expanded. */
+  private static final class PoolHolder {
+    private static final ForkJoinPool POOL =
+        NamedForkJoinPool.newNamedPool(
+            "nestedset-expander", Runtime.getRuntime().availableProcessors());
+  }
+
+  private NestedSetExpander() {}
+
+  /** Returns whether a set of the given (estimated) size should be expanded by this class. */
+  static boolean isLarge(int size) {
+    return size >= parallelThreshold;
+  }
+
+  /**
+   * Sets the estimated size from which nested sets are expanded by this class, or disables it if
+   * {@code threshold} is not positive.
+   */
+  public static void setParallelThreshold(int threshold) {
+    parallelThreshold = threshold > 0 ? threshold : Integer.MAX_VALUE;
+  }
+
+  @VisibleForTesting
+  static void clearCacheForTesting() {
+    cache.invalidateAll();
+    expansions.invalidateAll();
+    computedExpansions.set(0);
+  }
+
+  /** Returns the number of sets whose expansion was computed (rather than memoized) so far. */
+  @VisibleForTesting
+  static long getComputedExpansionsForTesting() {
+    return computedExpansions.get();
+  }
+
+  /**
+   * Returns the expansion of the given children array of a nested set, computing it on the first
+   * call for the array. The returned array is shared and must not be modified.
+   */
+  static Object[] expand(Object[] children) {
+    return expansions.getUnchecked(children);
+  }
+
+  /**
+   * Returns the memoized expansion of the given children array of a nested set, or null if it has
+   * not been expanded by this class or its expansion was evicted.
+   */
+  @Nullable
+  static Object[] getIfExpanded(Object[] children) {
+    return expansions.getIfPresent(children);
+  }
+
+  private static Object[] compute(Object[] children) {
+    computedExpansions.incrementAndGet();
+    Object[] cached = cache.getIfPresent(children);
+    if (cached != null) {
+      return cached;
+    }
+    return PoolHolder.POOL.invoke(new ExpandTask(children, 0));
+  }
+
+  private static final class ExpandTask extends RecursiveTask<Object[]> {
+    private final Object[] node;
+    private final int depth;
+
+    ExpandTask(Object[] node, int depth) {
+      this.node = node;
+      this.depth = depth;
+    }
+
+    @Override
+    protected Object[] compute() {
+      Object[] expansion = depth == 0 ? null : cache.getIfPresent(node);
+      if (expansion != null) {
+        return expansion;
+      }
+      expansion =
+          depth < MAX_FORK_DEPTH && countSubarrays(node) >= 2 ? forkAndMerge() : walk(node);
+      if (expansion.length >= MIN_CACHED_SIZE) {
+        cache.put(node, expansion);
+      }
+      return expansion;
+    }
+
+    private Object[] forkAndMerge() {
+      ExpandTask[] subtasks = new ExpandTask[node.length];
+      for (int i = 0; i < node.length; i++) {
+        if (node[i] instanceof Object[]) {
+          subtasks[i] = new ExpandTask((Object[]) node[i], depth + 1);
+          subtasks[i].fork();
+        }
+      }
+      CompactHashSet<Object> members = CompactHashSet.createWithExpectedSize(128);
+      for (int i = 0; i < node.length; i++) {
+        if (subtasks[i] == null) {
+          members.add(node[i]);
+        } else {
+          for (Object member : subtasks[i].join()) {
+            members.add(member);
+          }
+        }
+      }
+      return members.toArray();
+    }
+  }
+
+  private static int countSubarrays(Object[] node) {
+    int count = 0;
+    for (Object child : node) {
+      if (child instanceof Object[]) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static Object[] walk(Object[] node) {
+    CompactHashSet<Object> members = CompactHashSet.createWithExpectedSize(128);
+    CompactHashSet<Object> visited = CompactHashSet.createWithExpectedSize(128);
+    visited.add(node);
+    walk(node, visited, members);
+    return members.toArray();
+  }
+
+  /**
+   * Sequential depth-first traversal of {@code node}, like {@link NestedSet#walk}, which uses the
+   * cached expansions of the subarrays it finds.
+   */
+  private static void walk(
+      Object[] node, CompactHashSet<Object> visited, CompactHashSet<Object> members) {
+    for (Object child : node) {
+      if (child instanceof Object[]) {
+        if (visited.add(child)) {
+          Object[] cached = cache.getIfPresent(child);
+          if (cached == null) {
+            walk((Object[]) child, visited, members);
+          } else {
+            for (Object member : cached) {
+              members.add(member);
+            }
+          }
+        }
+      } else {
+        members.add(child);
+      }
+    }
+  }
+}
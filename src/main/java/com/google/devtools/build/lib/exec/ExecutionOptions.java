@@ -414,6 +414,18 @@ public class ExecutionOptions extends OptionsBase {
               + "number of file digests to be cached.")
   public long cacheSizeForComputedFileDigests;
 
+  @Option(
+      name = "experimental_persist_computed_file_digests",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If enabled, the file digests cached because of --cache_computed_file_digests are also "
+              + "kept in the output base, so that they need not be recomputed after a server "
+              + "restart. This has the same impact on correctness as the in-memory cache and has "
+              + "no effect if --cache_computed_file_digests is 0.")
+  public boolean persistComputedFileDigests;
+
   @Option(
     name = "experimental_enable_critical_path_profiling",
     defaultValue = "true",
@@ -426,6 +438,18 @@ public class ExecutionOptions extends OptionsBase {
   )
   public boolean enableCriticalPathProfiling;
 
+  @Option(
+      name = "experimental_schedule_local_actions_by_critical_path",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, actions waiting for local resources are started in the order of their "
+              + "estimated remaining critical path, based on the durations measured in earlier "
+              + "builds of the same server, instead of in the order in which they became ready. "
+              + "Requires --experimental_enable_critical_path_profiling.")
+  public boolean scheduleLocalActionsByCriticalPath;
+
   @Option(
       name = "experimental_stats_summary",
       documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
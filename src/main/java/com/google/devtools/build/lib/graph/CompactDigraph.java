@@ -0,0 +1,791 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.NamedForkJoinPool;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
+import javax.annotation.Nullable;
+
+/**
+ * An immutable directed graph whose nodes are numbered from 0, with the edges stored in flat
+ * arrays of those numbers (compressed sparse rows) instead of in the sets of each {@link Node}.
+ *
+ * <p>A {@link Digraph} costs a {@link Node} and two sets of neighbors per node, which adds up for
+ * graphs of millions of targets. This class costs a few ints per node and edge, and its algorithms
+ * mark nodes in bitsets instead of hash sets. It can be built from a {@link Digraph} with {@link
+ * #of}, or directly with a {@link Builder}.
+ *
+ * <p>The ranking algorithms sweep the graph one level at a time, processing large levels in
+ * parallel. Levels are reported in order, so that the results can be written out as they are
+ * computed.
+ */
+public final class CompactDigraph<T> {
+
+  /** Receives the labels of a graph one level at a time. */
+  public interface LevelVisitor<T, E extends Exception> {
+    /**
+     * Visits the labels of a level.
+     *
+     * @param level the number of the level, starting at 0 for the roots
+     * @param labels the labels of the level, in the order of their ids
+     */
+    void visitLevel(int level, List<T> labels) throws E;
+  }
+
+  /** The number of nodes of a level from which it is processed in parallel. */
+  private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+  /** Holds the pool lazily, so that small graphs never start it. */
+  private static final class PoolHolder {
+    private static final ForkJoinPool POOL =
+        NamedForkJoinPool.newNamedPool(
+            "compact-digraph", Runtime.getRuntime().availableProcessors());
+  }
+
+  private final LabelIndex index;
+  private final int[] successorStart;
+  private final int[] successors;
+  private final int[] predecessorStart;
+  private final int[] predecessors;
+
+  private CompactDigraph(LabelIndex index, int[] from, int[] to, int numEdges) {
+    this.index = index;
+    int n = index.size;
+
+    // Bucket the edges by source, keeping the order in which they were added, and drop duplicate
+    // edges. Searches visit successors in this order, like those of a Digraph.
+    int[] successorStart = new int[n + 1];
+    for (int e = 0; e < numEdges; e++) {
+      successorStart[from[e] + 1]++;
+    }
+    for (int i = 0; i < n; i++) {
+      successorStart[i + 1] += successorStart[i];
+    }
+    int[] successors = new int[numEdges];
+    int[] next = Arrays.copyOf(successorStart, n);
+    for (int e = 0; e < numEdges; e++) {
+      successors[next[from[e]]++] = to[e];
+    }
+    int[] lastSource = new int[n];
+    Arrays.fill(lastSource, -1);
+    int distinct = 0;
+    for (int i = 0; i < n; i++) {
+      int start = successorStart[i];
+      int end = successorStart[i + 1];
+      successorStart[i] = distinct;
+      for (int e = start; e < end; e++) {
+        if (lastSource[successors[e]] != i) {
+          lastSource[successors[e]] = i;
+          successors[distinct++] = successors[e];
+        }
+      }
+    }
+    successorStart[n] = distinct;
+    this.successorStart = successorStart;
+    this.successors = distinct == numEdges ? successors : Arrays.copyOf(successors, distinct);
+
+    // The predecessors are filled in increasing order of node, so they end up sorted.
+    int[] predecessorStart = new int[n + 1];
+    for (int e = 0; e < distinct; e++) {
+      predecessorStart[this.successors[e] + 1]++;
+    }
+    for (int i = 0; i < n; i++) {
+      predecessorStart[i + 1] += predecessorStart[i];
+    }
+    int[] predecessors = new int[distinct];
+    next = Arrays.copyOf(predecessorStart, n);
+    for (int i = 0; i < n; i++) {
+      for (int e = successorStart[i]; e < successorStart[i + 1]; e++) {
+        predecessors[next[this.successors[e]]++] = i;
+      }
+    }
+    this.predecessorStart = predecessorStart;
+    this.predecessors = predecessors;
+  }
+
+  /**
+   * Returns a compact copy of a graph. Nodes are numbered in the order of {@link
+   * Digraph#getNodes}, and successors are kept in the order of {@link Node#getSuccessors}, so that
+   * searches break ties the same way as in the graph.
+   */
+  public static <T> CompactDigraph<T> of(Digraph<T> graph) {
+    Collection<Node<T>> nodes = graph.getNodes();
+    Builder<T> builder = new Builder<>(nodes.size());
+    for (Node<T> node : nodes) {
+      builder.addNode(node.getLabel());
+    }
+    for (Node<T> node : nodes) {
+      int from = builder.index.getId(node.getLabel());
+      for (Node<T> successor : node.getSuccessors()) {
+        builder.addEdgeById(from, builder.index.getId(successor.getLabel()));
+      }
+    }
+    return builder.build();
+  }
+
+  public static <T> Builder<T> builder() {
+    return new Builder<>(16);
+  }
+
+  /**
+   * Builds a {@link CompactDigraph}, without the {@link Node}s of a {@link Digraph}. Nodes are
+   * numbered in the order in which they are added.
+   */
+  public static final class Builder<T> {
+    private final LabelIndex index;
+    private int[] from = new int[16];
+    private int[] to = new int[16];
+    private int numEdges;
+
+    private Builder(int expectedNodes) {
+      this.index = new LabelIndex(expectedNodes);
+    }
+
+    /** Adds a node, if there is none with the label yet, and returns its id. */
+    public int addNode(T label) {
+      return index.add(Preconditions.checkNotNull(label));
+    }
+
+    /** Adds an edge, and the nodes it connects if they are not in the graph yet. */
+    public Builder<T> addEdge(T fromLabel, T toLabel) {
+      return addEdgeById(addNode(fromLabel), addNode(toLabel));
+    }
+
+    /** Adds an edge between two nodes that are already in the graph, given by their ids. */
+    public Builder<T> addEdgeById(int fromId, int toId) {
+      Preconditions.checkElementIndex(fromId, index.size);
+      Preconditions.checkElementIndex(toId, index.size);
+      if (numEdges == from.length) {
+        from = Arrays.copyOf(from, numEdges * 2);
+        to = Arrays.copyOf(to, numEdges * 2);
+      }
+      from[numEdges] = fromId;
+      to[numEdges] = toId;
+      numEdges++;
+      return this;
+    }
+
+    /** Returns the graph. The builder must not be used afterwards. */
+    public CompactDigraph<T> build() {
+      return new CompactDigraph<>(index, from, to, numEdges);
+    }
+  }
+
+  /** Returns the number of nodes. */
+  public int size() {
+    return index.size;
+  }
+
+  /** Returns the number of edges. */
+  public int getEdgeCount() {
+    return successors.length;
+  }
+
+  /** Returns the label of the node numbered {@code id}. */
+  @SuppressWarnings("unchecked")
+  public T getLabel(int id) {
+    Preconditions.checkElementIndex(id, index.size);
+    return (T) index.labels[id];
+  }
+
+  /** Returns the id of the node with the label, or -1 if there is no such node. */
+  public int getId(T label) {
+    return index.getId(Preconditions.checkNotNull(label));
+  }
+
+  /** Returns the ids of the successors of a node, in the order in which the edges were added. */
+  public int[] getSuccessors(int id) {
+    return Arrays.copyOfRange(successors, successorStart[id], successorStart[id + 1]);
+  }
+
+  /** Returns the ids of the predecessors of a node, in increasing order. */
+  public int[] getPredecessors(int id) {
+    return Arrays.copyOfRange(predecessors, predecessorStart[id], predecessorStart[id + 1]);
+  }
+
+  /** Returns true iff the graph is cyclic. */
+  public boolean isCyclic() {
+    for (int id = 0; id < size(); id++) {
+      for (int e = successorStart[id]; e < successorStart[id + 1]; e++) {
+        if (successors[e] == id) {
+          return true;
+        }
+      }
+    }
+    int[] component = getStronglyConnectedComponents();
+    BitSet seen = new BitSet(size());
+    for (int c : component) {
+      if (seen.get(c)) {
+        return true;
+      }
+      seen.set(c);
+    }
+    return false;
+  }
+
+  /**
+   * Returns the ids of the nodes of an acyclic graph in topological order, i.e. the reverse
+   * post-order of a depth-first search. Searches start from the nodes in increasing order of id.
+   */
+  public int[] getTopologicalOrder() {
+    int n = size();
+    int[] order = new int[n];
+    int orderStart = n;
+    BitSet visited = new BitSet(n);
+    int[] stack = new int[n];
+    int[] nextEdge = new int[n];
+    for (int root = 0; root < n; root++) {
+      if (visited.get(root)) {
+        continue;
+      }
+      int stackSize = 0;
+      stack[stackSize++] = root;
+      visited.set(root);
+      nextEdge[root] = successorStart[root];
+      while (stackSize > 0) {
+        int v = stack[stackSize - 1];
+        if (nextEdge[v] < successorStart[v + 1]) {
+          int w = successors[nextEdge[v]++];
+          if (!visited.get(w)) {
+            visited.set(w);
+            nextEdge[w] = successorStart[w];
+            stack[stackSize++] = w;
+          }
+        } else {
+          stackSize--;
+          order[--orderStart] = v;
+        }
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Returns the ids of the nodes reachable from any of {@code startIds} (reflexive transitive
+   * closure).
+   */
+  public BitSet getFwdReachable(int... startIds) {
+    return getReachable(startIds, successorStart, successors);
+  }
+
+  /**
+   * Returns the ids of the nodes that reach any of {@code startIds} (reflexive transitive
+   * closure).
+   */
+  public BitSet getBackReachable(int... startIds) {
+    return getReachable(startIds, predecessorStart, predecessors);
+  }
+
+  private BitSet getReachable(int[] startIds, int[] edgeStart, int[] edges) {
+    BitSet reachable = new BitSet(size());
+    int[] stack = new int[16];
+    int stackSize = 0;
+    for (int id : startIds) {
+      Preconditions.checkElementIndex(id, size());
+      if (!reachable.get(id)) {
+        reachable.set(id);
+        if (stackSize == stack.length) {
+          stack = Arrays.copyOf(stack, stackSize * 2);
+        }
+        stack[stackSize++] = id;
+      }
+    }
+    while (stackSize > 0) {
+      int v = stack[--stackSize];
+      for (int e = edgeStart[v]; e < edgeStart[v + 1]; e++) {
+        int w = edges[e];
+        if (!reachable.get(w)) {
+          reachable.set(w);
+          if (stackSize == stack.length) {
+            stack = Arrays.copyOf(stack, stackSize * 2);
+          }
+          stack[stackSize++] = w;
+        }
+      }
+    }
+    return reachable;
+  }
+
+  /**
+   * Finds the shortest directed path from {@code fromId} to {@code toId}, with a breadth-first
+   * search. Returns the ids of the nodes of the path, including both endpoints, or null if there
+   * is no path.
+   */
+  @Nullable
+  public int[] getShortestPath(int fromId, int toId) {
+    Preconditions.checkElementIndex(fromId, size());
+    Preconditions.checkElementIndex(toId, size());
+    if (fromId == toId) {
+      return new int[] {fromId};
+    }
+    int[] queue = new int[size()];
+    int[] parent = new int[size()];
+    BitSet marked = new BitSet(size());
+    int head = 0;
+    int tail = 0;
+    queue[tail++] = fromId;
+    marked.set(fromId);
+    while (head < tail) {
+      int u = queue[head++];
+      for (int e = successorStart[u]; e < successorStart[u + 1]; e++) {
+        int v = successors[e];
+        if (marked.get(v)) {
+          continue;
+        }
+        marked.set(v);
+        parent[v] = u;
+        if (v == toId) {
+          int length = 1;
+          for (int w = v; w != fromId; w = parent[w]) {
+            length++;
+          }
+          int[] path = new int[length];
+          for (int w = v; length > 0; w = parent[w]) {
+            path[--length] = w;
+          }
+          return path;
+        }
+        queue[tail++] = v;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the strongly connected component of each node, as an array indexed by node whose
+   * values are the numbers of the components, from 0 to the number of components minus one.
+   * Components are numbered in reverse topological order: the successors of a component have
+   * lower numbers.
+   */
+  public int[] getStronglyConnectedComponents() {
+    // Tarjan's algorithm, with explicit stacks so that deep graphs do not overflow the Java stack.
+    int n = size();
+    int[] component = new int[n];
+    int[] index = new int[n];
+    int[] lowLink = new int[n];
+    Arrays.fill(index, -1);
+    int[] sccStack = new int[n];
+    BitSet onStack = new BitSet(n);
+    int sccStackSize = 0;
+    int[] callStack = new int[n];
+    int[] nextEdge = new int[n];
+    int nextIndex = 0;
+    int numComponents = 0;
+    for (int root = 0; root < n; root++) {
+      if (index[root] != -1) {
+        continue;
+      }
+      int callStackSize = 0;
+      callStack[callStackSize++] = root;
+      index[root] = lowLink[root] = nextIndex++;
+      nextEdge[root] = successorStart[root];
+      sccStack[sccStackSize++] = root;
+      onStack.set(root);
+      while (callStackSize > 0) {
+        int v = callStack[callStackSize - 1];
+        if (nextEdge[v] < successorStart[v + 1]) {
+          int w = successors[nextEdge[v]++];
+          if (index[w] == -1) {
+            index[w] = lowLink[w] = nextIndex++;
+            nextEdge[w] = successorStart[w];
+            sccStack[sccStackSize++] = w;
+            onStack.set(w);
+            callStack[callStackSize++] = w;
+          } else if (onStack.get(w)) {
+            lowLink[v] = Math.min(lowLink[v], index[w]);
+          }
+          continue;
+        }
+        callStackSize--;
+        if (callStackSize > 0) {
+          int parent = callStack[callStackSize - 1];
+          lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+        }
+        if (lowLink[v] == index[v]) {
+          int w;
+          do {
+            w = sccStack[--sccStackSize];
+            onStack.clear(w);
+            component[w] = numComponents;
+          } while (w != v);
+          numComponents++;
+        }
+      }
+    }
+    return component;
+  }
+
+  /**
+   * Visits the nodes by minimum rank: the roots of the graph of strongly connected components have
+   * rank 0, and the other nodes the length of the shortest path from one of them. All the nodes of
+   * a cycle have the same rank.
+   */
+  public <E extends Exception> void visitByMinRank(LevelVisitor<T, E> visitor) throws E {
+    Condensation condensation = new Condensation(getStronglyConnectedComponents());
+    int[] frontier = condensation.roots();
+    AtomicLongArray seen = new AtomicLongArray((condensation.size() + 63) >>> 6);
+    for (int c : frontier) {
+      claim(seen, c);
+    }
+    for (int level = 0; frontier.length > 0; level++) {
+      visitor.visitLevel(level, condensation.members(frontier));
+      frontier = condensation.sweep(frontier, c -> claim(seen, c));
+    }
+  }
+
+  /**
+   * Visits the nodes by maximum rank: the roots of the graph of strongly connected components have
+   * rank 0, and the other nodes the length of the longest path from one of them. All the nodes of
+   * a cycle have the same rank.
+   */
+  public <E extends Exception> void visitByMaxRank(LevelVisitor<T, E> visitor) throws E {
+    Condensation condensation = new Condensation(getStronglyConnectedComponents());
+    int[] frontier = condensation.roots();
+    // A component is ready once all of its predecessors have been visited.
+    AtomicIntegerArray remaining = new AtomicIntegerArray(condensation.numPredecessors);
+    for (int level = 0; frontier.length > 0; level++) {
+      visitor.visitLevel(level, condensation.members(frontier));
+      frontier = condensation.sweep(frontier, c -> remaining.decrementAndGet(c) == 0);
+    }
+  }
+
+  /**
+   * Returns the partition of the labels in sets of labels whose nodes have the same predecessors
+   * and the same successors. The sets are ordered by their lowest id.
+   */
+  public Collection<Set<T>> partitionByNeighbors() {
+    // The predecessors are sorted already, the successors are in the order they were added.
+    int[] sortedSuccessors = successors.clone();
+    for (int id = 0; id < size(); id++) {
+      Arrays.sort(sortedSuccessors, successorStart[id], successorStart[id + 1]);
+    }
+    Map<NeighborsKey, Set<T>> partition = new LinkedHashMap<>();
+    for (int id = 0; id < size(); id++) {
+      partition
+          .computeIfAbsent(new NeighborsKey(id, sortedSuccessors), k -> new HashSet<>())
+          .add(getLabel(id));
+    }
+    return partition.values();
+  }
+
+  /** The sorted predecessors and successors of a node, as a key of {@link #partitionByNeighbors}. */
+  private final class NeighborsKey {
+    private final int id;
+    private final int[] sortedSuccessors;
+    private final int hashCode;
+
+    private NeighborsKey(int id, int[] sortedSuccessors) {
+      this.id = id;
+      this.sortedSuccessors = sortedSuccessors;
+      int hash = 1;
+      for (int e = predecessorStart[id]; e < predecessorStart[id + 1]; e++) {
+        hash = 31 * hash + predecessors[e];
+      }
+      hash = 31 * hash - 1;
+      for (int e = successorStart[id]; e < successorStart[id + 1]; e++) {
+        hash = 31 * hash + sortedSuccessors[e];
+      }
+      this.hashCode = hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof CompactDigraph.NeighborsKey)) {
+        return false;
+      }
+      @SuppressWarnings("unchecked")
+      NeighborsKey that = (NeighborsKey) o;
+      return hashCode == that.hashCode
+          && sliceEquals(predecessors, predecessorStart, id, that.id)
+          && sliceEquals(sortedSuccessors, successorStart, id, that.id);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private static boolean sliceEquals(int[] edges, int[] start, int a, int b) {
+    int length = start[a + 1] - start[a];
+    if (length != start[b + 1] - start[b]) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (edges[start[a] + i] != edges[start[b] + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Atomically sets a bit, and returns whether it was clear. */
+  private static boolean claim(AtomicLongArray bits, int i) {
+    int word = i >>> 6;
+    long mask = 1L << i;
+    while (true) {
+      long old = bits.get(word);
+      if ((old & mask) != 0) {
+        return false;
+      }
+      if (bits.compareAndSet(word, old, old | mask)) {
+        return true;
+      }
+    }
+  }
+
+  /** Maps labels to ids, with an open-addressing table of ids instead of a map of boxed ids. */
+  private static final class LabelIndex {
+    /** The labels, indexed by id. */
+    private Object[] labels;
+    private int size;
+    /** The ids plus one, or 0 for empty slots, at the hash of their labels. */
+    private int[] table;
+
+    private LabelIndex(int expectedSize) {
+      labels = new Object[Math.max(expectedSize, 1)];
+      table = new int[tableSize(labels.length)];
+    }
+
+    /** Returns a power of two that keeps the table at most half full. */
+    private static int tableSize(int capacity) {
+      return Integer.highestOneBit(Math.max(capacity, 2) - 1) << 2;
+    }
+
+    private int slot(Object label) {
+      int h = label.hashCode() * 0x9E3779B9;
+      return (h ^ (h >>> 16)) & (table.length - 1);
+    }
+
+    private int getId(Object label) {
+      for (int i = slot(label); ; i = (i + 1) & (table.length - 1)) {
+        int entry = table[i];
+        if (entry == 0) {
+          return -1;
+        }
+        if (labels[entry - 1].equals(label)) {
+          return entry - 1;
+        }
+      }
+    }
+
+    private int add(Object label) {
+      int id = getId(label);
+      if (id != -1) {
+        return id;
+      }
+      if (size == labels.length) {
+        labels = Arrays.copyOf(labels, size * 2);
+        table = new int[tableSize(labels.length)];
+        for (int i = 0; i < size; i++) {
+          insert(labels[i], i);
+        }
+      }
+      labels[size] = label;
+      insert(label, size);
+      return size++;
+    }
+
+    private void insert(Object label, int id) {
+      int i = slot(label);
+      while (table[i] != 0) {
+        i = (i + 1) & (table.length - 1);
+      }
+      table[i] = id + 1;
+    }
+  }
+
+  /** The acyclic graph of the strongly connected components, with their members. */
+  private final class Condensation {
+    private final int[] successorStart;
+    private final int[] successors;
+    private final int[] numPredecessors;
+    private final int[] memberStart;
+    private final int[] members;
+
+    private Condensation(int[] component) {
+      int numComponents = 0;
+      for (int c : component) {
+        numComponents = Math.max(numComponents, c + 1);
+      }
+      memberStart = new int[numComponents + 1];
+      for (int c : component) {
+        memberStart[c + 1]++;
+      }
+      for (int c = 0; c < numComponents; c++) {
+        memberStart[c + 1] += memberStart[c];
+      }
+      // Members are filled in increasing order of node.
+      members = new int[component.length];
+      int[] next = Arrays.copyOf(memberStart, numComponents);
+      for (int id = 0; id < component.length; id++) {
+        members[next[component[id]]++] = id;
+      }
+
+      // The successors of a component are those of its members, without duplicates or itself.
+      successorStart = new int[numComponents + 1];
+      int[] edges = new int[CompactDigraph.this.successors.length];
+      numPredecessors = new int[numComponents];
+      int[] lastSource = new int[numComponents];
+      Arrays.fill(lastSource, -1);
+      int numEdges = 0;
+      for (int c = 0; c < numComponents; c++) {
+        successorStart[c] = numEdges;
+        for (int m = memberStart[c]; m < memberStart[c + 1]; m++) {
+          int id = members[m];
+          for (int e = CompactDigraph.this.successorStart[id];
+              e < CompactDigraph.this.successorStart[id + 1];
+              e++) {
+            int target = component[CompactDigraph.this.successors[e]];
+            if (target != c && lastSource[target] != c) {
+              lastSource[target] = c;
+              edges[numEdges++] = target;
+              numPredecessors[target]++;
+            }
+          }
+        }
+        Arrays.sort(edges, successorStart[c], numEdges);
+      }
+      successorStart[numComponents] = numEdges;
+      successors = Arrays.copyOf(edges, numEdges);
+    }
+
+    private int size() {
+      return numPredecessors.length;
+    }
+
+    /** Returns the components without predecessors, ordered by their first member. */
+    private int[] roots() {
+      int count = 0;
+      for (int c = 0; c < size(); c++) {
+        if (numPredecessors[c] == 0) {
+          count++;
+        }
+      }
+      int[] roots = new int[count];
+      int i = 0;
+      for (int c = 0; c < size(); c++) {
+        if (numPredecessors[c] == 0) {
+          roots[i++] = c;
+        }
+      }
+      return sortByFirstMember(roots);
+    }
+
+    /**
+     * Returns the successors of the components of the frontier that {@code claim} accepts. Claim
+     * is called once per edge, possibly concurrently.
+     */
+    private int[] sweep(int[] frontier, IntPredicate claim) {
+      int[] next =
+          frontier.length < PARALLEL_THRESHOLD
+              ? new SweepTask(frontier, 0, frontier.length, claim).compute()
+              : PoolHolder.POOL.invoke(new SweepTask(frontier, 0, frontier.length, claim));
+      return sortByFirstMember(next);
+    }
+
+    /** Sorts components by their first member, so that levels are in the order of the nodes. */
+    private int[] sortByFirstMember(int[] components) {
+      long[] keys = new long[components.length];
+      for (int i = 0; i < components.length; i++) {
+        keys[i] = ((long) members[memberStart[components[i]]] << 32) | components[i];
+      }
+      Arrays.sort(keys);
+      for (int i = 0; i < components.length; i++) {
+        components[i] = (int) keys[i];
+      }
+      return components;
+    }
+
+    /** Returns the labels of the members of the components, in the order of the nodes. */
+    private List<T> members(int[] components) {
+      int count = 0;
+      for (int c : components) {
+        count += memberStart[c + 1] - memberStart[c];
+      }
+      int[] ids = new int[count];
+      int i = 0;
+      for (int c : components) {
+        for (int m = memberStart[c]; m < memberStart[c + 1]; m++) {
+          ids[i++] = members[m];
+        }
+      }
+      Arrays.sort(ids);
+      List<T> result = new ArrayList<>(count);
+      for (int id : ids) {
+        result.add(getLabel(id));
+      }
+      return result;
+    }
+
+    /** Collects the claimed successors of a range of the frontier, splitting large ranges. */
+    private final class SweepTask extends RecursiveTask<int[]> {
+      private final int[] frontier;
+      private final int from;
+      private final int to;
+      private final IntPredicate claim;
+
+      private SweepTask(int[] frontier, int from, int to, IntPredicate claim) {
+        this.frontier = frontier;
+        this.from = from;
+        this.to = to;
+        this.claim = claim;
+      }
+
+      @Override
+      protected int[] compute() {
+        if (to - from > PARALLEL_THRESHOLD) {
+          int middle = (from + to) >>> 1;
+          SweepTask left = new SweepTask(frontier, from, middle, claim);
+          left.fork();
+          int[] right = new SweepTask(frontier, middle, to, claim).compute();
+          int[] leftResult = left.join();
+          int[] result = Arrays.copyOf(leftResult, leftResult.length + right.length);
+          System.arraycopy(right, 0, result, leftResult.length, right.length);
+          return result;
+        }
+        int[] claimed = new int[16];
+        int count = 0;
+        for (int i = from; i < to; i++) {
+          int c = frontier[i];
+          for (int e = successorStart[c]; e < successorStart[c + 1]; e++) {
+            int successor = successors[e];
+            if (claim.test(successor)) {
+              if (count == claimed.length) {
+                claimed = Arrays.copyOf(claimed, count * 2);
+              }
+              claimed[count++] = successor;
+            }
+          }
+        }
+        return Arrays.copyOf(claimed, count);
+      }
+    }
+  }
+}
@@ -140,6 +140,18 @@ public class StarlarkSemanticsOptions extends OptionsBase implements Serializabl
               + "debugging.")
   public boolean experimentalPlatformsApi;
 
+  @Option(
+      name = "experimental_starlark_bytecode",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.STARLARK_SEMANTICS,
+      effectTags = {OptionEffectTag.LOADING_AND_ANALYSIS},
+      metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+      help =
+          "If set to true, the bodies of Starlark functions are compiled to a compact instruction "
+              + "array, with local variables in numbered slots, when they are first called. "
+              + "Functions that cannot be compiled are still interpreted from their syntax tree.")
+  public boolean experimentalStarlarkBytecode;
+
   @Option(
       name = "experimental_starlark_config_transitions",
       defaultValue = "true",
@@ -625,6 +637,7 @@ public class StarlarkSemanticsOptions extends OptionsBase implements Serializabl
         .experimentalJavaCommonCreateProviderEnabledPackages(
             experimentalJavaCommonCreateProviderEnabledPackages)
         .experimentalPlatformsApi(experimentalPlatformsApi)
+        .experimentalStarlarkBytecode(experimentalStarlarkBytecode)
         .experimentalStarlarkConfigTransitions(experimentalStarlarkConfigTransitions)
         .experimentalStarlarkUnusedInputsList(experimentalStarlarkUnusedInputsList)
         .incompatibleBzlDisallowLoadAfterStatement(incompatibleBzlDisallowLoadAfterStatement)
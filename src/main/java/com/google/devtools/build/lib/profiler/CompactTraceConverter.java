@@ -0,0 +1,229 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Converts profiles in the compact trace format written by {@link CompactTraceWriter} to the JSON
+ * trace file format, as written for {@link Profiler.Format#JSON_TRACE_FILE_FORMAT}.
+ */
+public final class CompactTraceConverter {
+  // The JDK never returns 0 as thread id so we use that as fake thread id for the critical path.
+  private static final long CRITICAL_PATH_THREAD_ID = 0;
+
+  private CompactTraceConverter() {}
+
+  /**
+   * Reads a compact trace profile from {@code in} and writes it to {@code out} as JSON. Closes
+   * {@code out} when done.
+   *
+   * @throws IOException if reading or writing fails, or {@code in} is not a compact trace profile
+   */
+  public static void convert(InputStream in, OutputStream out) throws IOException {
+    DataInputStream input =
+        new DataInputStream(
+            new BufferedInputStream(new InflaterInputStream(in, new Inflater(), 65536), 262144));
+    if (input.readInt() != CompactTraceWriter.MAGIC) {
+      throw new IOException("Not a compact trace profile");
+    }
+    int version = input.readInt();
+    if (version != CompactTraceWriter.VERSION) {
+      throw new IOException("Unsupported compact trace profile version " + version);
+    }
+    String buildId = readString(input);
+    String outputBase = readString(input);
+    String date = readString(input);
+    int typeCount = readVarInt(input);
+    String[] typeNames = new String[typeCount];
+    String[] typeDescriptions = new String[typeCount];
+    for (int i = 0; i < typeCount; i++) {
+      typeNames[i] = readString(input);
+      typeDescriptions[i] = readString(input);
+    }
+
+    try (JsonWriter writer =
+        new JsonWriter(
+            new OutputStreamWriter(
+                new BufferedOutputStream(out, 262144), StandardCharsets.UTF_8))) {
+      writer.beginObject();
+      writer.name("traceEvents");
+      writer.beginArray();
+      writeThreadName(writer, CRITICAL_PATH_THREAD_ID, "Critical Path");
+
+      List<String> strings = new ArrayList<>();
+      long droppedEvents;
+      while (true) {
+        byte record = input.readByte();
+        if (record == CompactTraceWriter.EOF_RECORD) {
+          droppedEvents = readVarLong(input);
+          break;
+        } else if (record == CompactTraceWriter.THREAD_RECORD) {
+          long threadId = readVarLong(input);
+          writeThreadName(writer, threadId, readString(input));
+        } else if (record == CompactTraceWriter.CHUNK_RECORD) {
+          long threadId = readVarLong(input);
+          int size = readVarInt(input);
+          long startTimeNanos = 0;
+          for (int i = 0; i < size; i++) {
+            long zigzag = readVarLong(input);
+            startTimeNanos += (zigzag >>> 1) ^ -(zigzag & 1);
+            long durationNanos = readVarLong(input);
+            int type = input.readUnsignedByte();
+            if (type >= typeCount) {
+              throw new IOException("Unknown task type " + type);
+            }
+            String description = readDescription(input, strings);
+            writeEvent(
+                writer,
+                threadId,
+                startTimeNanos,
+                durationNanos,
+                typeNames[type],
+                typeDescriptions[type],
+                description);
+          }
+        } else {
+          throw new IOException("Unknown record type " + record);
+        }
+      }
+      writer.setIndent("  ");
+      writer.endArray();
+      writer.setIndent("");
+
+      writer.name("otherData");
+      writer.beginObject();
+      writer.name("build_id").value(buildId);
+      writer.name("output_base").value(outputBase);
+      writer.name("date").value(date);
+      if (droppedEvents > 0) {
+        writer.name("dropped_events").value(droppedEvents);
+      }
+      writer.endObject();
+      writer.endObject();
+    }
+  }
+
+  private static void writeThreadName(JsonWriter writer, long threadId, String name)
+      throws IOException {
+    writer.setIndent("  ");
+    writer.beginObject();
+    writer.setIndent("");
+    writer.name("name").value("thread_name");
+    writer.name("ph").value("M");
+    writer.name("pid").value(1);
+    writer.name("tid").value(threadId);
+    writer.name("args");
+    writer.beginObject();
+    writer.name("name").value(name);
+    writer.endObject();
+    writer.endObject();
+  }
+
+  private static void writeEvent(
+      JsonWriter writer,
+      long threadId,
+      long startTimeNanos,
+      long durationNanos,
+      String typeName,
+      String typeDescription,
+      String description)
+      throws IOException {
+    writer.setIndent("  ");
+    writer.beginObject();
+    writer.setIndent("");
+    if (typeName.equals(ProfilerTask.LOCAL_CPU_USAGE.name())) {
+      writer.name("name").value(typeDescription);
+      writer.name("ph").value("C");
+      writer.name("ts").value(TimeUnit.NANOSECONDS.toMicros(startTimeNanos));
+      writer.name("pid").value(1);
+      writer.name("tid").value(threadId);
+      writer.name("args");
+      writer.beginObject();
+      writer.name("cpu").value(description);
+      writer.endObject();
+    } else {
+      writer.name("cat").value(typeDescription);
+      writer.name("name").value(description);
+      writer.name("ph").value(durationNanos == 0 ? "i" : "X");
+      writer.name("ts").value(TimeUnit.NANOSECONDS.toMicros(startTimeNanos));
+      if (durationNanos != 0) {
+        writer.name("dur").value(TimeUnit.NANOSECONDS.toMicros(durationNanos));
+      }
+      writer.name("pid").value(1);
+      writer
+          .name("tid")
+          .value(
+              typeName.equals(ProfilerTask.CRITICAL_PATH_COMPONENT.name())
+                  ? CRITICAL_PATH_THREAD_ID
+                  : threadId);
+    }
+    writer.endObject();
+  }
+
+  private static String readDescription(DataInput in, List<String> strings) throws IOException {
+    int index = readVarInt(in);
+    if (index > 0) {
+      if (index > strings.size()) {
+        throw new IOException("Unknown string index " + index);
+      }
+      return strings.get(index - 1);
+    }
+    String description = readString(in);
+    if (strings.size() < CompactTraceWriter.MAX_INTERNED_STRINGS) {
+      strings.add(description);
+    }
+    return description;
+  }
+
+  private static long readVarLong(DataInput in) throws IOException {
+    long result = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      result |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+    throw new IOException("Malformed varint");
+  }
+
+  private static int readVarInt(DataInput in) throws IOException {
+    long value = readVarLong(in);
+    if (value < 0 || value > Integer.MAX_VALUE) {
+      throw new IOException("Value out of range: " + value);
+    }
+    return (int) value;
+  }
+
+  private static String readString(DataInput in) throws IOException {
+    byte[] bytes = new byte[readVarInt(in)];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,480 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.io.BufferedOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Writes profiler events in a compact binary trace format, with a fixed upper bound on the memory
+ * it uses.
+ *
+ * <p>Every thread records its events into a chunk of preallocated columnar arrays (start times,
+ * durations, types and descriptions), so recording an event does not allocate. Full chunks are
+ * handed to a writer thread, which encodes and compresses them and returns them to a pool. The
+ * number of chunks is capped: if the writer thread falls behind and the pool is exhausted, events
+ * are dropped and counted instead of blocking the build or growing the heap. The count is written
+ * to the profile and reported by {@link Profiler#getDroppedEvents}.
+ *
+ * <p>A thread only hands over its chunk when it is full, so the writer thread periodically takes
+ * over the partial chunks of threads that have exited or have not recorded any event since the
+ * previous check, and returns them to the pool once written. Otherwise idle threads would hold on
+ * to chunks until the end of the profile and exhaust the pool.
+ *
+ * <p>Use {@link CompactTraceConverter} to convert the profile to the JSON trace file format.
+ *
+ * <pre>
+ * The profile is a deflated stream with the following structure:
+ *   HEADER
+ *   RECORD...
+ *   EOF_RECORD
+ *
+ * HEADER:
+ *   int32: magic token (CompactTraceWriter.MAGIC)
+ *   int32: version format (CompactTraceWriter.VERSION)
+ *   string: build id
+ *   string: output base
+ *   string: date
+ *   varint32: number of task types
+ *   (string, string)...: name and description of each task type, in the order of their ids
+ *
+ * RECORD:
+ *   byte: THREAD_RECORD
+ *   varint64: thread id
+ *   string: thread name
+ * or
+ *   byte: CHUNK_RECORD
+ *   varint64: thread id
+ *   varint32: number of events
+ *   EVENT...
+ *
+ * EVENT:
+ *   zigzag varint64: start time in ns, relative to the start of the previous event of the chunk,
+ *                    or to the start of the profile for the first event
+ *   varint64: duration in ns
+ *   byte: task type id
+ *   varint32: description string index incremented by 1, or 0 followed by the string if this is
+ *             its first occurrence. The first MAX_INTERNED_STRINGS distinct strings are assigned
+ *             sequential ids; later ones are written in full every time.
+ *
+ * EOF_RECORD:
+ *   byte: EOF_RECORD
+ *   varint64: number of events that were dropped
+ *
+ * string:
+ *   varint32: length of the UTF-8 encoding, followed by the encoded bytes
+ * </pre>
+ */
+@ThreadSafe
+final class CompactTraceWriter implements Runnable {
+  static final int MAGIC = 0x0c7ace01;
+  static final int VERSION = 1;
+
+  static final byte EOF_RECORD = 0;
+  static final byte THREAD_RECORD = 1;
+  static final byte CHUNK_RECORD = 2;
+
+  static final int MAX_INTERNED_STRINGS = 1 << 16;
+
+  static final int DEFAULT_EVENTS_PER_CHUNK = 1024;
+  // A chunk takes about 25 bytes per event, so this caps the buffered events at about 12 MB, plus
+  // the descriptions they refer to.
+  static final int DEFAULT_MAX_CHUNKS = 512;
+  static final long DEFAULT_IDLE_FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final EventChunk POISON_PILL = new EventChunk(0);
+
+  private final OutputStream outStream;
+  private final long profileStartTimeNanos;
+  private final String buildId;
+  private final String outputBase;
+  private final int eventsPerChunk;
+  private final int maxChunks;
+  private final long idleFlushIntervalNanos;
+
+  private final AtomicInteger allocatedChunks = new AtomicInteger();
+  private final Queue<EventChunk> freeChunks = new ConcurrentLinkedQueue<>();
+  private final BlockingQueue<EventChunk> fullChunks = new LinkedBlockingQueue<>();
+  /** The chunks that threads are currently recording into, flushed when the profile ends. */
+  private final Set<EventChunk> threadChunks = ConcurrentHashMap.newKeySet();
+  private final ThreadLocal<ThreadState> threadState = ThreadLocal.withInitial(ThreadState::new);
+  private final AtomicLong droppedEvents = new AtomicLong();
+  private final Thread thread;
+  private IOException savedException;
+
+  CompactTraceWriter(
+      OutputStream outStream, long profileStartTimeNanos, String buildId, String outputBase) {
+    this(
+        outStream,
+        profileStartTimeNanos,
+        buildId,
+        outputBase,
+        DEFAULT_EVENTS_PER_CHUNK,
+        DEFAULT_MAX_CHUNKS);
+  }
+
+  CompactTraceWriter(
+      OutputStream outStream,
+      long profileStartTimeNanos,
+      String buildId,
+      String outputBase,
+      int eventsPerChunk,
+      int maxChunks) {
+    this(
+        outStream,
+        profileStartTimeNanos,
+        buildId,
+        outputBase,
+        eventsPerChunk,
+        maxChunks,
+        DEFAULT_IDLE_FLUSH_INTERVAL_NANOS);
+  }
+
+  CompactTraceWriter(
+      OutputStream outStream,
+      long profileStartTimeNanos,
+      String buildId,
+      String outputBase,
+      int eventsPerChunk,
+      int maxChunks,
+      long idleFlushIntervalNanos) {
+    this.outStream = outStream;
+    this.profileStartTimeNanos = profileStartTimeNanos;
+    this.buildId = buildId;
+    this.outputBase = outputBase;
+    this.eventsPerChunk = eventsPerChunk;
+    this.maxChunks = maxChunks;
+    this.idleFlushIntervalNanos = idleFlushIntervalNanos;
+    this.thread = new Thread(this, "profile-writer-thread");
+  }
+
+  void start() {
+    thread.start();
+  }
+
+  /** Writes out the events recorded so far, ends the profile and waits for it to be written. */
+  void shutdown() throws IOException {
+    fullChunks.add(POISON_PILL);
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      thread.interrupt();
+      Thread.currentThread().interrupt();
+    }
+    if (savedException != null) {
+      throw savedException;
+    }
+  }
+
+  /** Returns the number of chunks that threads are currently recording into. */
+  @VisibleForTesting
+  int getThreadChunkCount() {
+    return threadChunks.size();
+  }
+
+  /** Returns the number of events that were dropped because all chunks were in use. */
+  long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  /** Records an event of the current thread. */
+  void record(long startTimeNanos, long durationNanos, ProfilerTask type, String description) {
+    ThreadState state = threadState.get();
+    while (true) {
+      EventChunk chunk = state.chunk;
+      if (chunk == null) {
+        chunk = acquireChunk(state);
+        if (chunk == null) {
+          droppedEvents.incrementAndGet();
+          return;
+        }
+      }
+      boolean full;
+      // Only contended if the writer thread checks or flushes the chunk.
+      synchronized (chunk) {
+        if (chunk.owner != state) {
+          // Taken over by the writer thread.
+          state.chunk = null;
+          continue;
+        }
+        full = chunk.add(startTimeNanos, durationNanos, type, description);
+        if (full) {
+          chunk.owner = null;
+          state.chunk = null;
+        }
+      }
+      if (full) {
+        threadChunks.remove(chunk);
+        fullChunks.add(chunk);
+      }
+      return;
+    }
+  }
+
+  @Nullable
+  private EventChunk acquireChunk(ThreadState state) {
+    EventChunk chunk = freeChunks.poll();
+    if (chunk == null) {
+      if (allocatedChunks.incrementAndGet() > maxChunks) {
+        allocatedChunks.decrementAndGet();
+        return null;
+      }
+      chunk = new EventChunk(eventsPerChunk);
+    }
+    synchronized (chunk) {
+      chunk.reset(Thread.currentThread(), state);
+    }
+    state.chunk = chunk;
+    threadChunks.add(chunk);
+    return chunk;
+  }
+
+  /**
+   * Writes out and returns to the pool the chunks of threads that have exited, or that have not
+   * recorded an event since the previous call.
+   */
+  private void flushIdleChunks(Encoder encoder) throws IOException {
+    for (EventChunk chunk : threadChunks) {
+      boolean idle;
+      synchronized (chunk) {
+        idle =
+            chunk.owner != null
+                && (!chunk.thread.isAlive()
+                    || (chunk.size > 0 && chunk.size == chunk.sizeAtLastCheck));
+        chunk.sizeAtLastCheck = chunk.size;
+        if (idle) {
+          chunk.owner.chunk = null;
+          chunk.owner = null;
+        }
+      }
+      if (idle) {
+        threadChunks.remove(chunk);
+        encoder.writeChunk(chunk);
+        release(chunk);
+      }
+    }
+  }
+
+  @Override
+  public void run() {
+    try {
+      boolean receivedPoisonPill = false;
+      try (DataOutputStream out =
+          new DataOutputStream(
+              new BufferedOutputStream(
+                  new DeflaterOutputStream(
+                      outStream, new Deflater(Deflater.BEST_SPEED, false), 65536),
+                  262144))) {
+        writeHeader(out);
+        Encoder encoder = new Encoder(out);
+        long nextIdleFlushNanos = System.nanoTime() + idleFlushIntervalNanos;
+        while (true) {
+          EventChunk chunk =
+              fullChunks.poll(nextIdleFlushNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (chunk == POISON_PILL) {
+            break;
+          }
+          if (chunk != null) {
+            encoder.writeChunk(chunk);
+            release(chunk);
+          }
+          if (System.nanoTime() - nextIdleFlushNanos >= 0) {
+            flushIdleChunks(encoder);
+            nextIdleFlushNanos = System.nanoTime() + idleFlushIntervalNanos;
+          }
+        }
+        receivedPoisonPill = true;
+        for (EventChunk threadChunk : threadChunks) {
+          synchronized (threadChunk) {
+            encoder.writeChunk(threadChunk);
+            threadChunk.clear();
+          }
+        }
+        out.writeByte(EOF_RECORD);
+        writeVarLong(out, droppedEvents.get());
+      } catch (IOException e) {
+        this.savedException = e;
+        if (!receivedPoisonPill) {
+          EventChunk chunk;
+          while ((chunk = fullChunks.take()) != POISON_PILL) {
+            // We keep emptying the queue, but we can't write anything.
+            release(chunk);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      // Exit silently.
+    }
+  }
+
+  private void release(EventChunk chunk) {
+    chunk.clear();
+    freeChunks.add(chunk);
+  }
+
+  private void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    writeString(out, buildId);
+    writeString(out, outputBase);
+    writeString(out, new Date().toString());
+    ProfilerTask[] types = ProfilerTask.values();
+    writeVarLong(out, types.length);
+    for (ProfilerTask type : types) {
+      writeString(out, type.name());
+      writeString(out, type.description);
+    }
+  }
+
+  /** Encodes chunks on the writer thread, keeping track of the strings and threads seen so far. */
+  private final class Encoder {
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Set<Long> threads = new HashSet<>();
+
+    Encoder(DataOutputStream out) {
+      this.out = out;
+    }
+
+    void writeChunk(EventChunk chunk) throws IOException {
+      if (chunk.size == 0) {
+        return;
+      }
+      if (threads.add(chunk.threadId)) {
+        out.writeByte(THREAD_RECORD);
+        writeVarLong(out, chunk.threadId);
+        writeString(out, chunk.threadName);
+      }
+      out.writeByte(CHUNK_RECORD);
+      writeVarLong(out, chunk.threadId);
+      writeVarLong(out, chunk.size);
+      long previousStartTimeNanos = profileStartTimeNanos;
+      for (int i = 0; i < chunk.size; i++) {
+        long startTimeNanos = chunk.startTimesNanos[i];
+        // Nested tasks end before their parents, so start times are not monotonic.
+        long delta = startTimeNanos - previousStartTimeNanos;
+        writeVarLong(out, (delta << 1) ^ (delta >> 63));
+        previousStartTimeNanos = startTimeNanos;
+        writeVarLong(out, chunk.durationsNanos[i]);
+        out.writeByte(chunk.types[i]);
+        writeDescription(chunk.descriptions[i]);
+      }
+    }
+
+    private void writeDescription(String description) throws IOException {
+      Integer index = strings.get(description);
+      if (index != null) {
+        writeVarLong(out, index + 1);
+        return;
+      }
+      writeVarLong(out, 0);
+      writeString(out, description);
+      if (strings.size() < MAX_INTERNED_STRINGS) {
+        strings.put(description, strings.size());
+      }
+    }
+  }
+
+  private static void writeVarLong(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  private static void writeString(DataOutput out, String value) throws IOException {
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarLong(out, bytes.length);
+    out.write(bytes);
+  }
+
+  /** The state of a thread recording events. */
+  private static final class ThreadState {
+    /** The chunk the thread records into, cleared when the writer thread takes it over. */
+    private volatile EventChunk chunk;
+  }
+
+  /** A fixed number of events of a single thread, stored column by column. */
+  private static final class EventChunk {
+    private final long[] startTimesNanos;
+    private final long[] durationsNanos;
+    private final byte[] types;
+    private final String[] descriptions;
+    private long threadId;
+    private String threadName;
+    private int size;
+    /** The thread recording into this chunk, or null if the chunk is not recorded into. */
+    @Nullable private Thread thread;
+    @Nullable private ThreadState owner;
+    /** The size when the writer thread last checked whether the thread is idle. */
+    private int sizeAtLastCheck;
+
+    EventChunk(int capacity) {
+      this.startTimesNanos = new long[capacity];
+      this.durationsNanos = new long[capacity];
+      this.types = new byte[capacity];
+      this.descriptions = new String[capacity];
+    }
+
+    void reset(Thread thread, ThreadState owner) {
+      this.threadId = thread.getId();
+      this.threadName = thread.getName();
+      this.thread = thread;
+      this.owner = owner;
+      this.size = 0;
+      this.sizeAtLastCheck = 0;
+    }
+
+    /** Adds an event and returns whether the chunk is full. */
+    boolean add(long startTimeNanos, long durationNanos, ProfilerTask type, String description) {
+      startTimesNanos[size] = startTimeNanos;
+      durationsNanos[size] = durationNanos;
+      types[size] = (byte) type.ordinal();
+      descriptions[size] = description;
+      size++;
+      return size == descriptions.length;
+    }
+
+    void clear() {
+      // Do not keep the descriptions alive while the chunk is in the pool.
+      Arrays.fill(descriptions, 0, size, null);
+      size = 0;
+      thread = null;
+    }
+  }
+}
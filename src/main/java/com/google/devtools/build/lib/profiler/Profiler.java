@@ -150,7 +150,9 @@ public final class Profiler {
   public enum Format {
     BINARY_BAZEL_FORMAT,
     JSON_TRACE_FILE_FORMAT,
-    JSON_TRACE_FILE_COMPRESSED_FORMAT;
+    JSON_TRACE_FILE_COMPRESSED_FORMAT,
+    /** See {@link CompactTraceWriter}; convert with {@link CompactTraceConverter}. */
+    COMPACT_TRACE_FILE_FORMAT;
   }
 
   /** A task that was very slow. */
@@ -412,7 +414,8 @@ public final class Profiler {
    * The reference to the current writer, if any. If the referenced writer is null, then disk writes
    * are disabled. This can happen when slowest task recording is enabled.
    */
-  private AtomicReference<FileWriter> writerRef = new AtomicReference<>();
+  private AtomicReference<ProfileWriter> writerRef = new AtomicReference<>();
+  private volatile long droppedEvents;
 
   /**
    * This is a per-thread data structure that's used to track the current stack of open tasks, the
@@ -529,7 +532,7 @@ public final class Profiler {
     taskId.set(0);
     this.recordAllDurations = recordAllDurations;
     this.taskStack = new TaskStack();
-    FileWriter writer = null;
+    ProfileWriter writer = null;
     if (stream != null && format != null) {
       switch (format) {
         case BINARY_BAZEL_FORMAT:
@@ -553,6 +556,13 @@ public final class Profiler {
                   slimProfile,
                   outputBase,
                   buildID);
+          break;
+        case COMPACT_TRACE_FILE_FORMAT:
+          writer =
+              new CompactTraceFileWriter(
+                  new CompactTraceWriter(
+                      stream, execStartTimeNanos, buildID.toString(), outputBase));
+          break;
       }
       writer.start();
     }
@@ -591,6 +601,7 @@ public final class Profiler {
    * be recorded in the profile.
    */
   public synchronized void stop() throws IOException {
+    droppedEvents = 0;
     if (!isActive()) {
       return;
     }
@@ -608,9 +619,13 @@ public final class Profiler {
 
     // Log a final event to update the duration of ProfilePhase.FINISH.
     logEvent(ProfilerTask.INFO, "Finishing");
-    FileWriter writer = writerRef.getAndSet(null);
+    ProfileWriter writer = writerRef.getAndSet(null);
     if (writer != null) {
       writer.shutdown();
+      droppedEvents = writer.getDroppedEvents();
+      if (droppedEvents > 0) {
+        logger.warning("Dropped " + droppedEvents + " profiler events");
+      }
       writer = null;
     }
     taskStack = null;
@@ -624,6 +639,14 @@ public final class Profiler {
     }
   }
 
+  /**
+   * Returns the number of events that the profile finished by the last call to {@link #stop} could
+   * not record because it ran out of buffer space.
+   */
+  public long getDroppedEvents() {
+    return droppedEvents;
+  }
+
   /**
    *  Returns true iff profiling is currently enabled.
    */
@@ -665,7 +688,7 @@ public final class Profiler {
         (int) TimeUnit.NANOSECONDS.toMillis(duration), description);
     // Store instance fields as local variables so they are not nulled out from under us by #clear.
     TaskStack localStack = taskStack;
-    FileWriter currentWriter = writerRef.get();
+    ProfileWriter currentWriter = writerRef.get();
     if (localStack == null) {
       // Variables have been nulled out by #clear in between the check the caller made and this
       // point in the code. Probably due to an asynchronous crash.
@@ -677,14 +700,20 @@ public final class Profiler {
       parent.aggregateChild(type, duration);
     }
     if (wasTaskSlowEnoughToRecord(type, duration)) {
+      SlowestTaskAggregator aggregator = slowestTasks[type.ordinal()];
+      if (aggregator == null
+          && currentWriter != null
+          && currentWriter.tryRecord(startTimeNanos, duration, type, description)) {
+        // The writer did not need a TaskData for this task.
+        return;
+      }
+
       TaskData data = localStack.create(startTimeNanos, type, description);
       data.duration = duration;
       if (currentWriter != null) {
         currentWriter.enqueue(data);
       }
 
-      SlowestTaskAggregator aggregator = slowestTasks[type.ordinal()];
-
       if (aggregator != null) {
         aggregator.add(data);
       }
@@ -842,7 +871,7 @@ public final class Profiler {
         taskStack.peek().aggregateChild(data.type, data.duration);
       }
       boolean shouldRecordTask = wasTaskSlowEnoughToRecord(type, data.duration);
-      FileWriter writer = writerRef.get();
+      ProfileWriter writer = writerRef.get();
       if ((shouldRecordTask || data.counts != null) && writer != null) {
         writer.enqueue(data);
       }
@@ -865,7 +894,31 @@ public final class Profiler {
     }
   }
 
-  private abstract static class FileWriter implements Runnable {
+  /** Receives the recorded tasks and writes them to the profile. */
+  private abstract static class ProfileWriter {
+    abstract void start();
+
+    /** Writes out the remaining tasks and waits for the profile to be complete. */
+    abstract void shutdown() throws IOException;
+
+    abstract void enqueue(TaskData data);
+
+    /**
+     * Records a task without subtasks from its fields and returns true, or returns false if this
+     * writer needs a {@link TaskData} for it, which must then be passed to {@link #enqueue}.
+     */
+    boolean tryRecord(
+        long startTimeNanos, long durationNanos, ProfilerTask type, String description) {
+      return false;
+    }
+
+    /** Returns the number of tasks that were not written to the profile. */
+    long getDroppedEvents() {
+      return 0;
+    }
+  }
+
+  private abstract static class FileWriter extends ProfileWriter implements Runnable {
     protected final BlockingQueue<TaskData> queue;
     protected final Thread thread;
     protected IOException savedException;
@@ -875,6 +928,7 @@ public final class Profiler {
       this.thread = new Thread(this, "profile-writer-thread");
     }
 
+    @Override
     public void shutdown() throws IOException {
       // Add poison pill to queue and then wait for writer thread to shut down.
       queue.add(POISON_PILL);
@@ -889,15 +943,56 @@ public final class Profiler {
       }
     }
 
+    @Override
     public void start() {
       thread.start();
     }
 
+    @Override
     public void enqueue(TaskData data) {
       queue.add(data);
     }
   }
 
+  /**
+   * Writes the profile in the compact trace format. Tasks without subtasks are recorded without
+   * allocating a {@link TaskData}, and the memory used for buffering is bounded.
+   */
+  private static final class CompactTraceFileWriter extends ProfileWriter {
+    private final CompactTraceWriter writer;
+
+    CompactTraceFileWriter(CompactTraceWriter writer) {
+      this.writer = writer;
+    }
+
+    @Override
+    void start() {
+      writer.start();
+    }
+
+    @Override
+    void shutdown() throws IOException {
+      writer.shutdown();
+    }
+
+    @Override
+    void enqueue(TaskData data) {
+      writer.record(data.startTimeNanos, data.duration, data.type, data.description);
+    }
+
+    @Override
+    boolean tryRecord(
+        long startTimeNanos, long durationNanos, ProfilerTask type, String description) {
+      writer.record(startTimeNanos, durationNanos, type, description);
+      return true;
+    }
+
+    @Override
+    long getDroppedEvents() {
+      return writer.getDroppedEvents();
+    }
+  }
+
   /** Writes the profile in the binary Bazel profile format. */
   private static class BinaryFormatWriter extends FileWriter {
     private final OutputStream outStream;
@@ -536,7 +536,14 @@ public interface QueryEnvironment<T> {
     /**
      * Do not consider nodep attributes when traversing dependency edges.
      */
-    NO_NODEP_DEPS;
+    NO_NODEP_DEPS,
+
+    /**
+     * Answer transitive closure and path queries from a {@link
+     * com.google.devtools.build.lib.graph.CompactDigraph} copy of the dependency graph, for
+     * engines that hold one.
+     */
+    COMPACT_GRAPH;
   }
 
   /**
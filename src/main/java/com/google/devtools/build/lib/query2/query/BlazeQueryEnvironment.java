@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.cmdline.TargetParsingException;
 import com.google.devtools.build.lib.collect.compacthashset.CompactHashSet;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.graph.Digraph;
 import com.google.devtools.build.lib.graph.Node;
 import com.google.devtools.build.lib.packages.Attribute;
@@ -61,6 +62,8 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -69,6 +72,7 @@ import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * The environment of a Blaze query. Not thread-safe.
@@ -82,6 +86,13 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   private final TargetProvider targetProvider;
   private final CachingPackageLocator cachingPackageLocator;
   private final Digraph<Target> graph = new Digraph<>();
+  /**
+   * A compact copy of {@link #graph}, for {@link Setting#COMPACT_GRAPH}, made after the graph was
+   * built. Nodes created since, by {@link #getNode}, have no edges and are missing from it.
+   */
+  @Nullable private CompactDigraph<Target> compactGraph;
+  /** Whether edges were added to {@link #graph} since {@link #compactGraph} was made. */
+  private volatile boolean edgesAdded;
   private final ErrorPrintingTargetEdgeErrorObserver errorObserver;
   private final LabelVisitor labelVisitor;
   protected final int loadingPhaseThreads;
@@ -281,9 +292,40 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
     for (Target node : targetNodes) {
       checkBuilt(node);
     }
+    if (isSettingEnabled(Setting.COMPACT_GRAPH)) {
+      CompactDigraph<Target> compactGraph = getCompactGraph();
+      ThreadSafeMutableSet<Target> result = createThreadSafeMutableSet();
+      int[] ids = new int[targetNodes.size()];
+      int i = 0;
+      for (Target target : targetNodes) {
+        int id = compactGraph.getId(target);
+        if (id == -1) {
+          // A node without edges.
+          result.add(getNode(target).getLabel());
+        } else {
+          ids[i++] = id;
+        }
+      }
+      BitSet reachable = compactGraph.getFwdReachable(Arrays.copyOf(ids, i));
+      for (int id = reachable.nextSetBit(0); id >= 0; id = reachable.nextSetBit(id + 1)) {
+        result.add(compactGraph.getLabel(id));
+      }
+      return result;
+    }
     return getTargetsFromNodes(graph.getFwdReachable(getNodes(targetNodes)));
   }
 
+  /**
+   * Returns the compact copy of the graph. It is made once after the graph is built, see {@link
+   * #buildTransitiveClosure}, and lacks the nodes without edges created since.
+   */
+  private CompactDigraph<Target> getCompactGraph() {
+    if (compactGraph == null) {
+      compactGraph = CompactDigraph.of(graph);
+    }
+    return compactGraph;
+  }
+
   /**
    * Checks that the graph rooted at 'targetNode' has been completely built;
    * fails if not.  Callers of {@link #getTransitiveClosure} must ensure that
@@ -319,6 +361,11 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
           errorObserver,
           new GraphBuildingObserver());
     }
+    if (edgesAdded) {
+      edgesAdded = false;
+      compactGraph =
+          isSettingEnabled(Setting.COMPACT_GRAPH) ? CompactDigraph.of(graph) : null;
+    }
 
     if (errorObserver.hasErrors()) {
       reportBuildFileError(caller, "errors were encountered while computing transitive closure");
@@ -329,6 +376,18 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   public Iterable<Target> getNodesOnPath(
       Target from, Target to, QueryExpressionContext<Target> context) {
     ImmutableList.Builder<Target> builder = ImmutableList.builder();
+    if (isSettingEnabled(Setting.COMPACT_GRAPH)) {
+      CompactDigraph<Target> compactGraph = getCompactGraph();
+      int fromId = compactGraph.getId(from);
+      int toId = compactGraph.getId(to);
+      // Paths from or to nodes without edges are trivial, see below.
+      if (fromId != -1 && toId != -1) {
+        for (int id : compactGraph.getShortestPath(fromId, toId)) {
+          builder.add(compactGraph.getLabel(id));
+        }
+        return builder.build();
+      }
+    }
     for (Node<Target> node : graph.getShortestPath(getNode(from), getNode(to))) {
       builder.add(node.getLabel());
     }
@@ -396,7 +455,9 @@ public class BlazeQueryEnvironment extends AbstractBlazeQueryEnvironment<Target>
   }
 
   private void makeEdge(Target from, Target to) {
-    graph.addEdge(from, to);
+    if (graph.addEdge(from, to)) {
+      edgesAdded = true;
+    }
   }
 
   private Target getTargetOrThrow(Label label)
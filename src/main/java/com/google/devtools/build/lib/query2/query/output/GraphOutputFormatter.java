@@ -17,8 +17,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Ordering;
 import com.google.devtools.build.lib.cmdline.Label;
-import com.google.devtools.build.lib.collect.CollectionUtils;
-import com.google.devtools.build.lib.collect.EquivalenceRelation;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.graph.Digraph;
 import com.google.devtools.build.lib.graph.DotOutputVisitor;
 import com.google.devtools.build.lib.graph.LabelSerializer;
@@ -139,10 +138,15 @@ class GraphOutputFormatter extends OutputFormatter {
       PrintWriter out,
       final boolean sortLabels,
       ConditionalEdges conditionalEdges) {
-    EquivalenceRelation<Node<Target>> equivalenceRelation = createEquivalenceRelation();
-
-    Collection<Set<Node<Target>>> partition =
-        CollectionUtils.partition(result.getNodes(), equivalenceRelation);
+    // Topologically-equivalent nodes (with the same predecessors and successors) are factored.
+    Collection<Set<Node<Target>>> partition = new ArrayList<>();
+    for (Set<Target> targets : CompactDigraph.of(result).partitionByNeighbors()) {
+      Set<Node<Target>> nodes = new HashSet<>(targets.size());
+      for (Target target : targets) {
+        nodes.add(result.getNode(target));
+      }
+      partition.add(nodes);
+    }
     if (sortLabels) {
       partition = orderPartition(partition);
     }
@@ -202,44 +206,6 @@ class GraphOutputFormatter extends OutputFormatter {
         sortLabels ? ITERABLE_COMPARATOR : null);
   }
 
-  /**
-   * Returns an equivalence relation for nodes in the specified graph.
-   *
-   * <p>Two nodes are considered equal iff they have equal topology (predecessors and successors).
-   *
-   * TODO(bazel-team): Make this a method of Digraph.
-   */
-  @SuppressWarnings("ReferenceEquality")
-  private static <LABEL> EquivalenceRelation<Node<LABEL>> createEquivalenceRelation() {
-    return new EquivalenceRelation<Node<LABEL>>() {
-      @Override
-      public int compare(Node<LABEL> x, Node<LABEL> y) {
-        if (x == y) {
-          return 0;
-        }
-
-        if (x.numPredecessors() != y.numPredecessors()
-            || x.numSuccessors() != y.numSuccessors()) {
-          return -1;
-        }
-
-        Set<Node<LABEL>> xpred = new HashSet<>(x.getPredecessors());
-        Set<Node<LABEL>> ypred = new HashSet<>(y.getPredecessors());
-        if (!xpred.equals(ypred)) {
-          return -1;
-        }
-
-        Set<Node<LABEL>> xsucc = new HashSet<>(x.getSuccessors());
-        Set<Node<LABEL>> ysucc = new HashSet<>(y.getSuccessors());
-        if (!xsucc.equals(ysucc)) {
-          return -1;
-        }
-
-        return 0;
-      }
-    };
-  }
-
   private String getConditionsGraphLabel(
       Iterable<Node<Target>> lhs, Iterable<Node<Target>> rhs, ConditionalEdges conditionalEdges) {
     StringBuilder buf = new StringBuilder();
@@ -13,7 +13,6 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.query.output;
 
-import static java.util.Comparator.comparingInt;
 import static java.util.stream.Collectors.joining;
 
 import com.google.common.annotations.VisibleForTesting;
@@ -26,6 +25,7 @@ import com.google.common.collect.Sets;
 import com.google.common.collect.Streams;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.graph.CompactDigraph;
 import com.google.devtools.build.lib.graph.Digraph;
 import com.google.devtools.build.lib.graph.Node;
 import com.google.devtools.build.lib.packages.AggregatingAttributeMapper;
@@ -54,14 +54,9 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import javax.annotation.Nullable;
 
 /**
  * Interface for classes which order, format and print the result of a Blaze
@@ -491,19 +486,6 @@ public abstract class OutputFormatter implements Serializable {
       return "minrank";
     }
 
-    private static void outputToStreamOrSave(
-        int rank,
-        Label label,
-        PrintStream out,
-        @Nullable List<RankAndLabel> toSave,
-        final String lineTerminator) {
-      if (toSave != null) {
-        toSave.add(new RankAndLabel(rank, label));
-      } else {
-        out.print(rank + " " + label.getDefaultCanonicalForm() + lineTerminator);
-      }
-    }
-
     @Override
     public void output(
         QueryOptions options,
@@ -512,47 +494,11 @@ public abstract class OutputFormatter implements Serializable {
         AspectResolver aspectResolver,
         ConditionalEdges conditionalEdges)
         throws IOException {
-      PrintStream printStream = new PrintStream(out);
-      // getRoots() isn't defined for cyclic graphs, so in order to handle
-      // cycles correctly, we need work on the strong component graph, as
-      // cycles should be treated a "clump" of nodes all on the same rank.
-      // Graphs may contain cycles because there are errors in BUILD files.
-
-      List<RankAndLabel> outputToOrder =
-          options.orderOutput == OrderOutput.FULL ? new ArrayList<RankAndLabel>() : null;
-      Digraph<Set<Node<Target>>> scGraph = result.getStrongComponentGraph();
-      Set<Node<Set<Node<Target>>>> rankNodes = scGraph.getRoots();
-      Set<Node<Set<Node<Target>>>> seen = new HashSet<>();
-      seen.addAll(rankNodes);
-      final String lineTerm = options.getLineTerminator();
-      for (int rank = 0; !rankNodes.isEmpty(); rank++) {
-        // Print out this rank:
-        for (Node<Set<Node<Target>>> xScc : rankNodes) {
-          for (Node<Target> x : xScc.getLabel()) {
-            outputToStreamOrSave(
-                rank, x.getLabel().getLabel(), printStream, outputToOrder, lineTerm);
-          }
-        }
-
-        // Find the next rank:
-        Set<Node<Set<Node<Target>>>> nextRankNodes = new LinkedHashSet<>();
-        for (Node<Set<Node<Target>>> x : rankNodes) {
-          for (Node<Set<Node<Target>>> y : x.getSuccessors()) {
-            if (seen.add(y)) {
-              nextRankNodes.add(y);
-            }
-          }
-        }
-        rankNodes = nextRankNodes;
-      }
-      if (outputToOrder != null) {
-        Collections.sort(outputToOrder);
-        for (RankAndLabel item : outputToOrder) {
-          printStream.print(item + lineTerm);
-        }
-      }
-
-      flushAndCheckError(printStream);
+      // Cycles are treated as a "clump" of nodes all on the same rank. Graphs may contain cycles
+      // because there are errors in BUILD files.
+      RankPrinter printer = new RankPrinter(options, out);
+      CompactDigraph.of(result).visitByMinRank(printer);
+      flushAndCheckError(printer.printStream);
     }
   }
 
@@ -582,47 +528,39 @@ public abstract class OutputFormatter implements Serializable {
         AspectResolver aspectResolver,
         ConditionalEdges conditionalEdges)
         throws IOException {
-      // In order to handle cycles correctly, we need work on the strong
-      // component graph, as cycles should be treated a "clump" of nodes all on
-      // the same rank. Graphs may contain cycles because there are errors in BUILD files.
-
-      // Dynamic programming algorithm:
-      // rank(x) = max(rank(p)) + 1 foreach p in preds(x)
-      // TODO(bazel-team): Move to Digraph.
-      class DP {
-        final Map<Node<Set<Node<Target>>>, Integer> ranks = new HashMap<>();
-
-        int rank(Node<Set<Node<Target>>> node) {
-          Integer rank = ranks.get(node);
-          if (rank == null) {
-            int maxPredRank = -1;
-            for (Node<Set<Node<Target>>> p : node.getPredecessors()) {
-              maxPredRank = Math.max(maxPredRank, rank(p));
-            }
-            rank = maxPredRank + 1;
-            ranks.put(node, rank);
-          }
-          return rank;
-        }
-      }
-      DP dp = new DP();
-
-      // Now sort by rank...
-      List<RankAndLabel> output = new ArrayList<>();
-      for (Node<Set<Node<Target>>> x : result.getStrongComponentGraph().getNodes()) {
-        int rank = dp.rank(x);
-        for (Node<Target> y : x.getLabel()) {
-          output.add(new RankAndLabel(rank, y.getLabel().getLabel()));
-        }
+      // Cycles are treated as a "clump" of nodes all on the same rank. Graphs may contain cycles
+      // because there are errors in BUILD files.
+      RankPrinter printer = new RankPrinter(options, out);
+      CompactDigraph.of(result).visitByMaxRank(printer);
+      flushAndCheckError(printer.printStream);
+    }
+  }
+
+  /**
+   * Prints the ranks of {@link MinrankOutputFormatter} and {@link MaxrankOutputFormatter} as they
+   * are computed, flushing after each one so that large graphs are written out progressively.
+   */
+  private static class RankPrinter implements CompactDigraph.LevelVisitor<Target, IOException> {
+    private final PrintStream printStream;
+    private final boolean sortByLabel;
+    private final String lineTerm;
+
+    private RankPrinter(QueryOptions options, OutputStream out) {
+      this.printStream = new PrintStream(out);
+      this.sortByLabel = options.orderOutput == OrderOutput.FULL;
+      this.lineTerm = options.getLineTerminator();
+    }
+
+    @Override
+    public void visitLevel(int rank, List<Target> targets) throws IOException {
+      List<RankAndLabel> output = new ArrayList<>(targets.size());
+      for (Target target : targets) {
+        output.add(new RankAndLabel(rank, target.getLabel()));
       }
-      if (options.orderOutput == OrderOutput.FULL) {
+      if (sortByLabel) {
         // Use the natural order for RankAndLabels, which breaks ties alphabetically.
         Collections.sort(output);
-      } else {
-        Collections.sort(output, comparingInt(arg -> arg.rank));
       }
-      final String lineTerm = options.getLineTerminator();
-      PrintStream printStream = new PrintStream(out);
       for (RankAndLabel item : output) {
         printStream.print(item + lineTerm);
       }
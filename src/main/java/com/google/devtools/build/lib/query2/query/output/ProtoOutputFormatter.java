@@ -55,6 +55,7 @@ import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver
 import com.google.devtools.build.lib.query2.query.output.OutputFormatter.AbstractUnorderedFormatter;
 import com.google.devtools.build.lib.query2.query.output.QueryOptions.OrderOutput;
 import com.google.devtools.build.lib.syntax.Type;
+import com.google.protobuf.CodedOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
@@ -71,6 +72,10 @@ import javax.annotation.Nullable;
  * of a query result and outputs the proto bytes to the output print stream.
  * By taking the bytes and calling {@code mergeFrom()} on a
  * {@code Build.QueryResult} object the full result can be reconstructed.
+ *
+ * <p>The targets are written as they are received: the output is a sequence of length-delimited
+ * {@code Build.Target} messages, each preceded by the tag of {@code QueryResult.target}, which
+ * may also be read one at a time.
  */
 public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
   /**
@@ -127,27 +132,27 @@ public class ProtoOutputFormatter extends AbstractUnorderedFormatter {
       final OutputStream out, final QueryOptions options) {
     return new OutputFormatterCallback<Target>() {
 
-      private QueryResult.Builder queryResult;
+      private CodedOutputStream codedOut;
 
       @Override
       public void start() {
-        queryResult = Build.QueryResult.newBuilder();
+        codedOut = CodedOutputStream.newInstance(out);
       }
 
       @Override
       public void processOutput(Iterable<Target> partialResult)
           throws IOException, InterruptedException {
-
+        // Each target is written as a length-delimited element of the repeated target field, which
+        // is the encoding of the QueryResult of all of them, without holding them in memory.
         for (Target target : partialResult) {
-          queryResult.addTarget(toTargetProtoBuffer(target));
+          codedOut.writeMessage(QueryResult.TARGET_FIELD_NUMBER, toTargetProtoBuffer(target));
         }
+        codedOut.flush();
       }
 
       @Override
       public void close(boolean failFast) throws IOException {
-        if (!failFast) {
-          queryResult.build().writeTo(out);
-        }
+        codedOut.flush();
       }
     };
   }
@@ -197,6 +197,16 @@ public class QueryOptions extends CommonQueryOptions {
       help = "If true, uses a ForkJoinPool instead of a PriorityBlockingQueue for Skyframe.")
   public boolean useForkJoinPool;
 
+  @Option(
+      name = "experimental_compact_query_graph",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.QUERY,
+      effectTags = {OptionEffectTag.BUILD_FILE_SEMANTICS, OptionEffectTag.EAGERNESS_TO_EXIT},
+      help =
+          "If true, deps(), somepath() and related functions walk a compact, int-indexed copy of "
+              + "the dependency graph instead of its node objects.")
+  public boolean useCompactQueryGraph;
+
   /** Ugly workaround since line terminator option default has to be constant expression. */
   public String getLineTerminator() {
     if (lineTerminatorNull) {
@@ -213,6 +223,9 @@ public class QueryOptions extends CommonQueryOptions {
     if (strictTestSuite) {
       settings.add(Setting.TESTS_EXPRESSION_STRICT);
     }
+    if (useCompactQueryGraph) {
+      settings.add(Setting.COMPACT_GRAPH);
+    }
     return settings;
   }
 }
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.query2.query.output;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -36,27 +37,31 @@ import com.google.devtools.build.lib.query2.engine.ThreadSafeOutputFormatterCall
 import com.google.devtools.build.lib.query2.query.aspectresolvers.AspectResolver;
 import com.google.devtools.build.lib.query2.query.output.OutputFormatter.AbstractUnorderedFormatter;
 import com.google.devtools.build.lib.syntax.Type;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 /**
  * An output formatter that prints the result as XML.
+ *
+ * <p>The targets are written as they are received, so that the memory needed does not grow with
+ * the size of the result. Nothing is written until the first target, so a query that fails before
+ * it produces any output writes nothing, as before; one that fails later still writes a
+ * well-formed document of the targets written so far.
  */
 class XmlOutputFormatter extends AbstractUnorderedFormatter {
 
@@ -89,11 +94,12 @@ class XmlOutputFormatter extends AbstractUnorderedFormatter {
       final OutputStream out, final QueryOptions options) {
     return new OutputFormatterCallback<Target>() {
 
+      // Creates the elements of the targets, which are written and dropped one at a time.
       private Document doc;
-      private Element queryElem;
+      private StreamingXmlWriter writer;
 
       @Override
-      public void start() {
+      public void start() throws IOException {
         try {
           DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
           doc = factory.newDocumentBuilder().newDocument();
@@ -102,35 +108,148 @@ class XmlOutputFormatter extends AbstractUnorderedFormatter {
           throw new IllegalStateException("XML output failed", e);
         }
         doc.setXmlVersion("1.1");
-        queryElem = doc.createElement("query");
-        queryElem.setAttribute("version", "2");
-        doc.appendChild(queryElem);
+        writer = new StreamingXmlWriter(out);
       }
 
       @Override
       public void processOutput(Iterable<Target> partialResult)
           throws IOException, InterruptedException {
         for (Target target : partialResult) {
-          queryElem.appendChild(createTargetElement(doc, target));
+          writer.writeTarget(createTargetElement(doc, target));
         }
+        writer.flush();
       }
 
       @Override
       public void close(boolean failFast) throws IOException {
-        if (!failFast) {
-          try {
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.transform(new DOMSource(doc), new StreamResult(out));
-          } catch (TransformerFactoryConfigurationError | TransformerException e) {
-            // This shouldn't be possible: all the configuration is hard-coded.
-            throw new IllegalStateException("XML output failed", e);
-          }
+        // Targets already on the output must not be left in an unterminated document.
+        if (!failFast || writer.hasTargets()) {
+          writer.finish();
         }
       }
     };
   }
 
+  /**
+   * Writes the {@code <query>} document one target element at a time, as they are computed, in the
+   * format of an indenting {@link javax.xml.transform.Transformer} of the whole document.
+   *
+   * <p>The elements only have attributes and child elements, so only those are written.
+   */
+  @VisibleForTesting
+  static final class StreamingXmlWriter {
+    private static final String INDENT = "    ";
+
+    private final Writer writer;
+    private final String lineSeparator = System.lineSeparator();
+    private boolean hasTargets;
+
+    StreamingXmlWriter(OutputStream out) {
+      this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    private void writeHeader() throws IOException {
+      writer.write("<?xml version=\"1.1\" encoding=\"UTF-8\" standalone=\"no\"?>");
+      writer.write(lineSeparator);
+      writer.write("<query version=\"2\"");
+    }
+
+    void writeTarget(Element elem) throws IOException {
+      if (!hasTargets) {
+        writeHeader();
+        writer.write('>');
+        writer.write(lineSeparator);
+        hasTargets = true;
+      }
+      writeElement(elem, 1);
+    }
+
+    boolean hasTargets() {
+      return hasTargets;
+    }
+
+    void flush() throws IOException {
+      writer.flush();
+    }
+
+    void finish() throws IOException {
+      if (hasTargets) {
+        writer.write("</query>");
+      } else {
+        writeHeader();
+        writer.write("/>");
+      }
+      writer.write(lineSeparator);
+      writer.flush();
+    }
+
+    private void writeElement(Element elem, int depth) throws IOException {
+      writeIndent(depth);
+      writer.write('<');
+      writer.write(elem.getTagName());
+      // Attributes are listed in the order of their names, like the Transformer does.
+      NamedNodeMap attributes = elem.getAttributes();
+      for (int i = 0; i < attributes.getLength(); i++) {
+        Node attr = attributes.item(i);
+        writer.write(' ');
+        writer.write(attr.getNodeName());
+        writer.write("=\"");
+        writeEscaped(attr.getNodeValue());
+        writer.write('"');
+      }
+      Node child = elem.getFirstChild();
+      if (child == null) {
+        writer.write("/>");
+        writer.write(lineSeparator);
+        return;
+      }
+      writer.write('>');
+      writer.write(lineSeparator);
+      for (; child != null; child = child.getNextSibling()) {
+        writeElement((Element) child, depth + 1);
+      }
+      writeIndent(depth);
+      writer.write("</");
+      writer.write(elem.getTagName());
+      writer.write('>');
+      writer.write(lineSeparator);
+    }
+
+    private void writeIndent(int depth) throws IOException {
+      for (int i = 0; i < depth; i++) {
+        writer.write(INDENT);
+      }
+    }
+
+    /** Writes an attribute value, with the character references of XML 1.1 where needed. */
+    private void writeEscaped(String value) throws IOException {
+      for (int i = 0; i < value.length(); ) {
+        int c = value.codePointAt(i);
+        switch (c) {
+          case '<':
+            writer.write("&lt;");
+            break;
+          case '>':
+            writer.write("&gt;");
+            break;
+          case '&':
+            writer.write("&amp;");
+            break;
+          case '"':
+            writer.write("&quot;");
+            break;
+          default:
+            if (c < 0x20 || Character.isSupplementaryCodePoint(c)) {
+              writer.write("&#" + c + ";");
+            } else {
+              writer.write(c);
+            }
+        }
+        i += Character.charCount(c);
+      }
+    }
+  }
+
   /**
    * Creates and returns a new DOM tree for the specified build target.
    *
@@ -143,7 +262,8 @@ class XmlOutputFormatter extends AbstractUnorderedFormatter {
    * - rule attributes are represented in the DOM structure.
    * @throws InterruptedException
    */
-  private Element createTargetElement(Document doc, Target target)
+  @VisibleForTesting
+  Element createTargetElement(Document doc, Target target)
       throws InterruptedException {
     Element elem;
     if (target instanceof Rule) {
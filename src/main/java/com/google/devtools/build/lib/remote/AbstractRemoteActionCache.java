@@ -132,6 +132,24 @@ public abstract class AbstractRemoteActionCache implements AutoCloseable {
    */
   protected abstract ListenableFuture<Void> downloadBlob(Digest digest, OutputStream out);
 
+  /**
+   * Downloads the blobs with content hashes {@code digests} to the output streams at the same index
+   * of {@code outs}. Implementations may fetch several blobs with a single call, the default
+   * implementation downloads each blob with {@link #downloadBlob(Digest, OutputStream)}.
+   *
+   * @return one future per blob, in the order of {@code digests}, that completes after the
+   *     download of that blob completes (succeeds / fails).
+   */
+  protected List<ListenableFuture<Void>> downloadBlobs(
+      List<Digest> digests, List<OutputStream> outs) {
+    Preconditions.checkArgument(digests.size() == outs.size());
+    List<ListenableFuture<Void>> downloads = new ArrayList<>(digests.size());
+    for (int i = 0; i < digests.size(); i++) {
+      downloads.add(downloadBlob(digests.get(i), outs.get(i)));
+    }
+    return downloads;
+  }
+
   /**
    * Downloads a blob with content hash {@code digest} and stores its content in memory.
    *
@@ -175,20 +193,12 @@ public abstract class AbstractRemoteActionCache implements AutoCloseable {
     ActionResultMetadata metadata = parseActionResultMetadata(result, execRoot);
 
     List<ListenableFuture<FileMetadata>> downloads =
-        Stream.concat(
-                metadata.files().stream(),
-                metadata.directories().stream()
-                    .flatMap((entry) -> entry.getValue().files().stream()))
-            .map(
-                (file) -> {
-                  try {
-                    ListenableFuture<Void> download = downloadFile(file.path(), file.digest());
-                    return Futures.transform(download, (d) -> file, directExecutor());
-                  } catch (IOException e) {
-                    return Futures.<FileMetadata>immediateFailedFuture(e);
-                  }
-                })
-            .collect(Collectors.toList());
+        downloadFiles(
+            Stream.concat(
+                    metadata.files().stream(),
+                    metadata.directories().stream()
+                        .flatMap((entry) -> entry.getValue().files().stream()))
+                .collect(Collectors.toList()));
 
     // Subsequently we need to wait for *every* download to finish, even if we already know that
     // one failed. That's so that when exiting this method we can be sure that all downloads have
@@ -294,6 +304,43 @@ public abstract class AbstractRemoteActionCache implements AutoCloseable {
     }
   }
 
+  /**
+   * Downloads the given files with a single call to {@link #downloadBlobs}.
+   *
+   * @return one future per file, which completes with the file after it has been downloaded.
+   */
+  private List<ListenableFuture<FileMetadata>> downloadFiles(List<FileMetadata> files) {
+    List<ListenableFuture<FileMetadata>> downloads = new ArrayList<>(files.size());
+    List<FileMetadata> filesToDownload = new ArrayList<>(files.size());
+    List<Digest> digests = new ArrayList<>(files.size());
+    List<OutputStream> outs = new ArrayList<>(files.size());
+    for (FileMetadata file : files) {
+      try {
+        Preconditions.checkNotNull(file.path().getParentDirectory()).createDirectoryAndParents();
+        if (file.digest().getSizeBytes() == 0) {
+          // Handle empty file locally.
+          FileSystemUtils.writeContent(file.path(), new byte[0]);
+          downloads.add(Futures.immediateFuture(file));
+          continue;
+        }
+      } catch (IOException e) {
+        downloads.add(Futures.immediateFailedFuture(e));
+        continue;
+      }
+      filesToDownload.add(file);
+      digests.add(file.digest());
+      outs.add(new LazyFileOutputStream(file.path()));
+    }
+    List<ListenableFuture<Void>> blobDownloads = downloadBlobs(digests, outs);
+    for (int i = 0; i < filesToDownload.size(); i++) {
+      FileMetadata file = filesToDownload.get(i);
+      downloads.add(
+          Futures.transform(
+              closeWhenDone(outs.get(i), blobDownloads.get(i)), (d) -> file, directExecutor()));
+    }
+    return downloads;
+  }
+
   /** Download a file (that is not a directory). The content is fetched from the digest. */
   public ListenableFuture<Void> downloadFile(Path path, Digest digest) throws IOException {
     Preconditions.checkNotNull(path.getParentDirectory()).createDirectoryAndParents();
@@ -304,8 +351,12 @@ public abstract class AbstractRemoteActionCache implements AutoCloseable {
     }
 
     OutputStream out = new LazyFileOutputStream(path);
+    return closeWhenDone(out, downloadBlob(digest, out));
+  }
+
+  /** Closes {@code out} once {@code f} completes, and returns a future for both. */
+  private static ListenableFuture<Void> closeWhenDone(OutputStream out, ListenableFuture<Void> f) {
     SettableFuture<Void> outerF = SettableFuture.create();
-    ListenableFuture<Void> f = downloadBlob(digest, out);
     Futures.addCallback(
         f,
         new FutureCallback<Void>() {
@@ -337,26 +388,25 @@ public abstract class AbstractRemoteActionCache implements AutoCloseable {
 
   private List<ListenableFuture<FileMetadata>> downloadOutErr(ActionResult result, OutErr outErr)
       throws IOException {
-    List<ListenableFuture<FileMetadata>> downloads = new ArrayList<>();
+    List<Digest> digests = new ArrayList<>(2);
+    List<OutputStream> outs = new ArrayList<>(2);
     if (!result.getStdoutRaw().isEmpty()) {
       result.getStdoutRaw().writeTo(outErr.getOutputStream());
       outErr.getOutputStream().flush();
     } else if (result.hasStdoutDigest()) {
-      downloads.add(
-          Futures.transform(
-              downloadBlob(result.getStdoutDigest(), outErr.getOutputStream()),
-              (d) -> null,
-              directExecutor()));
+      digests.add(result.getStdoutDigest());
+      outs.add(outErr.getOutputStream());
     }
     if (!result.getStderrRaw().isEmpty()) {
       result.getStderrRaw().writeTo(outErr.getErrorStream());
       outErr.getErrorStream().flush();
     } else if (result.hasStderrDigest()) {
-      downloads.add(
-          Futures.transform(
-              downloadBlob(result.getStderrDigest(), outErr.getErrorStream()),
-              (d) -> null,
-              directExecutor()));
+      digests.add(result.getStderrDigest());
+      outs.add(outErr.getErrorStream());
+    }
+    List<ListenableFuture<FileMetadata>> downloads = new ArrayList<>(digests.size());
+    for (ListenableFuture<Void> download : downloadBlobs(digests, outs)) {
+      downloads.add(Futures.transform(download, (d) -> null, directExecutor()));
     }
     return downloads;
   }
@@ -0,0 +1,147 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Strings.isNullOrEmpty;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.io.IOException;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Uploads the outputs of locally executed spawns to the remote cache in the background, so that
+ * the spawns do not wait for the network.
+ *
+ * <p>The total size of the outputs of pending uploads is bounded: {@link #submit} blocks while the
+ * upload would exceed the bound, which keeps a slow remote cache from accumulating an unbounded
+ * backlog. Callers must make sure the uploaded files are not modified until their upload completes,
+ * and must call {@link #awaitCompletion} before the remote cache is closed at the end of the build.
+ */
+@ThreadSafe
+final class AsyncOutputUploader {
+  /** An upload of the outputs of a spawn. */
+  @FunctionalInterface
+  interface Upload {
+    void run() throws IOException, InterruptedException;
+  }
+
+  private final long maxInFlightBytes;
+  private final ExecutorService executor;
+
+  @GuardedBy("this")
+  private long inFlightBytes;
+
+  @GuardedBy("this")
+  private int inFlightUploads;
+
+  @GuardedBy("this")
+  private final Set<String> failures = new LinkedHashSet<>();
+
+  /**
+   * Creates an uploader.
+   *
+   * @param maxInFlightBytes the maximum total size of the outputs of pending uploads
+   * @param threads the number of uploads that run concurrently
+   */
+  AsyncOutputUploader(long maxInFlightBytes, int threads) {
+    checkArgument(maxInFlightBytes > 0, "maxInFlightBytes must be gt 0");
+    checkArgument(threads > 0, "threads must be gt 0");
+    this.maxInFlightBytes = maxInFlightBytes;
+    this.executor =
+        Executors.newFixedThreadPool(
+            threads,
+            new ThreadFactoryBuilder()
+                .setNameFormat("remote-output-upload-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  /**
+   * Schedules an upload of outputs totalling {@code bytes}, blocking while the pending uploads
+   * would exceed the maximum size. A single upload larger than the maximum size waits for all
+   * other uploads to complete.
+   */
+  void submit(long bytes, Upload upload) throws InterruptedException {
+    long reserved = Math.min(bytes, maxInFlightBytes);
+    synchronized (this) {
+      while (inFlightBytes > 0 && inFlightBytes + reserved > maxInFlightBytes) {
+        wait();
+      }
+      inFlightBytes += reserved;
+      inFlightUploads++;
+    }
+    try {
+      executor.execute(
+          () -> {
+            try {
+              upload.run();
+            } catch (IOException e) {
+              String message = e.getMessage();
+              recordFailure(isNullOrEmpty(message) ? e.getClass().getSimpleName() : message);
+            } catch (InterruptedException e) {
+              recordFailure("Upload interrupted");
+            } catch (RuntimeException e) {
+              recordFailure(e.toString());
+            } finally {
+              release(reserved);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      release(reserved);
+      throw e;
+    }
+  }
+
+  private synchronized void recordFailure(String message) {
+    failures.add(message);
+  }
+
+  private synchronized void release(long reserved) {
+    inFlightBytes -= reserved;
+    inFlightUploads--;
+    notifyAll();
+  }
+
+  /**
+   * Waits for all pending uploads to complete, and returns the distinct error messages of the
+   * uploads that failed since the last call.
+   */
+  synchronized ImmutableList<String> awaitCompletion() throws InterruptedException {
+    while (inFlightUploads > 0) {
+      wait();
+    }
+    ImmutableList<String> result = ImmutableList.copyOf(failures);
+    failures.clear();
+    return result;
+  }
+
+  /** Returns the total size of the outputs of pending uploads. */
+  synchronized long getInFlightBytes() {
+    return inFlightBytes;
+  }
+
+  /** Stops all uploads. The uploader may not be used after calling this. */
+  void shutdownNow() {
+    executor.shutdownNow();
+  }
+}
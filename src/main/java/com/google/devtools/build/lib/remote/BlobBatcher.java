@@ -0,0 +1,337 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import build.bazel.remote.execution.v2.BatchReadBlobsRequest;
+import build.bazel.remote.execution.v2.BatchReadBlobsResponse;
+import build.bazel.remote.execution.v2.BatchUpdateBlobsRequest;
+import build.bazel.remote.execution.v2.BatchUpdateBlobsResponse;
+import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc.ContentAddressableStorageFutureStub;
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.remote.util.Utils;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.rpc.Code;
+import io.grpc.Context;
+import io.grpc.StatusRuntimeException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * Transfers small blobs to and from the remote CAS with {@code BatchUpdateBlobs} and {@code
+ * BatchReadBlobs} calls, so that many small blobs such as {@code Directory} protos and the stdout
+ * and stderr of actions share a single RPC instead of each opening a ByteStream call.
+ *
+ * <p>A batch holds as many blobs as fit both the maximum total size of a batch advertised by the
+ * server and the maximum size of a gRPC message. Blobs larger than the configured maximum blob size
+ * are not batched and must be streamed by the caller, see {@link #shouldBatch}.
+ */
+@ThreadSafe
+final class BlobBatcher {
+  /**
+   * An upper bound for the bytes a blob adds to a {@link BatchReadBlobsResponse} on top of its data
+   * and digest, for the field tags, lengths and status.
+   */
+  private static final int READ_RESPONSE_OVERHEAD = 32;
+
+  private final String instanceName;
+  private final Supplier<ContentAddressableStorageFutureStub> casFutureStub;
+  private final RemoteRetrier retrier;
+  private final DigestUtil digestUtil;
+  private final long maxBlobSize;
+  private final long maxBatchSize;
+  private final boolean verifyDownloads;
+  @Nullable private final KnownDigestsCache knownDigests;
+
+  /**
+   * Creates a batcher.
+   *
+   * @param maxBlobSize the size in bytes up to which blobs are batched
+   * @param maxBatchTotalSizeBytes the maximum total size of the blobs in a batch as advertised by
+   *     the server, or {@code 0} if the server sets no limit
+   * @param maxMessageSize the maximum size in bytes of a gRPC message
+   * @param knownDigests the digests known to be present in the remote CAS, to which uploaded
+   *     digests are added. May be {@code null}
+   */
+  BlobBatcher(
+      String instanceName,
+      Supplier<ContentAddressableStorageFutureStub> casFutureStub,
+      RemoteRetrier retrier,
+      DigestUtil digestUtil,
+      long maxBlobSize,
+      long maxBatchTotalSizeBytes,
+      int maxMessageSize,
+      boolean verifyDownloads,
+      @Nullable KnownDigestsCache knownDigests) {
+    checkArgument(maxBlobSize > 0, "maxBlobSize must be gt 0");
+    checkArgument(maxBatchTotalSizeBytes >= 0, "maxBatchTotalSizeBytes must be ge 0");
+    this.instanceName = instanceName;
+    this.casFutureStub = casFutureStub;
+    this.retrier = retrier;
+    this.digestUtil = digestUtil;
+    this.maxBatchSize =
+        maxBatchTotalSizeBytes > 0
+            ? Math.min(maxBatchTotalSizeBytes, maxMessageSize)
+            : maxMessageSize;
+    this.maxBlobSize = maxBlobSize;
+    this.verifyDownloads = verifyDownloads;
+    this.knownDigests = knownDigests;
+  }
+
+  /** Returns whether the blob with the given digest is to be transferred in a batch. */
+  boolean shouldBatch(Digest digest) {
+    return digest.getSizeBytes() > 0
+        && digest.getSizeBytes() <= maxBlobSize
+        && readResponseSize(digest) <= maxBatchSize
+        && updateRequestSize(digest) <= maxBatchSize;
+  }
+
+  /**
+   * Uploads the given blobs in as few {@code BatchUpdateBlobs} calls as possible. All blobs must be
+   * accepted by {@link #shouldBatch}.
+   *
+   * @return a future that completes once all blobs have been uploaded
+   * @throws IOException when reading the data of a blob fails
+   */
+  ListenableFuture<Void> uploadBlobs(Map<Digest, Chunker> blobs) throws IOException {
+    List<ListenableFuture<Void>> batches = new ArrayList<>();
+    BatchUpdateBlobsRequest.Builder batch = newUpdateRequest();
+    long batchSize = batch.build().getSerializedSize();
+    for (Map.Entry<Digest, Chunker> blob : blobs.entrySet()) {
+      Digest digest = blob.getKey();
+      checkArgument(shouldBatch(digest), "Blob %s is too large to be batched", digest);
+      long size = updateRequestSize(digest);
+      if (batchSize + size > maxBatchSize && batch.getRequestsCount() > 0) {
+        batches.add(uploadBatch(batch.build()));
+        batch = newUpdateRequest();
+        batchSize = batch.build().getSerializedSize();
+      }
+      batch.addRequestsBuilder().setDigest(digest).setData(readFully(blob.getValue()));
+      batchSize += size;
+    }
+    if (batch.getRequestsCount() > 0) {
+      batches.add(uploadBatch(batch.build()));
+    }
+    return Futures.whenAllSucceed(batches).call(() -> null, MoreExecutors.directExecutor());
+  }
+
+  private BatchUpdateBlobsRequest.Builder newUpdateRequest() {
+    return BatchUpdateBlobsRequest.newBuilder().setInstanceName(instanceName);
+  }
+
+  private ListenableFuture<Void> uploadBatch(BatchUpdateBlobsRequest request) {
+    Context ctx = Context.current();
+    ListenableFuture<BatchUpdateBlobsResponse> response =
+        retrier.executeAsync(() -> ctx.call(() -> casFutureStub.get().batchUpdateBlobs(request)));
+    return Futures.transformAsync(
+        Futures.catchingAsync(
+            response,
+            StatusRuntimeException.class,
+            (e) -> Futures.immediateFailedFuture(new IOException(e)),
+            MoreExecutors.directExecutor()),
+        (r) -> {
+          for (BatchUpdateBlobsResponse.Response blobResponse : r.getResponsesList()) {
+            if (blobResponse.getStatus().getCode() != Code.OK_VALUE) {
+              return Futures.immediateFailedFuture(
+                  new IOException(
+                      String.format(
+                          "Failed to upload blob %s in a batch: %s",
+                          digestUtil.toString(blobResponse.getDigest()),
+                          blobResponse.getStatus().getMessage())));
+            }
+          }
+          if (r.getResponsesCount() != request.getRequestsCount()) {
+            return Futures.immediateFailedFuture(
+                new IOException(
+                    String.format(
+                        "Expected %d responses to BatchUpdateBlobs, but got %d",
+                        request.getRequestsCount(), r.getResponsesCount())));
+          }
+          if (knownDigests != null) {
+            for (BatchUpdateBlobsRequest.Request blobRequest : request.getRequestsList()) {
+              knownDigests.markPresent(blobRequest.getDigest());
+            }
+          }
+          return Futures.immediateFuture(null);
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  /**
+   * Downloads the given blobs in as few {@code BatchReadBlobs} calls as possible, writing each to
+   * the output stream at the same index. All blobs must be accepted by {@link #shouldBatch}. A
+   * digest may be requested more than once, in which case it is fetched only once.
+   *
+   * @return one future per blob, in the order of {@code digests}. A future fails with a {@link
+   *     CacheNotFoundException} if its blob is missing from the remote CAS
+   */
+  List<ListenableFuture<Void>> downloadBlobs(List<Digest> digests, List<OutputStream> outs) {
+    checkArgument(digests.size() == outs.size(), "digests and outs must have the same size");
+    List<SettableFuture<Void>> results = new ArrayList<>(digests.size());
+    ListMultimap<Digest, Integer> indices = ArrayListMultimap.create();
+    List<BatchReadBlobsRequest> batches = new ArrayList<>();
+    BatchReadBlobsRequest.Builder batch = newReadRequest();
+    long batchSize = 0;
+    for (int i = 0; i < digests.size(); i++) {
+      Digest digest = digests.get(i);
+      checkArgument(shouldBatch(digest), "Blob %s is too large to be batched", digest);
+      results.add(SettableFuture.create());
+      boolean alreadyRequested = indices.containsKey(digest);
+      indices.put(digest, i);
+      if (alreadyRequested) {
+        continue;
+      }
+      long size = readResponseSize(digest);
+      if (batchSize + size > maxBatchSize && batch.getDigestsCount() > 0) {
+        batches.add(batch.build());
+        batch = newReadRequest();
+        batchSize = 0;
+      }
+      batch.addDigests(digest);
+      batchSize += size;
+    }
+    if (batch.getDigestsCount() > 0) {
+      batches.add(batch.build());
+    }
+    // Only start reading once all indices are known, since a batch may complete immediately.
+    for (BatchReadBlobsRequest request : batches) {
+      readBatch(request, indices, outs, results);
+    }
+    return new ArrayList<>(results);
+  }
+
+  private BatchReadBlobsRequest.Builder newReadRequest() {
+    return BatchReadBlobsRequest.newBuilder().setInstanceName(instanceName);
+  }
+
+  private void readBatch(
+      BatchReadBlobsRequest request,
+      ListMultimap<Digest, Integer> indices,
+      List<OutputStream> outs,
+      List<SettableFuture<Void>> results) {
+    Context ctx = Context.current();
+    ListenableFuture<BatchReadBlobsResponse> response =
+        retrier.executeAsync(() -> ctx.call(() -> casFutureStub.get().batchReadBlobs(request)));
+    response.addListener(
+        () -> {
+          Map<Digest, BatchReadBlobsResponse.Response> responses = new HashMap<>();
+          try {
+            for (BatchReadBlobsResponse.Response blobResponse :
+                Utils.getFromFuture(response).getResponsesList()) {
+              responses.put(blobResponse.getDigest(), blobResponse);
+            }
+          } catch (IOException | RuntimeException e) {
+            Throwable t = e instanceof StatusRuntimeException ? new IOException(e) : e;
+            for (Digest digest : request.getDigestsList()) {
+              for (int i : indices.get(digest)) {
+                results.get(i).setException(t);
+              }
+            }
+            return;
+          } catch (InterruptedException e) {
+            // Not reached, since the future is done.
+            Thread.currentThread().interrupt();
+            return;
+          }
+          for (Digest digest : request.getDigestsList()) {
+            BatchReadBlobsResponse.Response blobResponse = responses.get(digest);
+            for (int i : indices.get(digest)) {
+              try {
+                writeBlob(digest, blobResponse, outs.get(i));
+                results.get(i).set(null);
+              } catch (IOException e) {
+                results.get(i).setException(e);
+              }
+            }
+          }
+        },
+        MoreExecutors.directExecutor());
+  }
+
+  private void writeBlob(
+      Digest digest, @Nullable BatchReadBlobsResponse.Response response, OutputStream out)
+      throws IOException {
+    if (response == null) {
+      throw new IOException(
+          "BatchReadBlobs returned no response for blob " + digestUtil.toString(digest));
+    }
+    int code = response.getStatus().getCode();
+    if (code == Code.NOT_FOUND_VALUE) {
+      throw new CacheNotFoundException(digest, digestUtil);
+    }
+    if (code != Code.OK_VALUE) {
+      throw new IOException(
+          String.format(
+              "Failed to download blob %s in a batch: %s",
+              digestUtil.toString(digest), response.getStatus().getMessage()));
+    }
+    ByteString data = response.getData();
+    if (verifyDownloads) {
+      Digest actual = digestUtil.compute(data.toByteArray());
+      if (!actual.getHash().equals(digest.getHash())) {
+        throw new IOException(
+            String.format(
+                "An output download failed, because the expected hash '%s' did not match the "
+                    + "received hash '%s'.",
+                digest.getHash(), actual.getHash()));
+      }
+    }
+    data.writeTo(out);
+    out.flush();
+  }
+
+  /** The number of bytes a blob adds to a {@link BatchUpdateBlobsRequest}. */
+  private static long updateRequestSize(Digest digest) {
+    long entrySize =
+        CodedOutputStream.computeMessageSize(
+                BatchUpdateBlobsRequest.Request.DIGEST_FIELD_NUMBER, digest)
+            + CodedOutputStream.computeTagSize(BatchUpdateBlobsRequest.Request.DATA_FIELD_NUMBER)
+            + CodedOutputStream.computeUInt64SizeNoTag(digest.getSizeBytes())
+            + digest.getSizeBytes();
+    return CodedOutputStream.computeTagSize(BatchUpdateBlobsRequest.REQUESTS_FIELD_NUMBER)
+        + CodedOutputStream.computeUInt64SizeNoTag(entrySize)
+        + entrySize;
+  }
+
+  /** An upper bound for the number of bytes a blob adds to a {@link BatchReadBlobsResponse}. */
+  private static long readResponseSize(Digest digest) {
+    return digest.getSerializedSize() + digest.getSizeBytes() + READ_RESPONSE_OVERHEAD;
+  }
+
+  private static ByteString readFully(Chunker chunker) throws IOException {
+    chunker.reset();
+    ByteString data = ByteString.EMPTY;
+    while (chunker.hasNext()) {
+      data = data.concat(chunker.next().getData());
+    }
+    return data;
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import build.bazel.remote.execution.v2.CacheCapabilities;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.UnknownFieldSet;
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Support for transferring blobs compressed with DEFLATE (RFC 1951) over the {@code ByteStream}
+ * API.
+ *
+ * <p>A compressed blob is read from {@code [instance/]compressed-blobs/deflate/<hash>/<size>} and
+ * written to {@code [instance/]uploads/<uuid>/compressed-blobs/deflate/<hash>/<size>}, where the
+ * hash and size are those of the uncompressed blob. The {@code write_offset} of a write refers to
+ * the compressed stream. The {@code read_offset} of a read refers to the uncompressed blob, and the
+ * server responds with a new compressed stream of the remaining bytes, so that an interrupted read
+ * can be resumed without the server keeping any state.
+ *
+ * <p>A server advertises support in the {@code supported_compressors} field of its {@link
+ * CacheCapabilities}. The field is defined by later versions of the Remote Execution API than the
+ * one this client is built against, so it is read from the unknown fields of the message.
+ */
+public final class BlobCompression {
+
+  /** The segment of a resource name that precedes the compressor. */
+  public static final String COMPRESSED_BLOBS = "compressed-blobs";
+
+  /** The name of the DEFLATE compressor in resource names. */
+  public static final String DEFLATE = "deflate";
+
+  /** The field number of {@code CacheCapabilities.supported_compressors}. */
+  @VisibleForTesting static final int SUPPORTED_COMPRESSORS_FIELD_NUMBER = 6;
+
+  /** The value of {@code Compressor.Value.DEFLATE}. */
+  @VisibleForTesting static final int DEFLATE_COMPRESSOR = 2;
+
+  private BlobCompression() {}
+
+  /** Returns whether the server advertises support for DEFLATE compressed blobs. */
+  public static boolean isDeflateSupported(CacheCapabilities capabilities) {
+    UnknownFieldSet.Field compressors =
+        capabilities.getUnknownFields().getField(SUPPORTED_COMPRESSORS_FIELD_NUMBER);
+    if (compressors.getVarintList().contains((long) DEFLATE_COMPRESSOR)) {
+      return true;
+    }
+    // Repeated enums are usually packed.
+    for (ByteString packed : compressors.getLengthDelimitedList()) {
+      CodedInputStream in = packed.newCodedInput();
+      try {
+        while (!in.isAtEnd()) {
+          if (in.readEnum() == DEFLATE_COMPRESSOR) {
+            return true;
+          }
+        }
+      } catch (IOException e) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /** Advertises support for DEFLATE compressed blobs in the given capabilities. */
+  public static CacheCapabilities.Builder addDeflateSupport(CacheCapabilities.Builder builder) {
+    return builder.setUnknownFields(
+        UnknownFieldSet.newBuilder(builder.getUnknownFields())
+            .mergeField(
+                SUPPORTED_COMPRESSORS_FIELD_NUMBER,
+                UnknownFieldSet.Field.newBuilder().addVarint(DEFLATE_COMPRESSOR).build())
+            .build());
+  }
+
+  /**
+   * Returns a new compressor. Compression favors speed over ratio, as it must keep up with the
+   * network. The caller must call {@link Deflater#end()} when done.
+   */
+  public static Deflater newDeflater() {
+    return new Deflater(Deflater.BEST_SPEED, /* nowrap= */ true);
+  }
+
+  /** Returns a new decompressor. The caller must call {@link Inflater#end()} when done. */
+  public static Inflater newInflater() {
+    return new Inflater(/* nowrap= */ true);
+  }
+}
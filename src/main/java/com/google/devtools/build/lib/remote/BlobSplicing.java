@@ -0,0 +1,133 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import build.bazel.remote.execution.v2.ActionResult;
+import build.bazel.remote.execution.v2.CacheCapabilities;
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.OutputFile;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.remote.ContentDefinedChunker.ChunkedBlob;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.remote.util.DigestUtil.ActionKey;
+import com.google.protobuf.UnknownFieldSet;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * Support for storing a large blob in the CAS by uploading only its chunks, as split by {@link
+ * ContentDefinedChunker}, and letting the server reassemble it.
+ *
+ * <p>The client uploads the chunks and a manifest listing them, and then stores an action result
+ * with the manifest as its only output file under the {@link #manifestKey} of the blob. A server
+ * that supports splicing recognizes such an update, concatenates the chunks, verifies the result
+ * against the digest of the blob and stores it in the CAS before it stores the action result. It
+ * fails the update with {@code FAILED_PRECONDITION} if a chunk is missing, and with {@code
+ * INVALID_ARGUMENT} if the chunks do not add up to the blob. Clients and executors that know
+ * nothing about chunks read the blob as usual.
+ *
+ * <p>A server advertises support in a field of its {@link CacheCapabilities} that the Remote
+ * Execution API does not define, so it is read from the unknown fields of the message.
+ */
+public final class BlobSplicing {
+
+  /** The path of the manifest in the action result stored under {@link #manifestKey}. */
+  public static final String MANIFEST_PATH = "manifest";
+
+  /** The field number of the capability, chosen well above those of the Remote Execution API. */
+  @VisibleForTesting static final int SPLICING_SUPPORTED_FIELD_NUMBER = 1000;
+
+  private BlobSplicing() {}
+
+  /** Returns whether the server advertises support for reassembling blobs from their chunks. */
+  public static boolean isSplicingSupported(CacheCapabilities capabilities) {
+    return capabilities
+        .getUnknownFields()
+        .getField(SPLICING_SUPPORTED_FIELD_NUMBER)
+        .getVarintList()
+        .contains(1L);
+  }
+
+  /** Advertises support for reassembling blobs from their chunks in the given capabilities. */
+  public static CacheCapabilities.Builder addSplicingSupport(CacheCapabilities.Builder builder) {
+    return builder.setUnknownFields(
+        UnknownFieldSet.newBuilder(builder.getUnknownFields())
+            .addField(
+                SPLICING_SUPPORTED_FIELD_NUMBER,
+                UnknownFieldSet.Field.newBuilder().addVarint(1).build())
+            .build());
+  }
+
+  /** The key under which the manifest of a chunked blob is stored in the action cache. */
+  public static ActionKey manifestKey(DigestUtil digestUtil, Digest digest) {
+    return new ActionKey(
+        digestUtil.computeAsUtf8("chunked-blob-manifest/" + digestUtil.toString(digest)));
+  }
+
+  /** Returns the action result that stores the manifest with the given digest. */
+  public static ActionResult manifestEntry(Digest manifestDigest) {
+    ActionResult.Builder entry = ActionResult.newBuilder();
+    entry.addOutputFilesBuilder().setPath(MANIFEST_PATH).setDigest(manifestDigest);
+    return entry.build();
+  }
+
+  /**
+   * Returns the digest of the manifest if the given action result looks like one stored by {@link
+   * #manifestEntry}, or null otherwise. Whether it is one depends on the key it is stored under,
+   * see {@link #getBlobDigest}.
+   */
+  @Nullable
+  public static Digest getManifestDigest(ActionResult entry) {
+    if (entry.getOutputFilesCount() != 1
+        || entry.getOutputDirectoriesCount() != 0
+        || entry.getOutputFileSymlinksCount() != 0
+        || entry.getOutputDirectorySymlinksCount() != 0) {
+      return null;
+    }
+    OutputFile file = entry.getOutputFiles(0);
+    return file.getPath().equals(MANIFEST_PATH) ? file.getDigest() : null;
+  }
+
+  /**
+   * Returns the digest of the blob described by the given manifest if it is stored under the given
+   * key, or null if it is not a manifest or stored under the key of a different blob.
+   */
+  @Nullable
+  public static Digest getBlobDigest(DigestUtil digestUtil, ActionKey key, byte[] manifest) {
+    Digest digest;
+    try {
+      digest = Digest.parseDelimitedFrom(new ByteArrayInputStream(manifest));
+    } catch (IOException e) {
+      return null;
+    }
+    return digest != null && manifestKey(digestUtil, digest).getDigest().equals(key.getDigest())
+        ? digest
+        : null;
+  }
+
+  /**
+   * Returns the digests of the chunks listed in the manifest of the blob with the given digest, in
+   * order.
+   *
+   * @throws IOException if the manifest is not the manifest of the blob, or its chunks do not add
+   *     up to the size of the blob
+   */
+  public static ImmutableList<Digest> getChunkDigests(Digest digest, byte[] manifest)
+      throws IOException {
+    return ChunkedBlob.fromManifest(digest, manifest).getChunkDigests();
+  }
+}
@@ -19,6 +19,7 @@ import static java.lang.String.format;
 import static java.util.Collections.singletonMap;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import build.bazel.remote.execution.v2.Digest;
 import com.google.bytestream.ByteStreamGrpc;
 import com.google.bytestream.ByteStreamGrpc.ByteStreamFutureStub;
 import com.google.bytestream.ByteStreamProto.QueryWriteStatusRequest;
@@ -33,6 +34,7 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.remote.RemoteRetrier.ProgressiveBackoff;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import io.grpc.CallCredentials;
 import io.grpc.CallOptions;
@@ -79,6 +81,7 @@ class ByteStreamUploader extends AbstractReferenceCounted {
   private final CallCredentials callCredentials;
   private final long callTimeoutSecs;
   private final RemoteRetrier retrier;
+  @Nullable private final KnownDigestsCache knownDigests;
 
   private final Object lock = new Object();
 
@@ -110,6 +113,24 @@ class ByteStreamUploader extends AbstractReferenceCounted {
       @Nullable CallCredentials callCredentials,
       long callTimeoutSecs,
       RemoteRetrier retrier) {
+    this(instanceName, channel, callCredentials, callTimeoutSecs, retrier, null);
+  }
+
+  /**
+   * Creates a new instance that records uploaded blobs in a {@link KnownDigestsCache}, and that
+   * skips uploads of blobs known to be present unless they are forced.
+   *
+   * @param knownDigests the digests known to be present in the remote CAS. May be {@code null}
+   * @see #ByteStreamUploader(String, ReferenceCountedChannel, CallCredentials, long,
+   *     RemoteRetrier)
+   */
+  public ByteStreamUploader(
+      @Nullable String instanceName,
+      ReferenceCountedChannel channel,
+      @Nullable CallCredentials callCredentials,
+      long callTimeoutSecs,
+      RemoteRetrier retrier,
+      @Nullable KnownDigestsCache knownDigests) {
     checkArgument(callTimeoutSecs > 0, "callTimeoutSecs must be gt 0.");
 
     this.instanceName = instanceName;
@@ -117,6 +138,7 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     this.callCredentials = callCredentials;
     this.callTimeoutSecs = callTimeoutSecs;
     this.retrier = retrier;
+    this.knownDigests = knownDigests;
   }
 
   /**
@@ -229,6 +251,12 @@ class ByteStreamUploader extends AbstractReferenceCounted {
         return Futures.immediateFuture(null);
       }
 
+      Digest digest = DigestUtil.buildDigest(hash.toString(), chunker.getSize());
+      if (!forceUpload && knownDigests != null && knownDigests.isKnownPresent(digest)) {
+        knownDigests.recordSavedUpload();
+        return Futures.immediateFuture(null);
+      }
+
       ListenableFuture<Void> inProgress = uploadsInProgress.get(hash);
       if (inProgress != null) {
         return inProgress;
@@ -241,6 +269,9 @@ class ByteStreamUploader extends AbstractReferenceCounted {
                 synchronized (lock) {
                   uploadedBlobs.add(hash);
                 }
+                if (knownDigests != null) {
+                  knownDigests.markPresent(digest);
+                }
                 return null;
               },
               MoreExecutors.directExecutor());
@@ -284,8 +315,13 @@ class ByteStreamUploader extends AbstractReferenceCounted {
   }
 
   private static String uploadResourceName(
-      String instanceName, UUID uuid, HashCode hash, long size) {
-    String resourceName = format("uploads/%s/blobs/%s/%d", uuid, hash, size);
+      String instanceName, UUID uuid, HashCode hash, long size, boolean compressed) {
+    String resourceName =
+        compressed
+            ? format(
+                "uploads/%s/%s/%s/%s/%d",
+                uuid, BlobCompression.COMPRESSED_BLOBS, BlobCompression.DEFLATE, hash, size)
+            : format("uploads/%s/blobs/%s/%d", uuid, hash, size);
     if (!Strings.isNullOrEmpty(instanceName)) {
       resourceName = instanceName + "/" + resourceName;
     }
@@ -301,7 +337,9 @@ class ByteStreamUploader extends AbstractReferenceCounted {
     }
 
     UUID uploadId = UUID.randomUUID();
-    String resourceName = uploadResourceName(instanceName, uploadId, hash, chunker.getSize());
+    String resourceName =
+        uploadResourceName(
+            instanceName, uploadId, hash, chunker.getSize(), chunker.isCompressed());
     AsyncUpload newUpload =
         new AsyncUpload(channel, callCredentials, callTimeoutSecs, retrier, resourceName, chunker);
     ListenableFuture<Void> currUpload = newUpload.start();
@@ -372,6 +410,9 @@ class ByteStreamUploader extends AbstractReferenceCounted {
               progressiveBackoff),
           (result) -> {
             long committedSize = committedOffset.get();
+            if (chunker.isCompressed() && isCompressedWriteComplete(committedSize)) {
+              return Futures.immediateFuture(null);
+            }
             long expected = chunker.getSize();
             if (committedSize != expected) {
               String message =
@@ -384,6 +425,17 @@ class ByteStreamUploader extends AbstractReferenceCounted {
           MoreExecutors.directExecutor());
     }
 
+    /**
+     * Returns whether a compressed write is complete. The compressed size is only known once all
+     * of it was sent, and a server that finds the blob already present may respond with the
+     * uncompressed size, or with {@code -1}, before that.
+     */
+    private boolean isCompressedWriteComplete(long committedSize) {
+      return committedSize == -1
+          || committedSize == chunker.getSize()
+          || (!chunker.hasNext() && committedSize == chunker.getOffset());
+    }
+
     private ByteStreamFutureStub bsFutureStub() {
       return ByteStreamGrpc.newFutureStub(channel)
           .withInterceptors(TracingMetadataUtils.attachMetadataFromContextInterceptor())
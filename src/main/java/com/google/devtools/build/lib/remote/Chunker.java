@@ -29,9 +29,12 @@ import java.io.ByteArrayInputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PushbackInputStream;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterInputStream;
 
 /**
  * Splits a data source into one or more {@link Chunk}s of at most {@code chunkSize} bytes.
@@ -40,6 +43,10 @@ import java.util.function.Supplier;
  * {@code false}, the chunker closes the underlying data source (i.e. file) itself. However, in
  * case of error or when a data source does not get fully consumed, a user must call
  * {@link #reset()} manually.
+ *
+ * <p>A compressed chunker splits the data compressed by {@link BlobCompression} instead, and the
+ * offsets of its chunks refer to the compressed stream. The compressed stream is the same every
+ * time the data is read, so that {@link #seek(long)} can resume it at any offset.
  */
 public final class Chunker {
 
@@ -96,9 +103,11 @@ public final class Chunker {
   private final Supplier<InputStream> dataSupplier;
   private final long size;
   private final int chunkSize;
+  private final boolean compressed;
   private final Chunk emptyChunk;
 
   private InputStream data;
+  private Deflater deflater;
   private long offset;
   private byte[] chunkCache;
 
@@ -107,16 +116,36 @@ public final class Chunker {
   private boolean initialized;
 
   Chunker(Supplier<InputStream> dataSupplier, long size, int chunkSize) {
+    this(dataSupplier, size, chunkSize, /* compressed= */ false);
+  }
+
+  private Chunker(
+      Supplier<InputStream> dataSupplier, long size, int chunkSize, boolean compressed) {
     this.dataSupplier = checkNotNull(dataSupplier);
     this.size = size;
     this.chunkSize = chunkSize;
+    this.compressed = compressed;
     this.emptyChunk = new Chunk(ByteString.EMPTY, 0);
   }
 
+  /**
+   * Returns a chunker that splits the compressed data of this chunker. This chunker must not be
+   * used afterwards, as both read from the same data source.
+   */
+  Chunker compressed() {
+    return compressed ? this : new Chunker(dataSupplier, size, chunkSize, /* compressed= */ true);
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  /** Returns the offset in the data, or in the compressed data if this chunker is compressed. */
   public long getOffset() {
     return offset;
   }
 
+  /** Returns the size of the data, before any compression. */
   public long getSize() {
     return size;
   }
@@ -127,13 +156,9 @@ public final class Chunker {
    * <p>Closes any open resources (file handles, ...).
    */
   public void reset() throws IOException {
-    if (data != null) {
-      data.close();
-    }
-    data = null;
+    close();
     offset = 0;
     initialized = false;
-    chunkCache = null;
   }
 
   /**
@@ -146,14 +171,25 @@ public final class Chunker {
       reset();
       if (toOffset != 0) {
         maybeInitialize();
-        data.skip(toOffset);
+        skip(toOffset);
       }
     } else if (offset != toOffset) {
-      data.skip(toOffset - offset);
+      maybeInitialize();
+      skip(toOffset - offset);
     }
     offset = toOffset;
   }
 
+  private void skip(long bytes) throws IOException {
+    if (!compressed) {
+      data.skip(bytes);
+      return;
+    }
+    // The compressed data is only known by compressing it again.
+    ByteStreams.skipFully(data, bytes);
+    closeIfExhausted();
+  }
+
   /**
    * Returns {@code true} if a subsequent call to {@link #next()} returns a {@link Chunk} object;
    */
@@ -177,6 +213,10 @@ public final class Chunker {
 
     maybeInitialize();
 
+    if (compressed) {
+      return nextCompressed();
+    }
+
     if (size == 0) {
       data = null;
       return emptyChunk;
@@ -218,6 +258,47 @@ public final class Chunker {
     return new Chunk(blob, offsetBefore);
   }
 
+  private Chunk nextCompressed() throws IOException {
+    if (chunkCache == null) {
+      chunkCache = new byte[chunkSize];
+    }
+    long offsetBefore = offset;
+    int bytesRead = ByteStreams.read(data, chunkCache, 0, chunkSize);
+    offset += bytesRead;
+    ByteString blob = ByteString.copyFrom(chunkCache, 0, bytesRead);
+    closeIfExhausted();
+    return new Chunk(blob, offsetBefore);
+  }
+
+  /**
+   * Closes the compressed data source if all its data has been read, so that {@link #hasNext()}
+   * returns {@code false} right after the last chunk.
+   */
+  private void closeIfExhausted() throws IOException {
+    PushbackInputStream in = (PushbackInputStream) data;
+    int nextByte = in.read();
+    if (nextByte == -1) {
+      close();
+    } else {
+      in.unread(nextByte);
+    }
+  }
+
+  private void close() throws IOException {
+    try {
+      if (data != null) {
+        data.close();
+      }
+    } finally {
+      if (deflater != null) {
+        deflater.end();
+      }
+      data = null;
+      deflater = null;
+      chunkCache = null;
+    }
+  }
+
   private long bytesLeft() {
     return getSize() - getOffset();
   }
@@ -235,6 +316,10 @@ public final class Chunker {
       Throwables.propagateIfPossible(e.getCause(), IOException.class);
       throw e;
     }
+    if (compressed) {
+      deflater = BlobCompression.newDeflater();
+      data = new PushbackInputStream(new DeflaterInputStream(data, deflater));
+    }
     initialized = true;
   }
 
@@ -277,6 +362,23 @@ public final class Chunker {
       return this;
     }
 
+    /** Uses {@code size} bytes of the given file, starting at {@code offset}, as input. */
+    public Builder setInput(Path file, long offset, long size) {
+      checkState(inputStream == null);
+      this.size = size;
+      inputStream =
+          () -> {
+            try {
+              InputStream in = file.getInputStream();
+              ByteStreams.skipFully(in, offset);
+              return ByteStreams.limit(in, size);
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          };
+      return this;
+    }
+
     public Builder setInput(long size, ActionInput actionInput, Path execRoot) {
       checkState(inputStream == null);
       this.size = size;
@@ -0,0 +1,220 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.annotation.Nullable;
+
+/**
+ * Splits blobs into chunks at positions that depend on the content around them, so that a local
+ * change to a large blob only changes the chunks around it. Chunks can then be stored in the CAS
+ * individually, and uploading a modified blob only needs to upload the chunks that changed.
+ *
+ * <p>Chunk boundaries are found with a gear rolling hash over the last 64 bytes. The gear table is
+ * derived from a fixed seed; changing it (or the chunk sizes) changes all boundaries, which does
+ * not break anything, but makes chunks uploaded before the change useless for deduplication.
+ *
+ * <p>The list of chunks of a blob is stored as a manifest blob, see {@link ChunkedBlob#toManifest}.
+ */
+final class ContentDefinedChunker {
+  private static final long[] GEAR = new long[256];
+
+  static {
+    // SplitMix64, so that the table is the same on every platform and in every release.
+    long seed = 0x5eed_c0de_0000_cdc1L;
+    for (int i = 0; i < GEAR.length; i++) {
+      seed += 0x9e37_79b9_7f4a_7c15L;
+      long z = seed;
+      z = (z ^ (z >>> 30)) * 0xbf58_476d_1ce4_e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d0_49bb_1331_11ebL;
+      GEAR[i] = z ^ (z >>> 31);
+    }
+  }
+
+  private final DigestUtil digestUtil;
+  private final int minChunkSize;
+  private final int maxChunkSize;
+  private final long boundaryMask;
+
+  /**
+   * @param averageChunkSize the average size of the chunks, rounded down to a power of two. Chunks
+   *     are at least a quarter and at most four times as large, except for the last chunk of a
+   *     blob, which may be smaller.
+   */
+  ContentDefinedChunker(DigestUtil digestUtil, int averageChunkSize) {
+    checkArgument(averageChunkSize >= 64, "averageChunkSize must be at least 64");
+    checkArgument(averageChunkSize <= (1 << 28), "averageChunkSize must be at most 256 MiB");
+    this.digestUtil = digestUtil;
+    int average = Integer.highestOneBit(averageChunkSize);
+    this.minChunkSize = average / 4;
+    this.maxChunkSize = average * 4;
+    // The high bits of the hash depend on the most bytes, the lowest bit only on the last byte.
+    int maskBits = Integer.numberOfTrailingZeros(average);
+    this.boundaryMask = -1L << (64 - maskBits);
+  }
+
+  /** Returns the maximum size of a chunk. Only blobs larger than this are worth splitting. */
+  int getMaxChunkSize() {
+    return maxChunkSize;
+  }
+
+  /** Reads the given stream to its end and splits its contents into chunks. */
+  ChunkedBlob split(InputStream in) throws IOException {
+    return split(in, /* digest= */ null);
+  }
+
+  /**
+   * Like {@link #split(InputStream)}, but if the digest of the contents is given, trusts it instead
+   * of hashing the contents as a whole. Whoever reassembles the blob from its chunks must then
+   * verify it against the digest.
+   *
+   * @param digest the digest of the contents of the stream, or null to compute it
+   * @throws IOException if the stream is not as large as the digest says
+   */
+  ChunkedBlob split(InputStream in, @Nullable Digest digest) throws IOException {
+    ImmutableList.Builder<Digest> chunkDigests = ImmutableList.builder();
+    HashingOutputStream blobHash =
+        digest == null ? digestUtil.newHashingOutputStream(ByteStreams.nullOutputStream()) : null;
+    HashingOutputStream chunkHash =
+        digestUtil.newHashingOutputStream(ByteStreams.nullOutputStream());
+    byte[] buffer = new byte[64 * 1024];
+    long offset = 0;
+    long chunkStart = 0;
+    long hash = 0;
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      if (blobHash != null) {
+        blobHash.write(buffer, 0, read);
+      }
+      // The start of the part of the buffer that is not in chunkHash yet.
+      int unhashed = 0;
+      for (int i = 0; i < read; i++) {
+        hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+        long chunkSize = offset + i + 1 - chunkStart;
+        if (chunkSize < minChunkSize) {
+          continue;
+        }
+        if ((hash & boundaryMask) == 0 || chunkSize >= maxChunkSize) {
+          chunkHash.write(buffer, unhashed, i + 1 - unhashed);
+          chunkDigests.add(DigestUtil.buildDigest(chunkHash.hash().toString(), chunkSize));
+          chunkHash = digestUtil.newHashingOutputStream(ByteStreams.nullOutputStream());
+          unhashed = i + 1;
+          chunkStart = offset + i + 1;
+          hash = 0;
+        }
+      }
+      chunkHash.write(buffer, unhashed, read - unhashed);
+      offset += read;
+    }
+    if (offset > chunkStart || offset == 0) {
+      chunkDigests.add(DigestUtil.buildDigest(chunkHash.hash().toString(), offset - chunkStart));
+    }
+    if (blobHash != null) {
+      digest = DigestUtil.buildDigest(blobHash.hash().toString(), offset);
+    } else if (digest.getSizeBytes() != offset) {
+      throw new IOException(
+          String.format(
+              "Read %d bytes of %s instead of %d", offset, digest.getHash(), digest.getSizeBytes()));
+    }
+    return new ChunkedBlob(digest, chunkDigests.build());
+  }
+
+  /** A blob and the chunks it consists of. */
+  static final class ChunkedBlob {
+    private final Digest digest;
+    private final ImmutableList<Digest> chunkDigests;
+
+    ChunkedBlob(Digest digest, ImmutableList<Digest> chunkDigests) {
+      this.digest = digest;
+      this.chunkDigests = chunkDigests;
+    }
+
+    Digest getDigest() {
+      return digest;
+    }
+
+    /** The digests of the chunks, in order. Concatenating the chunks yields the blob. */
+    ImmutableList<Digest> getChunkDigests() {
+      return chunkDigests;
+    }
+
+    /**
+     * Returns the manifest of this blob: the length-delimited digest of the blob, followed by the
+     * length-delimited digests of its chunks.
+     */
+    byte[] toManifest() {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      try {
+        digest.writeDelimitedTo(out);
+        for (Digest chunkDigest : chunkDigests) {
+          chunkDigest.writeDelimitedTo(out);
+        }
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return out.toByteArray();
+    }
+
+    /**
+     * Parses a manifest written by {@link #toManifest}.
+     *
+     * @throws IOException if the manifest is not the manifest of the blob with the given digest
+     */
+    static ChunkedBlob fromManifest(Digest expectedDigest, byte[] manifest) throws IOException {
+      InputStream in = new ByteArrayInputStream(manifest);
+      Digest digest = Digest.parseDelimitedFrom(in);
+      if (!expectedDigest.equals(digest)) {
+        throw new IOException(
+            String.format(
+                "Manifest of %s describes a different blob",
+                expectedDigest.getHash() + "/" + expectedDigest.getSizeBytes()));
+      }
+      ImmutableList.Builder<Digest> chunkDigests = ImmutableList.builder();
+      long size = 0;
+      Digest chunkDigest;
+      while ((chunkDigest = Digest.parseDelimitedFrom(in)) != null) {
+        chunkDigests.add(chunkDigest);
+        size += chunkDigest.getSizeBytes();
+      }
+      if (size != digest.getSizeBytes()) {
+        throw new IOException(
+            String.format(
+                "Chunks of %s add up to %d bytes instead of %d",
+                digest.getHash(), size, digest.getSizeBytes()));
+      }
+      return new ChunkedBlob(digest, chunkDigests.build());
+    }
+
+    /** Returns the offset of each chunk in the blob. */
+    long[] getChunkOffsets() {
+      long[] offsets = new long[chunkDigests.size()];
+      long offset = 0;
+      for (int i = 0; i < offsets.length; i++) {
+        offsets[i] = offset;
+        offset += chunkDigests.get(i).getSizeBytes();
+      }
+      return offsets;
+    }
+  }
+}
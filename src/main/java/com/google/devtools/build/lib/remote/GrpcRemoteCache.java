@@ -20,6 +20,7 @@ import static java.lang.String.format;
 import build.bazel.remote.execution.v2.Action;
 import build.bazel.remote.execution.v2.ActionCacheGrpc;
 import build.bazel.remote.execution.v2.ActionCacheGrpc.ActionCacheBlockingStub;
+import build.bazel.remote.execution.v2.ActionCacheGrpc.ActionCacheFutureStub;
 import build.bazel.remote.execution.v2.ActionResult;
 import build.bazel.remote.execution.v2.Command;
 import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc;
@@ -39,11 +40,13 @@ import com.google.common.base.Ascii;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.CountingOutputStream;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -52,6 +55,7 @@ import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.actions.ActionInput;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.ContentDefinedChunker.ChunkedBlob;
 import com.google.devtools.build.lib.remote.RemoteRetrier.ProgressiveBackoff;
 import com.google.devtools.build.lib.remote.merkletree.MerkleTree;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
@@ -68,16 +72,20 @@ import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
 import javax.annotation.Nullable;
 
 /** A RemoteActionCache implementation that uses gRPC calls to a remote cache server. */
@@ -88,6 +96,10 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
   private final RemoteRetrier retrier;
   private final ByteStreamUploader uploader;
   private final int maxMissingBlobsDigestsPerMessage;
+  @Nullable private final ContentDefinedChunker contentDefinedChunker;
+  @Nullable private final KnownDigestsCache knownDigests;
+  @Nullable private final BlobBatcher blobBatcher;
+  private final boolean compressBlobs;
 
   private AtomicBoolean closed = new AtomicBoolean();
 
@@ -99,6 +111,86 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
       RemoteRetrier retrier,
       DigestUtil digestUtil,
       ByteStreamUploader uploader) {
+    this(channel, credentials, options, retrier, digestUtil, uploader, /* knownDigests= */ null);
+  }
+
+  /**
+   * Creates a cache that skips {@code FindMissingBlobs} queries for digests in {@code
+   * knownDigests}, and adds the digests it finds present to it. The same {@link KnownDigestsCache}
+   * should be passed to {@code uploader}.
+   */
+  GrpcRemoteCache(
+      ReferenceCountedChannel channel,
+      CallCredentials credentials,
+      RemoteOptions options,
+      RemoteRetrier retrier,
+      DigestUtil digestUtil,
+      ByteStreamUploader uploader,
+      @Nullable KnownDigestsCache knownDigests) {
+    this(
+        channel,
+        credentials,
+        options,
+        retrier,
+        digestUtil,
+        uploader,
+        knownDigests,
+        /* maxBatchTotalSizeBytes= */ 0);
+  }
+
+  /**
+   * Creates a cache that, if {@code --experimental_remote_batch_max_blob_size} is set, transfers
+   * small blobs with {@code BatchUpdateBlobs} and {@code BatchReadBlobs} calls.
+   *
+   * @param maxBatchTotalSizeBytes the maximum total size of the blobs in a batch call advertised by
+   *     the server in its {@code CacheCapabilities}, or {@code 0} if the server sets no limit
+   */
+  GrpcRemoteCache(
+      ReferenceCountedChannel channel,
+      CallCredentials credentials,
+      RemoteOptions options,
+      RemoteRetrier retrier,
+      DigestUtil digestUtil,
+      ByteStreamUploader uploader,
+      @Nullable KnownDigestsCache knownDigests,
+      long maxBatchTotalSizeBytes) {
+    this(
+        channel,
+        credentials,
+        options,
+        retrier,
+        digestUtil,
+        uploader,
+        knownDigests,
+        maxBatchTotalSizeBytes,
+        /* compressionSupported= */ false,
+        /* splicingSupported= */ false);
+  }
+
+  /**
+   * Creates a cache that, if {@code --experimental_remote_cache_compression} is set and {@code
+   * compressionSupported} is true, streams blobs compressed as described in {@link
+   * BlobCompression}.
+   *
+   * <p>If {@code --experimental_remote_cache_chunking} is set and {@code splicingSupported} is
+   * true, large outputs are uploaded in chunks as described in {@link BlobSplicing}.
+   *
+   * @param compressionSupported whether the server advertises support for DEFLATE compressed blobs
+   *     in its {@code CacheCapabilities}
+   * @param splicingSupported whether the server advertises support for reassembling blobs from
+   *     their chunks in its {@code CacheCapabilities}
+   */
+  GrpcRemoteCache(
+      ReferenceCountedChannel channel,
+      CallCredentials credentials,
+      RemoteOptions options,
+      RemoteRetrier retrier,
+      DigestUtil digestUtil,
+      ByteStreamUploader uploader,
+      @Nullable KnownDigestsCache knownDigests,
+      long maxBatchTotalSizeBytes,
+      boolean compressionSupported,
+      boolean splicingSupported) {
     super(options, digestUtil);
     this.credentials = credentials;
     this.channel = channel;
@@ -107,6 +199,25 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     maxMissingBlobsDigestsPerMessage = computeMaxMissingBlobsDigestsPerMessage();
     Preconditions.checkState(
         maxMissingBlobsDigestsPerMessage > 0, "Error: gRPC message size too small.");
+    this.contentDefinedChunker =
+        options.experimentalRemoteCacheChunking && splicingSupported
+            ? new ContentDefinedChunker(digestUtil, options.experimentalRemoteCacheChunkSize)
+            : null;
+    this.knownDigests = knownDigests;
+    this.blobBatcher =
+        options.experimentalRemoteBatchMaxBlobSize > 0
+            ? new BlobBatcher(
+                options.remoteInstanceName,
+                this::casFutureStub,
+                retrier,
+                digestUtil,
+                options.experimentalRemoteBatchMaxBlobSize,
+                maxBatchTotalSizeBytes,
+                options.maxOutboundMessageSize,
+                options.remoteVerifyDownloads,
+                knownDigests)
+            : null;
+    this.compressBlobs = options.experimentalRemoteCacheCompression && compressionSupported;
   }
 
   private int computeMaxMissingBlobsDigestsPerMessage() {
@@ -147,6 +258,13 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
         .withDeadlineAfter(options.remoteTimeout, TimeUnit.SECONDS);
   }
 
+  private ActionCacheFutureStub acFutureStub() {
+    return ActionCacheGrpc.newFutureStub(channel)
+        .withInterceptors(TracingMetadataUtils.attachMetadataFromContextInterceptor())
+        .withCallCredentials(credentials)
+        .withDeadlineAfter(options.remoteTimeout, TimeUnit.SECONDS);
+  }
+
   @Override
   public void close() {
     if (closed.getAndSet(true)) {
@@ -178,6 +296,28 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
 
   private ImmutableSet<Digest> getMissingDigests(Iterable<Digest> digests)
       throws IOException, InterruptedException {
+    if (knownDigests != null) {
+      int requested = Iterables.size(digests);
+      List<Digest> unknown = knownDigests.filterUnknown(digests);
+      knownDigests.recordSavedFindMissingBlobsCalls(
+          numFindMissingBlobsCalls(requested) - numFindMissingBlobsCalls(unknown.size()));
+      ImmutableSet<Digest> missing = queryMissingDigests(unknown);
+      for (Digest digest : unknown) {
+        if (!missing.contains(digest)) {
+          knownDigests.markPresent(digest);
+        }
+      }
+      return missing;
+    }
+    return queryMissingDigests(digests);
+  }
+
+  private int numFindMissingBlobsCalls(int digests) {
+    return (digests + maxMissingBlobsDigestsPerMessage - 1) / maxMissingBlobsDigestsPerMessage;
+  }
+
+  private ImmutableSet<Digest> queryMissingDigests(Iterable<Digest> digests)
+      throws IOException, InterruptedException {
     if (Iterables.isEmpty(digests)) {
       return ImmutableSet.of();
     }
@@ -225,13 +365,12 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
       throws IOException, InterruptedException {
     ImmutableSet<Digest> missingDigests =
         getMissingDigests(Iterables.concat(merkleTree.getAllDigests(), additionalInputs.keySet()));
-    Map<HashCode, Chunker> inputsToUpload = Maps.newHashMapWithExpectedSize(missingDigests.size());
+    Map<Digest, Chunker> inputsToUpload = Maps.newHashMapWithExpectedSize(missingDigests.size());
     for (Digest missingDigest : missingDigests) {
       Directory node = merkleTree.getDirectoryByDigest(missingDigest);
-      HashCode hash = HashCode.fromString(missingDigest.getHash());
       if (node != null) {
         Chunker c = Chunker.builder().setInput(node.toByteArray()).build();
-        inputsToUpload.put(hash, c);
+        inputsToUpload.put(missingDigest, c);
         continue;
       }
 
@@ -239,14 +378,14 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
       if (file != null) {
         Chunker c =
             Chunker.builder().setInput(missingDigest.getSizeBytes(), file, execRoot).build();
-        inputsToUpload.put(hash, c);
+        inputsToUpload.put(missingDigest, c);
         continue;
       }
 
       Message message = additionalInputs.get(missingDigest);
       if (message != null) {
         Chunker c = Chunker.builder().setInput(message.toByteArray()).build();
-        inputsToUpload.put(hash, c);
+        inputsToUpload.put(missingDigest, c);
         continue;
       }
 
@@ -256,7 +395,75 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
               missingDigest));
     }
 
-    uploader.uploadBlobs(inputsToUpload, /* forceUpload= */ true);
+    uploadBlobs(inputsToUpload);
+  }
+
+  /**
+   * Uploads the given blobs, regardless of whether they were uploaded before. Small blobs are
+   * uploaded in batches if batching is enabled, all others are streamed by the {@link
+   * ByteStreamUploader}.
+   */
+  private void uploadBlobs(Map<Digest, Chunker> blobs) throws IOException, InterruptedException {
+    Map<Digest, Chunker> blobsToBatch = Maps.newHashMap();
+    Map<HashCode, Chunker> blobsToStream = Maps.newHashMapWithExpectedSize(blobs.size());
+    for (Map.Entry<Digest, Chunker> blob : blobs.entrySet()) {
+      if (blobBatcher != null && blobBatcher.shouldBatch(blob.getKey())) {
+        blobsToBatch.put(blob.getKey(), blob.getValue());
+      } else {
+        Chunker chunker = compressBlobs ? blob.getValue().compressed() : blob.getValue();
+        blobsToStream.put(HashCode.fromString(blob.getKey().getHash()), chunker);
+      }
+    }
+    ListenableFuture<Void> batchUploads =
+        blobsToBatch.isEmpty()
+            ? Futures.immediateFuture(null)
+            : blobBatcher.uploadBlobs(blobsToBatch);
+    if (!blobsToStream.isEmpty()) {
+      uploader.uploadBlobs(blobsToStream, /* forceUpload= */ true);
+    }
+    getFromFuture(batchUploads);
+  }
+
+  /**
+   * Forgets which digests are known to be present in the remote CAS, so that they are queried
+   * again. To be called when the remote CAS reports inputs as missing that were known to be
+   * present.
+   */
+  public void invalidateKnownDigests() {
+    if (knownDigests != null) {
+      knownDigests.invalidateAll();
+    }
+  }
+
+  @Override
+  protected List<ListenableFuture<Void>> downloadBlobs(
+      List<Digest> digests, List<OutputStream> outs) {
+    if (blobBatcher == null) {
+      return super.downloadBlobs(digests, outs);
+    }
+    List<Digest> digestsToBatch = new ArrayList<>();
+    List<OutputStream> outsToBatch = new ArrayList<>();
+    List<Integer> batchedIndices = new ArrayList<>();
+    List<ListenableFuture<Void>> downloads = new ArrayList<>(digests.size());
+    for (int i = 0; i < digests.size(); i++) {
+      Digest digest = digests.get(i);
+      if (blobBatcher.shouldBatch(digest) && !shouldChunk(digest)) {
+        digestsToBatch.add(digest);
+        outsToBatch.add(outs.get(i));
+        batchedIndices.add(i);
+        downloads.add(null);
+      } else {
+        downloads.add(downloadBlob(digest, outs.get(i)));
+      }
+    }
+    if (!digestsToBatch.isEmpty()) {
+      List<ListenableFuture<Void>> batchedDownloads =
+          blobBatcher.downloadBlobs(digestsToBatch, outsToBatch);
+      for (int i = 0; i < batchedIndices.size(); i++) {
+        downloads.set(batchedIndices.get(i), batchedDownloads.get(i));
+      }
+    }
+    return downloads;
   }
 
   @Override
@@ -264,11 +471,20 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     if (digest.getSizeBytes() == 0) {
       return Futures.immediateFuture(null);
     }
-    String resourceName = "";
-    if (!options.remoteInstanceName.isEmpty()) {
-      resourceName += options.remoteInstanceName + "/";
+    if (!shouldChunk(digest)) {
+      return downloadWholeBlob(digest, out);
     }
-    resourceName += "blobs/" + digestUtil.toString(digest);
+    // The blob reassembled by the server may have been evicted while its chunks, which are shared
+    // with other versions of the blob, are still in the cache.
+    return Futures.catchingAsync(
+        downloadWholeBlob(digest, out),
+        CacheNotFoundException.class,
+        (e) -> downloadChunkedBlob(digest, out, e),
+        Context.current().fixedContextExecutor(MoreExecutors.directExecutor()));
+  }
+
+  private ListenableFuture<Void> downloadWholeBlob(Digest digest, OutputStream out) {
+    String resourceName = resourceName(digest);
 
     @Nullable Supplier<HashCode> hashSupplier = null;
     if (options.remoteVerifyDownloads) {
@@ -298,6 +514,90 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     return outerF;
   }
 
+  private String resourceName(Digest digest) {
+    String resourceName = "";
+    if (!options.remoteInstanceName.isEmpty()) {
+      resourceName += options.remoteInstanceName + "/";
+    }
+    if (compressBlobs) {
+      resourceName += BlobCompression.COMPRESSED_BLOBS + "/" + BlobCompression.DEFLATE + "/";
+    } else {
+      resourceName += "blobs/";
+    }
+    return resourceName + digestUtil.toString(digest);
+  }
+
+  /** Returns true if the blob with the given digest is uploaded in chunks by this client. */
+  private boolean shouldChunk(Digest digest) {
+    return contentDefinedChunker != null
+        && digest.getSizeBytes() > contentDefinedChunker.getMaxChunkSize();
+  }
+
+  /**
+   * Downloads a blob by concatenating its chunks, or fails with the given exception if the blob was
+   * not stored in chunks.
+   */
+  private ListenableFuture<Void> downloadChunkedBlob(
+      Digest digest, OutputStream out, CacheNotFoundException notFound) {
+    Executor executor = Context.current().fixedContextExecutor(MoreExecutors.directExecutor());
+    ListenableFuture<ActionResult> manifestEntry =
+        Futures.catchingAsync(
+            retrier.executeAsync(
+                () ->
+                    acFutureStub()
+                        .getActionResult(
+                            GetActionResultRequest.newBuilder()
+                                .setInstanceName(options.remoteInstanceName)
+                                .setActionDigest(
+                                    BlobSplicing.manifestKey(digestUtil, digest).getDigest())
+                                .build())),
+            StatusRuntimeException.class,
+            (e) ->
+                e.getStatus().getCode() == Status.Code.NOT_FOUND
+                    ? Futures.immediateFailedFuture(notFound)
+                    : Futures.immediateFailedFuture(new IOException(e)),
+            MoreExecutors.directExecutor());
+    ListenableFuture<byte[]> manifest =
+        Futures.transformAsync(
+            manifestEntry,
+            (entry) -> {
+              Digest manifestDigest = BlobSplicing.getManifestDigest(entry);
+              if (manifestDigest == null) {
+                throw new IOException("Invalid manifest entry for " + digestUtil.toString(digest));
+              }
+              return downloadBlob(manifestDigest);
+            },
+            executor);
+    return Futures.transformAsync(
+        manifest,
+        (bytes) -> downloadChunks(ChunkedBlob.fromManifest(digest, bytes), out),
+        executor);
+  }
+
+  private ListenableFuture<Void> downloadChunks(ChunkedBlob chunkedBlob, OutputStream out) {
+    Executor executor = Context.current().fixedContextExecutor(MoreExecutors.directExecutor());
+    // The chunks are always verified as a whole, regardless of --remote_verify_downloads, as the
+    // manifest is not content-addressed by the blob and may list the wrong chunks.
+    HashingOutputStream hashOut = digestUtil.newHashingOutputStream(out);
+    ListenableFuture<Void> download = Futures.immediateFuture(null);
+    for (Digest chunkDigest : chunkedBlob.getChunkDigests()) {
+      download =
+          Futures.transformAsync(
+              download,
+              (unused) -> downloadBlob(resourceName(chunkDigest), chunkDigest, hashOut, null),
+              executor);
+    }
+    return Futures.transformAsync(
+        download,
+        (unused) -> {
+          verifyContents(
+              chunkedBlob.getDigest().getHash(), DigestUtil.hashCodeToString(hashOut.hash()));
+          out.flush();
+          return Futures.immediateFuture(null);
+        },
+        MoreExecutors.directExecutor());
+  }
+
   private ListenableFuture<Void> downloadBlob(
       String resourceName,
       Digest digest,
@@ -327,6 +627,13 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
       OutputStream out,
       @Nullable Supplier<HashCode> hashSupplier) {
     SettableFuture<Void> future = SettableFuture.create();
+    // A compressed read responds with a new compressed stream of the bytes after the offset, which
+    // are decompressed into the output as they arrive.
+    long initialOffset = offset.get();
+    CountingOutputStream countingOut = new CountingOutputStream(out);
+    Inflater inflater = compressBlobs ? BlobCompression.newInflater() : null;
+    InflaterOutputStream inflaterOut =
+        inflater != null ? new InflaterOutputStream(countingOut, inflater) : null;
     bsAsyncStub()
         .read(
             ReadRequest.newBuilder()
@@ -338,8 +645,8 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
               public void onNext(ReadResponse readResponse) {
                 ByteString data = readResponse.getData();
                 try {
-                  data.writeTo(out);
-                  offset.addAndGet(data.size());
+                  data.writeTo(inflaterOut != null ? inflaterOut : countingOut);
+                  offset.set(initialOffset + countingOut.getCount());
                 } catch (IOException e) {
                   future.setException(e);
                   // Cancel the call.
@@ -351,6 +658,9 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
 
               @Override
               public void onError(Throwable t) {
+                if (inflater != null) {
+                  inflater.end();
+                }
                 Status status = Status.fromThrowable(t);
                 if (status.getCode() == Status.Code.NOT_FOUND) {
                   future.setException(new CacheNotFoundException(digest, digestUtil));
@@ -362,6 +672,19 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
               @Override
               public void onCompleted() {
                 try {
+                  if (inflater != null) {
+                    try {
+                      inflaterOut.flush();
+                      if (!inflater.finished()) {
+                        throw new IOException(
+                            "Compressed stream of "
+                                + digestUtil.toString(digest)
+                                + " ended prematurely");
+                      }
+                    } finally {
+                      inflater.end();
+                    }
+                  }
                   if (hashSupplier != null) {
                     verifyContents(
                         digest.getHash(), DigestUtil.hashCodeToString(hashSupplier.get()));
@@ -387,6 +710,11 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
       throws ExecException, IOException, InterruptedException {
     ActionResult.Builder result = ActionResult.newBuilder();
     upload(execRoot, actionKey, action, command, files, outErr, result);
+    updateActionResult(actionKey, result.build());
+  }
+
+  private void updateActionResult(ActionKey actionKey, ActionResult result)
+      throws IOException, InterruptedException {
     try {
       retrier.execute(
           () ->
@@ -421,7 +749,7 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     manifest.addFiles(files);
     manifest.addAction(actionKey, action, command);
 
-    Map<HashCode, Chunker> filesToUpload = Maps.newHashMap();
+    Map<Digest, Chunker> filesToUpload = Maps.newHashMap();
 
     Map<Digest, Path> digestToFile = manifest.getDigestToFile();
     Map<Digest, Chunker> digestToChunkers = manifest.getDigestToChunkers();
@@ -429,11 +757,16 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     digests.addAll(digestToFile.keySet());
     digests.addAll(digestToChunkers.keySet());
 
+    Map<Digest, Path> filesToChunk = Maps.newHashMap();
     ImmutableSet<Digest> digestsToUpload = getMissingDigests(digests);
     for (Digest digest : digestsToUpload) {
       Chunker chunker;
       Path file = digestToFile.get(digest);
       if (file != null) {
+        if (shouldChunk(digest)) {
+          filesToChunk.put(digest, file);
+          continue;
+        }
         chunker = Chunker.builder().setInput(digest.getSizeBytes(), file).build();
       } else {
         chunker = digestToChunkers.get(digest);
@@ -442,11 +775,14 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
           throw new IOException(message);
         }
       }
-      filesToUpload.put(HashCode.fromString(digest.getHash()), chunker);
+      filesToUpload.put(digest, chunker);
     }
 
     if (!filesToUpload.isEmpty()) {
-      uploader.uploadBlobs(filesToUpload, /*forceUpload=*/true);
+      uploadBlobs(filesToUpload);
+    }
+    if (!filesToChunk.isEmpty()) {
+      uploadChunked(filesToChunk);
     }
 
     // TODO(olaola): inline small stdout/stderr here.
@@ -460,6 +796,63 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     }
   }
 
+  /**
+   * Uploads the chunks of the given files that are not in the CAS yet and the manifests listing
+   * them, and has the server reassemble the files by storing the manifests in the action cache, see
+   * {@link BlobSplicing}. A file that the server fails to reassemble, e.g. because one of its chunks
+   * was evicted in the meantime, is uploaded as a whole instead.
+   */
+  private void uploadChunked(Map<Digest, Path> files) throws IOException, InterruptedException {
+    Map<Digest, Digest> manifestDigests = Maps.newHashMapWithExpectedSize(files.size());
+    // The chunks and manifests of all files, to look them up with a single FindMissingBlobs call.
+    Map<Digest, Chunker> blobs = Maps.newHashMap();
+    for (Map.Entry<Digest, Path> entry : files.entrySet()) {
+      Digest digest = entry.getKey();
+      Path file = entry.getValue();
+      // The digest was computed by the caller, and the server verifies the reassembled file.
+      ChunkedBlob chunkedBlob;
+      try (InputStream in = file.getInputStream()) {
+        chunkedBlob = contentDefinedChunker.split(in, digest);
+      }
+      ImmutableList<Digest> chunkDigests = chunkedBlob.getChunkDigests();
+      long[] offsets = chunkedBlob.getChunkOffsets();
+      for (int i = 0; i < chunkDigests.size(); i++) {
+        Digest chunkDigest = chunkDigests.get(i);
+        if (!blobs.containsKey(chunkDigest)) {
+          blobs.put(
+              chunkDigest,
+              Chunker.builder().setInput(file, offsets[i], chunkDigest.getSizeBytes()).build());
+        }
+      }
+      byte[] manifest = chunkedBlob.toManifest();
+      Digest manifestDigest = digestUtil.compute(manifest);
+      blobs.put(manifestDigest, Chunker.builder().setInput(manifest).build());
+      manifestDigests.put(digest, manifestDigest);
+    }
+    ImmutableSet<Digest> missing = getMissingDigests(blobs.keySet());
+    if (!missing.isEmpty()) {
+      uploadBlobs(Maps.filterKeys(blobs, missing::contains));
+    }
+
+    for (Map.Entry<Digest, Path> entry : files.entrySet()) {
+      Digest digest = entry.getKey();
+      try {
+        updateActionResult(
+            BlobSplicing.manifestKey(digestUtil, digest),
+            BlobSplicing.manifestEntry(manifestDigests.get(digest)));
+      } catch (IOException e) {
+        Status.Code code = Status.fromThrowable(e).getCode();
+        if (code != Status.Code.FAILED_PRECONDITION && code != Status.Code.INVALID_ARGUMENT) {
+          throw e;
+        }
+        uploadBlobs(
+            ImmutableMap.of(
+                digest,
+                Chunker.builder().setInput(digest.getSizeBytes(), entry.getValue()).build()));
+      }
+    }
+  }
+
   /**
    * Put the file contents cache if it is not already in it. No-op if the file is already stored in
    * cache. The given path must be a full absolute path.
@@ -470,10 +863,8 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     Digest digest = digestUtil.compute(file);
     ImmutableSet<Digest> missing = getMissingDigests(ImmutableList.of(digest));
     if (!missing.isEmpty()) {
-      uploader.uploadBlob(
-          HashCode.fromString(digest.getHash()),
-          Chunker.builder().setInput(digest.getSizeBytes(), file).build(),
-          /* forceUpload=*/ true);
+      uploadBlobs(
+          ImmutableMap.of(digest, Chunker.builder().setInput(digest.getSizeBytes(), file).build()));
     }
     return digest;
   }
@@ -482,10 +873,7 @@ public class GrpcRemoteCache extends AbstractRemoteActionCache {
     Digest digest = digestUtil.compute(blob);
     ImmutableSet<Digest> missing = getMissingDigests(ImmutableList.of(digest));
     if (!missing.isEmpty()) {
-      uploader.uploadBlob(
-          HashCode.fromString(digest.getHash()),
-          Chunker.builder().setInput(blob).build(),
-          /* forceUpload=*/ true);
+      uploadBlobs(ImmutableMap.of(digest, Chunker.builder().setInput(blob).build()));
     }
     return digest;
   }
@@ -0,0 +1,146 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded set of digests that are known to be present in the remote CAS, either because a {@code
+ * FindMissingBlobs} call did not report them as missing or because they were uploaded.
+ *
+ * <p>Digests known to be present are neither queried nor uploaded again. An instance is created for
+ * each build, and entries also expire some time after they were added, since the remote CAS may
+ * evict blobs at any time. Users of this cache must be able to recover from a blob that turns out
+ * to be missing, for example by calling {@link #invalidateAll} and retrying.
+ */
+@ThreadSafe
+final class KnownDigestsCache {
+  private final Cache<Digest, Boolean> digests;
+
+  private final AtomicLong lookups = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong savedFindMissingBlobsCalls = new AtomicLong();
+  private final AtomicLong savedUploads = new AtomicLong();
+
+  /**
+   * Creates a cache.
+   *
+   * @param maxSize the maximum number of digests to keep
+   * @param expiry the duration after which a digest is no longer known to be present
+   */
+  KnownDigestsCache(long maxSize, Duration expiry) {
+    checkArgument(maxSize > 0, "maxSize must be gt 0.");
+    this.digests =
+        CacheBuilder.newBuilder()
+            .maximumSize(maxSize)
+            .expireAfterWrite(expiry.toMillis(), TimeUnit.MILLISECONDS)
+            .build();
+  }
+
+  /** Returns whether the given digest is known to be present. Counts as a lookup. */
+  boolean isKnownPresent(Digest digest) {
+    lookups.incrementAndGet();
+    if (digests.getIfPresent(digest) != null) {
+      hits.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the given digests except those known to be present, in their original order. Counts
+   * each digest as a lookup.
+   */
+  List<Digest> filterUnknown(Iterable<Digest> candidates) {
+    List<Digest> unknown = new ArrayList<>();
+    long total = 0;
+    for (Digest digest : candidates) {
+      total++;
+      if (digests.getIfPresent(digest) == null) {
+        unknown.add(digest);
+      }
+    }
+    lookups.addAndGet(total);
+    hits.addAndGet(total - unknown.size());
+    return unknown;
+  }
+
+  /** Records that the given digest is present in the remote CAS. */
+  void markPresent(Digest digest) {
+    digests.put(digest, Boolean.TRUE);
+  }
+
+  /** Records that the given digests are present in the remote CAS. */
+  void markPresent(Iterable<Digest> present) {
+    for (Digest digest : present) {
+      digests.put(digest, Boolean.TRUE);
+    }
+  }
+
+  /** Forgets all digests, for example after the remote CAS reported a known digest as missing. */
+  void invalidateAll() {
+    digests.invalidateAll();
+  }
+
+  /** Records that the given number of {@code FindMissingBlobs} calls were not made. */
+  void recordSavedFindMissingBlobsCalls(long calls) {
+    savedFindMissingBlobsCalls.addAndGet(calls);
+  }
+
+  /** Records that an upload was skipped because its blob was known to be present. */
+  void recordSavedUpload() {
+    savedUploads.incrementAndGet();
+  }
+
+  long getLookups() {
+    return lookups.get();
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getSavedFindMissingBlobsCalls() {
+    return savedFindMissingBlobsCalls.get();
+  }
+
+  long getSavedUploads() {
+    return savedUploads.get();
+  }
+
+  /** Returns a one-line summary of the statistics of this cache, for the build summary. */
+  String getSummary() {
+    long lookups = getLookups();
+    long hits = getHits();
+    return String.format(
+        "Remote cache: %d of %d digest lookups (%.1f%%) hit digests known to be present, saving "
+            + "%d FindMissingBlobs calls and %d uploads",
+        hits,
+        lookups,
+        lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+        getSavedFindMissingBlobsCalls(),
+        getSavedUploads());
+  }
+}
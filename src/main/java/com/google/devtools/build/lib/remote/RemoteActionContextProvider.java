@@ -22,10 +22,14 @@ import com.google.devtools.build.lib.actions.ActionContext;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.ExecutorInitException;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.exec.AbstractSpawnStrategy;
 import com.google.devtools.build.lib.exec.ActionContextProvider;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.SpawnRunner;
+import com.google.devtools.build.lib.profiler.Profiler;
+import com.google.devtools.build.lib.profiler.SilentCloseable;
+import com.google.devtools.build.lib.remote.merkletree.MerkleTreeCache;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
@@ -42,14 +46,19 @@ import javax.annotation.Nullable;
  * Provide a remote execution context.
  */
 final class RemoteActionContextProvider extends ActionContextProvider {
+  /** The number of concurrent uploads of --experimental_remote_async_upload by default. */
+  private static final int DEFAULT_ASYNC_UPLOAD_THREADS = 100;
+
   private final CommandEnvironment env;
   private final AbstractRemoteActionCache cache;
   @Nullable private final GrpcRemoteExecutor executor;
   private final RemoteRetrier retrier;
   private final DigestUtil digestUtil;
   @Nullable private final Path logDir;
+  @Nullable private final MerkleTreeCache merkleTreeCache;
   private final AtomicReference<SpawnRunner> fallbackRunner = new AtomicReference<>();
   private ImmutableSet<Artifact> topLevelOutputs = ImmutableSet.of();
+  @Nullable private AsyncOutputUploader asyncUploader;
 
   private RemoteActionContextProvider(
       CommandEnvironment env,
@@ -57,22 +66,25 @@ final class RemoteActionContextProvider extends ActionContextProvider {
       @Nullable GrpcRemoteExecutor executor,
       RemoteRetrier retrier,
       DigestUtil digestUtil,
-      @Nullable Path logDir) {
+      @Nullable Path logDir,
+      @Nullable MerkleTreeCache merkleTreeCache) {
     this.env = Preconditions.checkNotNull(env, "env");
     this.cache = Preconditions.checkNotNull(cache, "cache");
     this.executor = executor;
     this.retrier = retrier;
     this.digestUtil = digestUtil;
     this.logDir = logDir;
+    this.merkleTreeCache = merkleTreeCache;
   }
 
   public static RemoteActionContextProvider createForRemoteCaching(
       CommandEnvironment env,
       AbstractRemoteActionCache cache,
       RemoteRetrier retrier,
-      DigestUtil digestUtil) {
+      DigestUtil digestUtil,
+      @Nullable MerkleTreeCache merkleTreeCache) {
     return new RemoteActionContextProvider(
-        env, cache, /*executor=*/ null, retrier, digestUtil, /*logDir=*/ null);
+        env, cache, /*executor=*/ null, retrier, digestUtil, /*logDir=*/ null, merkleTreeCache);
   }
 
   public static RemoteActionContextProvider createForRemoteExecution(
@@ -81,8 +93,10 @@ final class RemoteActionContextProvider extends ActionContextProvider {
       GrpcRemoteExecutor executor,
       RemoteRetrier retrier,
       DigestUtil digestUtil,
-      Path logDir) {
-    return new RemoteActionContextProvider(env, cache, executor, retrier, digestUtil, logDir);
+      Path logDir,
+      @Nullable MerkleTreeCache merkleTreeCache) {
+    return new RemoteActionContextProvider(
+        env, cache, executor, retrier, digestUtil, logDir, merkleTreeCache);
   }
 
   @Override
@@ -94,6 +108,14 @@ final class RemoteActionContextProvider extends ActionContextProvider {
     String commandId = env.getCommandId().toString();
 
     if (executor == null) {
+      if (remoteOptions.experimentalRemoteAsyncUpload && asyncUploader == null) {
+        asyncUploader =
+            new AsyncOutputUploader(
+                remoteOptions.experimentalRemoteAsyncUploadMaxBytes,
+                remoteOptions.remoteMaxConnections > 0
+                    ? remoteOptions.remoteMaxConnections
+                    : DEFAULT_ASYNC_UPLOAD_THREADS);
+      }
       RemoteSpawnCache spawnCache =
           new RemoteSpawnCache(
               env.getExecRoot(),
@@ -103,7 +125,9 @@ final class RemoteActionContextProvider extends ActionContextProvider {
               commandId,
               env.getReporter(),
               digestUtil,
-              topLevelOutputs);
+              topLevelOutputs,
+              asyncUploader,
+              merkleTreeCache);
       return ImmutableList.of(spawnCache);
     } else {
       RemoteSpawnRunner spawnRunner =
@@ -121,7 +145,8 @@ final class RemoteActionContextProvider extends ActionContextProvider {
               retrier,
               digestUtil,
               logDir,
-              topLevelOutputs);
+              topLevelOutputs,
+              merkleTreeCache);
       return ImmutableList.of(new RemoteSpawnStrategy(env.getExecRoot(), spawnRunner));
     }
   }
@@ -177,6 +202,19 @@ final class RemoteActionContextProvider extends ActionContextProvider {
 
   @Override
   public void executionPhaseEnding() {
+    if (asyncUploader != null) {
+      // The uploads need the cache, so wait for them before closing it.
+      try (SilentCloseable c = Profiler.instance().profile("Remote.awaitAsyncUploads")) {
+        for (String failure : asyncUploader.awaitCompletion()) {
+          env.getReporter().handle(Event.warn("Writing to Remote Cache:\n" + failure));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        asyncUploader.shutdownNow();
+        asyncUploader = null;
+      }
+    }
     if (cache != null) {
       cache.close();
     }
@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.lib.actions.Artifact;
@@ -31,10 +32,12 @@ import com.google.devtools.build.lib.authandtls.GoogleAuthUtils;
 import com.google.devtools.build.lib.buildeventstream.BuildEventArtifactUploader;
 import com.google.devtools.build.lib.buildeventstream.LocalFilesArtifactUploader;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
+import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
 import com.google.devtools.build.lib.remote.logging.LoggingInterceptor;
+import com.google.devtools.build.lib.remote.merkletree.MerkleTreeCache;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.options.RemoteOutputsMode;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
@@ -69,6 +72,7 @@ import java.util.concurrent.Executors;
 import java.util.function.Predicate;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /** RemoteModule provides distributed cache and remote execution for Bazel. */
 public final class RemoteModule extends BlazeModule {
@@ -84,6 +88,9 @@ public final class RemoteModule extends BlazeModule {
   private RemoteActionInputFetcher actionInputFetcher;
   private RemoteOutputsMode remoteOutputsMode;
   private RemoteOutputService remoteOutputService;
+  @Nullable private KnownDigestsCache knownDigests;
+  @Nullable private MerkleTreeCache merkleTreeCache;
+  private Reporter reporter;
 
   private final BuildEventArtifactUploaderFactoryDelegate
       buildEventArtifactUploaderFactoryDelegate = new BuildEventArtifactUploaderFactoryDelegate();
@@ -164,6 +171,7 @@ public final class RemoteModule extends BlazeModule {
     }
 
     env.getEventBus().register(this);
+    reporter = env.getReporter();
     String invocationId = env.getCommandId().toString();
     String buildRequestId = env.getBuildRequestId();
     env.getReporter().handle(Event.info(String.format("Invocation ID: %s", invocationId)));
@@ -238,14 +246,39 @@ public final class RemoteModule extends BlazeModule {
         checkClientServerCompatibility(
             capabilities, remoteOptions, digestUtil.getDigestFunction(), env.getReporter());
         executeRetrier = createExecuteRetrier(remoteOptions, retryScheduler);
+        if (remoteOptions.experimentalRemoteKnownDigestsCacheSize > 0) {
+          knownDigests =
+              new KnownDigestsCache(
+                  remoteOptions.experimentalRemoteKnownDigestsCacheSize,
+                  remoteOptions.experimentalRemoteKnownDigestsExpiry);
+        }
         ByteStreamUploader uploader =
             new ByteStreamUploader(
                 remoteOptions.remoteInstanceName,
                 cacheChannel.retain(),
                 credentials,
                 remoteOptions.remoteTimeout,
-                rpcRetrier);
+                rpcRetrier,
+                knownDigests);
         cacheChannel.release();
+        boolean compressionSupported =
+            BlobCompression.isDeflateSupported(capabilities.getCacheCapabilities());
+        if (remoteOptions.experimentalRemoteCacheCompression && !compressionSupported) {
+          env.getReporter()
+              .handle(
+                  Event.warn(
+                      "--experimental_remote_cache_compression has no effect, because the "
+                          + "remote cache does not support compressed blobs"));
+        }
+        boolean splicingSupported =
+            BlobSplicing.isSplicingSupported(capabilities.getCacheCapabilities());
+        if (remoteOptions.experimentalRemoteCacheChunking && !splicingSupported) {
+          env.getReporter()
+              .handle(
+                  Event.warn(
+                      "--experimental_remote_cache_chunking has no effect, because the remote "
+                          + "cache does not reassemble blobs from their chunks"));
+        }
         cache =
             new GrpcRemoteCache(
                 cacheChannel.retain(),
@@ -253,7 +286,11 @@ public final class RemoteModule extends BlazeModule {
                 remoteOptions,
                 rpcRetrier,
                 digestUtil,
-                uploader.retain());
+                uploader.retain(),
+                knownDigests,
+                capabilities.getCacheCapabilities().getMaxBatchTotalSizeBytes(),
+                compressionSupported,
+                splicingSupported);
         uploader.release();
         if (remoteOptions.remoteOutputsMode.downloadAllOutputs()) {
           Context requestContext =
@@ -287,6 +324,11 @@ public final class RemoteModule extends BlazeModule {
                 digestUtil);
       }
 
+      if (remoteOptions.experimentalRemoteMerkleTreeCache) {
+        // Shared by the spawn cache and the spawn runner, whichever are used.
+        merkleTreeCache = new MerkleTreeCache(remoteOptions.experimentalRemoteMerkleTreeCacheSize);
+      }
+
       GrpcRemoteExecutor executor = null;
       if (enableRemoteExecution) {
         RemoteRetrier retrier =
@@ -306,11 +348,17 @@ public final class RemoteModule extends BlazeModule {
             "Only the gRPC cache is support for remote execution");
         actionContextProvider =
             RemoteActionContextProvider.createForRemoteExecution(
-                env, (GrpcRemoteCache) cache, executor, executeRetrier, digestUtil, logDir);
+                env,
+                (GrpcRemoteCache) cache,
+                executor,
+                executeRetrier,
+                digestUtil,
+                logDir,
+                merkleTreeCache);
       } else if (cache != null) {
         actionContextProvider =
             RemoteActionContextProvider.createForRemoteCaching(
-                env, cache, executeRetrier, digestUtil);
+                env, cache, executeRetrier, digestUtil, merkleTreeCache);
       }
     } catch (IOException e) {
       env.getReporter().handle(Event.error(e.getMessage()));
@@ -321,6 +369,16 @@ public final class RemoteModule extends BlazeModule {
     }
   }
 
+  @Subscribe
+  public void buildComplete(@SuppressWarnings("unused") BuildCompleteEvent event) {
+    if (knownDigests != null) {
+      reporter.handle(Event.info(knownDigests.getSummary()));
+    }
+    if (merkleTreeCache != null) {
+      reporter.handle(Event.info(merkleTreeCache.getSummary()));
+    }
+  }
+
   @Override
   public void afterAnalysis(
       CommandEnvironment env,
@@ -409,6 +467,9 @@ public final class RemoteModule extends BlazeModule {
     actionInputFetcher = null;
     remoteOutputsMode = null;
     remoteOutputService = null;
+    knownDigests = null;
+    merkleTreeCache = null;
+    reporter = null;
 
     if (failure != null) {
       throw new AbruptExitException(ExitCode.LOCAL_ENVIRONMENTAL_ERROR, failure);
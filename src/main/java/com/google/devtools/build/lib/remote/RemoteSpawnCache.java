@@ -46,14 +46,19 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.remote.merkletree.MerkleTree;
+import com.google.devtools.build.lib.remote.merkletree.MerkleTreeCache;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.options.RemoteOutputsMode;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.DigestUtil.ActionKey;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import com.google.devtools.build.lib.remote.util.Utils.InMemoryOutput;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import io.grpc.Context;
 import java.io.IOException;
 import java.util.Collection;
@@ -61,6 +66,7 @@ import java.util.HashSet;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
 /** A remote {@link SpawnCache} implementation. */
@@ -82,6 +88,9 @@ final class RemoteSpawnCache implements SpawnCache {
   private final Set<String> reportedErrors = new HashSet<>();
 
   private final DigestUtil digestUtil;
+  @Nullable private final MerkleTreeCache merkleTreeCache;
+  @Nullable private final AsyncOutputUploader asyncUploader;
+  private final AtomicLong outErrSnapshots = new AtomicLong();
 
   /**
    * Set of artifacts that are top level outputs
@@ -100,6 +109,36 @@ final class RemoteSpawnCache implements SpawnCache {
       @Nullable Reporter cmdlineReporter,
       DigestUtil digestUtil,
       ImmutableSet<Artifact> topLevelOutputs) {
+    this(
+        execRoot,
+        options,
+        remoteCache,
+        buildRequestId,
+        commandId,
+        cmdlineReporter,
+        digestUtil,
+        topLevelOutputs,
+        /* asyncUploader= */ null,
+        /* merkleTreeCache= */ null);
+  }
+
+  /**
+   * Creates a spawn cache that uploads the outputs of locally executed spawns with {@code
+   * asyncUploader} instead of waiting for the uploads to complete, if {@code asyncUploader} is not
+   * {@code null}, and that reuses the input directories in {@code merkleTreeCache}, if it is not
+   * {@code null}.
+   */
+  RemoteSpawnCache(
+      Path execRoot,
+      RemoteOptions options,
+      AbstractRemoteActionCache remoteCache,
+      String buildRequestId,
+      String commandId,
+      @Nullable Reporter cmdlineReporter,
+      DigestUtil digestUtil,
+      ImmutableSet<Artifact> topLevelOutputs,
+      @Nullable AsyncOutputUploader asyncUploader,
+      @Nullable MerkleTreeCache merkleTreeCache) {
     this.execRoot = execRoot;
     this.options = options;
     this.remoteCache = remoteCache;
@@ -108,6 +147,8 @@ final class RemoteSpawnCache implements SpawnCache {
     this.commandId = commandId;
     this.digestUtil = digestUtil;
     this.topLevelOutputs = Preconditions.checkNotNull(topLevelOutputs, "topLevelOutputs");
+    this.merkleTreeCache = merkleTreeCache;
+    this.asyncUploader = asyncUploader;
   }
 
 
@@ -125,7 +166,8 @@ final class RemoteSpawnCache implements SpawnCache {
 
     SortedMap<PathFragment, ActionInput> inputMap = context.getInputMapping(true);
     MerkleTree merkleTree =
-        MerkleTree.build(inputMap, context.getMetadataProvider(), execRoot, digestUtil);
+        MerkleTree.build(
+            inputMap, context.getMetadataProvider(), execRoot, digestUtil, merkleTreeCache);
     Digest merkleTreeRoot = merkleTree.getRootDigest();
 
     // Get the remote platform properties.
@@ -238,9 +280,13 @@ final class RemoteSpawnCache implements SpawnCache {
             }
           }
 
-          Context previous = withMetadata.attach();
           Collection<Path> files =
               RemoteSpawnRunner.resolveActionInputs(execRoot, spawn.getOutputFiles());
+          if (asyncUploader != null) {
+            storeAsync(files);
+            return;
+          }
+          Context previous = withMetadata.attach();
           try (SilentCloseable c = prof.profile(ProfilerTask.UPLOAD_TIME, "upload outputs")) {
             remoteCache.upload(
                 actionKey, action, command, execRoot, files, context.getFileOutErr());
@@ -256,6 +302,46 @@ final class RemoteSpawnCache implements SpawnCache {
           }
         }
 
+        /**
+         * Schedules the upload of the outputs in the background. The outputs must not change until
+         * they are uploaded, so they are marked read-only, and stdout and stderr, which are reused
+         * once the spawn completes, are copied.
+         */
+        private void storeAsync(Collection<Path> files) throws InterruptedException {
+          FileOutErr outErr;
+          long bytes = 0;
+          try (SilentCloseable c = prof.profile("RemoteCache.snapshotOutputs")) {
+            for (Path file : files) {
+              bytes += setReadOnly(file);
+            }
+            String suffix = ".upload-" + outErrSnapshots.incrementAndGet();
+            outErr = snapshotOutErr(context.getFileOutErr(), suffix);
+            bytes += sizeIfExists(outErr.getOutputPath()) + sizeIfExists(outErr.getErrorPath());
+          } catch (IOException e) {
+            String errorMsg = e.getMessage();
+            if (isNullOrEmpty(errorMsg)) {
+              errorMsg = e.getClass().getSimpleName();
+            }
+            report(Event.warn("Writing to Remote Cache:\n" + errorMsg));
+            return;
+          }
+          asyncUploader.submit(
+              bytes,
+              () -> {
+                Context previous = withMetadata.attach();
+                try (SilentCloseable c =
+                    prof.profile(ProfilerTask.UPLOAD_TIME, "upload outputs")) {
+                  remoteCache.upload(actionKey, action, command, execRoot, files, outErr);
+                } catch (ExecException e) {
+                  throw new IOException(e.getMessage(), e);
+                } finally {
+                  withMetadata.detach(previous);
+                  outErr.getOutputPath().delete();
+                  outErr.getErrorPath().delete();
+                }
+              });
+        }
+
         @Override
         public void close() {}
 
@@ -277,6 +363,48 @@ final class RemoteSpawnCache implements SpawnCache {
     }
   }
 
+  /**
+   * Marks the given output, or all files below it if it is a directory, read-only, and returns the
+   * total size of the files.
+   */
+  private static long setReadOnly(Path path) throws IOException {
+    FileStatus stat = path.statIfFound(Symlinks.NOFOLLOW);
+    if (stat == null) {
+      return 0;
+    }
+    if (stat.isDirectory()) {
+      long size = 0;
+      for (Path child : path.getDirectoryEntries()) {
+        size += setReadOnly(child);
+      }
+      return size;
+    }
+    if (stat.isFile()) {
+      path.setWritable(false);
+      return stat.getSize();
+    }
+    return 0;
+  }
+
+  /** Copies stdout and stderr next to the originals, appending {@code suffix} to their names. */
+  private static FileOutErr snapshotOutErr(FileOutErr outErr, String suffix) throws IOException {
+    return new FileOutErr(
+        snapshot(outErr.getOutputPath(), suffix), snapshot(outErr.getErrorPath(), suffix));
+  }
+
+  private static Path snapshot(Path path, String suffix) throws IOException {
+    Path copy = path.getParentDirectory().getRelative(path.getBaseName() + suffix);
+    if (path.exists()) {
+      FileSystemUtils.copyFile(path, copy);
+    }
+    return copy;
+  }
+
+  private static long sizeIfExists(Path path) throws IOException {
+    FileStatus stat = path.statIfFound();
+    return stat != null ? stat.getSize() : 0;
+  }
+
   private void report(Event evt) {
     if (cmdlineReporter == null) {
       return;
@@ -61,6 +61,7 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.remote.merkletree.MerkleTree;
+import com.google.devtools.build.lib.remote.merkletree.MerkleTreeCache;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.options.RemoteOutputsMode;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
@@ -111,6 +112,7 @@ public class RemoteSpawnRunner implements SpawnRunner {
   private final String commandId;
   private final DigestUtil digestUtil;
   private final Path logDir;
+  @Nullable private final MerkleTreeCache merkleTreeCache;
 
   /**
    * Set of artifacts that are top level outputs
@@ -138,6 +140,44 @@ public class RemoteSpawnRunner implements SpawnRunner {
       DigestUtil digestUtil,
       Path logDir,
       ImmutableSet<Artifact> topLevelOutputs) {
+    this(
+        execRoot,
+        remoteOptions,
+        executionOptions,
+        fallbackRunner,
+        verboseFailures,
+        cmdlineReporter,
+        buildRequestId,
+        commandId,
+        remoteCache,
+        remoteExecutor,
+        retrier,
+        digestUtil,
+        logDir,
+        topLevelOutputs,
+        /* merkleTreeCache= */ null);
+  }
+
+  /**
+   * Creates a spawn runner that reuses the input directories in {@code merkleTreeCache}, if it is
+   * not {@code null}.
+   */
+  RemoteSpawnRunner(
+      Path execRoot,
+      RemoteOptions remoteOptions,
+      ExecutionOptions executionOptions,
+      AtomicReference<SpawnRunner> fallbackRunner,
+      boolean verboseFailures,
+      @Nullable Reporter cmdlineReporter,
+      String buildRequestId,
+      String commandId,
+      GrpcRemoteCache remoteCache,
+      @Nullable GrpcRemoteExecutor remoteExecutor,
+      @Nullable RemoteRetrier retrier,
+      DigestUtil digestUtil,
+      Path logDir,
+      ImmutableSet<Artifact> topLevelOutputs,
+      @Nullable MerkleTreeCache merkleTreeCache) {
     this.execRoot = execRoot;
     this.remoteOptions = remoteOptions;
     this.executionOptions = executionOptions;
@@ -152,6 +192,7 @@ public class RemoteSpawnRunner implements SpawnRunner {
     this.digestUtil = digestUtil;
     this.logDir = logDir;
     this.topLevelOutputs = Preconditions.checkNotNull(topLevelOutputs, "topLevelOutputs");
+    this.merkleTreeCache = merkleTreeCache;
   }
 
   @Override
@@ -171,7 +212,8 @@ public class RemoteSpawnRunner implements SpawnRunner {
     RemoteOutputsMode remoteOutputsMode = remoteOptions.remoteOutputsMode;
     SortedMap<PathFragment, ActionInput> inputMap = context.getInputMapping(true);
     final MerkleTree merkleTree =
-        MerkleTree.build(inputMap, context.getMetadataProvider(), execRoot, digestUtil);
+        MerkleTree.build(
+            inputMap, context.getMetadataProvider(), execRoot, digestUtil, merkleTreeCache);
     maybeWriteParamFilesLocally(spawn);
 
     // Get the remote platform properties.
@@ -263,6 +305,13 @@ public class RemoteSpawnRunner implements SpawnRunner {
               ExecuteResponse reply;
               try (SilentCloseable c = prof.profile(REMOTE_EXECUTION, "execute remotely")) {
                 reply = remoteExecutor.executeRemotely(request);
+              } catch (IOException e) {
+                if (RemoteRetrierUtils.causedByStatus(e, Code.FAILED_PRECONDITION)) {
+                  // Inputs may be missing that were known to be present, so look all of them up
+                  // again before a retry.
+                  remoteCache.invalidateKnownDigests();
+                }
+                throw e;
               }
 
               FileOutErr outErr = context.getFileOutErr();
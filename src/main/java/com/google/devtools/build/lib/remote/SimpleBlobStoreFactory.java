@@ -37,13 +37,20 @@ import javax.annotation.Nullable;
  */
 public final class SimpleBlobStoreFactory {
 
+  /**
+   * Disk caches by directory. A disk cache is kept for the lifetime of the server, so that its
+   * index is only built once rather than by every command.
+   */
+  private static final ConcurrentHashMap<Path, OnDiskBlobStore> diskCaches =
+      new ConcurrentHashMap<>();
+
   private SimpleBlobStoreFactory() {}
 
   public static SimpleBlobStore create(RemoteOptions remoteOptions, @Nullable Path casPath) {
     if (isHttpUrlOptions(remoteOptions)) {
       return createHttp(remoteOptions, /* creds= */ null);
     } else if (casPath != null) {
-      return new OnDiskBlobStore(casPath);
+      return getDiskCache(casPath, /* maxSizeBytes= */ 0);
     } else {
       return new ConcurrentMapBlobStore(new ConcurrentHashMap<>());
     }
@@ -61,7 +68,7 @@ public final class SimpleBlobStoreFactory {
       return createHttp(options, creds);
     }
     if (isDiskCache(options)) {
-      return createDiskCache(workingDirectory, options.diskCache);
+      return createDiskCache(workingDirectory, options.diskCache, options.diskCacheMaxSize);
     }
     throw new IllegalArgumentException(
         "Unrecognized RemoteOptions configuration: remote Http cache URL and/or local disk cache"
@@ -101,14 +108,14 @@ public final class SimpleBlobStoreFactory {
     }
   }
 
-  private static SimpleBlobStore createDiskCache(Path workingDirectory, PathFragment diskCachePath)
-      throws IOException {
+  private static SimpleBlobStore createDiskCache(
+      Path workingDirectory, PathFragment diskCachePath, long diskCacheMaxSize) throws IOException {
     Path cacheDir =
         workingDirectory.getRelative(Preconditions.checkNotNull(diskCachePath, "diskCachePath"));
     if (!cacheDir.exists()) {
       cacheDir.createDirectoryAndParents();
     }
-    return new OnDiskBlobStore(cacheDir);
+    return getDiskCache(cacheDir, diskCacheMaxSize);
   }
 
   private static SimpleBlobStore createCombinedCache(
@@ -121,11 +128,22 @@ public final class SimpleBlobStoreFactory {
       cacheDir.createDirectoryAndParents();
     }
 
-    OnDiskBlobStore diskCache = new OnDiskBlobStore(cacheDir);
+    OnDiskBlobStore diskCache = getDiskCache(cacheDir, options.diskCacheMaxSize);
     SimpleBlobStore httpCache = createHttp(options, cred);
     return new CombinedDiskHttpBlobStore(diskCache, httpCache);
   }
 
+  /**
+   * Returns the disk cache in the given directory, creating it if this is the first use of the
+   * directory. The cache's maximum size is updated to {@code maxSizeBytes}.
+   */
+  private static OnDiskBlobStore getDiskCache(Path cacheDir, long maxSizeBytes) {
+    OnDiskBlobStore store =
+        diskCaches.computeIfAbsent(cacheDir, dir -> new OnDiskBlobStore(dir, maxSizeBytes));
+    store.setMaxSizeBytes(maxSizeBytes);
+    return store;
+  }
+
   private static boolean isDiskCache(RemoteOptions options) {
     return options.diskCache != null && !options.diskCache.isEmpty();
   }
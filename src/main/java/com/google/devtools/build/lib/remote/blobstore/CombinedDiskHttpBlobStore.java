@@ -21,7 +21,6 @@ import com.google.devtools.build.lib.vfs.Path;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -96,7 +95,7 @@ public final class CombinedDiskHttpBlobStore implements SimpleBlobStore {
   private ListenableFuture<Boolean> getFromRemoteAndSaveToDisk(
       String key, OutputStream out, boolean actionResult) {
     // Write a temporary file first, and then rename, to avoid data corruption in case of a crash.
-    Path temp = diskCache.toPath(UUID.randomUUID().toString(), /* actionResult= */ false);
+    Path temp = diskCache.newTempPath();
 
     OutputStream tempOut;
     try {
@@ -111,6 +110,8 @@ public final class CombinedDiskHttpBlobStore implements SimpleBlobStore {
               if (!found) {
                 return Futures.immediateFuture(false);
               } else {
+                // Close the file before committing it, so that its size is final when indexed.
+                tempOut.close();
                 saveToDiskCache(key, temp, actionResult);
                 return getFromCache(diskCache, key, out, actionResult);
               }
@@ -131,10 +132,9 @@ public final class CombinedDiskHttpBlobStore implements SimpleBlobStore {
   }
 
   private void saveToDiskCache(String key, Path temp, boolean actionResult) throws IOException {
-    Path target = diskCache.toPath(key, actionResult);
     // TODO(ulfjack): Fsync temp here before we rename it to avoid data loss in the
     // case of machine crashes (the OS may reorder the writes and the rename).
-    temp.renameTo(target);
+    diskCache.commit(temp, key, actionResult);
   }
 
   private ListenableFuture<Boolean> getFromCache(
@@ -13,49 +13,210 @@
 // limitations under the License.
 package com.google.devtools.build.lib.remote.blobstore;
 
-
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
-/** A on-disk store for the remote action cache. */
+/**
+ * A on-disk store for the remote action cache.
+ *
+ * <p>All entries stored under the cache directory are tracked in an in-memory index, which is
+ * populated by a background scan of the directory when the store is created. Entries found in the
+ * index are answered without touching the file system. The cache directory may be shared with
+ * other processes, so a key missing from the index is looked up on disk and indexed if found.
+ * Temporary files of entries being written, by this or another process, are never indexed.
+ *
+ * <p>If a maximum size is configured, the least recently used entries are deleted in the
+ * background whenever the total size of the cache exceeds it, until the cache is back below {@link
+ * #LOW_WATERMARK} of the maximum size. Access order survives server restarts, and is shared with
+ * other processes, through the modification time of the cache files, which is updated on every
+ * read: an entry whose file was modified since this store last saw it is not deleted.
+ *
+ * <p>A store is meant to live as long as the server, see {@link
+ * com.google.devtools.build.lib.remote.SimpleBlobStoreFactory}.
+ */
 public class OnDiskBlobStore implements SimpleBlobStore {
-  private final Path root;
+  private static final Logger logger = Logger.getLogger(OnDiskBlobStore.class.getName());
+
   private static final String ACTION_KEY_PREFIX = "ac_";
 
+  /** Fraction of the maximum size that garbage collection shrinks the cache to. */
+  @VisibleForTesting static final double LOW_WATERMARK = 0.9;
+
+  /** Matches the names of temporary files, see {@link #newTempPath}. */
+  private static final Pattern TEMP_FILE_NAME =
+      Pattern.compile("[0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{12}");
+
+  /** Loads the indexes and garbage collects for all stores. */
+  private static final Executor SHARED_EXECUTOR =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder()
+              .setNameFormat("disk-cache-gc")
+              .setDaemon(true)
+              .setPriority(Thread.MIN_PRIORITY)
+              .build());
+
+  private final Path root;
+  private volatile long maxSizeBytes;
+  private final Executor executor;
+
+  /** Maps disk keys (i.e. file names under {@link #root}) to their index entries. */
+  private final Map<String, Entry> index = new ConcurrentHashMap<>();
+
+  /** Logical clock used to order entries by recency of access. */
+  private final AtomicLong accessClock = new AtomicLong();
+
+  private final AtomicLong totalSizeBytes = new AtomicLong();
+  private final AtomicBoolean gcScheduled = new AtomicBoolean();
+  private volatile boolean indexLoaded;
+
+  /** An entry in the in-memory index. */
+  private static final class Entry {
+    private final long sizeBytes;
+    private volatile long lastAccess;
+    /** The modification time of the file when this store last wrote, read or stat'ed it. */
+    private volatile long lastModified;
+
+    private Entry(long sizeBytes, long lastAccess, long lastModified) {
+      this.sizeBytes = sizeBytes;
+      this.lastAccess = lastAccess;
+      this.lastModified = lastModified;
+    }
+  }
+
+  /** Creates a store with no size limit. */
   public OnDiskBlobStore(Path root) {
+    this(root, /* maxSizeBytes= */ 0);
+  }
+
+  /**
+   * Creates a store that garbage collects its least recently used entries when its total size
+   * exceeds {@code maxSizeBytes}. A value of 0 or less means that there is no size limit.
+   */
+  public OnDiskBlobStore(Path root, long maxSizeBytes) {
+    this(root, maxSizeBytes, SHARED_EXECUTOR);
+  }
+
+  /** Creates a store which loads its index and garbage collects on the given {@code executor}. */
+  @VisibleForTesting
+  OnDiskBlobStore(Path root, long maxSizeBytes, Executor executor) {
     this.root = root;
+    this.maxSizeBytes = maxSizeBytes;
+    this.executor = executor;
+    executeInBackground(this::loadIndex);
+  }
+
+  public Path getRoot() {
+    return root;
+  }
+
+  /**
+   * Changes the maximum size of the cache, garbage collecting if the cache exceeds the new size. A
+   * value of 0 or less means that there is no size limit.
+   */
+  public void setMaxSizeBytes(long maxSizeBytes) {
+    this.maxSizeBytes = maxSizeBytes;
+    if (maxSizeBytes > 0 && totalSizeBytes.get() > maxSizeBytes && indexLoaded) {
+      scheduleGc();
+    }
   }
 
   @Override
   public boolean contains(String key) {
-    return toPath(key, /* actionResult= */ false).exists();
+    return containsDiskKey(getDiskKey(key, /* actionResult= */ false));
   }
 
   @Override
   public boolean containsActionResult(String key) {
-    return toPath(key, /* actionResult= */ true).exists();
+    return containsDiskKey(getDiskKey(key, /* actionResult= */ true));
+  }
+
+  private boolean containsDiskKey(String diskKey) {
+    Entry entry = index.get(diskKey);
+    if (entry != null) {
+      entry.lastAccess = accessClock.incrementAndGet();
+      return true;
+    }
+    // The entry may not be indexed yet, or may have been written by another process.
+    FileStatus stat;
+    try {
+      stat = root.getChild(diskKey).statIfFound(Symlinks.NOFOLLOW);
+    } catch (IOException e) {
+      return false;
+    }
+    if (stat == null || !stat.isFile()) {
+      return false;
+    }
+    try {
+      addToIndex(diskKey, stat.getSize(), accessClock.incrementAndGet(), stat.getLastModifiedTime());
+    } catch (IOException e) {
+      // The entry exists, but can't be accounted for in the index.
+    }
+    return true;
+  }
+
+  private void addToIndex(String diskKey, long size, long lastAccess, long lastModified) {
+    if (index.putIfAbsent(diskKey, new Entry(size, lastAccess, lastModified)) == null) {
+      totalSizeBytes.addAndGet(size);
+    }
+  }
+
+  /** Removes the given entry, whose file was deleted behind the back of this store. */
+  private void removeFromIndex(String diskKey, Entry entry) {
+    if (index.remove(diskKey, entry)) {
+      totalSizeBytes.addAndGet(-entry.sizeBytes);
+    }
   }
 
   @Override
   public ListenableFuture<Boolean> get(String key, OutputStream out) {
     SettableFuture<Boolean> f = SettableFuture.create();
     Path p = toPath(key, /* actionResult= */ false);
-    if (!p.exists()) {
+    if (!containsDiskKey(key)) {
       f.set(false);
     } else {
+      Entry entry = index.get(key);
       try (InputStream in = p.getInputStream()) {
         ByteStreams.copy(in, out);
         f.set(true);
+      } catch (FileNotFoundException e) {
+        // The entry was garbage collected after the call to containsDiskKey, or deleted by another
+        // process.
+        if (entry != null) {
+          removeFromIndex(key, entry);
+        }
+        f.set(false);
+        return f;
       } catch (IOException e) {
         f.setException(e);
+        return f;
       }
+      touch(key, p);
     }
     return f;
   }
@@ -68,19 +229,27 @@ public class OnDiskBlobStore implements SimpleBlobStore {
   @Override
   public void put(String key, long length, InputStream in)
       throws IOException, InterruptedException {
-    Path target = toPath(key, /* actionResult= */ false);
-    if (target.exists()) {
+    // Unlike a read, which fails if the file is gone, a skipped write would lose the entry.
+    Entry entry = index.get(key);
+    if (entry != null) {
+      if (root.getChild(key).exists(Symlinks.NOFOLLOW)) {
+        entry.lastAccess = accessClock.incrementAndGet();
+        return;
+      }
+      removeFromIndex(key, entry);
+    } else if (containsDiskKey(key)) {
       return;
     }
 
     // Write a temporary file first, and then rename, to avoid data corruption in case of a crash.
-    Path temp = toPath(UUID.randomUUID().toString(), /* actionResult= */ false);
+    Path temp = newTempPath();
+    long size;
     try (OutputStream out = temp.getOutputStream()) {
-      ByteStreams.copy(in, out);
+      size = ByteStreams.copy(in, out);
     }
     // TODO(ulfjack): Fsync temp here before we rename it to avoid data loss in the case of machine
     // crashes (the OS may reorder the writes and the rename).
-    temp.renameTo(target);
+    commitDiskKey(temp, key, size);
   }
 
   @Override
@@ -89,12 +258,186 @@ public class OnDiskBlobStore implements SimpleBlobStore {
   }
 
   @Override
-  public void close() {}
+  public void close() {
+    // The store outlives commands, and its background work runs on a shared executor.
+  }
 
   protected Path toPath(String key, boolean actionResult) {
     return root.getChild(getDiskKey(key, actionResult));
   }
 
+  /**
+   * Returns a fresh path in the cache directory to write an entry to before committing it. Its name
+   * is a random UUID, which tells temporary files apart from entries, whose names are hashes.
+   */
+  Path newTempPath() {
+    return root.getChild(UUID.randomUUID().toString());
+  }
+
+  /**
+   * Atomically moves the fully written file {@code temp} into the cache under {@code key} and adds
+   * it to the index.
+   */
+  void commit(Path temp, String key, boolean actionResult) throws IOException {
+    commitDiskKey(temp, getDiskKey(key, actionResult), temp.getFileSize());
+  }
+
+  private void commitDiskKey(Path temp, String diskKey, long size) throws IOException {
+    temp.renameTo(root.getChild(diskKey));
+    Entry previous =
+        index.put(
+            diskKey, new Entry(size, accessClock.incrementAndGet(), System.currentTimeMillis()));
+    long total = totalSizeBytes.addAndGet(previous == null ? size : size - previous.sizeBytes);
+    if (maxSizeBytes > 0 && total > maxSizeBytes && indexLoaded) {
+      scheduleGc();
+    }
+  }
+
+  /** Returns the number of bytes currently accounted for in the index. */
+  @VisibleForTesting
+  long getTotalSizeBytes() {
+    return totalSizeBytes.get();
+  }
+
+  private void loadIndex() {
+    Collection<Path> children;
+    try {
+      children = root.getDirectoryEntries();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to read disk cache directory " + root, e);
+      indexLoaded = true;
+      return;
+    }
+    List<ScannedFile> scanned = new ArrayList<>(children.size());
+    for (Path child : children) {
+      if (isTempFile(child.getBaseName())) {
+        continue;
+      }
+      try {
+        FileStatus stat = child.statIfFound(Symlinks.NOFOLLOW);
+        if (stat != null && stat.isFile()) {
+          scanned.add(
+              new ScannedFile(child.getBaseName(), stat.getSize(), stat.getLastModifiedTime()));
+        }
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to stat disk cache entry " + child, e);
+      }
+    }
+    // Entries written by a previous server get older logical access times than any entry accessed
+    // in this one, ordered by their modification time.
+    scanned.sort(Comparator.comparingLong(f -> f.lastModified));
+    long firstTick = -scanned.size();
+    for (int i = 0; i < scanned.size(); i++) {
+      ScannedFile file = scanned.get(i);
+      addToIndex(file.name, file.size, firstTick + i, file.lastModified);
+    }
+    indexLoaded = true;
+    if (maxSizeBytes > 0 && totalSizeBytes.get() > maxSizeBytes) {
+      scheduleGc();
+    }
+  }
+
+  private static final class ScannedFile {
+    private final String name;
+    private final long size;
+    private final long lastModified;
+
+    private ScannedFile(String name, long size, long lastModified) {
+      this.name = name;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+
+  private void scheduleGc() {
+    if (gcScheduled.compareAndSet(false, true)) {
+      executeInBackground(
+          () -> {
+            gcScheduled.set(false);
+            collectGarbage();
+          });
+    }
+  }
+
+  /** Deletes least recently used entries until the cache is below the low watermark. */
+  private void collectGarbage() {
+    long target = (long) (maxSizeBytes * LOW_WATERMARK);
+    if (totalSizeBytes.get() <= maxSizeBytes) {
+      return;
+    }
+    List<Map.Entry<String, Entry>> entries = new ArrayList<>(index.entrySet());
+    entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccess));
+    int deleted = 0;
+    for (Map.Entry<String, Entry> e : entries) {
+      if (totalSizeBytes.get() <= target) {
+        break;
+      }
+      Entry entry = e.getValue();
+      Path file = root.getChild(e.getKey());
+      FileStatus stat;
+      try {
+        stat = file.statIfFound(Symlinks.NOFOLLOW);
+      } catch (IOException ex) {
+        logger.log(Level.WARNING, "Failed to stat disk cache entry " + e.getKey(), ex);
+        continue;
+      }
+      try {
+        if (stat != null && stat.getLastModifiedTime() > entry.lastModified) {
+          // Another process wrote or read the entry since we last saw it.
+          entry.lastModified = stat.getLastModifiedTime();
+          entry.lastAccess = accessClock.incrementAndGet();
+          continue;
+        }
+      } catch (IOException ex) {
+        continue;
+      }
+      if (!index.remove(e.getKey(), entry)) {
+        continue;
+      }
+      totalSizeBytes.addAndGet(-entry.sizeBytes);
+      if (stat == null) {
+        // Deleted by another process.
+        continue;
+      }
+      try {
+        file.delete();
+        deleted++;
+      } catch (IOException ex) {
+        logger.log(Level.WARNING, "Failed to delete disk cache entry " + e.getKey(), ex);
+      }
+    }
+    logger.info(
+        String.format(
+            "Deleted %d entries from disk cache %s, %d bytes remaining",
+            deleted, root, totalSizeBytes.get()));
+  }
+
+  private void executeInBackground(Runnable r) {
+    try {
+      executor.execute(r);
+    } catch (RejectedExecutionException e) {
+      // The executor is shutting down along with the JVM.
+    }
+  }
+
+  private void touch(String diskKey, Path p) {
+    try {
+      p.setLastModifiedTime(-1L);
+    } catch (IOException e) {
+      // Best effort: access order is still tracked in memory.
+      return;
+    }
+    Entry entry = index.get(diskKey);
+    if (entry != null) {
+      entry.lastModified = System.currentTimeMillis();
+    }
+  }
+
+  @VisibleForTesting
+  static boolean isTempFile(String name) {
+    return TEMP_FILE_NAME.matcher(name).matches();
+  }
+
   private String getDiskKey(String key, boolean actionResult) {
     return actionResult ? OnDiskBlobStore.ACTION_KEY_PREFIX + key : key;
   }
@@ -29,7 +29,9 @@ import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
 import javax.annotation.Nullable;
@@ -90,13 +92,32 @@ public class MerkleTree {
       Path execRoot,
       DigestUtil digestUtil)
       throws IOException {
+    return build(inputs, metadataProvider, execRoot, digestUtil, /* cache= */ null);
+  }
+
+  /**
+   * Constructs a merkle tree from a lexicographically sorted map of inputs (files), reusing the
+   * {@link Directory} protos of directories found in {@code cache}.
+   *
+   * @param cache the directories built for previous merkle trees. May be {@code null}, in which
+   *     case all directories are built
+   * @see #build(SortedMap, MetadataProvider, Path, DigestUtil)
+   */
+  public static MerkleTree build(
+      SortedMap<PathFragment, ActionInput> inputs,
+      MetadataProvider metadataProvider,
+      Path execRoot,
+      DigestUtil digestUtil,
+      @Nullable MerkleTreeCache cache)
+      throws IOException {
     try (SilentCloseable c = Profiler.instance().profile("MerkleTree.build")) {
       InputTree tree = InputTree.build(inputs, metadataProvider, execRoot, digestUtil);
-      return build(tree, digestUtil);
+      return build(tree, digestUtil, cache);
     }
   }
 
-  private static MerkleTree build(InputTree tree, DigestUtil digestUtil) {
+  private static MerkleTree build(
+      InputTree tree, DigestUtil digestUtil, @Nullable MerkleTreeCache cache) {
     Preconditions.checkNotNull(tree);
     if (tree.isEmpty()) {
       return new MerkleTree(ImmutableMap.of(), ImmutableMap.of(), digestUtil.compute(new byte[0]));
@@ -108,19 +129,26 @@ public class MerkleTree {
     Map<PathFragment, Digest> m = new HashMap<>();
     tree.visit(
         (dirname, files, dirs) -> {
-          Directory.Builder b = Directory.newBuilder();
           for (InputTree.FileNode file : files) {
-            b.addFiles(buildProto(file));
             digestActionInputMap.put(file.getDigest(), file.getActionInput());
           }
+          List<Digest> dirDigests = new ArrayList<>(dirs.size());
           for (InputTree.DirectoryNode dir : dirs) {
             PathFragment subDirname = dirname.getRelative(dir.getPathSegment());
-            Digest protoDirDigest =
-                Preconditions.checkNotNull(m.remove(subDirname), "protoDirDigest was null");
-            b.addDirectories(buildProto(dir, protoDirDigest));
+            dirDigests.add(
+                Preconditions.checkNotNull(m.remove(subDirname), "protoDirDigest was null"));
+          }
+          Directory protoDir;
+          Digest protoDirDigest;
+          if (cache != null) {
+            MerkleTreeCache.CachedDirectory cached =
+                cache.getOrBuild(files, dirs, dirDigests, digestUtil);
+            protoDir = cached.getDirectory();
+            protoDirDigest = cached.getDigest();
+          } else {
+            protoDir = buildDirectory(files, dirs, dirDigests);
+            protoDirDigest = digestUtil.compute(protoDir);
           }
-          Directory protoDir = b.build();
-          Digest protoDirDigest = digestUtil.compute(protoDir);
           digestDirectoryMap.put(protoDirDigest, protoDir);
           m.put(dirname, protoDirDigest);
         });
@@ -128,6 +156,19 @@ public class MerkleTree {
         digestDirectoryMap, digestActionInputMap, m.get(PathFragment.EMPTY_FRAGMENT));
   }
 
+  /** Builds the proto of a directory, given the digests of the protos of its subdirectories. */
+  static Directory buildDirectory(
+      List<InputTree.FileNode> files, List<InputTree.DirectoryNode> dirs, List<Digest> dirDigests) {
+    Directory.Builder b = Directory.newBuilder();
+    for (InputTree.FileNode file : files) {
+      b.addFiles(buildProto(file));
+    }
+    for (int i = 0; i < dirs.size(); i++) {
+      b.addDirectories(buildProto(dirs.get(i), dirDigests.get(i)));
+    }
+    return b.build();
+  }
+
   private static FileNode buildProto(InputTree.FileNode file) {
     return FileNode.newBuilder()
         .setName(file.getPathSegment())
@@ -0,0 +1,170 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.merkletree;
+
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.Directory;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memoizes the {@link Directory} protos of the merkle trees built for spawns, and their digests.
+ *
+ * <p>Spawns typically share most of their inputs, such as toolchains and SDKs, so most directories
+ * of their input trees are identical. A directory is looked up by its contents, that is the names
+ * and digests of its files and the names and digests of its subdirectories, which are known once
+ * its subdirectories have been visited. A hit saves building, serializing and hashing the proto.
+ * Since directories are keyed by content rather than by path, identical directories at different
+ * paths share an entry.
+ *
+ * <p>An instance is created for each build and shared by the remote spawn cache and the remote
+ * spawn runner, so that the directories of spawns looked up in the cache are reused when they are
+ * executed remotely.
+ */
+@ThreadSafe
+public final class MerkleTreeCache {
+
+  /** A directory proto and its digest. */
+  static final class CachedDirectory {
+    private final Directory directory;
+    private final Digest digest;
+
+    private CachedDirectory(Directory directory, Digest digest) {
+      this.directory = directory;
+      this.digest = digest;
+    }
+
+    Directory getDirectory() {
+      return directory;
+    }
+
+    Digest getDigest() {
+      return digest;
+    }
+  }
+
+  private final Cache<DirectoryKey, CachedDirectory> directories;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** @param maxDirectories the maximum number of directories to keep */
+  public MerkleTreeCache(long maxDirectories) {
+    Preconditions.checkArgument(maxDirectories > 0, "maxDirectories must be gt 0");
+    this.directories = CacheBuilder.newBuilder().maximumSize(maxDirectories).build();
+  }
+
+  /**
+   * Returns the proto of a directory with the given files and subdirectories, and its digest,
+   * building it only if no identical directory was built before.
+   *
+   * @param files the files of the directory, in lexicographical order
+   * @param dirs the subdirectories of the directory, in lexicographical order
+   * @param dirDigests the digests of the protos of {@code dirs}, in the same order
+   */
+  CachedDirectory getOrBuild(
+      List<InputTree.FileNode> files,
+      List<InputTree.DirectoryNode> dirs,
+      List<Digest> dirDigests,
+      DigestUtil digestUtil) {
+    DirectoryKey key = new DirectoryKey(files, dirs, dirDigests);
+    CachedDirectory cached = directories.getIfPresent(key);
+    if (cached != null) {
+      hits.incrementAndGet();
+      return cached;
+    }
+    misses.incrementAndGet();
+    Directory directory = MerkleTree.buildDirectory(files, dirs, dirDigests);
+    cached = new CachedDirectory(directory, digestUtil.compute(directory));
+    // Racing builds of the same directory compute equal values, so either may win.
+    directories.put(key, cached);
+    return cached;
+  }
+
+  /** Returns how many directories were found in this cache. */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /** Returns how many directories were built because they were not found in this cache. */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /** Returns a one-line summary of the statistics of this cache, for the build summary. */
+  public String getSummary() {
+    long hits = getHits();
+    long lookups = hits + getMisses();
+    return String.format(
+        "Remote merkle tree cache: %d of %d input directories (%.1f%%) reused",
+        hits, lookups, lookups == 0 ? 0.0 : 100.0 * hits / lookups);
+  }
+
+  /**
+   * The contents of a directory: the names and digests of its files, followed by those of its
+   * subdirectories.
+   */
+  private static final class DirectoryKey {
+    private final String[] names;
+    private final Digest[] digests;
+    private final int numFiles;
+    private final int hashCode;
+
+    DirectoryKey(
+        List<InputTree.FileNode> files,
+        List<InputTree.DirectoryNode> dirs,
+        List<Digest> dirDigests) {
+      int size = files.size() + dirs.size();
+      names = new String[size];
+      digests = new Digest[size];
+      numFiles = files.size();
+      int i = 0;
+      for (InputTree.FileNode file : files) {
+        names[i] = file.getPathSegment();
+        digests[i] = file.getDigest();
+        i++;
+      }
+      for (int j = 0; j < dirs.size(); j++, i++) {
+        names[i] = dirs.get(j).getPathSegment();
+        digests[i] = dirDigests.get(j);
+      }
+      hashCode = 31 * (31 * Arrays.hashCode(names) + Arrays.hashCode(digests)) + numFiles;
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+      if (!(o instanceof DirectoryKey)) {
+        return false;
+      }
+      DirectoryKey other = (DirectoryKey) o;
+      return hashCode == other.hashCode
+          && numFiles == other.numFiles
+          && Arrays.equals(names, other.names)
+          && Arrays.equals(digests, other.digests);
+    }
+  }
+}
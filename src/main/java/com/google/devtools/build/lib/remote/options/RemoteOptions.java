@@ -23,6 +23,7 @@ import com.google.devtools.common.options.OptionDocumentationCategory;
 import com.google.devtools.common.options.OptionEffectTag;
 import com.google.devtools.common.options.OptionMetadataTag;
 import com.google.devtools.common.options.OptionsBase;
+import java.time.Duration;
 
 /** Options for remote execution and distributed caching. */
 public final class RemoteOptions extends OptionsBase {
@@ -143,6 +144,17 @@ public final class RemoteOptions extends OptionsBase {
               + "If the directory does not exist, it will be created.")
   public PathFragment diskCache;
 
+  @Option(
+      name = "experimental_disk_cache_max_size",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "The maximum size in bytes of the directory specified by --disk_cache. When the cache "
+              + "grows beyond this size, the least recently used entries are deleted in the "
+              + "background. 0 means that the size of the cache is not limited.")
+  public long diskCacheMaxSize;
+
   @Option(
       name = "experimental_guard_against_concurrent_changes",
       defaultValue = "false",
@@ -271,6 +283,124 @@ public final class RemoteOptions extends OptionsBase {
               + " discard the remotely cached values if they don't match the expected value.")
   public boolean remoteVerifyDownloads;
 
+  @Option(
+      name = "experimental_remote_cache_chunking",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If set to true, outputs larger than four times --experimental_remote_cache_chunk_size "
+              + "that are uploaded to a remote cache are split into chunks at content-defined "
+              + "boundaries, of which only those not in the cache yet are uploaded. The list of "
+              + "chunks is stored as a manifest blob, from which the remote cache reassembles and "
+              + "verifies the output. Has no effect if the remote cache does not advertise support "
+              + "for this. If a reassembled output is evicted while its chunks are still in the "
+              + "cache, it is reassembled on download and verified against its digest. Inputs "
+              + "uploaded for remote execution are never split.")
+  public boolean experimentalRemoteCacheChunking;
+
+  @Option(
+      name = "experimental_remote_cache_chunk_size",
+      defaultValue = "1048576",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "The average size in bytes of the chunks created by "
+              + "--experimental_remote_cache_chunking, rounded down to a power of two. Changing it "
+              + "makes chunks uploaded before useless for deduplication.")
+  public int experimentalRemoteCacheChunkSize;
+
+  @Option(
+      name = "experimental_remote_known_digests_cache_size",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If positive, the maximum number of digests known to be present in the remote cache, "
+              + "because they were uploaded or not reported missing, that Bazel remembers during a "
+              + "build. Inputs and outputs with such digests are not looked up or uploaded again, "
+              + "which saves FindMissingBlobs calls for inputs shared by many actions.")
+  public long experimentalRemoteKnownDigestsCacheSize;
+
+  @Option(
+      name = "experimental_remote_known_digests_expiry",
+      defaultValue = "10m",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "The time after which a digest remembered by "
+              + "--experimental_remote_known_digests_cache_size is looked up again, in case the "
+              + "remote cache evicted it.")
+  public Duration experimentalRemoteKnownDigestsExpiry;
+
+  @Option(
+      name = "experimental_remote_merkle_tree_cache",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If set to true, the Directory protos of the input trees of actions are memoized by "
+              + "their contents during a build, so that the directories that actions share, such "
+              + "as those of toolchains, are only built and hashed once.")
+  public boolean experimentalRemoteMerkleTreeCache;
+
+  @Option(
+      name = "experimental_remote_merkle_tree_cache_size",
+      defaultValue = "100000",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "The maximum number of directories memoized by --experimental_remote_merkle_tree_cache.")
+  public long experimentalRemoteMerkleTreeCacheSize;
+
+  @Option(
+      name = "experimental_remote_batch_max_blob_size",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If positive, blobs of up to this many bytes are uploaded to and downloaded from the "
+              + "remote cache with BatchUpdateBlobs and BatchReadBlobs calls, which transfer many "
+              + "small blobs such as Directory protos and stdout/stderr in one call. A batch is "
+              + "capped by the maximum batch size advertised by the remote cache. Larger blobs "
+              + "are streamed.")
+  public long experimentalRemoteBatchMaxBlobSize;
+
+  @Option(
+      name = "experimental_remote_async_upload",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If set to true, the outputs of locally executed actions are uploaded to the remote "
+              + "cache in the background, instead of the actions waiting for the upload. The "
+              + "outputs are made read-only until they are uploaded, and the build waits for all "
+              + "uploads at its end. Only applies to remote caching without remote execution.")
+  public boolean experimentalRemoteAsyncUpload;
+
+  @Option(
+      name = "experimental_remote_async_upload_max_bytes",
+      defaultValue = "268435456",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "The maximum total size of the outputs waiting to be uploaded by "
+              + "--experimental_remote_async_upload. Actions wait for earlier uploads before "
+              + "their outputs would exceed it.")
+  public long experimentalRemoteAsyncUploadMaxBytes;
+
+  @Option(
+      name = "experimental_remote_cache_compression",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.REMOTE,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If set to true, blobs streamed to and from the remote cache with ByteStream reads and "
+              + "writes are compressed with DEFLATE, provided that the remote cache advertises "
+              + "support for it in its capabilities. Blobs are still verified against their "
+              + "uncompressed digests.")
+  public boolean experimentalRemoteCacheCompression;
+
   // The below options are not configurable by users, only tests.
   // This is part of the effort to reduce the overall number of flags.
 
@@ -250,12 +250,18 @@ public final class JavaCompilationHelper {
   }
 
   private ImmutableMap<String, String> getExecutionInfo() {
+    ImmutableMap<String, String> executionInfo = ImmutableMap.of();
+    if (javaToolchain.getJavacSupportsWorkers()) {
+      executionInfo =
+          javaToolchain.getJavacSupportsMultiplexWorkers()
+              ? ImmutableMap.<String, String>builder()
+                  .putAll(ExecutionRequirements.WORKER_MODE_ENABLED)
+                  .put(ExecutionRequirements.SUPPORTS_MULTIPLEX_WORKERS, "1")
+                  .build()
+              : ExecutionRequirements.WORKER_MODE_ENABLED;
+    }
     return getConfiguration()
-        .modifiedExecutionInfo(
-            javaToolchain.getJavacSupportsWorkers()
-                ? ExecutionRequirements.WORKER_MODE_ENABLED
-                : ImmutableMap.of(),
-            JavaCompileActionBuilder.MNEMONIC);
+        .modifiedExecutionInfo(executionInfo, JavaCompileActionBuilder.MNEMONIC);
   }
 
   /** Returns the bootclasspath explicit set in attributes if present, or else the default. */
@@ -60,6 +60,8 @@ public class JavaToolchain implements RuleConfiguredTargetFactory {
         PrerequisiteArtifacts.nestedSet(ruleContext, "extclasspath", Mode.HOST);
     boolean javacSupportsWorkers =
         ruleContext.attributes().get("javac_supports_workers", Type.BOOLEAN);
+    boolean javacSupportsMultiplexWorkers =
+        ruleContext.attributes().get("javac_supports_multiplex_workers", Type.BOOLEAN);
     Artifact javac = ruleContext.getPrerequisiteArtifact("javac", Mode.HOST);
     FilesToRunProvider javabuilder =
         ruleContext.getExecutablePrerequisite("javabuilder", Mode.HOST);
@@ -116,6 +118,7 @@ public class JavaToolchain implements RuleConfiguredTargetFactory {
             jvmOpts,
             javabuilderJvmOpts,
             javacSupportsWorkers,
+            javacSupportsMultiplexWorkers,
             bootclasspath,
             extclasspath,
             javac,
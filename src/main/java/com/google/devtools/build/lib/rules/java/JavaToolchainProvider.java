@@ -74,6 +74,7 @@ public class JavaToolchainProvider extends ToolchainInfo
       ImmutableList<String> jvmOptions,
       ImmutableList<String> javabuilderJvmOptions,
       boolean javacSupportsWorkers,
+      boolean javacSupportsMultiplexWorkers,
       NestedSet<Artifact> bootclasspath,
       NestedSet<Artifact> extclasspath,
       @Nullable Artifact javac,
@@ -115,6 +116,7 @@ public class JavaToolchainProvider extends ToolchainInfo
         jvmOptions,
         javabuilderJvmOptions,
         javacSupportsWorkers,
+        javacSupportsMultiplexWorkers,
         packageConfiguration,
         jacocoRunner,
         javaSemantics);
@@ -141,6 +143,7 @@ public class JavaToolchainProvider extends ToolchainInfo
   private final ImmutableList<String> jvmOptions;
   private final ImmutableList<String> javabuilderJvmOptions;
   private final boolean javacSupportsWorkers;
+  private final boolean javacSupportsMultiplexWorkers;
   private final ImmutableList<JavaPackageConfigurationProvider> packageConfiguration;
   private final FilesToRunProvider jacocoRunner;
   private final JavaSemantics javaSemantics;
@@ -168,6 +171,7 @@ public class JavaToolchainProvider extends ToolchainInfo
       ImmutableList<String> jvmOptions,
       ImmutableList<String> javabuilderJvmOptions,
       boolean javacSupportsWorkers,
+      boolean javacSupportsMultiplexWorkers,
       ImmutableList<JavaPackageConfigurationProvider> packageConfiguration,
       FilesToRunProvider jacocoRunner,
       JavaSemantics javaSemantics) {
@@ -194,6 +198,7 @@ public class JavaToolchainProvider extends ToolchainInfo
     this.jvmOptions = jvmOptions;
     this.javabuilderJvmOptions = javabuilderJvmOptions;
     this.javacSupportsWorkers = javacSupportsWorkers;
+    this.javacSupportsMultiplexWorkers = javacSupportsMultiplexWorkers;
     this.packageConfiguration = packageConfiguration;
     this.jacocoRunner = jacocoRunner;
     this.javaSemantics = javaSemantics;
@@ -334,6 +339,11 @@ public class JavaToolchainProvider extends ToolchainInfo
     return javacSupportsWorkers;
   }
 
+  /** Returns whether JavaBuilder supports running as a multiplexed persistent worker. */
+  public boolean getJavacSupportsMultiplexWorkers() {
+    return javacSupportsMultiplexWorkers;
+  }
+
   /** Returns the global {@code java_plugin_configuration} data. */
   public ImmutableList<JavaPackageConfigurationProvider> packageConfiguration() {
     return packageConfiguration;
@@ -36,6 +36,7 @@ import com.google.devtools.build.lib.analysis.test.CoverageReportActionFactory;
 import com.google.devtools.build.lib.bugreport.BugReport;
 import com.google.devtools.build.lib.clock.BlazeClock;
 import com.google.devtools.build.lib.clock.Clock;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetExpander;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
@@ -287,16 +288,22 @@ public final class BlazeRuntime implements BugReport.BlazeRuntimeInterface {
     Path profilePath = null;
     try {
       if (options.enableTracer || (options.removeBinaryProfile && options.profilePath != null)) {
-        format =
-            options.enableTracerCompression
-                ? Format.JSON_TRACE_FILE_COMPRESSED_FORMAT
-                : Profiler.Format.JSON_TRACE_FILE_FORMAT;
+        if (options.enableCompactTraceProfile) {
+          format = Format.COMPACT_TRACE_FILE_FORMAT;
+        } else {
+          format =
+              options.enableTracerCompression
+                  ? Format.JSON_TRACE_FILE_COMPRESSED_FORMAT
+                  : Profiler.Format.JSON_TRACE_FILE_FORMAT;
+        }
         if (options.profilePath != null) {
           profilePath = workspace.getWorkspace().getRelative(options.profilePath);
         } else {
           String profileName = "command.profile";
           if (format == Format.JSON_TRACE_FILE_COMPRESSED_FORMAT) {
             profileName = "command.profile.gz";
+          } else if (format == Format.COMPACT_TRACE_FILE_FORMAT) {
+            profileName = "command.profile.compact";
           }
           profilePath = workspace.getOutputBase().getRelative(profileName);
         }
@@ -510,6 +517,7 @@ public final class BlazeRuntime implements BugReport.BlazeRuntimeInterface {
    */
   void beforeCommand(CommandEnvironment env, CommonCommandOptions options)
       throws AbruptExitException {
+    NestedSetExpander.setParallelThreshold(options.nestedSetParallelExpansionThreshold);
     if (options.memoryProfilePath != null) {
       Path memoryProfilePath = env.getWorkingDirectory().getRelative(options.memoryProfilePath);
       MemoryProfiler.instance()
@@ -617,6 +625,11 @@ public final class BlazeRuntime implements BugReport.BlazeRuntimeInterface {
     // timing metrics for builds can be more accurate (since this call can be slow).
     try {
       workspace.getSkyframeExecutor().notifyCommandComplete(env.getReporter());
+      if (commonOptions.keepStateAfterBuild && !commonOptions.offloadSkyframeValues.isEmpty()) {
+        workspace
+            .getSkyframeExecutor()
+            .offloadColdValues(ImmutableSet.copyOf(commonOptions.offloadSkyframeValues));
+      }
     } catch (InterruptedException e) {
       afterCommandResult = BlazeCommandResult.exitCode(ExitCode.INTERRUPTED);
       Thread.currentThread().interrupt();
@@ -637,6 +650,16 @@ public final class BlazeRuntime implements BugReport.BlazeRuntimeInterface {
     try {
       Profiler.instance().stop();
       MemoryProfiler.instance().stop();
+      long droppedEvents = Profiler.instance().getDroppedEvents();
+      if (droppedEvents > 0) {
+        env.getReporter()
+            .handle(
+                Event.warn(
+                    "The profile is incomplete: "
+                        + droppedEvents
+                        + " events were dropped because the profiler could not write them out"
+                        + " fast enough"));
+      }
     } catch (IOException e) {
       env.getReporter().handle(Event.error("Error while writing profile file: " + e.getMessage()));
     }
@@ -452,6 +452,35 @@ public class BlazeServerStartupOptions extends OptionsBase {
       help = "Run System.gc() when the server is idle")
   public boolean idleServerTasks;
 
+  @Option(
+      name = "experimental_sharded_skyframe_graph",
+      defaultValue = "false", // NOTE: purely decorative, rc files are read by the client.
+      documentationCategory = OptionDocumentationCategory.BAZEL_CLIENT_OPTIONS,
+      effectTags = {
+        OptionEffectTag.LOSES_INCREMENTAL_STATE,
+        OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS,
+      },
+      help =
+          "If true, the Skyframe graph keeps a separate node map per SkyFunction, pre-sized from "
+              + "the previous graph. This reduces map resizing and contention on very large "
+              + "graphs.")
+  public boolean shardedSkyframeGraph;
+
+  @Option(
+      name = "experimental_mmap_action_cache",
+      defaultValue = "false", // NOTE: purely decorative, rc files are read by the client.
+      documentationCategory = OptionDocumentationCategory.BAZEL_CLIENT_OPTIONS,
+      effectTags = {
+        OptionEffectTag.LOSES_INCREMENTAL_STATE,
+        OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS,
+      },
+      help =
+          "If true, the action cache is stored in memory-mapped, append-only files instead of "
+              + "being read into the heap at startup. Saving only writes the entries that changed, "
+              + "and the files are compacted in the background. Switching this option discards "
+              + "the action cache. Not supported on Windows.")
+  public boolean mmapActionCache;
+
   @Option(
       name = "unlimit_coredumps",
       defaultValue = "false", // NOTE: purely decorative, rc files are read by the client.
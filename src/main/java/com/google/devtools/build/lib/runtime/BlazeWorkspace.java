@@ -196,6 +196,8 @@ public final class BlazeWorkspace {
    */
   public CommandEnvironment initCommand(
       Command command, OptionsParsingResult options, List<String> warnings) {
+    // Values may still be offloaded in the background after the previous command.
+    skyframeExecutor.stopOffloadingColdValues();
     CommandEnvironment env =
         new CommandEnvironment(
             runtime,
@@ -242,7 +244,9 @@ public final class BlazeWorkspace {
     if (actionCache == null) {
       try (AutoProfiler p = profiledAndLogged("Loading action cache", ProfilerTask.INFO, logger)) {
         try {
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), runtime.getClock());
+          actionCache =
+              new CompactPersistentActionCache(
+                  getCacheDirectory(), runtime.getClock(), useMappedActionCache());
         } catch (IOException e) {
           logger.log(Level.WARNING, "Failed to load action cache: " + e.getMessage(), e);
           LoggingUtil.logToRemote(
@@ -255,13 +259,20 @@ public final class BlazeWorkspace {
                       + getCacheDirectory()
                       + "/*.bad'. "
                       + "Bazel will now reset action cache data, causing a full rebuild"));
-          actionCache = new CompactPersistentActionCache(getCacheDirectory(), runtime.getClock());
+          actionCache =
+              new CompactPersistentActionCache(
+                  getCacheDirectory(), runtime.getClock(), useMappedActionCache());
         }
       }
     }
     return actionCache;
   }
 
+  private boolean useMappedActionCache() {
+    return runtime.getStartupOptionsProvider().getOptions(BlazeServerStartupOptions.class)
+        .mmapActionCache;
+  }
+
   /**
    * Generates a README file in the output base directory. This README file
    * contains the name of the workspace directory, so that users can figure out
@@ -19,6 +19,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.ActionKeyContext;
 import com.google.devtools.build.lib.actions.ActionResultReceivedEvent;
+import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildCompleteEvent;
 import com.google.devtools.build.lib.buildtool.buildevent.ExecutionStartingEvent;
@@ -48,6 +49,7 @@ public class BuildSummaryStatsModule extends BlazeModule {
   private EventBus eventBus;
   private Reporter reporter;
   private boolean enabled;
+  private boolean updateCriticalPathEstimates;
 
   private boolean statsSummary;
   private long commandStartMillis;
@@ -75,7 +77,9 @@ public class BuildSummaryStatsModule extends BlazeModule {
 
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
-    enabled = env.getOptions().getOptions(ExecutionOptions.class).enableCriticalPathProfiling;
+    ExecutionOptions options = env.getOptions().getOptions(ExecutionOptions.class);
+    enabled = options.enableCriticalPathProfiling;
+    updateCriticalPathEstimates = options.scheduleLocalActionsByCriticalPath;
   }
 
   @Subscribe
@@ -83,7 +87,9 @@ public class BuildSummaryStatsModule extends BlazeModule {
     // TODO(ulfjack): Make sure to use the same clock as for commandStartMillis.
     executionStartMillis = BlazeClock.instance().currentTimeMillis();
     if (enabled) {
-      criticalPathComputer = new CriticalPathComputer(actionKeyContext, BlazeClock.instance());
+      criticalPathComputer =
+          new CriticalPathComputer(
+              actionKeyContext, BlazeClock.instance(), updateCriticalPathEstimates);
       eventBus.register(criticalPathComputer);
     }
   }
@@ -136,6 +142,13 @@ public class BuildSummaryStatsModule extends BlazeModule {
                     stat.prettyPrintAction());
           }
         }
+        if (updateCriticalPathEstimates) {
+          try (SilentCloseable c =
+              Profiler.instance().profile("Updating critical path estimates")) {
+            criticalPathComputer.updateCriticalPathEstimates(
+                ResourceManager.instance().getCriticalPathEstimates());
+          }
+        }
       }
 
       String spawnSummary = spawnStats.getSummary();
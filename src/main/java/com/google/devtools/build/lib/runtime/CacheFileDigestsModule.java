@@ -20,16 +20,35 @@ import com.google.devtools.build.lib.actions.cache.DigestUtils;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.ExecutorBuilder;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-/** Enables the caching of file digests in {@link DigestUtils}. */
+/**
+ * Enables the caching of file digests in {@link DigestUtils}, optionally persisted in the output
+ * base, and logs the hit and miss counts of the caches.
+ */
 public class CacheFileDigestsModule extends BlazeModule {
 
   private static final Logger logger = Logger.getLogger(CacheFileDigestsModule.class.getName());
 
+  /** Name of the file holding the persistent cache, in the action cache directory. */
+  private static final String PERSISTENT_CACHE_FILE = "file_digests_v1.blaze";
+
   /** Stats gathered at the beginning of a command, to compute deltas on completion. */
   private CacheStats stats;
 
+  /** Stats of the persistent cache gathered at the beginning of a command, or null. */
+  private CacheStats persistentStats;
+
+  /**
+   * Last known file of the persistent cache; changes cause the persistent cache to be reinitialized.
+   * null if the persistent cache is disabled.
+   */
+  private Path lastKnownPersistentCacheFile;
+
   /**
    * Last known size of the cache. Changes to this value cause the cache to be reinitialized. null
    * if we don't know anything about the last value yet (i.e. before any command has been run).
@@ -60,11 +79,30 @@ public class CacheFileDigestsModule extends BlazeModule {
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     ExecutionOptions options = request.getOptions(ExecutionOptions.class);
+    boolean reconfigured = false;
     if (lastKnownCacheSize == null
         || options.cacheSizeForComputedFileDigests != lastKnownCacheSize) {
       logger.info("Reconfiguring cache with size=" + options.cacheSizeForComputedFileDigests);
       DigestUtils.configureCache(options.cacheSizeForComputedFileDigests);
       lastKnownCacheSize = options.cacheSizeForComputedFileDigests;
+      reconfigured = true;
+    }
+
+    Path persistentCacheFile =
+        options.persistComputedFileDigests && options.cacheSizeForComputedFileDigests > 0
+            ? env.getBlazeWorkspace().getCacheDirectory().getRelative(PERSISTENT_CACHE_FILE)
+            : null;
+    if (reconfigured || !Objects.equals(persistentCacheFile, lastKnownPersistentCacheFile)) {
+      logger.info("Reconfiguring persistent cache with file=" + persistentCacheFile);
+      try {
+        DigestUtils.configurePersistentCache(
+            persistentCacheFile,
+            env.getRuntime().getFileSystem().getDigestFunction(),
+            options.cacheSizeForComputedFileDigests);
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to write the persistent file digest cache", e);
+      }
+      lastKnownPersistentCacheFile = persistentCacheFile;
     }
 
     if (options.cacheSizeForComputedFileDigests == 0) {
@@ -74,6 +112,12 @@ public class CacheFileDigestsModule extends BlazeModule {
       stats = DigestUtils.getCacheStats();
       logStats("Accumulated cache stats before command", stats);
     }
+    if (persistentCacheFile == null) {
+      persistentStats = null;
+    } else {
+      persistentStats = DigestUtils.getPersistentCacheStats();
+      logStats("Accumulated persistent cache stats before command", persistentStats);
+    }
   }
 
   @Override
@@ -85,5 +129,25 @@ public class CacheFileDigestsModule extends BlazeModule {
       logStats("Cache stats for finished command", newStats.minus(stats));
       stats = null; // Silence stats until next command that uses the executor.
     }
+    if (persistentStats != null) {
+      flushPersistentCache();
+      CacheStats newStats = DigestUtils.getPersistentCacheStats();
+      logStats("Accumulated persistent cache stats after command", newStats);
+      logStats("Persistent cache stats for finished command", newStats.minus(persistentStats));
+      persistentStats = null;
+    }
+  }
+
+  @Override
+  public void blazeShutdown() {
+    flushPersistentCache();
+  }
+
+  private static void flushPersistentCache() {
+    try {
+      DigestUtils.flushPersistentCache();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to write the persistent file digest cache", e);
+    }
   }
 }
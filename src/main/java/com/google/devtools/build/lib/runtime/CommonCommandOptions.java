@@ -218,6 +218,17 @@ public class CommonCommandOptions extends OptionsBase {
       help = "If enabled, Bazel compresses the JSON-format profile with gzip.")
   public boolean enableTracerCompression;
 
+  @Option(
+      name = "experimental_compact_trace_profile",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.LOGGING,
+      effectTags = {OptionEffectTag.AFFECTS_OUTPUTS, OptionEffectTag.BAZEL_MONITORING},
+      help =
+          "If enabled, Bazel writes the trace profile in a compact binary format instead of JSON, "
+              + "which is cheaper to write and limits the memory used by the profiler. Convert "
+              + "it to JSON with 'analyze-profile --experimental_convert_to_json_trace'.")
+  public boolean enableCompactTraceProfile;
+
   @Option(
       name = "experimental_post_profile_started_event",
       defaultValue = "false",
@@ -322,6 +333,17 @@ public class CommonCommandOptions extends OptionsBase {
               + "more than this percentage of the (old gen) heap is still occupied.")
   public int oomMoreEagerlyThreshold;
 
+  @Option(
+      name = "experimental_nested_set_parallel_expansion_threshold",
+      defaultValue = "0",
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      help =
+          "If positive, nested sets with at least about this many elements are expanded with "
+              + "multiple threads, reusing the cached expansions of large subsets shared with "
+              + "other sets. Applies to all phases of the command.")
+  public int nestedSetParallelExpansionThreshold;
+
   @Option(
       name = "startup_time",
       defaultValue = "0",
@@ -461,6 +483,23 @@ public class CommonCommandOptions extends OptionsBase {
   )
   public boolean keepStateAfterBuild;
 
+  @Option(
+      name = "experimental_offload_skyframe_values",
+      defaultValue = "",
+      converter = Converters.CommaSeparatedOptionListConverter.class,
+      documentationCategory = OptionDocumentationCategory.UNDOCUMENTED,
+      effectTags = {OptionEffectTag.HOST_MACHINE_RESOURCE_OPTIMIZATIONS},
+      metadataTags = {OptionMetadataTag.EXPERIMENTAL},
+      help =
+          "A comma-separated list of Skyframe function names, such as ACTION_EXECUTION. At the "
+              + "end of each command, the values of the nodes of these functions that were not "
+              + "evaluated during the command are serialized to a file in the output base in the "
+              + "background, until the next command starts, and dropped from memory, to be read "
+              + "back when they are needed again. Values that cannot be serialized, or whose "
+              + "copies are not equal to them, are kept in memory, and values that cannot be read "
+              + "back are recomputed.")
+  public List<String> offloadSkyframeValues;
+
   /** The option converter to check that the user can only specify legal profiler tasks. */
   public static class ProfilerTaskConverter extends EnumConverter<ProfilerTask> {
     public ProfilerTaskConverter() {
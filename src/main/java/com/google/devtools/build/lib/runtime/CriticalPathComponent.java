@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.runtime;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionOwner;
 import com.google.devtools.build.lib.actions.Artifact;
@@ -22,6 +23,8 @@ import com.google.devtools.build.lib.clock.Clock;
 import com.google.devtools.build.lib.cmdline.Label;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
@@ -56,6 +59,9 @@ public class CriticalPathComponent {
   private long startNanos;
   private long finishNanos = 0;
   private volatile boolean isRunning = true;
+  private volatile boolean executed = false;
+  /** Components of the actions producing the inputs of this one, null unless recorded. */
+  @Nullable private final List<CriticalPathComponent> producers;
 
   /** We keep here the critical path time for the most expensive child. */
   private long childAggregatedElapsedTime = 0;
@@ -72,10 +78,15 @@ public class CriticalPathComponent {
   @Nullable private CriticalPathComponent child;
 
   public CriticalPathComponent(int id, Action action, long startNanos) {
+    this(id, action, startNanos, /* recordProducers= */ false);
+  }
+
+  CriticalPathComponent(int id, Action action, long startNanos, boolean recordProducers) {
     this.id = id;
     this.action = Preconditions.checkNotNull(action);
     this.primaryOutput = action.getPrimaryOutput();
     this.startNanos = startNanos;
+    this.producers = recordProducers ? new ArrayList<>() : null;
   }
 
   /**
@@ -119,6 +130,36 @@ public class CriticalPathComponent {
     return isRunning;
   }
 
+  /**
+   * Records the component of an action that produced an input of this one. Does nothing unless the
+   * component was created to record producers.
+   */
+  synchronized void addProducer(CriticalPathComponent producer) {
+    if (producers != null
+        && producer != this
+        && (producers.isEmpty() || producers.get(producers.size() - 1) != producer)) {
+      producers.add(producer);
+    }
+  }
+
+  /**
+   * Returns the components of the actions that produced inputs of this one, possibly with
+   * duplicates, or an empty list if producers were not recorded.
+   */
+  synchronized List<CriticalPathComponent> getProducers() {
+    return producers != null ? producers : ImmutableList.of();
+  }
+
+  /** Marks the action as executed, as opposed to an action cache hit or a middleman. */
+  void setExecuted() {
+    executed = true;
+  }
+
+  /** Whether the action was executed in this build. */
+  public boolean wasExecuted() {
+    return executed;
+  }
+
   public String prettyPrintAction() {
     return action.prettyPrint();
   }
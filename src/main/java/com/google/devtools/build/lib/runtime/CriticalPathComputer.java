@@ -30,18 +30,23 @@ import com.google.devtools.build.lib.actions.ActionStartedEvent;
 import com.google.devtools.build.lib.actions.Actions;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.CachedActionEvent;
+import com.google.devtools.build.lib.actions.CriticalPathEstimates;
 import com.google.devtools.build.lib.actions.SpawnExecutedEvent;
 import com.google.devtools.build.lib.actions.SpawnMetrics;
 import com.google.devtools.build.lib.actions.SpawnResult;
 import com.google.devtools.build.lib.clock.Clock;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import java.time.Duration;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BinaryOperator;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -73,13 +78,30 @@ public class CriticalPathComputer {
   /** Maximum critical path found. */
   private final AtomicReference<CriticalPathComponent> maxCriticalPath;
   private final Clock clock;
+  /** Whether components record the producers of their inputs, see {@link #recordsProducers}. */
+  private final boolean recordProducers;
 
   protected CriticalPathComputer(ActionKeyContext actionKeyContext, Clock clock) {
+    this(actionKeyContext, clock, /* recordProducers= */ false);
+  }
+
+  /**
+   * @param recordProducers whether to record the producers of the inputs of each action while
+   *     walking its inputs when it finishes, as needed by {@link #updateCriticalPathEstimates}
+   */
+  protected CriticalPathComputer(
+      ActionKeyContext actionKeyContext, Clock clock, boolean recordProducers) {
     this.actionKeyContext = actionKeyContext;
     this.clock = clock;
+    this.recordProducers = recordProducers;
     maxCriticalPath = new AtomicReference<>();
   }
 
+  /** Whether {@link #updateCriticalPathEstimates} may be called. */
+  public boolean recordsProducers() {
+    return recordProducers;
+  }
+
   /**
    * Creates a critical path component for an action.
    *
@@ -88,7 +110,8 @@ public class CriticalPathComputer {
    *     for computing time differences.
    */
   private CriticalPathComponent createComponent(Action action, long relativeStartNanos) {
-    return new CriticalPathComponent(idGenerator.getAndIncrement(), action, relativeStartNanos);
+    return new CriticalPathComponent(
+        idGenerator.getAndIncrement(), action, relativeStartNanos, recordProducers);
   }
 
   /**
@@ -309,6 +332,7 @@ public class CriticalPathComputer {
     CriticalPathComponent component =
         Preconditions.checkNotNull(
             outputArtifactToComponent.get(action.getPrimaryOutput()), action);
+    component.setExecuted();
     finalizeActionStat(event.getRelativeActionStartTime(), action, component);
   }
 
@@ -325,6 +349,48 @@ public class CriticalPathComputer {
     component.finishActionExecution(event.getRelativeActionStartTime(), clock.nanoTime());
   }
 
+  /**
+   * Updates the given estimates with the duration of each finished action of this build, along with
+   * its remaining critical path: its duration plus the longest remaining critical path of the
+   * actions consuming its outputs. Actions that were not executed, such as action cache hits, are
+   * assumed to take as long as they took when they were last executed. The estimates of actions
+   * that are not part of this build are kept.
+   *
+   * <p>The dependencies between actions are those recorded when the actions finished, so the
+   * inputs of the actions are not walked again. Must only be called after the build, when no more
+   * events are received, and if this computer {@link #recordsProducers}.
+   */
+  public void updateCriticalPathEstimates(CriticalPathEstimates estimates) {
+    Preconditions.checkState(recordProducers, "Producers of inputs were not recorded");
+    // An action starts after the actions producing its inputs, so by going through the actions in
+    // reverse start order, all consumers of an action are seen before the action itself. Actions
+    // that start at the same time, such as a middleman and its consumer, are ordered by id.
+    List<CriticalPathComponent> components =
+        uniqueActions()
+            .filter((c) -> !c.isRunning())
+            .sorted(
+                Comparator.comparingLong(CriticalPathComponent::getStartTimeNanos)
+                    .thenComparingInt(CriticalPathComponent::getId)
+                    .reversed())
+            .collect(Collectors.toList());
+    Map<CriticalPathComponent, Long> longestConsumerPath = new HashMap<>();
+    CriticalPathEstimates updated = new CriticalPathEstimates();
+    for (CriticalPathComponent component : components) {
+      Action action = component.getAction();
+      PathFragment primaryOutput = action.getPrimaryOutput().getExecPath();
+      long durationMillis = component.getElapsedTime().toMillis();
+      if (!component.wasExecuted()) {
+        durationMillis = estimates.getDurationMillis(primaryOutput, durationMillis);
+      }
+      long remainingMillis = durationMillis + longestConsumerPath.getOrDefault(component, 0L);
+      updated.put(primaryOutput, durationMillis, remainingMillis);
+      for (CriticalPathComponent producer : component.getProducers()) {
+        longestConsumerPath.merge(producer, remainingMillis, Math::max);
+      }
+    }
+    estimates.mergeFrom(updated);
+  }
+
   /** Maximum critical path component found during the build. */
   protected CriticalPathComponent getMaxCriticalPath() {
     return maxCriticalPath.get();
@@ -352,6 +418,7 @@ public class CriticalPathComputer {
         return;
       }
       actionStats.addDepInfo(depComponent);
+      actionStats.addProducer(depComponent);
     }
   }
 
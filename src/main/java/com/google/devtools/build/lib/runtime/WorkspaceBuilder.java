@@ -68,7 +68,12 @@ public final class WorkspaceBuilder {
     // Set default values if none are set.
     if (skyframeExecutorFactory == null) {
       skyframeExecutorFactory =
-          new SequencedSkyframeExecutorFactory(runtime.getDefaultBuildOptions());
+          new SequencedSkyframeExecutorFactory(
+              runtime.getDefaultBuildOptions(),
+              runtime
+                  .getStartupOptionsProvider()
+                  .getOptions(BlazeServerStartupOptions.class)
+                  .shardedSkyframeGraph);
     }
 
     SkyframeExecutor skyframeExecutor =
@@ -18,6 +18,7 @@ import com.google.common.base.Optional;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.profiler.CompactTraceConverter;
 import com.google.devtools.build.lib.profiler.ProfilePhase;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.analysis.ProfileInfo;
@@ -47,8 +48,11 @@ import com.google.devtools.common.options.OptionsParsingResult;
 import com.google.devtools.common.options.RegexPatternOption;
 import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.util.EnumMap;
+import java.util.List;
 import java.util.regex.Pattern;
 
 /** Command line wrapper for analyzing Blaze build profiles. */
@@ -192,6 +196,17 @@ public final class ProfileCommand implements BlazeCommand {
       help = "Maximum number of VFS path statistics to print."
     )
     public int vfsStatsLimit;
+
+    @Option(
+        name = "experimental_convert_to_json_trace",
+        defaultValue = "false",
+        documentationCategory = OptionDocumentationCategory.LOGGING,
+        effectTags = {OptionEffectTag.AFFECTS_OUTPUTS},
+        help =
+            "Converts profiles written with --experimental_compact_trace_profile to the JSON trace"
+                + " format. The output is written next to each profile, with '.json' appended to"
+                + " its name.")
+    public boolean convertToJsonTrace;
   }
 
   private InfoListener getInfoListener(final CommandEnvironment env) {
@@ -222,6 +237,10 @@ public final class ProfileCommand implements BlazeCommand {
       opts.vfsStatsLimit = 0;
     }
 
+    if (opts.convertToJsonTrace) {
+      return convertToJsonTrace(env, options.getResidue());
+    }
+
     try (PrintStream out = getOutputStream(env)) {
       env.getReporter()
           .handle(
@@ -339,6 +358,27 @@ public final class ProfileCommand implements BlazeCommand {
     return BlazeCommandResult.exitCode(ExitCode.SUCCESS);
   }
 
+  /** Converts compact trace profiles to the JSON trace format. */
+  private static BlazeCommandResult convertToJsonTrace(
+      CommandEnvironment env, List<String> profiles) {
+    for (String name : profiles) {
+      Path profileFile = env.getWorkingDirectory().getRelative(name);
+      Path jsonFile =
+          profileFile.getParentDirectory().getChild(profileFile.getBaseName() + ".json");
+      env.getReporter().handle(Event.info("Creating JSON trace in " + jsonFile));
+      try (InputStream in = profileFile.getInputStream();
+          OutputStream out = jsonFile.getOutputStream()) {
+        CompactTraceConverter.convert(in, out);
+      } catch (IOException e) {
+        env.getReporter()
+            .handle(
+                Event.error("Failed to convert profile file " + name + ": " + e.getMessage()));
+        return BlazeCommandResult.exitCode(ExitCode.PARSING_FAILURE);
+      }
+    }
+    return BlazeCommandResult.exitCode(ExitCode.SUCCESS);
+  }
+
   private static PrintStream getOutputStream(CommandEnvironment env) {
     return new PrintStream(
         new BufferedOutputStream(env.getReporter().getOutErr().getOutputStream()), false);
@@ -18,17 +18,21 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.exec.TreeDeleter;
 import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.FileSystemUtils.MoveResult;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * Implements the general flow of a sandboxed spawn that uses a container directory to build an
@@ -49,6 +53,8 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
   private final SandboxOutputs outputs;
   private final Set<Path> writableDirs;
   private final TreeDeleter treeDeleter;
+  @Nullable private final SandboxStash sandboxStash;
+  @Nullable private final String mnemonic;
 
   public AbstractContainerizingSandboxedSpawn(
       Path sandboxPath,
@@ -59,6 +65,34 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
       SandboxOutputs outputs,
       Set<Path> writableDirs,
       TreeDeleter treeDeleter) {
+    this(
+        sandboxPath,
+        sandboxExecRoot,
+        arguments,
+        environment,
+        inputs,
+        outputs,
+        writableDirs,
+        treeDeleter,
+        /*sandboxStash=*/ null,
+        /*mnemonic=*/ null);
+  }
+
+  /**
+   * Creates a spawn whose execution root is taken from {@code sandboxStash} if it holds one of a
+   * spawn with the same {@code mnemonic}, and is stashed there again when the spawn is deleted.
+   */
+  public AbstractContainerizingSandboxedSpawn(
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      List<String> arguments,
+      Map<String, String> environment,
+      Map<PathFragment, Path> inputs,
+      SandboxOutputs outputs,
+      Set<Path> writableDirs,
+      TreeDeleter treeDeleter,
+      @Nullable SandboxStash sandboxStash,
+      @Nullable String mnemonic) {
     this.sandboxPath = sandboxPath;
     this.sandboxExecRoot = sandboxExecRoot;
     this.arguments = arguments;
@@ -67,6 +101,8 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
     this.outputs = outputs;
     this.writableDirs = writableDirs;
     this.treeDeleter = treeDeleter;
+    this.sandboxStash = sandboxStash;
+    this.mnemonic = mnemonic;
   }
 
   @Override
@@ -86,8 +122,20 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
 
   @Override
   public void createFileSystem() throws IOException {
-    createDirectories();
-    createInputs(inputs);
+    Set<Path> dirsToCreate = getDirectoriesToCreate();
+    Map<PathFragment, Path> inputsToCreate = inputs;
+    if (sandboxStash != null) {
+      int reused = 0;
+      int deleted = 0;
+      if (sandboxStash.takeStashedExecRoot(mnemonic, sandboxExecRoot)) {
+        inputsToCreate = new HashMap<>(inputs);
+        deleted = deleteStaleEntries(sandboxExecRoot, inputsToCreate, dirsToCreate);
+        reused = inputs.size() - inputsToCreate.size();
+      }
+      sandboxStash.recordSymlinks(reused, inputsToCreate.size(), deleted);
+    }
+    createDirectories(dirsToCreate);
+    createInputs(inputsToCreate);
   }
 
   /**
@@ -102,7 +150,20 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
    * directories, too, because we'll get an IOException with EEXIST if inputs happen to be nested
    * once we start creating the symlinks for all inputs.
    */
-  private void createDirectories() throws IOException {
+  private void createDirectories(Set<Path> dirsToCreate) throws IOException {
+    for (Path path : dirsToCreate) {
+      path.createDirectory();
+    }
+
+    for (Path dir : writableDirs) {
+      if (dir.startsWith(sandboxExecRoot)) {
+        dir.createDirectoryAndParents();
+      }
+    }
+  }
+
+  /** Returns the directories of the execution root, parents first. */
+  private Set<Path> getDirectoriesToCreate() {
     LinkedHashSet<Path> dirsToCreate = new LinkedHashSet<>();
 
     for (PathFragment path : Iterables.concat(inputs.keySet(), outputs.files(), outputs.dirs())) {
@@ -115,16 +176,48 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
     for (PathFragment path : outputs.dirs()) {
       dirsToCreate.add(sandboxExecRoot.getRelative(path));
     }
+    return dirsToCreate;
+  }
 
-    for (Path path : dirsToCreate) {
-      path.createDirectory();
-    }
-
-    for (Path dir : writableDirs) {
-      if (dir.startsWith(sandboxExecRoot)) {
-        dir.createDirectoryAndParents();
+  /**
+   * Deletes the entries below {@code dir}, in an execution root left by another spawn, that are
+   * neither one of {@code dirsToKeep} nor a symlink to the right source for one of {@code
+   * inputsToCreate}, and removes the inputs that are already there from {@code inputsToCreate}.
+   *
+   * @return the number of deleted entries
+   */
+  private int deleteStaleEntries(
+      Path dir, Map<PathFragment, Path> inputsToCreate, Set<Path> dirsToKeep) throws IOException {
+    int deleted = 0;
+    for (Dirent dirent : dir.readdir(Symlinks.NOFOLLOW)) {
+      Path path = dir.getChild(dirent.getName());
+      switch (dirent.getType()) {
+        case DIRECTORY:
+          if (dirsToKeep.contains(path)) {
+            deleted += deleteStaleEntries(path, inputsToCreate, dirsToKeep);
+          } else {
+            path.deleteTree();
+            deleted++;
+          }
+          break;
+        case SYMLINK:
+          PathFragment input = path.relativeTo(sandboxExecRoot);
+          Path source = inputsToCreate.get(input);
+          if (source != null && path.readSymbolicLink().equals(source.asFragment())) {
+            inputsToCreate.remove(input);
+          } else {
+            path.delete();
+            deleted++;
+          }
+          break;
+        default:
+          // Empty input files are created again, as the previous spawn may have written to them.
+          path.delete();
+          deleted++;
+          break;
       }
     }
+    return deleted;
   }
 
   protected void createInputs(Map<PathFragment, Path> inputs) throws IOException {
@@ -192,6 +285,9 @@ public abstract class AbstractContainerizingSandboxedSpawn implements SandboxedS
 
   @Override
   public void delete() {
+    if (sandboxStash != null) {
+      sandboxStash.stashExecRoot(mnemonic, sandboxExecRoot);
+    }
     try {
       treeDeleter.deleteTree(sandboxPath);
     } catch (IOException e) {
@@ -114,6 +114,7 @@ final class DarwinSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
   private final @Nullable SandboxfsProcess sandboxfsProcess;
   private final boolean sandboxfsMapSymlinkTargets;
   private final TreeDeleter treeDeleter;
+  @Nullable private final SandboxStash sandboxStash;
 
   /**
    * The set of directories that always should be writable, independent of the Spawn itself.
@@ -133,6 +134,8 @@ final class DarwinSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
    * @param sandboxfsProcess instance of the sandboxfs process to use; may be null for none, in
    *     which case the runner uses a symlinked sandbox
    * @param sandboxfsMapSymlinkTargets map the targets of symlinks within the sandbox if true
+   * @param sandboxStash stash of execution roots for the symlinked sandbox to reuse; may be null to
+   *     create a new one for each spawn
    */
   DarwinSandboxedSpawnRunner(
       CommandEnvironment cmdEnv,
@@ -140,7 +143,8 @@ final class DarwinSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
       Duration timeoutKillDelay,
       @Nullable SandboxfsProcess sandboxfsProcess,
       boolean sandboxfsMapSymlinkTargets,
-      TreeDeleter treeDeleter)
+      TreeDeleter treeDeleter,
+      @Nullable SandboxStash sandboxStash)
       throws IOException {
     super(cmdEnv);
     this.execRoot = cmdEnv.getExecRoot();
@@ -153,6 +157,7 @@ final class DarwinSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
     this.sandboxfsProcess = sandboxfsProcess;
     this.sandboxfsMapSymlinkTargets = sandboxfsMapSymlinkTargets;
     this.treeDeleter = treeDeleter;
+    this.sandboxStash = sandboxStash;
   }
 
   private static void addPathToSetIfExists(FileSystem fs, Set<Path> paths, String path)
@@ -308,7 +313,9 @@ final class DarwinSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
               inputs,
               outputs,
               writableDirs,
-              treeDeleter) {
+              treeDeleter,
+              sandboxStash,
+              spawn.getMnemonic()) {
             @Override
             public void createFileSystem() throws IOException {
               super.createFileSystem();
@@ -99,6 +99,7 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
   private final @Nullable SandboxfsProcess sandboxfsProcess;
   private final boolean sandboxfsMapSymlinkTargets;
   private final TreeDeleter treeDeleter;
+  @Nullable private final SandboxStash sandboxStash;
 
   /**
    * Creates a sandboxed spawn runner that uses the {@code linux-sandbox} tool.
@@ -111,6 +112,8 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
    * @param sandboxfsProcess instance of the sandboxfs process to use; may be null for none, in
    *     which case the runner uses a symlinked sandbox
    * @param sandboxfsMapSymlinkTargets map the targets of symlinks within the sandbox if true
+   * @param sandboxStash stash of execution roots for the symlinked sandbox to reuse; may be null to
+   *     create a new one for each spawn
    */
   LinuxSandboxedSpawnRunner(
       CommandEnvironment cmdEnv,
@@ -120,7 +123,8 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
       Duration timeoutKillDelay,
       @Nullable SandboxfsProcess sandboxfsProcess,
       boolean sandboxfsMapSymlinkTargets,
-      TreeDeleter treeDeleter) {
+      TreeDeleter treeDeleter,
+      @Nullable SandboxStash sandboxStash) {
     super(cmdEnv);
     this.fileSystem = cmdEnv.getRuntime().getFileSystem();
     this.blazeDirs = cmdEnv.getDirectories();
@@ -135,6 +139,7 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
     this.sandboxfsMapSymlinkTargets = sandboxfsMapSymlinkTargets;
     this.localEnvProvider = new PosixLocalEnvProvider(cmdEnv.getClientEnv());
     this.treeDeleter = treeDeleter;
+    this.sandboxStash = sandboxStash;
   }
 
   @Override
@@ -221,7 +226,9 @@ final class LinuxSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
                   getSandboxOptions().symlinkedSandboxExpandsTreeArtifactsInRunfilesTree),
               outputs,
               writableDirs,
-              treeDeleter);
+              treeDeleter,
+              sandboxStash,
+              spawn.getMnemonic());
     }
 
     return runSpawn(spawn, sandbox, context, execRoot, timeout, statisticsPath);
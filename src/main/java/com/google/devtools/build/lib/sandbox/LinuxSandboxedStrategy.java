@@ -51,6 +51,8 @@ public final class LinuxSandboxedStrategy extends AbstractSpawnStrategy {
    * @param sandboxfsProcess instance of the sandboxfs process to use; may be null for none, in
    *     which case the runner uses a symlinked sandbox
    * @param sandboxfsMapSymlinkTargets map the targets of symlinks within the sandbox if true
+   * @param sandboxStash stash of execution roots for the symlinked sandbox to reuse; may be null to
+   *     create a new one for each spawn
    */
   static LinuxSandboxedSpawnRunner create(
       CommandEnvironment cmdEnv,
@@ -58,7 +60,8 @@ public final class LinuxSandboxedStrategy extends AbstractSpawnStrategy {
       Duration timeoutKillDelay,
       @Nullable SandboxfsProcess sandboxfsProcess,
       boolean sandboxfsMapSymlinkTargets,
-      TreeDeleter treeDeleter)
+      TreeDeleter treeDeleter,
+      @Nullable SandboxStash sandboxStash)
       throws IOException {
     Path inaccessibleHelperFile = sandboxBase.getRelative("inaccessibleHelperFile");
     FileSystemUtils.touchFile(inaccessibleHelperFile);
@@ -80,6 +83,7 @@ public final class LinuxSandboxedStrategy extends AbstractSpawnStrategy {
         timeoutKillDelay,
         sandboxfsProcess,
         sandboxfsMapSymlinkTargets,
-        treeDeleter);
+        treeDeleter,
+        sandboxStash);
   }
 }
@@ -26,6 +26,7 @@ import com.google.devtools.build.lib.vfs.Path;
 import java.io.IOException;
 import java.time.Duration;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /** Strategy that uses sandboxing to execute a process. */
 final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunner {
@@ -40,6 +41,7 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
   private final LocalEnvProvider localEnvProvider;
   private final Duration timeoutKillDelay;
   private final TreeDeleter treeDeleter;
+  @Nullable private final SandboxStash sandboxStash;
 
   /**
    * Creates a sandboxed spawn runner that uses the {@code process-wrapper} tool.
@@ -48,13 +50,16 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
    * @param sandboxBase path to the sandbox base directory
    * @param productName the product name to use
    * @param timeoutKillDelay additional grace period before killing timing out commands
+   * @param sandboxStash stash of execution roots to reuse; may be null to create a new one for each
+   *     spawn
    */
   ProcessWrapperSandboxedSpawnRunner(
       CommandEnvironment cmdEnv,
       Path sandboxBase,
       String productName,
       Duration timeoutKillDelay,
-      TreeDeleter treeDeleter) {
+      TreeDeleter treeDeleter,
+      @Nullable SandboxStash sandboxStash) {
     super(cmdEnv);
     this.processWrapper = ProcessWrapperUtil.getProcessWrapper(cmdEnv);
     this.execRoot = cmdEnv.getExecRoot();
@@ -62,6 +67,7 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
     this.sandboxBase = sandboxBase;
     this.timeoutKillDelay = timeoutKillDelay;
     this.treeDeleter = treeDeleter;
+    this.sandboxStash = sandboxStash;
   }
 
   @Override
@@ -110,7 +116,9 @@ final class ProcessWrapperSandboxedSpawnRunner extends AbstractSandboxSpawnRunne
                 getSandboxOptions().symlinkedSandboxExpandsTreeArtifactsInRunfilesTree),
             SandboxHelpers.getOutputs(spawn),
             getWritableDirs(sandboxExecRoot, environment),
-            treeDeleter);
+            treeDeleter,
+            sandboxStash,
+            spawn.getMnemonic());
 
     return runSpawn(spawn, sandbox, context, execRoot, timeout, statisticsPath);
   }
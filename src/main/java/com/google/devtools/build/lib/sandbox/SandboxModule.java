@@ -91,6 +91,12 @@ public final class SandboxModule extends BlazeModule {
    */
   @Nullable private TreeDeleter treeDeleter;
 
+  /**
+   * Execution roots of finished spawns kept for reuse by later spawns, if enabled. Unlike the rest
+   * of the sandbox base, they are kept across builds.
+   */
+  @Nullable private SandboxStash sandboxStash;
+
   /**
    * Whether to remove the sandbox worker directories after a build or not. Useful for debugging
    * to inspect the state of files on failures.
@@ -228,6 +234,17 @@ public final class SandboxModule extends BlazeModule {
       useSandboxfs = shouldUseSandboxfs(options.useSandboxfs, sandboxfsPath);
     }
     sandboxBase.createDirectoryAndParents();
+
+    Path stashBase = sandboxBase.getRelative("sandbox_stash");
+    if (sandboxStash != null
+        && (!options.reuseSandboxDirectories || !sandboxStash.getStashBase().equals(stashBase))) {
+      treeDeleter.deleteTree(sandboxStash.getStashBase());
+      sandboxStash = null;
+    }
+    if (options.reuseSandboxDirectories && sandboxStash == null) {
+      sandboxStash = new SandboxStash(stashBase);
+    }
+
     if (useSandboxfs) {
       mountPoint.createDirectory();
       Path logFile = sandboxBase.getRelative("sandboxfs.log");
@@ -258,7 +275,8 @@ public final class SandboxModule extends BlazeModule {
                   sandboxBase,
                   cmdEnv.getRuntime().getProductName(),
                   timeoutKillDelay,
-                  treeDeleter));
+                  treeDeleter,
+                  sandboxStash));
       spawnRunners.add(spawnRunner);
       builder.addActionContext(
           new ProcessWrapperSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
@@ -305,7 +323,8 @@ public final class SandboxModule extends BlazeModule {
                   timeoutKillDelay,
                   sandboxfsProcess,
                   options.sandboxfsMapSymlinkTargets,
-                  treeDeleter));
+                  treeDeleter,
+                  sandboxStash));
       spawnRunners.add(spawnRunner);
       builder.addActionContext(new LinuxSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
     }
@@ -321,7 +340,8 @@ public final class SandboxModule extends BlazeModule {
                   timeoutKillDelay,
                   sandboxfsProcess,
                   options.sandboxfsMapSymlinkTargets,
-                  treeDeleter));
+                  treeDeleter,
+                  sandboxStash));
       spawnRunners.add(spawnRunner);
       builder.addActionContext(new DarwinSandboxedStrategy(cmdEnv.getExecRoot(), spawnRunner));
     }
@@ -485,6 +505,10 @@ public final class SandboxModule extends BlazeModule {
       sandboxBase = null;
     }
 
+    if (sandboxStash != null) {
+      sandboxStash.logAndResetStatistics();
+    }
+
     env.getEventBus().unregister(this);
     env = null;
   }
@@ -329,6 +329,17 @@ public class SandboxOptions extends OptionsBase {
               + " grows to the size specified by this flag when the server is idle.")
   public int asyncTreeDeleteIdleThreads;
 
+  @Option(
+      name = "experimental_reuse_sandbox_directories",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.EXECUTION_STRATEGY,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "If enabled, the execution roots of finished symlinked sandboxes are kept and reused by "
+              + "later actions with the same mnemonic, which then only create and delete the "
+              + "symlinks of the inputs that differ instead of building a new tree each time.")
+  public boolean reuseSandboxDirectories;
+
   /** Converter for the number of threads used for asynchronous tree deletion. */
   public static final class AsyncTreeDeletesConverter extends ResourceConverter {
     public AsyncTreeDeletesConverter() {
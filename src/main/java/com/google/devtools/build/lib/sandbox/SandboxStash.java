@@ -0,0 +1,146 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Keeps the execution roots of finished sandboxed spawns, per mnemonic, so that later spawns with
+ * the same mnemonic can reuse them.
+ *
+ * <p>Spawns with the same mnemonic usually share most of their inputs, like the headers of C++
+ * compiles. A spawn that takes a stashed execution root only deletes the entries that are not its
+ * own and creates the inputs that are missing, instead of creating one symlink per input and having
+ * them all deleted again afterwards.
+ */
+@ThreadSafe
+final class SandboxStash {
+
+  private static final Logger logger = Logger.getLogger(SandboxStash.class.getName());
+
+  private final Path stashBase;
+  private final AtomicInteger nextStashId = new AtomicInteger();
+
+  @GuardedBy("this")
+  private final Map<String, Deque<Path>> stashedExecRoots = new HashMap<>();
+
+  private final AtomicInteger reusedExecRoots = new AtomicInteger();
+  private final AtomicLong reusedSymlinks = new AtomicLong();
+  private final AtomicLong createdSymlinks = new AtomicLong();
+  private final AtomicLong deletedEntries = new AtomicLong();
+
+  /** Creates a stash that keeps the execution roots it is given below {@code stashBase}. */
+  SandboxStash(Path stashBase) {
+    this.stashBase = stashBase;
+  }
+
+  Path getStashBase() {
+    return stashBase;
+  }
+
+  /**
+   * Moves an execution root stashed by a spawn with the same {@code mnemonic} to {@code
+   * sandboxExecRoot}, which must be an empty directory.
+   *
+   * @return whether an execution root was moved, or {@code sandboxExecRoot} was left as it was
+   */
+  boolean takeStashedExecRoot(String mnemonic, Path sandboxExecRoot) {
+    Path stashed;
+    synchronized (this) {
+      Deque<Path> stash = stashedExecRoots.get(mnemonic);
+      // The most recently stashed one is the most likely to still be in the file system caches.
+      stashed = stash == null ? null : stash.pollLast();
+    }
+    if (stashed == null) {
+      return false;
+    }
+    try {
+      sandboxExecRoot.delete();
+      stashed.renameTo(sandboxExecRoot);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to reuse stashed sandbox " + stashed, e);
+      try {
+        sandboxExecRoot.createDirectory();
+      } catch (IOException e2) {
+        // The spawn fails to create its inputs, and reports it.
+      }
+      return false;
+    }
+    reusedExecRoots.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Moves the execution root of a finished spawn into the stash, unless that fails, in which case
+   * it is left where it is.
+   */
+  void stashExecRoot(String mnemonic, Path sandboxExecRoot) {
+    Path stashed = stashBase.getRelative(Integer.toString(nextStashId.incrementAndGet()));
+    try {
+      stashBase.createDirectoryAndParents();
+      sandboxExecRoot.renameTo(stashed);
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to stash sandbox " + sandboxExecRoot, e);
+      return;
+    }
+    synchronized (this) {
+      stashedExecRoots.computeIfAbsent(mnemonic, m -> new ArrayDeque<>()).addLast(stashed);
+    }
+  }
+
+  /**
+   * Records how a spawn set up its execution root: how many of its input symlinks it found in a
+   * stashed execution root, how many it created, and how many stale entries it deleted.
+   */
+  void recordSymlinks(int reused, int created, int deleted) {
+    reusedSymlinks.addAndGet(reused);
+    createdSymlinks.addAndGet(created);
+    deletedEntries.addAndGet(deleted);
+  }
+
+  long getReusedSymlinks() {
+    return reusedSymlinks.get();
+  }
+
+  long getCreatedSymlinks() {
+    return createdSymlinks.get();
+  }
+
+  long getDeletedEntries() {
+    return deletedEntries.get();
+  }
+
+  /** Logs the counters recorded since the last call, and resets them. */
+  void logAndResetStatistics() {
+    logger.info(
+        String.format(
+            "Reused %d stashed sandboxes: %d input symlinks reused, %d created, %d stale entries "
+                + "deleted",
+            reusedExecRoots.getAndSet(0),
+            reusedSymlinks.getAndSet(0),
+            createdSymlinks.getAndSet(0),
+            deletedEntries.getAndSet(0)));
+  }
+}
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Creates an execRoot for a Spawn that contains input files as symlinks to their original
@@ -49,6 +50,34 @@ public class SymlinkedSandboxedSpawn extends AbstractContainerizingSandboxedSpaw
         treeDeleter);
   }
 
+  /**
+   * Creates a spawn that reuses an execution root stashed in {@code sandboxStash} by a spawn with
+   * the same {@code mnemonic}, if there is one, and stashes its own when it is deleted.
+   */
+  public SymlinkedSandboxedSpawn(
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      List<String> arguments,
+      Map<String, String> environment,
+      Map<PathFragment, Path> inputs,
+      SandboxOutputs outputs,
+      Set<Path> writableDirs,
+      TreeDeleter treeDeleter,
+      @Nullable SandboxStash sandboxStash,
+      String mnemonic) {
+    super(
+        sandboxPath,
+        sandboxExecRoot,
+        arguments,
+        environment,
+        inputs,
+        outputs,
+        writableDirs,
+        treeDeleter,
+        sandboxStash,
+        mnemonic);
+  }
+
   @Override
   protected void copyFile(Path source, Path target) throws IOException {
     target.createSymbolicLink(source);
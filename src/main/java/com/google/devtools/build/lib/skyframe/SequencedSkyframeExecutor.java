@@ -702,7 +702,9 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor<BuildDrive
     BatchStat batchStatter = outputService == null ? null : outputService.getBatchStatter();
     recordingDiffer.invalidate(
         fsvc.getDirtyActionValues(
-            memoizingEvaluator.getValues(), batchStatter, modifiedOutputFiles));
+            memoizingEvaluator.getValuesForFunction(SkyFunctions.ACTION_EXECUTION),
+            batchStatter,
+            modifiedOutputFiles));
     modifiedFiles += fsvc.getNumberOfModifiedOutputFiles();
     outputDirtyFiles += fsvc.getNumberOfModifiedOutputFiles();
     modifiedFilesDuringPreviousBuild += fsvc.getNumberOfModifiedOutputFilesDuringPreviousBuild();
@@ -976,6 +978,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor<BuildDrive
     private MutableArtifactFactorySupplier mutableArtifactFactorySupplier =
         new MutableArtifactFactorySupplier();
     private Consumer<SkyframeExecutor> skyframeExecutorConsumerOnInit = skyframeExecutor -> {};
+    private EvaluatorSupplier evaluatorSupplier = InMemoryMemoizingEvaluator.SUPPLIER;
 
     private Builder() {}
 
@@ -996,7 +999,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor<BuildDrive
       SequencedSkyframeExecutor skyframeExecutor =
           new SequencedSkyframeExecutor(
               skyframeExecutorConsumerOnInit,
-              InMemoryMemoizingEvaluator.SUPPLIER,
+              evaluatorSupplier,
               pkgFactory,
               fileSystem,
               directories,
@@ -1018,6 +1021,11 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor<BuildDrive
       return skyframeExecutor;
     }
 
+    public Builder setEvaluatorSupplier(EvaluatorSupplier evaluatorSupplier) {
+      this.evaluatorSupplier = evaluatorSupplier;
+      return this;
+    }
+
     public Builder setPkgFactory(PackageFactory pkgFactory) {
       this.pkgFactory = pkgFactory;
       return this;
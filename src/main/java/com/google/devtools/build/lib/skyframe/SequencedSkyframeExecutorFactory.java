@@ -23,6 +23,8 @@ import com.google.devtools.build.lib.analysis.config.BuildOptions;
 import com.google.devtools.build.lib.packages.PackageFactory;
 import com.google.devtools.build.lib.rules.repository.ManagedDirectoriesKnowledge;
 import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.skyframe.InMemoryMemoizingEvaluator;
+import com.google.devtools.build.skyframe.ShardedInMemoryGraph;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
 import javax.annotation.Nullable;
@@ -33,9 +35,19 @@ import javax.annotation.Nullable;
 public class SequencedSkyframeExecutorFactory implements SkyframeExecutorFactory {
 
   private final BuildOptions defaultBuildOptions;
+  private final boolean shardedGraph;
 
   public SequencedSkyframeExecutorFactory(BuildOptions defaultBuildOptions) {
+    this(defaultBuildOptions, /*shardedGraph=*/ false);
+  }
+
+  /**
+   * @param shardedGraph whether to back the Skyframe graph with a {@link ShardedInMemoryGraph}
+   *     instead of the default single-map graph
+   */
+  public SequencedSkyframeExecutorFactory(BuildOptions defaultBuildOptions, boolean shardedGraph) {
     this.defaultBuildOptions = defaultBuildOptions;
+    this.shardedGraph = shardedGraph;
   }
 
   @Override
@@ -50,7 +62,13 @@ public class SequencedSkyframeExecutorFactory implements SkyframeExecutorFactory
       ImmutableMap<SkyFunctionName, SkyFunction> extraSkyFunctions,
       Iterable<SkyValueDirtinessChecker> customDirtinessCheckers,
       @Nullable ManagedDirectoriesKnowledge managedDirectoriesKnowledge) {
-    return BazelSkyframeExecutorConstants.newBazelSkyframeExecutorBuilder()
+    SequencedSkyframeExecutor.Builder builder =
+        BazelSkyframeExecutorConstants.newBazelSkyframeExecutorBuilder();
+    if (shardedGraph) {
+      builder.setEvaluatorSupplier(
+          InMemoryMemoizingEvaluator.supplier(new ShardedInMemoryGraph.Factory()));
+    }
+    return builder
         .setPkgFactory(pkgFactory)
         .setFileSystem(fileSystem)
         .setDirectories(directories)
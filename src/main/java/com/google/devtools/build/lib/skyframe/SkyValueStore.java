@@ -0,0 +1,252 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetCodecWithStore;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetStore;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetStore.NestedSetStorageEndpoint;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.skyframe.serialization.AutoRegistry;
+import com.google.devtools.build.lib.skyframe.serialization.ObjectCodecs;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationException;
+import com.google.devtools.build.lib.skyframe.serialization.SerializationResult;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+import com.google.devtools.build.skyframe.SkyValueOffloader;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link SkyValueOffloader} that serializes values with {@link ObjectCodecs} and keeps them in a
+ * {@link NestedSetStorageEndpoint}, as {@link NestedSetStore} does for the contents of nested sets.
+ *
+ * <p>Values are stored under the fingerprint of their serialized bytes, which is the handle kept by
+ * offloaded nodes. Nested sets in the values are stored through a {@link NestedSetStore} on the
+ * same endpoint, so those shared by several values are stored once, and are shared again when read
+ * back while one of them is on the heap.
+ *
+ * <p>Values read back are copies, so only values that equal their copies are stored: each value is
+ * read back once before it is stored. Values of a class that do not, such as values compared by
+ * identity or holding nested sets, and values that cannot be serialized, for instance because their
+ * codecs need dependencies the store was not given, are left on the heap. Values that cannot be
+ * read back, because the storage was damaged, are reported by {@link #hasFailedReads} so that they
+ * can be recomputed.
+ */
+@ThreadSafe
+public final class SkyValueStore implements SkyValueOffloader {
+  private static final Logger logger = Logger.getLogger(SkyValueStore.class.getName());
+
+  private final NestedSetStorageEndpoint endpoint;
+  private final ObjectCodecs objectCodecs;
+
+  /**
+   * Fingerprints of the values that are stored, so that values that were read back are not
+   * serialized again when they are offloaded again.
+   */
+  private final Cache<SkyValue, ByteString> fingerprints =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  /** Classes whose values cannot be serialized, or differ from their copies. */
+  private final Set<Class<?>> classesNotToOffload = ConcurrentHashMap.newKeySet();
+
+  private volatile boolean failedReads = false;
+
+  /**
+   * Creates a store backed by {@code endpoint}, serializing values with the registered codecs and
+   * the given codec dependencies.
+   */
+  public SkyValueStore(
+      NestedSetStorageEndpoint endpoint, ImmutableMap<Class<?>, Object> dependencies) {
+    this.endpoint = endpoint;
+    this.objectCodecs =
+        new ObjectCodecs(
+            AutoRegistry.get()
+                .getBuilder()
+                .add(new NestedSetCodecWithStore(new NestedSetStore(endpoint)))
+                .build(),
+            dependencies);
+  }
+
+  @Override
+  @Nullable
+  public ByteString offload(SkyKey key, SkyValue value) throws InterruptedException {
+    ByteString fingerprint = fingerprints.getIfPresent(value);
+    if (fingerprint != null) {
+      return fingerprint;
+    }
+    if (classesNotToOffload.contains(value.getClass())) {
+      return null;
+    }
+    SerializationResult<ByteString> serialized;
+    try {
+      serialized = objectCodecs.serializeMemoizedAndBlocking(value);
+    } catch (SerializationException | RuntimeException e) {
+      // Codecs that miss a dependency fail with unchecked exceptions. Either way, the value just
+      // stays on the heap.
+      classesNotToOffload.add(value.getClass());
+      logger.log(Level.INFO, "Not offloading values of " + value.getClass() + ": " + key, e);
+      return null;
+    }
+    byte[] bytes = serialized.getObject().toByteArray();
+    try {
+      // The nested sets in the value must be stored before it can be read back.
+      if (serialized.getFutureToBlockWritesOn() != null) {
+        serialized.getFutureToBlockWritesOn().get();
+      }
+      if (!equalsCopy(value, bytes)) {
+        classesNotToOffload.add(value.getClass());
+        logger.info("Not offloading values of " + value.getClass() + ", which differ from copies");
+        return null;
+      }
+      fingerprint = ByteString.copyFrom(Hashing.md5().hashBytes(bytes).asBytes());
+      endpoint.put(fingerprint, bytes).get();
+    } catch (IOException | ExecutionException e) {
+      logger.log(Level.WARNING, "Failed to offload " + key, e);
+      return null;
+    }
+    fingerprints.put(value, fingerprint);
+    return fingerprint;
+  }
+
+  /** Returns whether {@code value} equals the value deserialized from {@code bytes}. */
+  private boolean equalsCopy(SkyValue value, byte[] bytes) {
+    try {
+      return value.equals(objectCodecs.deserializeMemoized(CodedInputStream.newInstance(bytes)));
+    } catch (SerializationException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  @Override
+  @Nullable
+  public SkyValue retrieve(SkyKey key, Object handle) {
+    ByteString fingerprint = (ByteString) handle;
+    SkyValue value;
+    try {
+      byte[] bytes = Uninterruptibles.getUninterruptibly(endpoint.get(fingerprint));
+      if (!fingerprint.equals(ByteString.copyFrom(Hashing.md5().hashBytes(bytes).asBytes()))) {
+        throw new IOException("Stored bytes do not match their fingerprint");
+      }
+      value = (SkyValue) objectCodecs.deserializeMemoized(CodedInputStream.newInstance(bytes));
+    } catch (IOException
+        | ExecutionException
+        | SerializationException
+        | RuntimeException e) {
+      logger.log(Level.WARNING, "Failed to read back the offloaded value of " + key, e);
+      failedReads = true;
+      return null;
+    }
+    fingerprints.put(value, fingerprint);
+    return value;
+  }
+
+  /**
+   * Returns whether a value could not be read back, or the storage was damaged so that values may
+   * not be read back. The values offloaded to this store should then be recomputed.
+   */
+  public boolean hasFailedReads() {
+    return failedReads
+        || (endpoint instanceof FileStorageEndpoint && !((FileStorageEndpoint) endpoint).isIntact());
+  }
+
+  /**
+   * A {@link NestedSetStorageEndpoint} that appends the contents it stores to a local file, and
+   * keeps only their offsets on the heap. The file is never compacted in place: move the contents
+   * that are still needed to a new endpoint and close this one, which deletes the file.
+   */
+  @ThreadSafe
+  public static final class FileStorageEndpoint implements NestedSetStorageEndpoint, Closeable {
+    private final Path path;
+    private final RandomAccessFile file;
+    private final ConcurrentHashMap<ByteString, Long> offsets = new ConcurrentHashMap<>();
+    private long end = 0;
+
+    /** Creates an endpoint that stores its contents in {@code path}, discarding what it held. */
+    public FileStorageEndpoint(Path path) throws IOException {
+      this.path = path;
+      file = new RandomAccessFile(path.getPathFile(), "rw");
+      file.setLength(0);
+    }
+
+    @Override
+    public synchronized ListenableFuture<Void> put(ByteString fingerprint, byte[] serializedBytes)
+        throws IOException {
+      if (!offsets.containsKey(fingerprint)) {
+        file.seek(end);
+        file.write(Ints.toByteArray(serializedBytes.length));
+        file.write(serializedBytes);
+        offsets.put(fingerprint, end);
+        end += Integer.BYTES + serializedBytes.length;
+      }
+      return Futures.immediateFuture(null);
+    }
+
+    @Override
+    public ListenableFuture<byte[]> get(ByteString fingerprint) throws IOException {
+      Long offset = offsets.get(fingerprint);
+      if (offset == null) {
+        throw new IOException(
+            "Nothing stored for "
+                + BaseEncoding.base16().lowerCase().encode(fingerprint.toByteArray()));
+      }
+      byte[] bytes;
+      synchronized (this) {
+        file.seek(offset);
+        bytes = new byte[file.readInt()];
+        file.readFully(bytes);
+      }
+      return Futures.immediateFuture(bytes);
+    }
+
+    /** Returns the number of bytes written to the file. */
+    public synchronized long size() {
+      return end;
+    }
+
+    /** Returns whether the file still holds everything written to it, as far as its size tells. */
+    synchronized boolean isIntact() {
+      try {
+        return file.length() == end;
+      } catch (IOException e) {
+        return false;
+      }
+    }
+
+    /** Closes and deletes the file. */
+    @Override
+    public synchronized void close() throws IOException {
+      file.close();
+      path.delete();
+    }
+  }
+}
@@ -36,6 +36,7 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.actions.ActionAnalysisMetadata;
 import com.google.devtools.build.lib.actions.ActionCacheChecker;
 import com.google.devtools.build.lib.actions.ActionExecutionStatusReporter;
@@ -182,6 +183,7 @@ import com.google.devtools.build.skyframe.SkyValue;
 import com.google.devtools.build.skyframe.WalkableGraph.WalkableGraphFactory;
 import com.google.devtools.common.options.OptionsParsingException;
 import com.google.devtools.common.options.OptionsProvider;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -203,6 +205,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -218,6 +221,13 @@ import javax.annotation.Nullable;
 public abstract class SkyframeExecutor<T extends BuildDriver> implements WalkableGraphFactory {
   private static final Logger logger = Logger.getLogger(SkyframeExecutor.class.getName());
 
+  private static final String OFFLOADED_VALUES_FILE = "offloaded-skyframe-values";
+
+  // The file of offloaded values is compacted once it has grown to this many times its size after
+  // the previous compaction, and is at least the minimum size.
+  private static final int OFFLOADED_VALUES_COMPACTION_FACTOR = 2;
+  private static final long MIN_OFFLOADED_VALUES_COMPACTION_SIZE = 64L << 20;
+
   // We delete any value that can hold an action -- all subclasses of ActionLookupKey.
   protected static final Predicate<SkyKey> ANALYSIS_KEY_PREDICATE =
       k -> k instanceof ActionLookupValue.ActionLookupKey;
@@ -328,6 +338,16 @@ public abstract class SkyframeExecutor<T extends BuildDriver> implements Walkabl
   private PerBuildSyscallCache perBuildSyscallCache;
   private int lastConcurrencyLevel = -1;
 
+  // Where the values moved out of the heap by offloadColdValues are, if any were. Only accessed
+  // between commands, by the offloading thread while it runs.
+  @Nullable private OffloadedValues offloadedValues;
+  // Older files of offloaded values that may still be referenced by nodes, closed once a compaction
+  // has moved all values out of them.
+  private final List<OffloadedValues> retiredOffloadedValues = new ArrayList<>();
+  private long offloadedValuesSizeAfterCompaction = 0;
+  private int offloadedValuesGeneration = 0;
+  @Nullable private Thread offloadingThread;
+
   private final PathResolverFactory pathResolverFactory = new PathResolverFactoryImpl();
   @Nullable private final NonexistentFileReceiver nonexistentFileReceiver;
   private final MutableSupplier<BigInteger> nonceVersion = new MutableSupplier<>();
@@ -810,7 +830,9 @@ public abstract class SkyframeExecutor<T extends BuildDriver> implements Walkabl
 
   /** Reinitializes the Skyframe evaluator, dropping all previously computed values. */
   public void resetEvaluator() {
+    stopOffloadingColdValues();
     init();
+    closeOffloadedValues();
     emittedEventState.clear();
     clearTrimmingCache();
     skyframeBuildView.reset();
@@ -825,6 +847,161 @@ public abstract class SkyframeExecutor<T extends BuildDriver> implements Walkabl
     memoizingEvaluator.noteEvaluationsAtSameVersionMayBeFinished(eventHandler);
   }
 
+  /**
+   * Starts moving the values of the nodes of the named functions that were not evaluated during the
+   * current command out of the heap, into a file in the output base. They are read back on demand.
+   *
+   * <p>The values are serialized by a background thread, which also compacts the file once it has
+   * grown enough. It is stopped by {@link #stopOffloadingColdValues} before the next command uses
+   * the graph; the values it did not get to are offloaded after that command.
+   */
+  public void offloadColdValues(Set<String> functionNames) {
+    stopOffloadingColdValues();
+    if (offloadedValues == null) {
+      offloadedValues = newOffloadedValues();
+      if (offloadedValues == null) {
+        return;
+      }
+    }
+    MemoizingEvaluator evaluator = memoizingEvaluator;
+    offloadingThread =
+        new Thread(
+            () -> {
+              try (SilentCloseable c = Profiler.instance().profile("offloadColdValues")) {
+                int offloaded =
+                    evaluator.offloadColdValues(
+                        key -> functionNames.contains(key.functionName().getName()),
+                        offloadedValues.store);
+                logger.info("Offloaded " + offloaded + " Skyframe values");
+                maybeCompactOffloadedValues(evaluator);
+              } catch (InterruptedException e) {
+                // Stopped because the next command started.
+              }
+            },
+            "skyframe-value-offloader");
+    offloadingThread.setDaemon(true);
+    offloadingThread.start();
+  }
+
+  /**
+   * Stops the background work started by {@link #offloadColdValues} and waits for it to finish.
+   * If offloaded values can no longer be read back, their nodes are deleted, so that they are
+   * evaluated again. Must be called before each command uses the graph.
+   */
+  public void stopOffloadingColdValues() {
+    if (offloadingThread != null) {
+      offloadingThread.interrupt();
+      Uninterruptibles.joinUninterruptibly(offloadingThread);
+      offloadingThread = null;
+    }
+    boolean failedReads = offloadedValues != null && offloadedValues.store.hasFailedReads();
+    for (OffloadedValues retired : retiredOffloadedValues) {
+      failedReads |= retired.store.hasFailedReads();
+    }
+    if (failedReads) {
+      logger.warning("Offloaded Skyframe values cannot be read back, they will be recomputed");
+      memoizingEvaluator.deleteOffloadedValues();
+      // The values are deleted by the next evaluation, and the files closed by the next compaction.
+      if (offloadedValues != null) {
+        retiredOffloadedValues.add(offloadedValues);
+        offloadedValues = null;
+      }
+      offloadedValuesSizeAfterCompaction = 0;
+    }
+  }
+
+  /**
+   * Moves all offloaded values to a new file and closes the old files, if the current file has grown
+   * enough since the previous compaction or there are old files to close.
+   */
+  private void maybeCompactOffloadedValues(MemoizingEvaluator evaluator)
+      throws InterruptedException {
+    long size = offloadedValues.endpoint.size();
+    if (retiredOffloadedValues.isEmpty()
+        && size
+            < Math.max(
+                MIN_OFFLOADED_VALUES_COMPACTION_SIZE,
+                OFFLOADED_VALUES_COMPACTION_FACTOR * offloadedValuesSizeAfterCompaction)) {
+      return;
+    }
+    OffloadedValues compacted = newOffloadedValues();
+    if (compacted == null) {
+      return;
+    }
+    // Until all values are moved, nodes may refer to any of the files.
+    retiredOffloadedValues.add(offloadedValues);
+    offloadedValues = compacted;
+    try (SilentCloseable c = Profiler.instance().profile("compactOffloadedValues")) {
+      int failed = evaluator.moveOffloadedValues(compacted.store);
+      if (failed > 0) {
+        // Those nodes are deleted at the start of the next command.
+        logger.warning(failed + " offloaded Skyframe values cannot be read back");
+        return;
+      }
+    }
+    offloadedValuesSizeAfterCompaction = compacted.endpoint.size();
+    logger.info(
+        "Compacted offloaded Skyframe values from " + size + " to "
+            + offloadedValuesSizeAfterCompaction + " bytes");
+    for (OffloadedValues retired : retiredOffloadedValues) {
+      retired.close();
+    }
+    retiredOffloadedValues.clear();
+  }
+
+  @Nullable
+  private OffloadedValues newOffloadedValues() {
+    SkyValueStore.FileStorageEndpoint endpoint;
+    try {
+      endpoint =
+          new SkyValueStore.FileStorageEndpoint(
+              directories
+                  .getOutputBase()
+                  .getChild(OFFLOADED_VALUES_FILE + "-" + offloadedValuesGeneration++));
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Cannot offload Skyframe values", e);
+      return null;
+    }
+    return new OffloadedValues(
+        endpoint, new SkyValueStore(endpoint, getSkyValueCodecDependencies()));
+  }
+
+  /** A file of offloaded values. */
+  private static final class OffloadedValues {
+    private final SkyValueStore.FileStorageEndpoint endpoint;
+    private final SkyValueStore store;
+
+    OffloadedValues(SkyValueStore.FileStorageEndpoint endpoint, SkyValueStore store) {
+      this.endpoint = endpoint;
+      this.store = store;
+    }
+
+    void close() {
+      try {
+        endpoint.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "Failed to close the offloaded Skyframe values", e);
+      }
+    }
+  }
+
+  /** Returns the dependencies of the codecs used to offload Skyframe values. */
+  protected ImmutableMap<Class<?>, Object> getSkyValueCodecDependencies() {
+    return ImmutableMap.of(RuleClassProvider.class, ruleClassProvider);
+  }
+
+  private void closeOffloadedValues() {
+    if (offloadedValues != null) {
+      offloadedValues.close();
+      offloadedValues = null;
+    }
+    for (OffloadedValues retired : retiredOffloadedValues) {
+      retired.close();
+    }
+    retiredOffloadedValues.clear();
+    offloadedValuesSizeAfterCompaction = 0;
+  }
+
   /**
    * Notifies the executor to post logging stats when the server is crashing, so that logging is
    * still available even when the server crashes.
@@ -0,0 +1,569 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.devtools.build.lib.syntax.AbstractComprehension.Clause;
+import com.google.devtools.build.lib.syntax.DictionaryLiteral.DictionaryEntryLiteral;
+import com.google.devtools.build.lib.syntax.IfStatement.ConditionalStatements;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Compiles the body of a {@link UserDefinedFunction} to a {@link CompiledFunction}.
+ *
+ * <p>Every name that the body binds, by assignment, by a for loop or in a comprehension, is a local
+ * variable of the function and gets a slot, after those of the parameters. The other names are
+ * looked up in the enclosing scopes, like the interpreter does.
+ *
+ * <p>Bodies with statements that cannot appear in a function, like {@code load} or nested {@code
+ * def}, are not compiled, so that the interpreter reports them as it always did.
+ */
+final class BytecodeCompiler {
+
+  /** Thrown when the body contains something that is not compiled. */
+  private static final class NotCompilableException extends Exception {
+    NotCompilableException(ASTNode node) {
+      super("cannot compile " + node.getClass().getSimpleName());
+    }
+  }
+
+  /** The slot and the jump targets of the innermost for loop, for break and continue. */
+  private static final class LoopTargets {
+    private final int slot;
+    private final int next;
+    private final List<Integer> breaks = new ArrayList<>();
+
+    LoopTargets(int slot, int next) {
+      this.slot = slot;
+      this.next = next;
+    }
+  }
+
+  private final String name;
+
+  private int[] code = new int[64];
+  private int size = 0;
+  private final List<ASTNode> nodes = new ArrayList<>();
+  private final List<ASTNode[]> errorPaths = new ArrayList<>();
+
+  private final List<Object> constants = new ArrayList<>();
+  private final Map<Object, Integer> constantIndices = new HashMap<>();
+
+  private final List<String> localNames = new ArrayList<>();
+  private final Map<String, Integer> localSlots = new HashMap<>();
+  private final List<Integer> loopSlots = new ArrayList<>();
+
+  /** The nodes being compiled, innermost first. */
+  private final Deque<ASTNode> path = new ArrayDeque<>();
+  @Nullable private ASTNode[] currentErrorPath;
+
+  private final Deque<LoopTargets> loops = new ArrayDeque<>();
+
+  private int stackDepth = 0;
+  private int maxStackDepth = 0;
+
+  private BytecodeCompiler(String name) {
+    this.name = name;
+  }
+
+  /** Returns the compiled body of {@code function}, or null if it cannot be compiled. */
+  @Nullable
+  static CompiledFunction compile(UserDefinedFunction function) {
+    BytecodeCompiler compiler = new BytecodeCompiler(function.getName());
+    try {
+      return compiler.compileFunction(
+          function.getSignature().getSignature().getNames(), function.getStatements());
+    } catch (NotCompilableException e) {
+      return null;
+    }
+  }
+
+  private CompiledFunction compileFunction(
+      ImmutableList<String> parameters, ImmutableList<Statement> statements)
+      throws NotCompilableException {
+    for (String parameter : parameters) {
+      addLocal(parameter);
+    }
+    SyntaxTreeVisitor boundNamesCollector =
+        new SyntaxTreeVisitor() {
+          @Override
+          public void visit(LValue node) {
+            for (Identifier identifier : node.boundIdentifiers()) {
+              addLocal(identifier.getName());
+            }
+            super.visit(node);
+          }
+        };
+    boundNamesCollector.visitBlock(statements);
+
+    compileStatements(statements);
+    emit(CompiledFunction.CONST, constant(Runtime.NONE), null, +1);
+    emit(CompiledFunction.RETURN, 0, null, -1);
+
+    return new CompiledFunction(
+        name,
+        Arrays.copyOf(code, size),
+        constants.toArray(),
+        nodes.toArray(new ASTNode[0]),
+        errorPaths.toArray(new ASTNode[0][]),
+        localNames.toArray(new String[0]),
+        Ints.toArray(loopSlots),
+        maxStackDepth);
+  }
+
+  private void addLocal(String name) {
+    if (!localSlots.containsKey(name)) {
+      localSlots.put(name, localNames.size());
+      localNames.add(name);
+    }
+  }
+
+  /** Returns a slot for the iteration of a loop or the result of a comprehension. */
+  private int newHiddenSlot() {
+    localNames.add(null);
+    return localNames.size() - 1;
+  }
+
+  private int constant(Object value) {
+    Integer index = constantIndices.get(value);
+    if (index == null) {
+      index = constants.size();
+      constants.add(value);
+      constantIndices.put(value, index);
+    }
+    return index;
+  }
+
+  /**
+   * Appends an instruction, compiled from {@code node}, that changes the depth of the stack by
+   * {@code stackEffect}, and returns its address.
+   */
+  private int emit(int opcode, int arg, @Nullable ASTNode node, int stackEffect) {
+    int address = size;
+    append(opcode, node);
+    append(arg, null);
+    stackDepth += stackEffect;
+    maxStackDepth = Math.max(maxStackDepth, stackDepth);
+    return address;
+  }
+
+  private void append(int word, @Nullable ASTNode node) {
+    if (size == code.length) {
+      code = Arrays.copyOf(code, size * 2);
+    }
+    if (currentErrorPath == null) {
+      currentErrorPath = path.toArray(new ASTNode[0]);
+    }
+    code[size++] = word;
+    nodes.add(node);
+    errorPaths.add(currentErrorPath);
+  }
+
+  /** Sets the target of the jump at {@code address} to the next instruction. */
+  private void patchJump(int address) {
+    code[address + 1] = size;
+  }
+
+  private void enter(ASTNode node) {
+    path.push(node);
+    currentErrorPath = null;
+  }
+
+  private void exit() {
+    path.pop();
+    currentErrorPath = null;
+  }
+
+  private void compileStatements(List<Statement> statements) throws NotCompilableException {
+    for (Statement statement : statements) {
+      enter(statement);
+      compileStatement(statement);
+      exit();
+    }
+  }
+
+  private void compileStatement(Statement statement) throws NotCompilableException {
+    switch (statement.kind()) {
+      case ASSIGNMENT:
+        {
+          AssignmentStatement assignment = (AssignmentStatement) statement;
+          compileExpression(assignment.getExpression());
+          compileAssignment(assignment.getLValue().getExpression(), statement);
+          break;
+        }
+      case AUGMENTED_ASSIGNMENT:
+        compileAugmentedAssignment((AugmentedAssignmentStatement) statement);
+        break;
+      case EXPRESSION:
+        compileExpression(((ExpressionStatement) statement).getExpression());
+        emit(CompiledFunction.POP, 0, null, -1);
+        break;
+      case FLOW:
+        {
+          LoopTargets loop = loops.peek();
+          if (loop == null) {
+            throw new NotCompilableException(statement);
+          }
+          if (((FlowStatement) statement).getKind() == FlowStatement.Kind.BREAK) {
+            emit(CompiledFunction.END_LOOP, loop.slot, statement, 0);
+            loop.breaks.add(emit(CompiledFunction.JUMP, 0, null, 0));
+          } else {
+            emit(CompiledFunction.JUMP, loop.next, null, 0);
+          }
+          break;
+        }
+      case FOR:
+        compileFor((ForStatement) statement);
+        break;
+      case IF:
+        compileIf((IfStatement) statement);
+        break;
+      case PASS:
+        break;
+      case RETURN:
+        {
+          Expression result = ((ReturnStatement) statement).getReturnExpression();
+          if (result == null) {
+            emit(CompiledFunction.CONST, constant(Runtime.NONE), null, +1);
+          } else {
+            compileExpression(result);
+          }
+          emit(CompiledFunction.RETURN, 0, null, -1);
+          break;
+        }
+      default:
+        // Function definitions and loads are only allowed at the top level.
+        throw new NotCompilableException(statement);
+    }
+  }
+
+  private void compileIf(IfStatement statement) throws NotCompilableException {
+    List<Integer> ends = new ArrayList<>();
+    for (ConditionalStatements branch : statement.getThenBlocks()) {
+      enter(branch);
+      compileExpression(branch.getCondition());
+      int skip = emit(CompiledFunction.JUMP_IF_FALSE, 0, null, -1);
+      compileStatements(branch.getStatements());
+      ends.add(emit(CompiledFunction.JUMP, 0, null, 0));
+      patchJump(skip);
+      exit();
+    }
+    compileStatements(statement.getElseBlock());
+    for (int end : ends) {
+      patchJump(end);
+    }
+  }
+
+  private void compileFor(ForStatement statement) throws NotCompilableException {
+    int slot = newHiddenSlot();
+    loopSlots.add(slot);
+    compileExpression(statement.getCollection());
+    emit(CompiledFunction.ITERATE, slot, statement, -1);
+    LoopTargets loop = new LoopTargets(slot, size);
+    int next = emitForNext(slot, statement);
+    compileAssignment(statement.getVariable().getExpression(), statement);
+    loops.push(loop);
+    compileStatements(statement.getBlock());
+    loops.pop();
+    emit(CompiledFunction.JUMP, loop.next, null, 0);
+    patchForNext(next);
+    for (int jump : loop.breaks) {
+      patchJump(jump);
+    }
+  }
+
+  /** Appends a {@link CompiledFunction#FOR_NEXT}, to be patched once the end of the loop is known. */
+  private int emitForNext(int slot, ASTNode node) {
+    int address = emit(CompiledFunction.FOR_NEXT, slot, node, +1);
+    append(0, null);
+    return address;
+  }
+
+  private void patchForNext(int address) {
+    code[address + 2] = size;
+  }
+
+  /**
+   * Compiles the assignment of the value on top of the stack to {@code target}, as {@link
+   * LValue#assign} does it, with the location and the errors of {@code node}.
+   */
+  private void compileAssignment(Expression target, ASTNode node) throws NotCompilableException {
+    if (target instanceof Identifier) {
+      emit(CompiledFunction.STORE_LOCAL, slot((Identifier) target), null, -1);
+    } else if (target instanceof IndexExpression) {
+      IndexExpression index = (IndexExpression) target;
+      compileExpression(index.getObject());
+      compileExpression(index.getKey());
+      emit(CompiledFunction.ROT3, 0, null, 0);
+      emit(CompiledFunction.SET_ITEM, 0, node, -3);
+    } else if (target instanceof ListLiteral
+        && !((ListLiteral) target).getElements().isEmpty()) {
+      List<Expression> elements = ((ListLiteral) target).getElements();
+      emit(CompiledFunction.UNPACK, elements.size(), node, elements.size() - 1);
+      for (Expression element : elements) {
+        compileAssignment(element, node);
+      }
+    } else {
+      throw new NotCompilableException(target);
+    }
+  }
+
+  private void compileAugmentedAssignment(AugmentedAssignmentStatement statement)
+      throws NotCompilableException {
+    Expression target = statement.getLValue().getExpression();
+    int operator = statement.getOperator().ordinal();
+    if (target instanceof Identifier) {
+      compileExpression(target);
+      compileExpression(statement.getExpression());
+      emit(CompiledFunction.AUGMENTED, operator, statement, -1);
+      emit(CompiledFunction.STORE_LOCAL, slot((Identifier) target), null, -1);
+    } else if (target instanceof IndexExpression) {
+      IndexExpression index = (IndexExpression) target;
+      compileExpression(index.getObject());
+      compileExpression(index.getKey());
+      emit(CompiledFunction.DUP2, 0, null, +2);
+      emit(CompiledFunction.INDEX, 0, statement, -1);
+      compileExpression(statement.getExpression());
+      emit(CompiledFunction.AUGMENTED, operator, statement, -1);
+      emit(CompiledFunction.SET_ITEM, 0, statement, -3);
+    } else {
+      throw new NotCompilableException(statement);
+    }
+  }
+
+  private int slot(Identifier identifier) {
+    return localSlots.get(identifier.getName());
+  }
+
+  private void compileExpression(Expression expression) throws NotCompilableException {
+    enter(expression);
+    switch (expression.kind()) {
+      case BINARY_OPERATOR:
+        compileBinaryOperator((BinaryOperatorExpression) expression);
+        break;
+      case COMPREHENSION:
+        compileComprehension((AbstractComprehension) expression);
+        break;
+      case CONDITIONAL:
+        compileConditional((ConditionalExpression) expression);
+        break;
+      case DICTIONARY_LITERAL:
+        emit(CompiledFunction.NEW_DICT, 0, expression, +1);
+        for (DictionaryEntryLiteral entry : ((DictionaryLiteral) expression).getEntries()) {
+          compileExpression(entry.getKey());
+          compileExpression(entry.getValue());
+          emit(CompiledFunction.DICT_LITERAL_PUT, 0, expression, -2);
+        }
+        break;
+      case DOT:
+        compileExpression(((DotExpression) expression).getObject());
+        emit(CompiledFunction.DOT, 0, expression, 0);
+        break;
+      case FUNCALL:
+        compileFuncall((FuncallExpression) expression);
+        break;
+      case IDENTIFIER:
+        {
+          Integer slot = localSlots.get(((Identifier) expression).getName());
+          if (slot != null) {
+            emit(CompiledFunction.LOAD_LOCAL, slot, expression, +1);
+          } else {
+            emit(CompiledFunction.LOAD_GLOBAL, 0, expression, +1);
+          }
+          break;
+        }
+      case INDEX:
+        compileExpression(((IndexExpression) expression).getObject());
+        compileExpression(((IndexExpression) expression).getKey());
+        emit(CompiledFunction.INDEX, 0, expression, -1);
+        break;
+      case INTEGER_LITERAL:
+        emit(
+            CompiledFunction.CONST,
+            constant(((IntegerLiteral) expression).getValue()),
+            expression,
+            +1);
+        break;
+      case LIST_LITERAL:
+        {
+          ListLiteral list = (ListLiteral) expression;
+          for (Expression element : list.getElements()) {
+            if (element == null) {
+              throw new NotCompilableException(expression);
+            }
+            compileExpression(element);
+          }
+          int count = list.getElements().size();
+          emit(
+              list.isTuple() ? CompiledFunction.TUPLE : CompiledFunction.LIST,
+              count,
+              expression,
+              1 - count);
+          break;
+        }
+      case SLICE:
+        {
+          SliceExpression slice = (SliceExpression) expression;
+          compileExpression(slice.getObject());
+          compileOptionalExpression(slice.getStart());
+          compileOptionalExpression(slice.getEnd());
+          compileOptionalExpression(slice.getStep());
+          emit(CompiledFunction.SLICE, 0, expression, -3);
+          break;
+        }
+      case STRING_LITERAL:
+        emit(
+            CompiledFunction.CONST,
+            constant(((StringLiteral) expression).getValue()),
+            expression,
+            +1);
+        break;
+      case UNARY_OPERATOR:
+        {
+          UnaryOperatorExpression unary = (UnaryOperatorExpression) expression;
+          compileExpression(unary.getOperand());
+          emit(CompiledFunction.UNARY, unary.getOperator().ordinal(), expression, 0);
+          break;
+        }
+    }
+    exit();
+  }
+
+  private void compileOptionalExpression(@Nullable Expression expression)
+      throws NotCompilableException {
+    if (expression == null) {
+      emit(CompiledFunction.CONST, constant(Runtime.NONE), null, +1);
+    } else {
+      compileExpression(expression);
+    }
+  }
+
+  private void compileBinaryOperator(BinaryOperatorExpression expression)
+      throws NotCompilableException {
+    compileExpression(expression.getLhs());
+    if (expression.getOperator() == Operator.AND || expression.getOperator() == Operator.OR) {
+      int end =
+          emit(
+              expression.getOperator() == Operator.AND
+                  ? CompiledFunction.JUMP_IF_FALSE_OR_POP
+                  : CompiledFunction.JUMP_IF_TRUE_OR_POP,
+              0,
+              null,
+              -1);
+      compileExpression(expression.getRhs());
+      patchJump(end);
+    } else {
+      compileExpression(expression.getRhs());
+      emit(CompiledFunction.BINARY, expression.getOperator().ordinal(), expression, -1);
+    }
+  }
+
+  private void compileConditional(ConditionalExpression expression)
+      throws NotCompilableException {
+    if (expression.getElseCase() == null) {
+      throw new NotCompilableException(expression);
+    }
+    compileExpression(expression.getCondition());
+    int elseCase = emit(CompiledFunction.JUMP_IF_FALSE, 0, null, -1);
+    compileExpression(expression.getThenCase());
+    int end = emit(CompiledFunction.JUMP, 0, null, -1);
+    patchJump(elseCase);
+    compileExpression(expression.getElseCase());
+    patchJump(end);
+  }
+
+  private void compileFuncall(FuncallExpression call) throws NotCompilableException {
+    // Like the interpreter, calls of a field of an object call the method directly, without
+    // evaluating the field itself.
+    boolean isMethodCall = call.getFunction() instanceof DotExpression;
+    if (isMethodCall) {
+      compileExpression(((DotExpression) call.getFunction()).getObject());
+    } else {
+      compileExpression(call.getFunction());
+    }
+    for (Argument.Passed argument : call.getArguments()) {
+      compileExpression(argument.getValue());
+    }
+    int count = call.getArguments().size();
+    emit(
+        isMethodCall ? CompiledFunction.CALL_METHOD : CompiledFunction.CALL,
+        count,
+        call,
+        -count);
+  }
+
+  private void compileComprehension(AbstractComprehension comprehension)
+      throws NotCompilableException {
+    int result = newHiddenSlot();
+    boolean isDict = comprehension instanceof DictComprehension;
+    emit(isDict ? CompiledFunction.NEW_DICT : CompiledFunction.NEW_LIST, 0, comprehension, +1);
+    emit(CompiledFunction.STORE_LOCAL, result, null, -1);
+    compileClauses(comprehension, 0, result);
+    if (isDict) {
+      emit(CompiledFunction.TAKE_LOCAL, result, null, +1);
+    } else {
+      emit(CompiledFunction.FINISH_LIST, result, comprehension, +1);
+    }
+    // The interpreter unbinds the loop variables once the comprehension is evaluated.
+    for (Clause clause : comprehension.getClauses()) {
+      if (clause.getLValue() != null) {
+        for (Identifier identifier : clause.getLValue().boundIdentifiers()) {
+          emit(CompiledFunction.DELETE_LOCAL, slot(identifier), null, 0);
+        }
+      }
+    }
+  }
+
+  private void compileClauses(AbstractComprehension comprehension, int index, int result)
+      throws NotCompilableException {
+    if (index == comprehension.getClauses().size()) {
+      if (comprehension instanceof DictComprehension) {
+        DictComprehension dict = (DictComprehension) comprehension;
+        compileExpression(dict.getKeyExpression());
+        emit(CompiledFunction.CHECK_DICT_KEY, 0, comprehension, 0);
+        compileExpression(dict.getValueExpression());
+        emit(CompiledFunction.DICT_PUT, result, comprehension, -2);
+      } else {
+        compileExpression(((ListComprehension) comprehension).getOutputExpression());
+        emit(CompiledFunction.LIST_APPEND, result, comprehension, -1);
+      }
+      return;
+    }
+    Clause clause = comprehension.getClauses().get(index);
+    if (clause.getKind() == Clause.Kind.FOR) {
+      int slot = newHiddenSlot();
+      loopSlots.add(slot);
+      compileExpression(clause.getExpression());
+      emit(CompiledFunction.ITERATE, slot, comprehension, -1);
+      int next = emitForNext(slot, comprehension);
+      compileAssignment(clause.getLValue().getExpression(), comprehension);
+      compileClauses(comprehension, index + 1, result);
+      emit(CompiledFunction.JUMP, next, null, 0);
+      patchForNext(next);
+    } else {
+      compileExpression(clause.getExpression());
+      int end = emit(CompiledFunction.JUMP_IF_FALSE, 0, null, -1);
+      compileClauses(comprehension, index + 1, result);
+      patchJump(end);
+    }
+  }
+}
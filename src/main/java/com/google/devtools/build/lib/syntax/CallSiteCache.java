@@ -0,0 +1,107 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import java.util.Arrays;
+import javax.annotation.Nullable;
+
+/**
+ * An inline cache of the {@link MethodDescriptor} named by a call site, like {@code x.append} in
+ * {@code x.append(1)}, for the few classes of receivers that the site sees.
+ *
+ * <p>Looking up a method in the global caches of {@link FuncallExpression} hashes the class and
+ * the {@link StarlarkSemantics} of each call. Most sites only ever see one or two classes of
+ * receivers, so the cache compares them by identity instead, and gives up on the sites that see
+ * more than {@link #MAX_RECEIVER_CLASSES} of them.
+ *
+ * <p>The entries are for a single semantics, usually the one instance used by a whole build. A
+ * lookup with another semantics that is equal to it reuses the entries; with a different one, the
+ * entries are replaced, so that a new build does not find the site megamorphic.
+ *
+ * <p>The cache may be used by concurrent evaluations of the site. A lookup that races with another
+ * may drop its entry, which only costs a later miss.
+ */
+final class CallSiteCache {
+
+  /** The number of receiver classes after which the call site is considered megamorphic. */
+  static final int MAX_RECEIVER_CLASSES = 4;
+
+  private static final class Entry {
+    private final Class<?> receiverClass;
+    @Nullable private final MethodDescriptor method;
+
+    private Entry(Class<?> receiverClass, @Nullable MethodDescriptor method) {
+      this.receiverClass = receiverClass;
+      this.method = method;
+    }
+  }
+
+  /** The entries for one semantics, replaced as a whole on each change. */
+  private static final class Entries {
+    private final StarlarkSemantics semantics;
+    private final Entry[] entries;
+
+    private Entries(StarlarkSemantics semantics, Entry[] entries) {
+      this.semantics = semantics;
+      this.entries = entries;
+    }
+  }
+
+  private static final Entry[] EMPTY = new Entry[0];
+
+  private final String methodName;
+
+  @Nullable private volatile Entries entries;
+
+  CallSiteCache(String methodName) {
+    this.methodName = methodName;
+  }
+
+  /**
+   * Returns the method of the receiver class, as {@link FuncallExpression#getMethod(
+   * StarlarkSemantics, Class, String)} would, or null if there is no such method.
+   */
+  @Nullable
+  MethodDescriptor getMethod(StarlarkSemantics semantics, Class<?> receiverClass) {
+    Entries current = this.entries;
+    Entry[] entries = EMPTY;
+    if (current != null) {
+      if (current.semantics == semantics) {
+        entries = current.entries;
+      } else if (current.semantics.equals(semantics)) {
+        // Compare by identity from now on.
+        entries = current.entries;
+        this.entries = new Entries(semantics, entries);
+      }
+    }
+    for (Entry entry : entries) {
+      if (entry.receiverClass == receiverClass) {
+        return entry.method;
+      }
+    }
+    MethodDescriptor method = FuncallExpression.getMethod(semantics, receiverClass, methodName);
+    if (entries.length < MAX_RECEIVER_CLASSES) {
+      Entry[] newEntries = Arrays.copyOf(entries, entries.length + 1);
+      newEntries[entries.length] = new Entry(receiverClass, method);
+      this.entries = new Entries(semantics, newEntries);
+    }
+    return method;
+  }
+
+  /** Returns the number of receiver classes the cache holds. */
+  int size() {
+    Entries current = entries;
+    return current == null ? 0 : current.entries.length;
+  }
+}
@@ -0,0 +1,517 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.SkylarkList.MutableList;
+import com.google.devtools.build.lib.syntax.SkylarkList.Tuple;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The body of a {@link UserDefinedFunction}, compiled by {@link BytecodeCompiler} to a sequence of
+ * instructions for a stack machine.
+ *
+ * <p>The local variables of the function live in numbered slots of an array instead of the {@link
+ * Environment.LexicalFrame} of the call, so that reading and writing them is an array access
+ * rather than a hash map lookup. The parameters of the function come first, in the order of its
+ * signature. Slots past the named ones hold the iterators of loops and the results of
+ * comprehensions under construction.
+ *
+ * <p>Each instruction is an opcode followed by one operand, or two for {@link #FOR_NEXT}. The
+ * operations themselves are delegated to the same methods the syntax tree uses, and each
+ * instruction keeps the syntax node it was compiled from, for its location and for the stack trace
+ * of the errors it raises, so that the results and errors are those of the interpreter.
+ */
+final class CompiledFunction {
+
+  /** Pushes {@code constants[arg]}. */
+  static final int CONST = 0;
+  /** Pushes the local variable in slot {@code arg}. */
+  static final int LOAD_LOCAL = 1;
+  /** Pops a value into the local variable in slot {@code arg}. */
+  static final int STORE_LOCAL = 2;
+  /** Unbinds the local variable in slot {@code arg}. */
+  static final int DELETE_LOCAL = 3;
+  /** Pushes the value of the identifier of the instruction from the enclosing scopes. */
+  static final int LOAD_GLOBAL = 4;
+  /** Discards the top of the stack. */
+  static final int POP = 5;
+  /** Duplicates the two values on top of the stack. */
+  static final int DUP2 = 6;
+  /** Moves the value under the two values on top of the stack to the top. */
+  static final int ROT3 = 7;
+  /** Applies {@code UnaryOperator.values()[arg]} to the top of the stack. */
+  static final int UNARY = 8;
+  /** Applies {@code Operator.values()[arg]} to the two values on top of the stack. */
+  static final int BINARY = 9;
+  /** Like {@link #BINARY}, for an augmented assignment. */
+  static final int AUGMENTED = 10;
+  /** Jumps to {@code arg}. */
+  static final int JUMP = 11;
+  /** Pops a value, and jumps to {@code arg} if it is false. */
+  static final int JUMP_IF_FALSE = 12;
+  /** Jumps to {@code arg} if the top of the stack is false, and pops it otherwise. */
+  static final int JUMP_IF_FALSE_OR_POP = 13;
+  /** Jumps to {@code arg} if the top of the stack is true, and pops it otherwise. */
+  static final int JUMP_IF_TRUE_OR_POP = 14;
+  /** Replaces the object on top of the stack by its field named by the {@link DotExpression}. */
+  static final int DOT = 15;
+  /** Pops a key and an object, and pushes the item of the object at the key. */
+  static final int INDEX = 16;
+  /** Pops a step, an end, a start and an object, and pushes the slice of the object. */
+  static final int SLICE = 17;
+  /** Pops {@code arg} values, and pushes a list of them. */
+  static final int LIST = 18;
+  /** Pops {@code arg} values, and pushes a tuple of them. */
+  static final int TUPLE = 19;
+  /** Pushes a new dict. */
+  static final int NEW_DICT = 20;
+  /** Pops a value and a key, and puts them in the dict on top of the stack, unless present. */
+  static final int DICT_LITERAL_PUT = 21;
+  /** Pops {@code arg} arguments and a function, and pushes the result of the call. */
+  static final int CALL = 22;
+  /** Pops {@code arg} arguments and an object, and pushes the result of the method call. */
+  static final int CALL_METHOD = 23;
+  /** Pops a collection, locks it, and starts iterating over it in slot {@code arg}. */
+  static final int ITERATE = 24;
+  /**
+   * Pushes the next element of the iteration in slot {@code arg}, or, once there is none, ends the
+   * iteration and jumps to the second operand.
+   */
+  static final int FOR_NEXT = 25;
+  /** Ends the iteration in slot {@code arg} before it is over, as {@code break} does. */
+  static final int END_LOOP = 26;
+  /** Pops a collection, and pushes its {@code arg} elements, the first one on top. */
+  static final int UNPACK = 27;
+  /** Pops a value, a key and an object, and sets the item of the object at the key. */
+  static final int SET_ITEM = 28;
+  /** Pushes a new list, to collect the elements of a list comprehension. */
+  static final int NEW_LIST = 29;
+  /** Pops a value, and adds it to the list being collected in slot {@code arg}. */
+  static final int LIST_APPEND = 30;
+  /** Pushes a Starlark list of the elements collected in slot {@code arg}, and clears the slot. */
+  static final int FINISH_LIST = 31;
+  /** Checks that the top of the stack can be a dict key. */
+  static final int CHECK_DICT_KEY = 32;
+  /** Pops a value and a key, and puts them in the dict being collected in slot {@code arg}. */
+  static final int DICT_PUT = 33;
+  /** Pushes the local in slot {@code arg}, and clears the slot. */
+  static final int TAKE_LOCAL = 34;
+  /** Returns the top of the stack. */
+  static final int RETURN = 35;
+
+  private static final Operator[] OPERATORS = Operator.values();
+  private static final UnaryOperator[] UNARY_OPERATORS = UnaryOperator.values();
+
+  private final String name;
+  private final int[] code;
+  private final Object[] constants;
+  /** The syntax node each instruction was compiled from, indexed like {@link #code}. */
+  private final ASTNode[] nodes;
+  /**
+   * The syntax nodes that would have been evaluating when each instruction raises an error,
+   * innermost first, indexed like {@link #code}.
+   */
+  private final ASTNode[][] errorPaths;
+  /** The names of the local variables, and null for the slots of loops and comprehensions. */
+  private final String[] localNames;
+  /** The slots that hold the iterations of loops. */
+  private final int[] loopSlots;
+  private final int maxStackDepth;
+
+  CompiledFunction(
+      String name,
+      int[] code,
+      Object[] constants,
+      ASTNode[] nodes,
+      ASTNode[][] errorPaths,
+      String[] localNames,
+      int[] loopSlots,
+      int maxStackDepth) {
+    this.name = name;
+    this.code = code;
+    this.constants = constants;
+    this.nodes = nodes;
+    this.errorPaths = errorPaths;
+    this.localNames = localNames;
+    this.loopSlots = loopSlots;
+    this.maxStackDepth = maxStackDepth;
+  }
+
+  /** Returns the number of slots of the local variables of a call. */
+  int getNumLocals() {
+    return localNames.length;
+  }
+
+  /** An iteration over a collection, locked while it is iterated. */
+  private static final class Loop {
+    private final Object collection;
+    private final Iterator<?> iterator;
+    private final Location location;
+
+    Loop(Object collection, Iterator<?> iterator, Location location) {
+      this.collection = collection;
+      this.iterator = iterator;
+      this.location = location;
+    }
+
+    void end() throws EvalException {
+      EvalUtils.unlock(collection, location);
+    }
+  }
+
+  /**
+   * Runs the function and returns its result.
+   *
+   * @param locals the slots of the local variables, with the values of the parameters in the first
+   *     ones
+   */
+  @SuppressWarnings("unchecked")
+  Object execute(Object[] locals, Environment env) throws EvalException, InterruptedException {
+    Object[] stack = new Object[maxStackDepth];
+    int sp = 0;
+    int pc = 0;
+    try {
+      while (true) {
+        int arg = code[pc + 1];
+        switch (code[pc]) {
+          case CONST:
+            stack[sp++] = constants[arg];
+            pc += 2;
+            break;
+          case LOAD_LOCAL:
+            {
+              Object value = locals[arg];
+              stack[sp++] = value != null ? value : lookup((Identifier) nodes[pc], locals, env);
+              pc += 2;
+              break;
+            }
+          case STORE_LOCAL:
+            locals[arg] = stack[--sp];
+            stack[sp] = null;
+            pc += 2;
+            break;
+          case DELETE_LOCAL:
+            locals[arg] = null;
+            pc += 2;
+            break;
+          case LOAD_GLOBAL:
+            stack[sp++] = lookup((Identifier) nodes[pc], locals, env);
+            pc += 2;
+            break;
+          case POP:
+            stack[--sp] = null;
+            pc += 2;
+            break;
+          case DUP2:
+            stack[sp] = stack[sp - 2];
+            stack[sp + 1] = stack[sp - 1];
+            sp += 2;
+            pc += 2;
+            break;
+          case ROT3:
+            {
+              Object third = stack[sp - 3];
+              stack[sp - 3] = stack[sp - 2];
+              stack[sp - 2] = stack[sp - 1];
+              stack[sp - 1] = third;
+              pc += 2;
+              break;
+            }
+          case UNARY:
+            stack[sp - 1] =
+                UnaryOperatorExpression.evaluate(
+                    UNARY_OPERATORS[arg], stack[sp - 1], nodes[pc].getLocation());
+            pc += 2;
+            break;
+          case BINARY:
+            sp--;
+            stack[sp - 1] =
+                BinaryOperatorExpression.evaluate(
+                    OPERATORS[arg], stack[sp - 1], stack[sp], env, nodes[pc].getLocation());
+            stack[sp] = null;
+            pc += 2;
+            break;
+          case AUGMENTED:
+            sp--;
+            stack[sp - 1] =
+                BinaryOperatorExpression.evaluateAugmented(
+                    OPERATORS[arg], stack[sp - 1], stack[sp], env, nodes[pc].getLocation());
+            stack[sp] = null;
+            pc += 2;
+            break;
+          case JUMP:
+            pc = arg;
+            break;
+          case JUMP_IF_FALSE:
+            pc = EvalUtils.toBoolean(stack[--sp]) ? pc + 2 : arg;
+            stack[sp] = null;
+            break;
+          case JUMP_IF_FALSE_OR_POP:
+            if (EvalUtils.toBoolean(stack[sp - 1])) {
+              stack[--sp] = null;
+              pc += 2;
+            } else {
+              pc = arg;
+            }
+            break;
+          case JUMP_IF_TRUE_OR_POP:
+            if (EvalUtils.toBoolean(stack[sp - 1])) {
+              pc = arg;
+            } else {
+              stack[--sp] = null;
+              pc += 2;
+            }
+            break;
+          case DOT:
+            {
+              stack[sp - 1] = ((DotExpression) nodes[pc]).evalField(stack[sp - 1], env);
+              pc += 2;
+              break;
+            }
+          case INDEX:
+            sp--;
+            stack[sp - 1] =
+                IndexExpression.evaluate(stack[sp - 1], stack[sp], env, nodes[pc].getLocation());
+            stack[sp] = null;
+            pc += 2;
+            break;
+          case SLICE:
+            sp -= 3;
+            stack[sp - 1] =
+                SliceExpression.evaluate(
+                    stack[sp - 1],
+                    stack[sp],
+                    stack[sp + 1],
+                    stack[sp + 2],
+                    nodes[pc].getLocation(),
+                    env);
+            Arrays.fill(stack, sp, sp + 3, null);
+            pc += 2;
+            break;
+          case LIST:
+            {
+              ArrayList<Object> list = new ArrayList<>(arg);
+              sp = popInto(stack, sp, arg, list);
+              stack[sp++] = MutableList.wrapUnsafe(env, list);
+              pc += 2;
+              break;
+            }
+          case TUPLE:
+            {
+              ArrayList<Object> list = new ArrayList<>(arg);
+              sp = popInto(stack, sp, arg, list);
+              stack[sp++] = Tuple.copyOf(list);
+              pc += 2;
+              break;
+            }
+          case NEW_DICT:
+            stack[sp++] = SkylarkDict.of(env);
+            pc += 2;
+            break;
+          case DICT_LITERAL_PUT:
+            {
+              SkylarkDict<Object, Object> dict = (SkylarkDict<Object, Object>) stack[sp - 3];
+              Object key = stack[sp - 2];
+              Location loc = nodes[pc].getLocation();
+              if (dict.containsKey(key)) {
+                throw new EvalException(
+                    loc, "Duplicated key " + Printer.repr(key) + " when creating dictionary");
+              }
+              dict.put(key, stack[sp - 1], loc, env);
+              stack[--sp] = null;
+              stack[--sp] = null;
+              pc += 2;
+              break;
+            }
+          case CALL:
+          case CALL_METHOD:
+            {
+              FuncallExpression call = (FuncallExpression) nodes[pc];
+              ArrayList<Object> posargs = new ArrayList<>();
+              Map<String, Object> kwargs = new LinkedHashMap<>();
+              sp -= arg;
+              call.collectArguments(stack, sp, posargs, kwargs);
+              Arrays.fill(stack, sp, sp + arg, null);
+              stack[sp - 1] =
+                  code[pc] == CALL
+                      ? call.callFunction(stack[sp - 1], posargs, kwargs, env)
+                      : call.invokeObjectMethod(stack[sp - 1], posargs, kwargs, env);
+              pc += 2;
+              break;
+            }
+          case ITERATE:
+            {
+              Object collection = stack[--sp];
+              stack[sp] = null;
+              Location loc = nodes[pc].getLocation();
+              Iterable<?> iterable = EvalUtils.toIterable(collection, loc, env);
+              EvalUtils.lock(collection, loc);
+              locals[arg] = new Loop(collection, iterable.iterator(), loc);
+              pc += 2;
+              break;
+            }
+          case FOR_NEXT:
+            {
+              Loop loop = (Loop) locals[arg];
+              if (loop.iterator.hasNext()) {
+                stack[sp++] = loop.iterator.next();
+                pc += 3;
+              } else {
+                locals[arg] = null;
+                loop.end();
+                pc = code[pc + 2];
+              }
+              break;
+            }
+          case END_LOOP:
+            {
+              Loop loop = (Loop) locals[arg];
+              locals[arg] = null;
+              loop.end();
+              pc += 2;
+              break;
+            }
+          case UNPACK:
+            {
+              Object value = stack[--sp];
+              sp = unpack(value, arg, stack, sp, nodes[pc].getLocation(), env);
+              pc += 2;
+              break;
+            }
+          case SET_ITEM:
+            sp -= 3;
+            LValue.assignItem(
+                stack[sp], stack[sp + 1], stack[sp + 2], env, nodes[pc].getLocation());
+            Arrays.fill(stack, sp, sp + 3, null);
+            pc += 2;
+            break;
+          case NEW_LIST:
+            stack[sp++] = new ArrayList<>();
+            pc += 2;
+            break;
+          case LIST_APPEND:
+            ((List<Object>) locals[arg]).add(stack[--sp]);
+            stack[sp] = null;
+            pc += 2;
+            break;
+          case FINISH_LIST:
+            stack[sp++] = MutableList.copyOf(env, (List<Object>) locals[arg]);
+            locals[arg] = null;
+            pc += 2;
+            break;
+          case CHECK_DICT_KEY:
+            EvalUtils.checkValidDictKey(stack[sp - 1]);
+            pc += 2;
+            break;
+          case DICT_PUT:
+            sp -= 2;
+            ((SkylarkDict<Object, Object>) locals[arg])
+                .put(stack[sp], stack[sp + 1], nodes[pc].getLocation(), env);
+            stack[sp] = null;
+            stack[sp + 1] = null;
+            pc += 2;
+            break;
+          case TAKE_LOCAL:
+            stack[sp++] = locals[arg];
+            locals[arg] = null;
+            pc += 2;
+            break;
+          case RETURN:
+            return stack[sp - 1];
+          default:
+            throw new IllegalStateException("Unknown opcode " + code[pc] + " in " + name);
+        }
+      }
+    } catch (EvalException e) {
+      for (ASTNode node : errorPaths[pc]) {
+        e = node.maybeTransformException(e);
+      }
+      throw e;
+    } finally {
+      endLoops(locals);
+    }
+  }
+
+  /** Pops {@code count} values into {@code list}, in the order they were pushed. */
+  private static int popInto(Object[] stack, int sp, int count, List<Object> list) {
+    int start = sp - count;
+    for (int i = start; i < sp; i++) {
+      list.add(stack[i]);
+      stack[i] = null;
+    }
+    return start;
+  }
+
+  /** Pushes the elements of {@code value}, the first one on top, as {@link LValue} assigns them. */
+  private static int unpack(
+      Object value, int count, Object[] stack, int sp, Location loc, Environment env)
+      throws EvalException {
+    Collection<?> collection = EvalUtils.toCollection(value, loc, env);
+    if (count != collection.size()) {
+      throw new EvalException(
+          loc,
+          String.format(
+              "assignment length mismatch: left-hand side has length %d, but right-hand side "
+                  + "evaluates to value of length %d",
+              count, collection.size()));
+    }
+    int i = sp + count;
+    for (Object item : collection) {
+      stack[--i] = item;
+    }
+    return sp + count;
+  }
+
+  /**
+   * Evaluates an identifier that is not bound in the slots, in the enclosing scopes of the call.
+   *
+   * <p>The error for an unknown name suggests the names in scope, so the local variables are
+   * copied to the frame of the call before evaluating the identifier again to report it.
+   */
+  private Object lookup(Identifier identifier, Object[] locals, Environment env)
+      throws EvalException, InterruptedException {
+    try {
+      return identifier.eval(env);
+    } catch (EvalException e) {
+      copyLocalsToFrame(locals, env);
+      return identifier.eval(env);
+    }
+  }
+
+  private void copyLocalsToFrame(Object[] locals, Environment env) throws EvalException {
+    for (int i = 0; i < localNames.length; i++) {
+      if (localNames[i] != null && locals[i] != null) {
+        env.update(localNames[i], locals[i]);
+      }
+    }
+  }
+
+  /** Unlocks the collections of the loops the function left early, by returning or failing. */
+  private void endLoops(Object[] locals) throws EvalException {
+    for (int slot : loopSlots) {
+      Loop loop = (Loop) locals[slot];
+      if (loop != null) {
+        locals[slot] = null;
+        loop.end();
+      }
+    }
+  }
+}
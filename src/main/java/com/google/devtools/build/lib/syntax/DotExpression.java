@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.syntax;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.util.SpellChecker;
 import java.io.IOException;
+import javax.annotation.Nullable;
 
 /** Syntax node for a dot expression. e.g. obj.field, but not obj.method() */
 public final class DotExpression extends Expression {
@@ -24,6 +25,9 @@ public final class DotExpression extends Expression {
 
   private final Identifier field;
 
+  /** The struct field methods of the objects, created by the first evaluation. */
+  @Nullable private transient volatile CallSiteCache callSiteCache;
+
   public DotExpression(Expression object, Identifier field) {
     this.object = object;
     this.field = field;
@@ -46,9 +50,22 @@ public final class DotExpression extends Expression {
 
   @Override
   Object doEval(Environment env) throws EvalException, InterruptedException {
-    Object objValue = object.eval(env);
+    return evalField(object.eval(env), env);
+  }
+
+  /** Returns the field of the value of the object, or throws if there is no such field. */
+  Object evalField(Object objValue, Environment env) throws EvalException, InterruptedException {
+    CallSiteCache cache = callSiteCache;
+    if (cache == null) {
+      // Racing evaluations may each create a cache, only one of which is kept.
+      callSiteCache = cache = new CallSiteCache(field.getName());
+    }
+    MethodDescriptor method =
+        cache.getMethod(
+            env.getSemantics(),
+            objValue instanceof Class<?> ? (Class<?>) objValue : objValue.getClass());
     String name = field.getName();
-    Object result = eval(objValue, name, getLocation(), env);
+    Object result = eval(objValue, method, name, getLocation(), env);
     return checkResult(objValue, result, name, getLocation(), env.getSemantics());
   }
 
@@ -120,7 +137,17 @@ public final class DotExpression extends Expression {
         objValue instanceof Class<?>
             ? FuncallExpression.getMethod(env.getSemantics(), (Class<?>) objValue, name)
             : FuncallExpression.getMethod(env.getSemantics(), objValue.getClass(), name);
+    return eval(objValue, method, name, loc, env);
+  }
 
+  /** Like {@link #eval(Object, String, Location, Environment)}, for the method named by name. */
+  private static Object eval(
+      Object objValue,
+      @Nullable MethodDescriptor method,
+      String name,
+      Location loc,
+      Environment env)
+      throws EvalException, InterruptedException {
     if (method != null && method.isStructField()) {
       return method
           .call(
@@ -155,6 +155,11 @@ public final class Environment implements Freezable, Debuggable {
       Preconditions.checkState(!mutability.isFrozen());
       return new MutableLexicalFrame(mutability, /*initialCapacity=*/ numArgs);
     }
+
+    static LexicalFrame create(Mutability mutability, FrameLayout layout) {
+      Preconditions.checkState(!mutability.isFrozen());
+      return new ArrayLexicalFrame(mutability, layout);
+    }
   }
 
   private static final class ImmutableEmptyLexicalFrame implements LexicalFrame {
@@ -243,6 +248,86 @@ public final class Environment implements Freezable, Debuggable {
     }
   }
 
+  /**
+   * A {@link LexicalFrame} for a call of a function whose local variables have been resolved to
+   * slots of a {@link FrameLayout}: the identifiers of the function read and write the slots
+   * directly, while lookups by name go through the layout.
+   */
+  private static final class ArrayLexicalFrame implements LexicalFrame {
+    private final Mutability mutability;
+    private final FrameLayout layout;
+    /** The values of the variables, by slot, null for the unbound ones. */
+    private final Object[] values;
+    /** Bindings of names the layout does not know about, created lazily. */
+    @Nullable private LinkedHashMap<String, Object> otherBindings;
+
+    private ArrayLexicalFrame(Mutability mutability, FrameLayout layout) {
+      this.mutability = mutability;
+      this.layout = layout;
+      this.values = new Object[layout.size()];
+    }
+
+    @Override
+    public Mutability mutability() {
+      return mutability;
+    }
+
+    @Nullable
+    @Override
+    public Object get(String varname) {
+      int slot = layout.getSlot(varname);
+      if (slot >= 0) {
+        return values[slot];
+      }
+      return otherBindings == null ? null : otherBindings.get(varname);
+    }
+
+    @Override
+    public void put(Environment env, String varname, Object value) throws MutabilityException {
+      Mutability.checkMutable(this, env.mutability());
+      int slot = layout.getSlot(varname);
+      if (slot >= 0) {
+        values[slot] = value;
+      } else {
+        if (otherBindings == null) {
+          otherBindings = new LinkedHashMap<>();
+        }
+        otherBindings.put(varname, value);
+      }
+    }
+
+    @Override
+    public void remove(Environment env, String varname) throws MutabilityException {
+      Mutability.checkMutable(this, env.mutability());
+      int slot = layout.getSlot(varname);
+      if (slot >= 0) {
+        values[slot] = null;
+      } else if (otherBindings != null) {
+        otherBindings.remove(varname);
+      }
+    }
+
+    @Override
+    public Map<String, Object> getTransitiveBindings() {
+      // Bindings are in the order of the slots rather than of creation.
+      LinkedHashMap<String, Object> bindings = new LinkedHashMap<>();
+      for (int slot = 0; slot < values.length; slot++) {
+        if (values[slot] != null) {
+          bindings.put(layout.getName(slot), values[slot]);
+        }
+      }
+      if (otherBindings != null) {
+        bindings.putAll(otherBindings);
+      }
+      return bindings;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("<ArrayLexicalFrame%s>", mutability());
+    }
+  }
+
   /**
    * A {@link Frame} that represents the top-level definitions of a file. It contains the
    * module-scope variables and has a reference to the universe.
@@ -1098,6 +1183,27 @@ public final class Environment implements Freezable, Debuggable {
     return this;
   }
 
+  /**
+   * Binds a variable to a value, as would an {@link AssignmentStatement}. The slot of the variable
+   * is used when the current frame has the layout it was resolved in.
+   */
+  void update(Identifier ident, Object value) throws EvalException {
+    if (lexicalFrame instanceof ArrayLexicalFrame) {
+      ArrayLexicalFrame frame = (ArrayLexicalFrame) lexicalFrame;
+      if (frame.layout == ident.getFrameLayout()) {
+        Preconditions.checkNotNull(value, "trying to assign null to '%s'", ident.getName());
+        try {
+          Mutability.checkMutable(frame, mutability());
+        } catch (MutabilityException e) {
+          throw new AssertionError(e);
+        }
+        frame.values[ident.getSlot()] = value;
+        return;
+      }
+    }
+    updateAndExport(ident.getName(), value);
+  }
+
   /**
    * Initializes a binding in this Environment. It is an error if the variable is already bound.
    * This is not for end-users, and will throw an AssertionError in case of conflict.
@@ -1137,6 +1243,17 @@ public final class Environment implements Freezable, Debuggable {
     return lexicalFrame.get(varname);
   }
 
+  /** Like {@link #localLookup(String)}, but reads the slot of the variable if it has one. */
+  Object localLookup(Identifier ident) {
+    if (lexicalFrame instanceof ArrayLexicalFrame) {
+      ArrayLexicalFrame frame = (ArrayLexicalFrame) lexicalFrame;
+      if (frame.layout == ident.getFrameLayout()) {
+        return frame.values[ident.getSlot()];
+      }
+    }
+    return lexicalFrame.get(ident.getName());
+  }
+
   /**
    * Returns the value of a variable defined in the Module scope (e.g. global variables, functions).
    */
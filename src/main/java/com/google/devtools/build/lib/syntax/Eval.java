@@ -46,13 +46,20 @@ public class Eval {
     Eval.evalSupplier = evalSupplier;
   }
 
+  /** Returns whether a custom Eval supplier, like the one of the debugger, is installed. */
+  static boolean hasCustomEval() {
+    return evalSupplier != DEFAULT_EVAL_SUPPLIER;
+  }
+
   /** Reset Eval supplier to the default. */
   public static void removeCustomEval() {
-    evalSupplier = Eval::new;
+    evalSupplier = DEFAULT_EVAL_SUPPLIER;
   }
 
+  private static final Function<Environment, Eval> DEFAULT_EVAL_SUPPLIER = Eval::new;
+
   // TODO(bazel-team): remove this static state in favor of storing Eval instances in Environment
-  private static Function<Environment, Eval> evalSupplier = Eval::new;
+  private static Function<Environment, Eval> evalSupplier = DEFAULT_EVAL_SUPPLIER;
 
   private static final FlowException breakException = new FlowException("FlowException - break");
   private static final FlowException continueException =
@@ -127,7 +134,8 @@ public class Eval {
             node.getIdentifier().getLocation(),
             FunctionSignature.WithValues.create(sig, defaultValues, /*types=*/ null),
             node.getStatements(),
-            env.getGlobals()));
+            env.getGlobals(),
+            node.getFrameLayout()));
   }
 
   void execIf(IfStatement node) throws EvalException, InterruptedException {
@@ -0,0 +1,64 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The local variables of a function, as resolved by {@link ValidationEnvironment}: each one has a
+ * slot in the array of the {@link Environment.LexicalFrame} of a call of the function.
+ *
+ * <p>The parameters come first, in the order of the signature of the function. The variables of
+ * comprehensions in the body share the slots of the function, as they share its frame.
+ *
+ * <p>A layout is only added to while the function is validated.
+ */
+final class FrameLayout implements Serializable {
+  private final List<String> names = new ArrayList<>();
+  private final Map<String, Integer> slots = new HashMap<>();
+
+  /** Returns the slot of {@code name}, adding one if it has none yet. */
+  int add(String name) {
+    Integer slot = slots.get(name);
+    if (slot == null) {
+      slot = names.size();
+      names.add(name);
+      slots.put(name, slot);
+    }
+    return slot;
+  }
+
+  /** Returns the slot of {@code name}, or -1 if it has none. */
+  int getSlot(String name) {
+    Integer slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  String getName(int slot) {
+    return names.get(slot);
+  }
+
+  int size() {
+    return names.size();
+  }
+
+  @Override
+  public String toString() {
+    return "FrameLayout" + names;
+  }
+}
@@ -234,6 +234,9 @@ public final class FuncallExpression extends Expression {
 
   private final int numPositionalArgs;
 
+  /** The methods called by this expression if it is a method call, created by the first call. */
+  @Nullable private transient volatile CallSiteCache callSiteCache;
+
   public FuncallExpression(Expression function, ImmutableList<Argument.Passed> arguments) {
     this.function = Preconditions.checkNotNull(function);
     this.arguments = Preconditions.checkNotNull(arguments);
@@ -497,6 +500,13 @@ public final class FuncallExpression extends Expression {
     Preconditions.checkArgument(!method.isStructField(),
         "struct field methods should be handled by DotExpression separately");
 
+    if (kwargs.isEmpty()) {
+      Object[] javaArguments = convertPositionalArguments(method, args, environment);
+      if (javaArguments != null) {
+        return javaArguments;
+      }
+    }
+
     ImmutableList<ParamDescriptor> parameters = method.getParameters();
     ImmutableList.Builder<Object> builder =
         ImmutableList.builderWithExpectedSize(parameters.size() + EXTRA_ARGS_COUNT);
@@ -610,6 +620,83 @@ public final class FuncallExpression extends Expression {
     return builder.build().toArray();
   }
 
+  /**
+   * Like {@link #convertStarlarkArgumentsToJavaMethodArguments}, for the common calls with only
+   * positional arguments that match the parameters of the method, without the bookkeeping of
+   * keyword and extra arguments.
+   *
+   * @return the array of arguments, or null if the call needs the general conversion, which also
+   *     reports errors
+   */
+  @Nullable
+  private Object[] convertPositionalArguments(
+      MethodDescriptor method, List<Object> args, Environment environment) {
+    if (method.isAcceptsExtraArgs() || method.isAcceptsExtraKwargs()) {
+      return null;
+    }
+    ImmutableList<ParamDescriptor> parameters = method.getParameters();
+    int numExtraInterpreterArgs =
+        (method.isUseLocation() ? 1 : 0)
+            + (method.isUseAst() ? 1 : 0)
+            + (method.isUseEnvironment() ? 1 : 0)
+            + (method.isUseSkylarkSemantics() ? 1 : 0)
+            + (method.isUseContext() ? 1 : 0);
+    Object[] javaArguments = new Object[parameters.size() + numExtraInterpreterArgs];
+    int argIndex = 0;
+    for (int i = 0; i < parameters.size(); ++i) {
+      ParamDescriptor param = parameters.get(i);
+      Object value;
+      if (param.isDisabledInCurrentSemantics()) {
+        javaArguments[i] =
+            SkylarkSignatureProcessor.getDefaultValue(
+                param.getName(), param.getValueOverride(), null);
+        continue;
+      }
+      if (argIndex < args.size()) {
+        if (!param.isPositional()) {
+          return null;
+        }
+        value = args.get(argIndex++);
+        if (!param.getSkylarkType().contains(value)) {
+          return null;
+        }
+      } else {
+        if (param.getDefaultValue().isEmpty()) {
+          return null;
+        }
+        value =
+            SkylarkSignatureProcessor.getDefaultValue(
+                param.getName(), param.getDefaultValue(), null);
+      }
+      if (!param.isNoneable() && value instanceof NoneType) {
+        return null;
+      }
+      javaArguments[i] = value;
+    }
+    if (argIndex < args.size()) {
+      return null;
+    }
+
+    // Same as appendExtraInterpreterArgs.
+    int i = parameters.size();
+    if (method.isUseLocation()) {
+      javaArguments[i++] = getLocation();
+    }
+    if (method.isUseAst()) {
+      javaArguments[i++] = this;
+    }
+    if (method.isUseEnvironment()) {
+      javaArguments[i++] = environment;
+    }
+    if (method.isUseSkylarkSemantics()) {
+      javaArguments[i++] = environment.getSemantics();
+    }
+    if (method.isUseContext()) {
+      javaArguments[i++] = environment.getStarlarkContext();
+    }
+    return javaArguments;
+  }
+
   private EvalException unspecifiedParameterException(
       ParamDescriptor param,
       MethodDescriptor method,
@@ -819,7 +906,6 @@ public final class FuncallExpression extends Expression {
    *     without memory overhead
    * @param env the current environment
    */
-  @SuppressWarnings("unchecked")
   private void evalArguments(
       List<Object> posargs, Map<String, Object> kwargs, Environment env)
       throws EvalException, InterruptedException {
@@ -835,35 +921,72 @@ public final class FuncallExpression extends Expression {
     for (int i = 0; i < arguments.size(); i++) {
       Argument.Passed arg = arguments.get(i);
       Object value = arg.getValue().eval(env);
-      if (arg.isPositional()) {
-        posargs.add(value);
-      } else if (arg.isStar()) { // expand the starArg
-        if (!(value instanceof Iterable)) {
-          throw new EvalException(
-              getLocation(),
-              "argument after * must be an iterable, not " + EvalUtils.getDataTypeName(value));
-        }
-        for (Object starArgUnit : (Iterable<Object>) value) {
-          posargs.add(starArgUnit);
-        }
-      } else if (arg.isStarStar()) { // expand the kwargs
-        ImmutableList<String> duplicates =
-            addKeywordArgsAndReturnDuplicates(kwargs, value, getLocation());
-        if (duplicates != null) {
-          if (duplicatesBuilder == null) {
-            duplicatesBuilder = ImmutableList.builder();
-          }
-          duplicatesBuilder.addAll(duplicates);
+      duplicatesBuilder = addArgument(arg, value, posargs, kwargs, duplicatesBuilder);
+    }
+    checkNoDuplicateKeywords(duplicatesBuilder);
+  }
+
+  /**
+   * Like {@link #evalArguments}, for the values of the arguments that were already evaluated, in
+   * order, as {@code values[offset]} to {@code values[offset + getArguments().size() - 1]}.
+   */
+  void collectArguments(
+      Object[] values, int offset, List<Object> posargs, Map<String, Object> kwargs)
+      throws EvalException {
+    ImmutableList.Builder<String> duplicatesBuilder = null;
+    for (int i = 0; i < arguments.size(); i++) {
+      duplicatesBuilder =
+          addArgument(arguments.get(i), values[offset + i], posargs, kwargs, duplicatesBuilder);
+    }
+    checkNoDuplicateKeywords(duplicatesBuilder);
+  }
+
+  /**
+   * Adds the value of an argument to {@code posargs} or {@code kwargs}, and returns {@code
+   * duplicatesBuilder}, or a new builder if it was null and the argument is a duplicate keyword.
+   */
+  @SuppressWarnings("unchecked")
+  @Nullable
+  private ImmutableList.Builder<String> addArgument(
+      Argument.Passed arg,
+      Object value,
+      List<Object> posargs,
+      Map<String, Object> kwargs,
+      @Nullable ImmutableList.Builder<String> duplicatesBuilder)
+      throws EvalException {
+    if (arg.isPositional()) {
+      posargs.add(value);
+    } else if (arg.isStar()) { // expand the starArg
+      if (!(value instanceof Iterable)) {
+        throw new EvalException(
+            getLocation(),
+            "argument after * must be an iterable, not " + EvalUtils.getDataTypeName(value));
+      }
+      for (Object starArgUnit : (Iterable<Object>) value) {
+        posargs.add(starArgUnit);
+      }
+    } else if (arg.isStarStar()) { // expand the kwargs
+      ImmutableList<String> duplicates =
+          addKeywordArgsAndReturnDuplicates(kwargs, value, getLocation());
+      if (duplicates != null) {
+        if (duplicatesBuilder == null) {
+          duplicatesBuilder = ImmutableList.builder();
         }
-      } else {
-        if (addKeywordArgAndCheckIfDuplicate(kwargs, arg.getName(), value)) {
-          if (duplicatesBuilder == null) {
-            duplicatesBuilder = ImmutableList.builder();
-          }
-          duplicatesBuilder.add(arg.getName());
+        duplicatesBuilder.addAll(duplicates);
+      }
+    } else {
+      if (addKeywordArgAndCheckIfDuplicate(kwargs, arg.getName(), value)) {
+        if (duplicatesBuilder == null) {
+          duplicatesBuilder = ImmutableList.builder();
         }
+        duplicatesBuilder.add(arg.getName());
       }
     }
+    return duplicatesBuilder;
+  }
+
+  private void checkNoDuplicateKeywords(@Nullable ImmutableList.Builder<String> duplicatesBuilder)
+      throws EvalException {
     if (duplicatesBuilder != null) {
       ImmutableList<String> dups = duplicatesBuilder.build();
       throw new EvalException(
@@ -906,10 +1029,21 @@ public final class FuncallExpression extends Expression {
   private Object invokeObjectMethod(Environment env, DotExpression dot)
       throws EvalException, InterruptedException {
     Object objValue = dot.getObject().eval(env);
-    String methodName = dot.getField().getName();
     ArrayList<Object> posargs = new ArrayList<>();
     Map<String, Object> kwargs = new LinkedHashMap<>();
     evalArguments(posargs, kwargs, env);
+    return invokeObjectMethod(objValue, posargs, kwargs, env);
+  }
+
+  /**
+   * Invokes object.function(), where the function expression is a {@link DotExpression}, for the
+   * value of the object and the values of the arguments.
+   */
+  Object invokeObjectMethod(
+      Object objValue, ArrayList<Object> posargs, Map<String, Object> kwargs, Environment env)
+      throws EvalException, InterruptedException {
+    DotExpression dot = (DotExpression) function;
+    String methodName = dot.getField().getName();
 
     // Case 1: Object is a String. String is an unusual special case.
     if (objValue instanceof String) {
@@ -921,7 +1055,7 @@ public final class FuncallExpression extends Expression {
     // java method 'bar()', this avoids evaluating 'foo.bar' in isolation (which would require
     // creating a throwaway function-like object).
     MethodDescriptor methodDescriptor =
-        FuncallExpression.getMethod(env.getSemantics(), objValue.getClass(), methodName);
+        getCallSiteCache(methodName).getMethod(env.getSemantics(), objValue.getClass());
     if (methodDescriptor != null && !methodDescriptor.isStructField()) {
       Object[] javaArguments = convertStarlarkArgumentsToJavaMethodArguments(
           methodDescriptor, objValue.getClass(), posargs, kwargs, env);
@@ -948,6 +1082,15 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  private CallSiteCache getCallSiteCache(String methodName) {
+    CallSiteCache cache = callSiteCache;
+    if (cache == null) {
+      // Racing calls may each create a cache, only one of which is kept.
+      callSiteCache = cache = new CallSiteCache(methodName);
+    }
+    return cache;
+  }
+
   private Object callLegacyBuiltinRegistryFunction(BaseFunction legacyRuntimeFunction,
       Object objValue, ArrayList<Object> posargs, Map<String, Object> kwargs, Environment env)
       throws EvalException, InterruptedException {
@@ -964,7 +1107,8 @@ public final class FuncallExpression extends Expression {
     // to StringModule, and thus need to include the actual string as a 'self' parameter.
     posargs.add(0, objValue);
 
-    MethodDescriptor method = getMethod(env.getSemantics(), StringModule.class, methodName);
+    MethodDescriptor method =
+        getCallSiteCache(methodName).getMethod(env.getSemantics(), StringModule.class);
     if (method == null) {
       throw missingMethodException(StringModule.class, methodName);
     }
@@ -981,7 +1125,7 @@ public final class FuncallExpression extends Expression {
    * @throws EvalException if funcValue is not a callable object or if invalid arguments are
    *     given
    */
-  private Object callFunction(Object funcValue,
+  Object callFunction(Object funcValue,
       ArrayList<Object> posargs, Map<String, Object> kwargs, Environment env)
       throws EvalException, InterruptedException {
 
@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.syntax;
 
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
+import javax.annotation.Nullable;
 
 /** Syntax node for a function definition. */
 public final class FunctionDefStatement extends Statement {
@@ -23,6 +24,9 @@ public final class FunctionDefStatement extends Statement {
   private final FunctionSignature.WithValues<Expression, Expression> signature;
   private final ImmutableList<Statement> statements;
   private final ImmutableList<Parameter<Expression, Expression>> parameters;
+  // The slots of the local variables. The value is set when the AST has been analysed by
+  // ValidationEnvironment.
+  @Nullable private FrameLayout frameLayout;
 
   public FunctionDefStatement(Identifier identifier,
       Iterable<Parameter<Expression, Expression>> parameters,
@@ -71,6 +75,16 @@ public final class FunctionDefStatement extends Statement {
     return signature;
   }
 
+  /** Returns the layout of the frames of calls, or null if the function was not validated. */
+  @Nullable
+  FrameLayout getFrameLayout() {
+    return frameLayout;
+  }
+
+  void setFrameLayout(FrameLayout frameLayout) {
+    this.frameLayout = frameLayout;
+  }
+
   @Override
   public void accept(SyntaxTreeVisitor visitor) {
     visitor.visit(this);
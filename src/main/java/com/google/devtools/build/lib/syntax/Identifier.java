@@ -20,9 +20,6 @@ import java.io.IOException;
 import java.util.Set;
 import javax.annotation.Nullable;
 
-// TODO(bazel-team): For performance, avoid doing HashMap lookups at runtime, and compile local
-// variable access into array reference with a constant index. Variable lookups are currently a
-// speed bottleneck, as previously measured in an experiment.
 /**
  * Syntax node for an identifier.
  *
@@ -36,6 +33,10 @@ public final class Identifier extends Expression {
   // The scope of the variable. The value is set when the AST has been analysed by
   // ValidationEnvironment.
   @Nullable private ValidationEnvironment.Scope scope;
+  // The layout of the frame of the function that this local variable belongs to, and the slot of
+  // the variable in it. Set by ValidationEnvironment for the variables of functions.
+  @Nullable private FrameLayout frameLayout;
+  private int slot = -1;
 
   public Identifier(String name) {
     this.name = name;
@@ -78,6 +79,22 @@ public final class Identifier extends Expression {
     this.scope = scope;
   }
 
+  void setSlot(FrameLayout frameLayout, int slot) {
+    this.frameLayout = frameLayout;
+    this.slot = slot;
+  }
+
+  /** Returns the layout of the frame that holds this variable, or null if it has no slot. */
+  @Nullable
+  FrameLayout getFrameLayout() {
+    return frameLayout;
+  }
+
+  /** Returns the slot of this variable in {@link #getFrameLayout}. */
+  int getSlot() {
+    return slot;
+  }
+
   @Override
   Object doEval(Environment env) throws EvalException {
     Object result;
@@ -92,7 +109,7 @@ public final class Identifier extends Expression {
 
     switch (scope) {
       case Local:
-        result = env.localLookup(name);
+        result = env.localLookup(this);
         break;
       case Module:
         result = env.moduleLookup(name);
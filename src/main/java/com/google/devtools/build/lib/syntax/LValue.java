@@ -89,7 +89,7 @@ public final class LValue extends ASTNode {
   /** Binds a variable to the given value in the environment. */
   private static void assignIdentifier(Identifier ident, Object value, Environment env)
       throws EvalException {
-    env.updateAndExport(ident.getName(), value);
+    env.update(ident, value);
   }
 
   /**
@@ -100,7 +100,7 @@ public final class LValue extends ASTNode {
    * @throws EvalException if the object is not a list or dict
    */
   @SuppressWarnings("unchecked")
-  private static void assignItem(
+  static void assignItem(
       Object object, Object key, Object value, Environment env, Location loc)
       throws EvalException {
     if (object instanceof SkylarkDict) {
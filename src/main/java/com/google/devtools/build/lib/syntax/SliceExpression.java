@@ -75,8 +75,21 @@ public final class SliceExpression extends Expression {
     Object startValue = start == null ? Runtime.NONE : start.eval(env);
     Object endValue = end == null ? Runtime.NONE : end.eval(env);
     Object stepValue = step == null ? Runtime.NONE : step.eval(env);
-    Location loc = getLocation();
+    return evaluate(objValue, startValue, endValue, stepValue, getLocation(), env);
+  }
 
+  /**
+   * Returns the slice of {@code objValue} for the values of the start, end and step expressions,
+   * which are {@link Runtime#NONE} when the expressions are missing.
+   */
+  static Object evaluate(
+      Object objValue,
+      Object startValue,
+      Object endValue,
+      Object stepValue,
+      Location loc,
+      Environment env)
+      throws EvalException {
     if (objValue instanceof SkylarkList) {
       return ((SkylarkList<?>) objValue).getSlice(
           startValue, endValue, stepValue, loc, env.mutability());
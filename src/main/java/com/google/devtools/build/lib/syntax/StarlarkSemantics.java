@@ -133,6 +133,8 @@ public abstract class StarlarkSemantics {
 
   public abstract boolean experimentalPlatformsApi();
 
+  public abstract boolean experimentalStarlarkBytecode();
+
   public abstract boolean experimentalStarlarkConfigTransitions();
 
   public abstract boolean experimentalStarlarkUnusedInputsList();
@@ -225,6 +227,7 @@ public abstract class StarlarkSemantics {
           .experimentalGoogleLegacyApi(false)
           .experimentalJavaCommonCreateProviderEnabledPackages(ImmutableList.of())
           .experimentalPlatformsApi(false)
+          .experimentalStarlarkBytecode(false)
           .experimentalStarlarkConfigTransitions(true)
           .experimentalStarlarkUnusedInputsList(false)
           .incompatibleBzlDisallowLoadAfterStatement(true)
@@ -281,6 +284,8 @@ public abstract class StarlarkSemantics {
 
     public abstract Builder experimentalPlatformsApi(boolean value);
 
+    public abstract Builder experimentalStarlarkBytecode(boolean value);
+
     public abstract Builder experimentalStarlarkConfigTransitions(boolean value);
 
     public abstract Builder experimentalStarlarkUnusedInputsList(boolean value);
@@ -21,6 +21,7 @@ import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.profiler.SilentCloseable;
 import com.google.devtools.build.lib.skylarkinterface.SkylarkPrinter;
 import com.google.devtools.build.lib.syntax.Environment.LexicalFrame;
+import javax.annotation.Nullable;
 
 /**
  * The actual function registered in the environment. This function is defined in the parsed code
@@ -33,15 +34,37 @@ public class UserDefinedFunction extends BaseFunction {
   // we close over the globals at the time of definition
   private final Environment.GlobalFrame definitionGlobals;
 
+  /** The slots of the local variables, or null if the body was not validated. */
+  @Nullable private final FrameLayout frameLayout;
+
+  /**
+   * The compiled body, {@link #NOT_COMPILABLE} if the body cannot be compiled, or null until the
+   * function is first called with {@link StarlarkSemantics#experimentalStarlarkBytecode}.
+   */
+  @Nullable private transient volatile Object compiledFunction;
+
+  private static final Object NOT_COMPILABLE = new Object();
+
   public UserDefinedFunction(
       String name,
       Location location,
       FunctionSignature.WithValues<Object, SkylarkType> signature,
       ImmutableList<Statement> statements,
       Environment.GlobalFrame definitionGlobals) {
+    this(name, location, signature, statements, definitionGlobals, /*frameLayout=*/ null);
+  }
+
+  UserDefinedFunction(
+      String name,
+      Location location,
+      FunctionSignature.WithValues<Object, SkylarkType> signature,
+      ImmutableList<Statement> statements,
+      Environment.GlobalFrame definitionGlobals,
+      @Nullable FrameLayout frameLayout) {
     super(name, signature, location);
     this.statements = statements;
     this.definitionGlobals = definitionGlobals;
+    this.frameLayout = frameLayout;
   }
 
   public ImmutableList<Statement> getStatements() {
@@ -65,7 +88,16 @@ public class UserDefinedFunction extends BaseFunction {
     }
 
     ImmutableList<String> names = signature.getSignature().getNames();
-    LexicalFrame lexicalFrame = LexicalFrame.create(env.mutability(), /*numArgs=*/ names.size());
+    CompiledFunction compiled = getCompiledFunction(env);
+    if (compiled != null) {
+      return callCompiled(compiled, names.size(), arguments, ast, env);
+    }
+    // A custom Eval, like the one of the debugger, may look up and bind variables of the frame by
+    // name, so it keeps the frame that holds them in order of creation.
+    LexicalFrame lexicalFrame =
+        frameLayout != null && !Eval.hasCustomEval()
+            ? LexicalFrame.create(env.mutability(), frameLayout)
+            : LexicalFrame.create(env.mutability(), /*numArgs=*/ names.size());
     try (SilentCloseable c =
         Profiler.instance().profile(ProfilerTask.STARLARK_USER_FN, getName())) {
       env.enterScope(this, lexicalFrame, ast, definitionGlobals);
@@ -100,6 +132,48 @@ public class UserDefinedFunction extends BaseFunction {
     }
   }
 
+  /**
+   * Returns the compiled body of the function, or null if it must be interpreted: when the
+   * semantics do not enable compilation, when the body cannot be compiled, or when evaluation is
+   * observed through the callstack or a custom {@link Eval}, like the one of the debugger, which
+   * need the syntax tree to be evaluated node by node.
+   */
+  @Nullable
+  private CompiledFunction getCompiledFunction(Environment env) {
+    if (!env.getSemantics().experimentalStarlarkBytecode()
+        || Callstack.enabled
+        || Eval.hasCustomEval()) {
+      return null;
+    }
+    Object compiled = compiledFunction;
+    if (compiled == null) {
+      // Compiling twice in concurrent first calls is harmless.
+      compiled = BytecodeCompiler.compile(this);
+      compiledFunction = compiled = compiled != null ? compiled : NOT_COMPILABLE;
+    }
+    return compiled != NOT_COMPILABLE ? (CompiledFunction) compiled : null;
+  }
+
+  private Object callCompiled(
+      CompiledFunction compiled,
+      int numParameters,
+      Object[] arguments,
+      FuncallExpression ast,
+      Environment env)
+      throws EvalException, InterruptedException {
+    Object[] locals = new Object[compiled.getNumLocals()];
+    System.arraycopy(arguments, 0, locals, 0, numParameters);
+    try (SilentCloseable c =
+        Profiler.instance().profile(ProfilerTask.STARLARK_USER_FN, getName())) {
+      // The local variables live in the slots, the frame only holds them to report an error.
+      env.enterScope(
+          this, LexicalFrame.create(env.mutability(), /*numArgs=*/ 0), ast, definitionGlobals);
+      return compiled.execute(locals, env);
+    } finally {
+      env.exitScope();
+    }
+  }
+
   @Override
   public void repr(SkylarkPrinter printer) {
     Label label = this.definitionGlobals.getLabel();
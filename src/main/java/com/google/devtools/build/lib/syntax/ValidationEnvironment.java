@@ -87,6 +87,8 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
 
   private final Environment env;
   private Block block;
+  /** The layout of the frame of the function being validated, null outside of functions. */
+  @Nullable private FrameLayout frameLayout;
   private int loopCount;
   /** In BUILD files, we have a slightly different behavior for legacy reasons. */
   private final boolean isBuildFile;
@@ -163,7 +165,9 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
       for (Expression e : ((ListLiteral) expr).getElements()) {
         validateLValue(loc, e);
       }
-    } else if (!(expr instanceof Identifier)) {
+    } else if (expr instanceof Identifier) {
+      assignSlot((Identifier) expr);
+    } else {
       throw new ValidationException(loc, "cannot assign to '" + expr + "'");
     }
   }
@@ -186,6 +190,16 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
     // because some AST nodes are shared across multipe ASTs (due to the prelude file).
     if (!isBuildFile) {
       node.setScope(b.scope);
+      if (b.scope == Scope.Local) {
+        assignSlot(node);
+      }
+    }
+  }
+
+  /** Resolves a local variable of the current function to its slot in the frame of the function. */
+  private void assignSlot(Identifier node) {
+    if (frameLayout != null) {
+      node.setSlot(frameLayout, frameLayout.add(node.getName()));
     }
   }
 
@@ -251,8 +265,18 @@ public final class ValidationEnvironment extends SyntaxTreeVisitor {
         declare(param.getName(), param.getLocation());
       }
     }
+    if (!isBuildFile) {
+      // The parameters take the first slots, in the order in which they are passed to the call.
+      frameLayout = new FrameLayout();
+      for (String name : node.getSignature().getSignature().getNames()) {
+        frameLayout.add(name);
+      }
+      node.setFrameLayout(frameLayout);
+    }
     collectDefinitions(node.getStatements());
     visitAll(node.getStatements());
+    // Functions cannot be nested.
+    frameLayout = null;
     closeBlock();
   }
 
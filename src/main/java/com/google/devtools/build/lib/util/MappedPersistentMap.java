@@ -0,0 +1,849 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import javax.annotation.Nullable;
+
+/**
+ * A map from int keys to byte arrays that is backed by a memory-mapped, append-only file.
+ *
+ * <p>Unlike {@link PersistentMap}, values are not loaded into the heap. Opening the map scans the
+ * record headers of the file to build a compact index from keys to file offsets, and {@link #get}
+ * copies a value out of the mapped file on demand. Updates are kept in memory until the next
+ * {@link #flush} or {@link #save}, which append them to the end of the file as new records;
+ * removals are appended as tombstones. {@link #save} additionally forces the new records to disk,
+ * so its cost is proportional to the number of updates since the last save, not to the size of the
+ * map.
+ *
+ * <p>Since the file only grows, it accumulates records that have been superseded. When live
+ * records make up less than {@link #MIN_LIVE_RATIO} of a sufficiently large file, the file is
+ * rewritten on the executor passed to the constructor. Compaction reads the mapped file without
+ * holding the lock of the map, so lookups and updates are not blocked while it runs.
+ *
+ * <p>Each record carries a CRC-32 of its key, length and value. A record that is cut short or fails
+ * its checksum, for example because the server crashed while appending it, ends the map: it and
+ * everything after it are discarded when the map is opened.
+ *
+ * <p>Like {@link PersistentMap}, I/O failures during updates are deferred and reported by the next
+ * call to {@link #save}. The map does not allow <tt>null</tt> values. The file is replaced by a
+ * rename while it is mapped during compaction and {@link #clear}, which is not possible on Windows.
+ */
+@ThreadSafe
+public class MappedPersistentMap extends AbstractMap<Integer, byte[]> {
+  private static final Logger logger = Logger.getLogger(MappedPersistentMap.class.getName());
+
+  private static final long MAGIC = 0x20190515;
+  private static final int HEADER_SIZE = 16;
+  private static final byte RECORD_MAGIC = (byte) 0xfe;
+  /** Size of the magic byte, the key, the value length and the checksum preceding each value. */
+  private static final int RECORD_HEADER_SIZE = 1 + 4 + 4 + 4;
+  /** Offset of the checksum in a record, which covers everything after the magic byte but itself. */
+  private static final int CRC_OFFSET = 1 + 4 + 4;
+  private static final int TOMBSTONE = -1;
+
+  /** Files are mapped in segments of this size, as a single mapping can't exceed 2GB. */
+  private static final int SEGMENT_BITS = 30;
+  private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+  /** The fraction of the file below which live records trigger a compaction. */
+  private static final double MIN_LIVE_RATIO = 0.5;
+  /** Files smaller than this are never compacted. */
+  private static final long MIN_COMPACTION_SIZE = 16 * 1024 * 1024;
+
+  private static final int COPY_BUFFER_SIZE = 1024 * 1024;
+
+  private final long version;
+  private final Path file;
+  private final Executor compactionExecutor;
+
+  private FileChannel channel;
+  /** Length of the file, including all flushed records. */
+  private long fileLength;
+  /** Read-only mappings of the file, each {@link #SEGMENT_SIZE} long except for the last one. */
+  private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+  /** Offsets of the records holding the current value of each key. */
+  private final OffsetTable offsets = new OffsetTable();
+  /** Updates not yet appended to the file. Removals are represented by a null value. */
+  private final Map<Integer, byte[]> pending = new LinkedHashMap<>();
+  /** Total size of the records in the file that hold the current value of a key. */
+  private long liveBytes;
+
+  /** Incremented whenever the file is replaced, so that compaction can detect a concurrent clear. */
+  private int generation;
+
+  private boolean compacting;
+  private String deferredIOFailure;
+
+  /**
+   * Opens the map stored in {@code file}, creating it if necessary.
+   *
+   * @param version the version tag. The map will never read from a file that was written using a
+   *     different version tag.
+   * @param file the file to store the map in
+   * @param compactionExecutor the executor on which the file is compacted
+   * @throws IOException if the file can't be opened, or is not a map with the given version
+   */
+  public MappedPersistentMap(long version, Path file, Executor compactionExecutor)
+      throws IOException {
+    this.version = version;
+    this.file = file;
+    this.compactionExecutor = compactionExecutor;
+    load();
+  }
+
+  private void load() throws IOException {
+    FileSystemUtils.createDirectoryAndParents(file.getParentDirectory());
+    channel = openChannel(file);
+    try {
+      loadFromChannel();
+    } catch (IOException | RuntimeException e) {
+      close();
+      throw e;
+    }
+  }
+
+  private void loadFromChannel() throws IOException {
+    long size = channel.size();
+    if (size == 0) {
+      writeHeader(channel);
+      channel.force(false);
+      fileLength = HEADER_SIZE;
+      return;
+    }
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    if (size < HEADER_SIZE
+        || channel.read(header, 0) != HEADER_SIZE
+        || header.getLong(0) != MAGIC
+        || header.getLong(8) != version) {
+      throw new IOException(file + " is not a map of version " + version);
+    }
+    fileLength = size;
+    remap();
+    long end = scan(HEADER_SIZE);
+    if (end < fileLength) {
+      logger.warning(
+          String.format(
+              "Discarding %d bytes after the last valid record of '%s'", fileLength - end, file));
+      // The discarded region is never read again, so the current mappings stay usable.
+      channel.truncate(end);
+      fileLength = end;
+    }
+    logger.info(String.format("Loaded map '%s' [%s bytes]", file, fileLength));
+  }
+
+  /** Adds the records from {@code start} to the index, and returns where the valid records end. */
+  private long scan(long start) {
+    long position = start;
+    while (position + RECORD_HEADER_SIZE <= fileLength) {
+      if (readByte(position) != RECORD_MAGIC) {
+        break;
+      }
+      int key = readInt(position + 1);
+      int length = readInt(position + 5);
+      if (length < TOMBSTONE
+          || position + RECORD_HEADER_SIZE + length > fileLength
+          || readInt(position + CRC_OFFSET) != checksum(position, Math.max(length, 0))) {
+        break;
+      }
+      long previous = offsets.remove(key);
+      if (previous > 0) {
+        liveBytes -= recordSize(previous);
+      }
+      if (length != TOMBSTONE) {
+        offsets.put(key, position);
+        liveBytes += RECORD_HEADER_SIZE + length;
+        position += RECORD_HEADER_SIZE + length;
+      } else {
+        position += RECORD_HEADER_SIZE;
+      }
+    }
+    return position;
+  }
+
+  /** Computes the checksum of the record at {@code position} from the mapped file. */
+  private int checksum(long position, int valueLength) {
+    CRC32 crc = new CRC32();
+    update(crc, position + 1, 8);
+    update(crc, position + RECORD_HEADER_SIZE, valueLength);
+    return (int) crc.getValue();
+  }
+
+  private void update(CRC32 crc, long position, int length) {
+    while (length > 0) {
+      ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+      segment.position((int) (position & (SEGMENT_SIZE - 1)));
+      int n = Math.min(length, segment.remaining());
+      segment.limit(segment.position() + n);
+      crc.update(segment);
+      position += n;
+      length -= n;
+    }
+  }
+
+  private static int checksum(int key, int length, @Nullable byte[] value) {
+    CRC32 crc = new CRC32();
+    crc.update(ByteBuffer.allocate(8).putInt(key).putInt(length).array());
+    if (value != null) {
+      crc.update(value);
+    }
+    return (int) crc.getValue();
+  }
+
+  private static FileChannel openChannel(Path path) throws IOException {
+    return FileChannel.open(
+        path.getPathFile().toPath(),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+  }
+
+  private void writeHeader(FileChannel out) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header.putLong(MAGIC).putLong(version).flip();
+    writeFully(out, header, 0);
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += out.write(buffer, position);
+    }
+  }
+
+  /** Maps any part of the file that was appended since the last call. */
+  private void remap() throws IOException {
+    int count = (int) ((fileLength + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+    MappedByteBuffer[] newSegments = Arrays.copyOf(segments, count);
+    for (int i = Math.max(segments.length - 1, 0); i < count; i++) {
+      long start = (long) i << SEGMENT_BITS;
+      long size = Math.min(SEGMENT_SIZE, fileLength - start);
+      if (newSegments[i] == null || newSegments[i].capacity() != size) {
+        newSegments[i] = channel.map(MapMode.READ_ONLY, start, size);
+      }
+    }
+    segments = newSegments;
+  }
+
+  private byte readByte(long position) {
+    return readByte(segments, position);
+  }
+
+  private static byte readByte(MappedByteBuffer[] segments, long position) {
+    return segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1)));
+  }
+
+  private int readInt(long position) {
+    return readInt(segments, position);
+  }
+
+  private static int readInt(MappedByteBuffer[] segments, long position) {
+    MappedByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)];
+    int offset = (int) (position & (SEGMENT_SIZE - 1));
+    if (offset + 4 <= segment.capacity()) {
+      return segment.getInt(offset);
+    }
+    byte[] bytes = new byte[4];
+    read(segments, position, bytes, 0, 4);
+    return ByteBuffer.wrap(bytes).getInt();
+  }
+
+  private static void read(
+      MappedByteBuffer[] segments, long position, byte[] dst, int offset, int length) {
+    while (length > 0) {
+      ByteBuffer segment = segments[(int) (position >>> SEGMENT_BITS)].duplicate();
+      segment.position((int) (position & (SEGMENT_SIZE - 1)));
+      int n = Math.min(length, segment.remaining());
+      segment.get(dst, offset, n);
+      position += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  private long recordSize(long position) {
+    return RECORD_HEADER_SIZE + readInt(position + 5);
+  }
+
+  private byte[] readValue(long position) {
+    byte[] value = new byte[readInt(position + 5)];
+    read(segments, position + RECORD_HEADER_SIZE, value, 0, value.length);
+    return value;
+  }
+
+  @Override
+  @Nullable
+  public synchronized byte[] get(Object key) {
+    if (!(key instanceof Integer)) {
+      return null;
+    }
+    long position = offsets.get((Integer) key);
+    if (position == OffsetTable.PENDING) {
+      return pending.get(key);
+    }
+    return position > 0 ? readValue(position) : null;
+  }
+
+  @Override
+  public synchronized boolean containsKey(Object key) {
+    return key instanceof Integer && offsets.get((Integer) key) != 0;
+  }
+
+  /**
+   * Returns whether the value of {@code key} equals {@code value}, without copying the stored value
+   * into the heap.
+   */
+  public synchronized boolean valueEquals(int key, byte[] value) {
+    long position = offsets.get(key);
+    if (position == OffsetTable.PENDING) {
+      return Arrays.equals(pending.get(key), value);
+    }
+    if (position == 0 || readInt(position + 5) != value.length) {
+      return false;
+    }
+    long start = position + RECORD_HEADER_SIZE;
+    for (int i = 0; i < value.length; i++) {
+      if (readByte(start + i) != value[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  @Nullable
+  public synchronized byte[] put(Integer key, byte[] value) {
+    Preconditions.checkNotNull(value);
+    byte[] previous = discard(key);
+    offsets.put(key, OffsetTable.PENDING);
+    pending.put(key, value);
+    markAsDirty();
+    return previous;
+  }
+
+  @Override
+  @Nullable
+  public synchronized byte[] remove(Object key) {
+    if (!(key instanceof Integer) || offsets.get((Integer) key) == 0) {
+      return null;
+    }
+    byte[] previous = discard((Integer) key);
+    pending.put((Integer) key, null);
+    markAsDirty();
+    return previous;
+  }
+
+  /** Removes {@code key} from the index and returns its current value. */
+  @Nullable
+  private byte[] discard(int key) {
+    long position = offsets.remove(key);
+    if (position == OffsetTable.PENDING) {
+      return pending.get(key);
+    } else if (position > 0) {
+      liveBytes -= recordSize(position);
+      return readValue(position);
+    }
+    return null;
+  }
+
+  private void markAsDirty() {
+    if (shouldFlush()) {
+      flush();
+    }
+  }
+
+  /**
+   * Determines if pending updates should be appended to the file after an update. The default
+   * implementation always returns false, so that updates are only written by {@link #flush} and
+   * {@link #save}. Subclasses are free to override this to implement their own strategy, as with
+   * {@link PersistentMap#updateJournal}.
+   */
+  protected boolean shouldFlush() {
+    return false;
+  }
+
+  /**
+   * Appends all pending updates to the file, without forcing them to disk. Failures are reported by
+   * the next call to {@link #save}.
+   */
+  public synchronized void flush() {
+    try {
+      writePending();
+    } catch (IOException e) {
+      deferredIOFailure = e.getMessage() + " during map append";
+    }
+  }
+
+  private void writePending() throws IOException {
+    if (pending.isEmpty()) {
+      return;
+    }
+    long size = 0;
+    for (byte[] value : pending.values()) {
+      size += RECORD_HEADER_SIZE + (value != null ? value.length : 0);
+    }
+    ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, COPY_BUFFER_SIZE));
+    long position = fileLength;
+    // The offsets are only published once all records are written and mapped, so that a failed
+    // write leaves the keys pending rather than pointing past the end of the file.
+    int[] keys = new int[pending.size()];
+    long[] recordPositions = new long[pending.size()];
+    int written = 0;
+    long writtenBytes = 0;
+    for (Map.Entry<Integer, byte[]> entry : pending.entrySet()) {
+      byte[] value = entry.getValue();
+      int length = value != null ? value.length : TOMBSTONE;
+      if (buffer.remaining() < RECORD_HEADER_SIZE) {
+        position = drain(buffer, position);
+      }
+      long recordPosition = position + buffer.position();
+      buffer
+          .put(RECORD_MAGIC)
+          .putInt(entry.getKey())
+          .putInt(length)
+          .putInt(checksum(entry.getKey(), length, value));
+      if (value != null) {
+        for (int offset = 0; offset < value.length; ) {
+          if (!buffer.hasRemaining()) {
+            position = drain(buffer, position);
+          }
+          int n = Math.min(buffer.remaining(), value.length - offset);
+          buffer.put(value, offset, n);
+          offset += n;
+        }
+        keys[written] = entry.getKey();
+        recordPositions[written++] = recordPosition;
+        writtenBytes += RECORD_HEADER_SIZE + length;
+      }
+    }
+    drain(buffer, position);
+    fileLength += size;
+    remap();
+    for (int i = 0; i < written; i++) {
+      offsets.put(keys[i], recordPositions[i]);
+    }
+    liveBytes += writtenBytes;
+    pending.clear();
+  }
+
+  private long drain(ByteBuffer buffer, long position) throws IOException {
+    buffer.flip();
+    int n = buffer.remaining();
+    writeFully(channel, buffer, position);
+    buffer.clear();
+    return position + n;
+  }
+
+  /**
+   * Appends all pending updates to the file and forces them to disk. May start a compaction of the
+   * file in the background.
+   *
+   * @return the size of the file
+   * @throws IOException if there was an I/O error during this call, or any previous call since the
+   *     last save()
+   */
+  public synchronized long save() throws IOException {
+    if (deferredIOFailure != null) {
+      try {
+        throw new IOException(deferredIOFailure);
+      } finally {
+        deferredIOFailure = null;
+      }
+    }
+    writePending();
+    channel.force(false);
+    if (!compacting
+        && fileLength >= MIN_COMPACTION_SIZE
+        && liveBytes < (fileLength - HEADER_SIZE) * MIN_LIVE_RATIO) {
+      compactionExecutor.execute(this::compactInBackground);
+    }
+    return fileLength;
+  }
+
+  private void compactInBackground() {
+    try {
+      compact();
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to compact " + file, e);
+    }
+  }
+
+  /**
+   * Rewrites the file so that it only contains the records holding the current value of each key.
+   */
+  @VisibleForTesting
+  void compact() throws IOException {
+    int[] keys;
+    long[] oldPositions;
+    long snapshotEnd;
+    MappedByteBuffer[] snapshotSegments;
+    int snapshotGeneration;
+    synchronized (this) {
+      if (compacting) {
+        return;
+      }
+      compacting = true;
+      int count = offsets.countFlushed();
+      keys = new int[count];
+      oldPositions = new long[count];
+      offsets.copyFlushed(keys, oldPositions);
+      snapshotEnd = fileLength;
+      snapshotSegments = segments;
+      snapshotGeneration = generation;
+    }
+    Path temp = file.getRelative(FileSystemUtils.replaceExtension(file.asFragment(), ".tmp"));
+    FileChannel out = null;
+    boolean swapped = false;
+    try {
+      out = openChannel(temp);
+      out.truncate(0);
+      writeHeader(out);
+      // Copy live records in file order, so that the new file is read sequentially at load time.
+      Integer[] order = new Integer[keys.length];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Long.compare(oldPositions[a], oldPositions[b]));
+      long[] newPositions = new long[keys.length];
+      ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+      long position = HEADER_SIZE;
+      for (int i : order) {
+        long oldPosition = oldPositions[i];
+        int length = RECORD_HEADER_SIZE + readInt(snapshotSegments, oldPosition + 5);
+        newPositions[i] = position + buffer.position();
+        byte[] record = new byte[length];
+        read(snapshotSegments, oldPosition, record, 0, length);
+        for (int offset = 0; offset < length; ) {
+          if (!buffer.hasRemaining()) {
+            position = drain(out, buffer, position);
+          }
+          int n = Math.min(buffer.remaining(), length - offset);
+          buffer.put(record, offset, n);
+          offset += n;
+        }
+      }
+      position = drain(out, buffer, position);
+
+      synchronized (this) {
+        if (generation != snapshotGeneration) {
+          // The map was cleared in the meantime.
+          return;
+        }
+        // Records appended since the snapshot are copied verbatim, tombstones included.
+        long tailLength = fileLength - snapshotEnd;
+        out.position(position);
+        for (long copied = 0; copied < tailLength; ) {
+          copied += channel.transferTo(snapshotEnd + copied, tailLength - copied, out);
+        }
+        out.force(false);
+        long shift = position - snapshotEnd;
+        for (int i = 0; i < keys.length; i++) {
+          offsets.replace(keys[i], oldPositions[i], newPositions[i]);
+        }
+        offsets.shiftFrom(snapshotEnd, shift);
+        temp.renameTo(file);
+        swapped = true;
+        channel.close();
+        channel = out;
+        fileLength = position + tailLength;
+        segments = new MappedByteBuffer[0];
+        generation++;
+        remap();
+        logger.info(
+            String.format(
+                "Compacted '%s' from %d to %d bytes", file, snapshotEnd + tailLength, fileLength));
+      }
+    } finally {
+      synchronized (this) {
+        compacting = false;
+      }
+      if (!swapped) {
+        if (out != null) {
+          out.close();
+        }
+        temp.delete();
+      }
+    }
+  }
+
+  private static long drain(FileChannel out, ByteBuffer buffer, long position)
+      throws IOException {
+    buffer.flip();
+    int n = buffer.remaining();
+    writeFully(out, buffer, position);
+    buffer.clear();
+    return position + n;
+  }
+
+  /** Removes all entries and truncates the file. */
+  @Override
+  public synchronized void clear() {
+    offsets.clear();
+    pending.clear();
+    liveBytes = 0;
+    generation++;
+    Path temp = file.getRelative(FileSystemUtils.replaceExtension(file.asFragment(), ".new"));
+    try {
+      // A concurrent compaction may still read the current file, so it must not be truncated.
+      FileChannel out = openChannel(temp);
+      out.truncate(0);
+      writeHeader(out);
+      out.force(false);
+      temp.renameTo(file);
+      channel.close();
+      channel = out;
+      fileLength = HEADER_SIZE;
+      segments = new MappedByteBuffer[0];
+      remap();
+    } catch (IOException e) {
+      deferredIOFailure = e.getMessage() + " during map clear";
+    }
+  }
+
+  /** Closes the file. The map must not be used afterwards. */
+  public synchronized void close() throws IOException {
+    segments = new MappedByteBuffer[0];
+    channel.close();
+  }
+
+  @Override
+  public synchronized int size() {
+    return offsets.size();
+  }
+
+  /** Returns the size of the file, including records that have been superseded. */
+  public synchronized long getFileSize() {
+    return fileLength;
+  }
+
+  /**
+   * Returns a view of the entries of this map. The values are read from the file as the set is
+   * iterated, so this should only be used for diagnostics.
+   */
+  @Override
+  public Set<Map.Entry<Integer, byte[]>> entrySet() {
+    return new AbstractSet<Map.Entry<Integer, byte[]>>() {
+      @Override
+      public Iterator<Map.Entry<Integer, byte[]>> iterator() {
+        int[] keys;
+        synchronized (MappedPersistentMap.this) {
+          keys = offsets.keys();
+        }
+        return new Iterator<Map.Entry<Integer, byte[]>>() {
+          private int next;
+          private Map.Entry<Integer, byte[]> nextEntry = advance();
+
+          private Map.Entry<Integer, byte[]> advance() {
+            while (next < keys.length) {
+              int key = keys[next++];
+              byte[] value = get(key);
+              if (value != null) {
+                return new SimpleImmutableEntry<>(key, value);
+              }
+            }
+            return null;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return nextEntry != null;
+          }
+
+          @Override
+          public Map.Entry<Integer, byte[]> next() {
+            if (nextEntry == null) {
+              throw new NoSuchElementException();
+            }
+            Map.Entry<Integer, byte[]> result = nextEntry;
+            nextEntry = advance();
+            return result;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return MappedPersistentMap.this.size();
+      }
+    };
+  }
+
+  /**
+   * An open-addressing hash table from int keys to record offsets, which needs 12 bytes per entry
+   * instead of the ~80 bytes of a {@code HashMap<Integer, Long>}. Offsets are always positive, so
+   * 0 marks an empty slot.
+   */
+  private static final class OffsetTable {
+    /** Marks a key whose value has not been written to the file yet. */
+    static final long PENDING = -1;
+
+    private int[] keys = new int[16];
+    private long[] values = new long[16];
+    private int size;
+
+    private int slot(int key) {
+      int h = key * 0x9E3779B9;
+      return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    long get(int key) {
+      for (int i = slot(key); values[i] != 0; i = (i + 1) & (keys.length - 1)) {
+        if (keys[i] == key) {
+          return values[i];
+        }
+      }
+      return 0;
+    }
+
+    void put(int key, long value) {
+      int i = slot(key);
+      for (; values[i] != 0; i = (i + 1) & (keys.length - 1)) {
+        if (keys[i] == key) {
+          values[i] = value;
+          return;
+        }
+      }
+      keys[i] = key;
+      values[i] = value;
+      if (++size > keys.length / 2) {
+        resize(keys.length * 2);
+      }
+    }
+
+    /** Sets the value of {@code key} to {@code newValue} if it is currently {@code oldValue}. */
+    void replace(int key, long oldValue, long newValue) {
+      for (int i = slot(key); values[i] != 0; i = (i + 1) & (keys.length - 1)) {
+        if (keys[i] == key) {
+          if (values[i] == oldValue) {
+            values[i] = newValue;
+          }
+          return;
+        }
+      }
+    }
+
+    /** Removes {@code key} and returns its previous value, or 0 if it was absent. */
+    long remove(int key) {
+      int mask = keys.length - 1;
+      int i = slot(key);
+      while (values[i] != 0 && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      long previous = values[i];
+      if (previous == 0) {
+        return 0;
+      }
+      // Shift back entries that would become unreachable through the freed slot.
+      int hole = i;
+      for (int j = (i + 1) & mask; values[j] != 0; j = (j + 1) & mask) {
+        int home = slot(keys[j]);
+        if (((j - home) & mask) >= ((j - hole) & mask)) {
+          keys[hole] = keys[j];
+          values[hole] = values[j];
+          hole = j;
+        }
+      }
+      values[hole] = 0;
+      size--;
+      return previous;
+    }
+
+    /** Adds {@code shift} to all offsets at or after {@code start}. */
+    void shiftFrom(long start, long shift) {
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] >= start) {
+          values[i] += shift;
+        }
+      }
+    }
+
+    int countFlushed() {
+      int count = 0;
+      for (long value : values) {
+        if (value > 0) {
+          count++;
+        }
+      }
+      return count;
+    }
+
+    void copyFlushed(int[] keysOut, long[] valuesOut) {
+      int j = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] > 0) {
+          keysOut[j] = keys[i];
+          valuesOut[j++] = values[i];
+        }
+      }
+    }
+
+    int[] keys() {
+      int[] result = new int[size];
+      int j = 0;
+      for (int i = 0; i < values.length; i++) {
+        if (values[i] != 0) {
+          result[j++] = keys[i];
+        }
+      }
+      return result;
+    }
+
+    int size() {
+      return size;
+    }
+
+    void clear() {
+      keys = new int[16];
+      values = new long[16];
+      size = 0;
+    }
+
+    private void resize(int capacity) {
+      int[] oldKeys = keys;
+      long[] oldValues = values;
+      keys = new int[capacity];
+      values = new long[capacity];
+      size = 0;
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldValues[i] != 0) {
+          put(oldKeys[i], oldValues[i]);
+        }
+      }
+    }
+  }
+}
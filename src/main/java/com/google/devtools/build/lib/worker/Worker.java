@@ -19,10 +19,10 @@ import com.google.devtools.build.lib.shell.Subprocess;
 import com.google.devtools.build.lib.shell.SubprocessBuilder;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -37,8 +37,8 @@ import java.util.SortedMap;
  * be relaunched automatically. Communication happens via the WorkerProtocol protobuf, sent to and
  * received from the worker process via stdin / stdout.
  *
- * <p>Other code in Blaze can talk to the worker process via input / output streams provided by this
- * class.
+ * <p>Other code in Blaze can talk to the worker process via {@link #putRequest} and {@link
+ * #getResponse}.
  */
 class Worker {
   private final WorkerKey workerKey;
@@ -48,6 +48,7 @@ class Worker {
 
   private Subprocess process;
   private Thread shutdownHook;
+  private RecordingInputStream recordingInputStream;
 
   Worker(WorkerKey workerKey, int workerId, final Path workDir, Path logFile) {
     this.workerKey = workerKey;
@@ -70,6 +71,12 @@ class Worker {
   }
 
   void createProcess() throws IOException {
+    this.process = startProcess(workerKey, workDir, logFile);
+  }
+
+  /** Starts the process of a worker with the given key, writing its stderr to {@code logFile}. */
+  static Subprocess startProcess(WorkerKey workerKey, Path workDir, Path logFile)
+      throws IOException {
     List<String> args = workerKey.getArgs();
     File executable = new File(args.get(0));
     if (!executable.isAbsolute() && executable.getParent() != null) {
@@ -81,7 +88,7 @@ class Worker {
     processBuilder.setWorkingDirectory(workDir.getPathFile());
     processBuilder.setStderr(logFile.getPathFile());
     processBuilder.setEnv(workerKey.getEnv());
-    this.process = processBuilder.start();
+    return processBuilder.start();
   }
 
   void destroy() throws IOException {
@@ -99,7 +106,7 @@ class Worker {
    *
    * @param process the process to destroy.
    */
-  private static void destroyProcess(Subprocess process) {
+  static void destroyProcess(Subprocess process) {
     boolean wasInterrupted = false;
     try {
       process.destroy();
@@ -141,12 +148,31 @@ class Worker {
     return !process.finished();
   }
 
-  InputStream getInputStream() {
-    return process.getInputStream();
+  /** Sends a request to the worker process. */
+  void putRequest(WorkRequest request) throws IOException {
+    request.writeDelimitedTo(process.getOutputStream());
+    process.getOutputStream().flush();
   }
 
-  OutputStream getOutputStream() {
-    return process.getOutputStream();
+  /**
+   * Reads the response to the last request from the worker process. Returns null if the worker
+   * already closed its stdout.
+   */
+  WorkResponse getResponse() throws IOException, InterruptedException {
+    recordingInputStream = new RecordingInputStream(process.getInputStream());
+    recordingInputStream.startRecording(4096);
+    // response can be null when the worker has already closed stdout at this point and thus
+    // the InputStream is at EOF.
+    return WorkResponse.parseDelimitedFrom(recordingInputStream);
+  }
+
+  /**
+   * Returns what the worker wrote to stdout while the last response was read, for error messages
+   * about unparseable responses.
+   */
+  String getRecordingStreamMessage() {
+    recordingInputStream.readRemaining();
+    return recordingInputStream.getRecordedDataAsString();
   }
 
   public void prepareExecution(
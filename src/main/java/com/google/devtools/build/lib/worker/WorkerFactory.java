@@ -36,6 +36,7 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
   private WorkerOptions workerOptions;
   private final Path workerBaseDir;
+  private final WorkerMultiplexerManager multiplexers = new WorkerMultiplexerManager();
   private Reporter reporter;
 
   public WorkerFactory(WorkerOptions workerOptions, Path workerBaseDir) {
@@ -59,7 +60,13 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
 
     Worker worker;
     boolean sandboxed = workerOptions.workerSandboxing || key.mustBeSandboxed();
-    if (sandboxed) {
+    if (key.isProxied()) {
+      // Multiplexed workers share one process, which cannot be sandboxed per request.
+      sandboxed = false;
+      WorkerMultiplexer multiplexer = multiplexers.acquire(key, logFile);
+      worker = new WorkerProxy(key, workerId, key.getExecRoot(), multiplexer, multiplexers);
+      logFile = multiplexer.getLogFile();
+    } else if (sandboxed) {
       Path workDir = getSandboxedWorkerPath(key, workerId);
       worker = new SandboxedWorker(key, workerId, workDir, logFile);
     } else {
@@ -70,7 +77,7 @@ final class WorkerFactory extends BaseKeyedPooledObjectFactory<WorkerKey, Worker
           Event.info(
               String.format(
                   "Created new %s %s worker (id %d), logging to %s",
-                  sandboxed ? "sandboxed" : "non-sandboxed",
+                  key.isProxied() ? "multiplexed" : sandboxed ? "sandboxed" : "non-sandboxed",
                   key.getMnemonic(),
                   workerId,
                   logFile)));
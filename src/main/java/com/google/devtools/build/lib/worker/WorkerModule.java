@@ -50,7 +50,8 @@ public class WorkerModule extends BlazeModule {
   private WorkerPool workerPool;
   private WorkerOptions options;
   private ImmutableMap<String, Integer> workerPoolConfig;
-  
+  private ImmutableMap<String, Integer> multiplexPoolConfig;
+
   @Override
   public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
     return "build".equals(command.name())
@@ -106,25 +107,18 @@ public class WorkerModule extends BlazeModule {
     workerFactory.setReporter(env.getReporter());
     workerFactory.setOptions(options);
 
-    // Use a LinkedHashMap instead of an ImmutableMap.Builder to allow duplicates; the last value
-    // passed wins.
-    LinkedHashMap<String, Integer> newConfigBuilder = new LinkedHashMap<>();
-    for (Map.Entry<String, Integer> entry : options.workerMaxInstances) {
-      newConfigBuilder.put(entry.getKey(), entry.getValue());
-    }
-
-    if (!newConfigBuilder.containsKey("")) {
-      // Empty string gives the number of workers for any type of worker not explicitly specified.
-      // If no value is given, use the default, 4.
-      // TODO(steinman): Calculate a reasonable default value instead of arbitrarily defaulting to
-      // 4.
-      newConfigBuilder.put("", MultiResourceConverter.DEFAULT_VALUE);
-    }
-
-    ImmutableMap<String, Integer> newConfig = ImmutableMap.copyOf(newConfigBuilder);
+    // If no value is given, use the default, 4.
+    // TODO(steinman): Calculate a reasonable default value instead of arbitrarily defaulting to
+    // 4.
+    ImmutableMap<String, Integer> newConfig =
+        createPoolConfig(options.workerMaxInstances, MultiResourceConverter.DEFAULT_VALUE);
+    ImmutableMap<String, Integer> newMultiplexConfig =
+        createPoolConfig(
+            options.workerMaxMultiplexInstances, WorkerOptions.DEFAULT_MAX_MULTIPLEX_INSTANCES);
 
     // If the config changed compared to the last run, we have to create a new pool.
-    if (workerPoolConfig != null && !workerPoolConfig.equals(newConfig)) {
+    if ((workerPoolConfig != null && !workerPoolConfig.equals(newConfig))
+        || (multiplexPoolConfig != null && !multiplexPoolConfig.equals(newMultiplexConfig))) {
       shutdownPool(
           "Worker configuration has changed, restarting worker pool...",
           /* alwaysLog= */ true);
@@ -132,15 +126,40 @@ public class WorkerModule extends BlazeModule {
 
     if (workerPool == null) {
       workerPoolConfig = newConfig;
-      workerPool = new WorkerPool(workerFactory, workerPoolConfig, options.highPriorityWorkers);
+      multiplexPoolConfig = newMultiplexConfig;
+      workerPool =
+          new WorkerPool(
+              workerFactory, workerPoolConfig, multiplexPoolConfig, options.highPriorityWorkers);
     }
   }
 
+  /**
+   * Turns the values of an option like {@code --worker_max_instances} into a map from worker
+   * mnemonic to maximum number of workers.
+   */
+  private static ImmutableMap<String, Integer> createPoolConfig(
+      Iterable<Map.Entry<String, Integer>> maxInstances, int defaultMax) {
+    // Use a LinkedHashMap instead of an ImmutableMap.Builder to allow duplicates; the last value
+    // passed wins.
+    LinkedHashMap<String, Integer> newConfigBuilder = new LinkedHashMap<>();
+    for (Map.Entry<String, Integer> entry : maxInstances) {
+      newConfigBuilder.put(entry.getKey(), entry.getValue());
+    }
+
+    if (!newConfigBuilder.containsKey("")) {
+      // Empty string gives the number of workers for any type of worker not explicitly specified.
+      newConfigBuilder.put("", defaultMax);
+    }
+
+    return ImmutableMap.copyOf(newConfigBuilder);
+  }
+
   @Override
   public void executorInit(CommandEnvironment env, BuildRequest request, ExecutorBuilder builder) {
     Preconditions.checkNotNull(workerPool);
+    WorkerOptions workerOptions = env.getOptions().getOptions(WorkerOptions.class);
     ImmutableMultimap<String, String> extraFlags =
-        ImmutableMultimap.copyOf(env.getOptions().getOptions(WorkerOptions.class).workerExtraFlags);
+        ImmutableMultimap.copyOf(workerOptions.workerExtraFlags);
     LocalEnvProvider localEnvProvider = LocalEnvProvider.forCurrentOs(env.getClientEnv());
     WorkerSpawnRunner spawnRunner =
         new WorkerSpawnRunner(
@@ -153,7 +172,8 @@ public class WorkerModule extends BlazeModule {
             env.getOptions()
                 .getOptions(SandboxOptions.class)
                 .symlinkedSandboxExpandsTreeArtifactsInRunfilesTree,
-            env.getBlazeWorkspace().getBinTools());
+            env.getBlazeWorkspace().getBinTools(),
+            workerOptions.workerMultiplex && !workerOptions.workerSandboxing);
     builder.addActionContext(new WorkerSpawnStrategy(env.getExecRoot(), spawnRunner));
 
     builder.addStrategyByContext(SpawnActionContext.class, "standalone");
@@ -0,0 +1,207 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A worker process that handles the requests of several {@link WorkerProxy} instances at the same
+ * time.
+ *
+ * <p>Requests are tagged with a request id and written to the process as they come. A
+ * demultiplexer thread reads the responses, which the process may send in any order, and hands
+ * each of them to the thread waiting for the response with the same request id. If the process
+ * quits or writes something that is not a response, all requests that are waiting for a response
+ * fail.
+ */
+@ThreadSafe
+final class WorkerMultiplexer {
+  private final WorkerKey workerKey;
+  private final Path logFile;
+
+  @GuardedBy("this")
+  private Demultiplexer demultiplexer;
+
+  @GuardedBy("this")
+  private int lastRequestId;
+
+  /** What the process wrote to stdout when its output could last not be parsed. */
+  private volatile String recordedMessage = "";
+
+  WorkerMultiplexer(WorkerKey workerKey, Path logFile) {
+    Preconditions.checkArgument(workerKey.isProxied(), workerKey);
+    this.workerKey = workerKey;
+    this.logFile = logFile;
+  }
+
+  Path getLogFile() {
+    return logFile;
+  }
+
+  /**
+   * Starts the worker process if it was not started yet or if it quit since. Requests that are still
+   * waiting for a response of a previous process fail when that process's output ends.
+   */
+  synchronized void createProcess() throws IOException {
+    if (demultiplexer != null && demultiplexer.isAlive()) {
+      return;
+    }
+    demultiplexer =
+        new Demultiplexer(Worker.startProcess(workerKey, workerKey.getExecRoot(), logFile));
+    Thread thread = new Thread(demultiplexer, "worker-multiplexer-" + workerKey.getMnemonic());
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  synchronized boolean isProcessAlive() {
+    return demultiplexer != null && demultiplexer.isAlive();
+  }
+
+  /**
+   * Returns a new request id. Ids are not reused by a multiplexer, so that the response to a
+   * request that nobody waits for anymore cannot be mistaken for the response to a later request.
+   */
+  synchronized int nextRequestId() {
+    lastRequestId = lastRequestId == Integer.MAX_VALUE ? 1 : lastRequestId + 1;
+    return lastRequestId;
+  }
+
+  /**
+   * Sends a request to the worker process. The returned future holds the response, or null if the
+   * process closed its stdout before responding.
+   */
+  synchronized ListenableFuture<WorkResponse> putRequest(WorkRequest request)
+      throws IOException {
+    Preconditions.checkState(demultiplexer != null, "Worker process not started");
+    return demultiplexer.putRequest(request);
+  }
+
+  /**
+   * Returns what the worker process wrote to stdout in place of the last response that could not be
+   * parsed.
+   */
+  String getRecordingStreamMessage() {
+    return recordedMessage;
+  }
+
+  /** Destroys the worker process. Requests that are waiting for a response fail. */
+  void destroy() {
+    Demultiplexer destroyed;
+    synchronized (this) {
+      destroyed = demultiplexer;
+      demultiplexer = null;
+    }
+    if (destroyed != null) {
+      Worker.destroyProcess(destroyed.process);
+    }
+  }
+
+  /**
+   * Reads the responses of one worker process and completes the futures of the matching requests.
+   */
+  private final class Demultiplexer implements Runnable {
+    private final Subprocess process;
+
+    /** Requests that have not been answered yet, by request id. */
+    @GuardedBy("WorkerMultiplexer.this")
+    private final Map<Integer, SettableFuture<WorkResponse>> pendingResponses = new HashMap<>();
+
+    /** Set once the output of the process ended; no further requests are accepted. */
+    @GuardedBy("WorkerMultiplexer.this")
+    private IOException closed;
+
+    private Demultiplexer(Subprocess process) {
+      this.process = process;
+    }
+
+    @GuardedBy("WorkerMultiplexer.this")
+    private boolean isAlive() {
+      return closed == null && !process.finished();
+    }
+
+    @GuardedBy("WorkerMultiplexer.this")
+    private ListenableFuture<WorkResponse> putRequest(WorkRequest request) throws IOException {
+      if (closed != null) {
+        throw new IOException("Worker process quit", closed);
+      }
+      SettableFuture<WorkResponse> response = SettableFuture.create();
+      pendingResponses.put(request.getRequestId(), response);
+      try {
+        request.writeDelimitedTo(process.getOutputStream());
+        process.getOutputStream().flush();
+      } catch (IOException e) {
+        pendingResponses.remove(request.getRequestId());
+        throw e;
+      }
+      return response;
+    }
+
+    @Override
+    public void run() {
+      RecordingInputStream in = new RecordingInputStream(process.getInputStream());
+      try {
+        while (true) {
+          in.startRecording(4096);
+          WorkResponse response = WorkResponse.parseDelimitedFrom(in);
+          if (response == null) {
+            // The process closed its stdout; nobody is going to answer the pending requests.
+            close(new IOException("Worker process closed its stdout"), /*failRequests=*/ false);
+            return;
+          }
+          SettableFuture<WorkResponse> future;
+          synchronized (WorkerMultiplexer.this) {
+            future = pendingResponses.remove(response.getRequestId());
+          }
+          // The response is dropped if nobody waits for it anymore, e.g. after an interrupt.
+          if (future != null) {
+            future.set(response);
+          }
+        }
+      } catch (IOException e) {
+        in.readRemaining();
+        recordedMessage = in.getRecordedDataAsString();
+        close(e, /*failRequests=*/ true);
+      }
+    }
+
+    /**
+     * Rejects further requests and completes the pending ones, either with the given exception or
+     * with a null response.
+     */
+    private void close(IOException e, boolean failRequests) {
+      synchronized (WorkerMultiplexer.this) {
+        closed = e;
+        for (SettableFuture<WorkResponse> future : pendingResponses.values()) {
+          if (failRequests) {
+            future.setException(e);
+          } else {
+            future.set(null);
+          }
+        }
+        pendingResponses.clear();
+      }
+    }
+  }
+}
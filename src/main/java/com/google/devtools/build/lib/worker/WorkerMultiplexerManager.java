@@ -0,0 +1,77 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.util.Pair;
+import com.google.devtools.build.lib.vfs.Path;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Hands out the {@link WorkerMultiplexer} shared by the {@link WorkerProxy} instances of a worker
+ * key, and destroys it once the last of them is gone.
+ *
+ * <p>Multiplexers are keyed by the worker files hash in addition to the worker key, so that proxies
+ * created after the worker files changed do not end up talking to a process started from the old
+ * files.
+ */
+@ThreadSafe
+final class WorkerMultiplexerManager {
+  private static final class Entry {
+    private final WorkerMultiplexer multiplexer;
+    private int refCount;
+
+    private Entry(WorkerMultiplexer multiplexer) {
+      this.multiplexer = multiplexer;
+    }
+  }
+
+  private final Map<Pair<WorkerKey, HashCode>, Entry> multiplexers = new HashMap<>();
+
+  /**
+   * Returns the multiplexer for the given key, creating it if needed. Every call must be matched by
+   * a call to {@link #release}.
+   *
+   * @param logFile the log file of the worker process, used if the multiplexer is created
+   */
+  synchronized WorkerMultiplexer acquire(WorkerKey key, Path logFile) {
+    Entry entry =
+        multiplexers.computeIfAbsent(
+            multiplexerKey(key), k -> new Entry(new WorkerMultiplexer(key, logFile)));
+    entry.refCount++;
+    return entry.multiplexer;
+  }
+
+  /** Releases a multiplexer; the last release destroys its worker process. */
+  void release(WorkerKey key) {
+    WorkerMultiplexer unused;
+    synchronized (this) {
+      Pair<WorkerKey, HashCode> multiplexerKey = multiplexerKey(key);
+      Entry entry = Preconditions.checkNotNull(multiplexers.get(multiplexerKey), key);
+      if (--entry.refCount > 0) {
+        return;
+      }
+      multiplexers.remove(multiplexerKey);
+      unused = entry.multiplexer;
+    }
+    unused.destroy();
+  }
+
+  private static Pair<WorkerKey, HashCode> multiplexerKey(WorkerKey key) {
+    return Pair.of(key, key.getWorkerFilesCombinedHash());
+  }
+}
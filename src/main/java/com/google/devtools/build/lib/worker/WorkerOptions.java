@@ -99,6 +99,36 @@ public class WorkerOptions extends OptionsBase {
       allowMultiple = true)
   public List<Map.Entry<String, Integer>> workerMaxInstances;
 
+  /** Keep in sync with the default value of --worker_max_multiplex_instances. */
+  public static final int DEFAULT_MAX_MULTIPLEX_INSTANCES = 8;
+
+  @Option(
+      name = "worker_max_multiplex_instances",
+      converter = MultiResourceConverter.class,
+      defaultValue = "8",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "How many requests a multiplexed worker process (one whose actions have the "
+              + "'supports-multiplex-workers' execution requirement) may handle at the same time "
+              + "if you use the 'worker' strategy. May be specified as [name=value] to give a "
+              + "different value per worker mnemonic. Takes "
+              + ResourceConverter.FLAG_SYNTAX
+              + ". \"=value\" sets a default for unspecified mnemonics.",
+      allowMultiple = true)
+  public List<Map.Entry<String, Integer>> workerMaxMultiplexInstances;
+
+  @Option(
+      name = "experimental_worker_multiplex",
+      defaultValue = "true",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "If enabled, workers that support the experimental multiplexing feature will use "
+              + "that feature. Multiplexed workers are never sandboxed, so this has no effect "
+              + "together with --worker_sandboxing.")
+  public boolean workerMultiplex;
+
   @Option(
       name = "high_priority_workers",
       defaultValue = "",
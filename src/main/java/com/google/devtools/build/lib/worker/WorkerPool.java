@@ -34,22 +34,36 @@ final class WorkerPool {
   private final ImmutableSet<String> highPriorityWorkerMnemonics;
   private final ImmutableMap<String, Integer> config;
   private final ImmutableMap<Integer, SimpleWorkerPool> pools;
+  private final ImmutableMap<String, Integer> multiplexConfig;
+  private final ImmutableMap<Integer, SimpleWorkerPool> multiplexPools;
 
   /**
    * @param factory worker factory
    * @param config pool configuration; max number of workers per worker mnemonic; the empty string
    *     key specifies the default maximum
+   * @param multiplexConfig pool configuration for multiplexed workers; max number of concurrent
+   *     requests per multiplexed worker process, in the same format as {@code config}
    * @param highPriorityWorkers mnemonics of high priority workers
    */
   public WorkerPool(
-      WorkerFactory factory, Map<String, Integer> config, Iterable<String> highPriorityWorkers) {
+      WorkerFactory factory,
+      Map<String, Integer> config,
+      Map<String, Integer> multiplexConfig,
+      Iterable<String> highPriorityWorkers) {
     highPriorityWorkerMnemonics = ImmutableSet.copyOf(highPriorityWorkers);
     this.config = ImmutableMap.copyOf(config);
+    this.multiplexConfig = ImmutableMap.copyOf(multiplexConfig);
+    pools = createPools(factory, config);
+    multiplexPools = createPools(factory, multiplexConfig);
+  }
+
+  private ImmutableMap<Integer, SimpleWorkerPool> createPools(
+      WorkerFactory factory, Map<String, Integer> config) {
     ImmutableMap.Builder<Integer, SimpleWorkerPool> poolsBuilder = ImmutableMap.builder();
     for (Integer max : new HashSet<>(config.values())) {
       poolsBuilder.put(max, new SimpleWorkerPool(factory, makeConfig(max)));
     }
-    pools = poolsBuilder.build();
+    return poolsBuilder.build();
   }
 
   private WorkerPoolConfig makeConfig(int max) {
@@ -84,6 +98,16 @@ final class WorkerPool {
   }
 
   private SimpleWorkerPool getPool(WorkerKey key) {
+    if (key.isProxied()) {
+      return getPool(key, multiplexConfig, multiplexPools);
+    }
+    return getPool(key, config, pools);
+  }
+
+  private static SimpleWorkerPool getPool(
+      WorkerKey key,
+      ImmutableMap<String, Integer> config,
+      ImmutableMap<Integer, SimpleWorkerPool> pools) {
     Integer max = config.get(key.getMnemonic());
     if (max == null) {
       max = config.get("");
@@ -166,5 +190,8 @@ final class WorkerPool {
     for (SimpleWorkerPool pool : pools.values()) {
       pool.close();
     }
+    for (SimpleWorkerPool pool : multiplexPools.values()) {
+      pool.close();
+    }
   }
 }
@@ -0,0 +1,108 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.devtools.build.lib.sandbox.SandboxHelpers.SandboxOutputs;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A worker that does not own a process, but sends its requests to the process of a {@link
+ * WorkerMultiplexer} that it shares with the other proxies of the same worker key.
+ *
+ * <p>The pool treats proxies like any other worker, so the number of proxies per key limits the
+ * number of requests a multiplexed worker process handles at the same time.
+ */
+final class WorkerProxy extends Worker {
+  private final WorkerKey workerKey;
+  private final WorkerMultiplexer multiplexer;
+  private final WorkerMultiplexerManager multiplexerManager;
+
+  private ListenableFuture<WorkResponse> response;
+  private boolean released;
+
+  WorkerProxy(
+      WorkerKey workerKey,
+      int workerId,
+      Path workDir,
+      WorkerMultiplexer multiplexer,
+      WorkerMultiplexerManager multiplexerManager) {
+    super(workerKey, workerId, workDir, multiplexer.getLogFile());
+    this.workerKey = workerKey;
+    this.multiplexer = multiplexer;
+    this.multiplexerManager = multiplexerManager;
+  }
+
+  @Override
+  void createProcess() throws IOException {
+    multiplexer.createProcess();
+  }
+
+  @Override
+  synchronized void destroy() throws IOException {
+    super.destroy();
+    if (!released) {
+      released = true;
+      multiplexerManager.release(workerKey);
+    }
+  }
+
+  @Override
+  boolean isAlive() {
+    return multiplexer.isProcessAlive();
+  }
+
+  @Override
+  public void prepareExecution(
+      Map<PathFragment, Path> inputFiles, SandboxOutputs outputs, Set<PathFragment> workerFiles)
+      throws IOException {
+    createProcess();
+  }
+
+  @Override
+  void putRequest(WorkRequest request) throws IOException {
+    response =
+        multiplexer.putRequest(
+            request.toBuilder().setRequestId(multiplexer.nextRequestId()).build());
+  }
+
+  @Override
+  WorkResponse getResponse() throws IOException, InterruptedException {
+    Preconditions.checkState(response != null, "No request was sent");
+    try {
+      return response.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      response = null;
+    }
+  }
+
+  @Override
+  String getRecordingStreamMessage() {
+    return multiplexer.getRecordingStreamMessage();
+  }
+}
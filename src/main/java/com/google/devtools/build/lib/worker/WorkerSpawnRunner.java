@@ -80,6 +80,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
   private final LocalEnvProvider localEnvProvider;
   private final boolean sandboxUsesExpandedTreeArtifactsInRunfiles;
   private final BinTools binTools;
+  private final boolean allowMultiplex;
 
   public WorkerSpawnRunner(
       Path execRoot,
@@ -89,7 +90,8 @@ final class WorkerSpawnRunner implements SpawnRunner {
       SpawnRunner fallbackRunner,
       LocalEnvProvider localEnvProvider,
       boolean sandboxUsesExpandedTreeArtifactsInRunfiles,
-      BinTools binTools) {
+      BinTools binTools,
+      boolean allowMultiplex) {
     this.execRoot = execRoot;
     this.workers = Preconditions.checkNotNull(workers);
     this.extraFlags = extraFlags;
@@ -98,6 +100,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
     this.localEnvProvider = localEnvProvider;
     this.sandboxUsesExpandedTreeArtifactsInRunfiles = sandboxUsesExpandedTreeArtifactsInRunfiles;
     this.binTools = binTools;
+    this.allowMultiplex = allowMultiplex;
   }
 
   @Override
@@ -156,6 +159,9 @@ final class WorkerSpawnRunner implements SpawnRunner {
             spawn, context, execRoot, sandboxUsesExpandedTreeArtifactsInRunfiles);
     SandboxOutputs outputs = SandboxHelpers.getOutputs(spawn);
 
+    // Multiplexed workers share one process and thus cannot be sandboxed.
+    boolean proxied =
+        allowMultiplex && Spawns.supportsMultiplexWorkers(spawn) && !context.speculating();
     WorkerKey key =
         new WorkerKey(
             workerArgs,
@@ -164,7 +170,8 @@ final class WorkerSpawnRunner implements SpawnRunner {
             spawn.getMnemonic(),
             workerFilesCombinedHash,
             workerFiles,
-            context.speculating());
+            context.speculating(),
+            proxied);
 
     WorkRequest workRequest = createWorkRequest(spawn, context, flagFiles, inputFileCache);
 
@@ -327,8 +334,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
         }
 
         try {
-          request.writeDelimitedTo(worker.getOutputStream());
-          worker.getOutputStream().flush();
+          worker.putRequest(request);
         } catch (IOException e) {
           throw new UserExecException(
               ErrorMessage.builder()
@@ -341,17 +347,12 @@ final class WorkerSpawnRunner implements SpawnRunner {
                   .toString());
         }
 
-        RecordingInputStream recordingStream = new RecordingInputStream(worker.getInputStream());
-        recordingStream.startRecording(4096);
         try {
-          // response can be null when the worker has already closed stdout at this point and thus
-          // the InputStream is at EOF.
-          response = WorkResponse.parseDelimitedFrom(recordingStream);
+          response = worker.getResponse();
         } catch (IOException e) {
           // If protobuf couldn't parse the response, try to print whatever the failing worker wrote
           // to stdout - it's probably a stack trace or some kind of error message that will help
           // the user figure out why the compiler is failing.
-          recordingStream.readRemaining();
           throw new UserExecException(
               ErrorMessage.builder()
                   .message(
@@ -359,7 +360,7 @@ final class WorkerSpawnRunner implements SpawnRunner {
                           + "Did you try to print something to stdout? Workers aren't allowed to "
                           + "do this, as it breaks the protocol between Bazel and the worker "
                           + "process.")
-                  .logText(recordingStream.getRecordedDataAsString())
+                  .logText(worker.getRecordingStreamMessage())
                   .exception(e)
                   .build()
                   .toString());
@@ -13,7 +13,9 @@
 // limitations under the License.
 package com.google.devtools.build.skyframe;
 
+import com.google.common.collect.Maps;
 import java.util.Map;
+import java.util.function.BiConsumer;
 import javax.annotation.Nullable;
 
 /** {@link ProcessableGraph} that exposes the contents of the entire graph. */
@@ -30,6 +32,24 @@ public interface InMemoryGraph extends ProcessableGraph {
   Map<SkyKey, ? extends NodeEntry> getBatch(
       @Nullable SkyKey requestor, Reason reason, Iterable<? extends SkyKey> keys);
 
+  /**
+   * Calls {@code consumer} for each key in {@code keys} that has a node in the graph, together with
+   * that node. The {@code requestor} and {@code reason} are as for {@link #getBatch}, but unlike
+   * it, this does not allocate a result map.
+   */
+  default void processBatch(
+      @Nullable SkyKey requestor,
+      Reason reason,
+      Iterable<? extends SkyKey> keys,
+      BiConsumer<SkyKey, ? super NodeEntry> consumer) {
+    for (SkyKey key : keys) {
+      NodeEntry entry = get(requestor, reason, key);
+      if (entry != null) {
+        consumer.accept(key, entry);
+      }
+    }
+  }
+
   /**
    * Returns a read-only live view of the nodes in the graph. All node are included. Dirty values
    * include their Node value. Values in error have a null value.
@@ -42,6 +62,15 @@ public interface InMemoryGraph extends ProcessableGraph {
    */
   Map<SkyKey, SkyValue> getDoneValues();
 
+  /**
+   * Returns a read-only live view of the nodes in the graph whose keys belong to {@code
+   * functionName}, with values as in {@link #getValues}. Implementations that group their nodes by
+   * function can answer this without iterating over the whole graph.
+   */
+  default Map<SkyKey, SkyValue> getValuesForFunction(SkyFunctionName functionName) {
+    return Maps.filterKeys(getValues(), key -> key.functionName().equals(functionName));
+  }
+
   // Only for use by MemoizingEvaluator#delete
   Map<SkyKey, ? extends NodeEntry> getAllValues();
 
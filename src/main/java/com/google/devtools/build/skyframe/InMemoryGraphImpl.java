@@ -99,28 +99,50 @@ public class InMemoryGraphImpl implements InMemoryGraph {
 
   @Override
   public Map<SkyKey, SkyValue> getValues() {
+    return valuesView(nodeMap);
+  }
+
+  @Override
+  public Map<SkyKey, SkyValue> getDoneValues() {
+    return doneValuesView(nodeMap);
+  }
+
+  /**
+   * Returns a read-only live view of the values of the given nodes, as in {@link #getValues}.
+   * Offloaded values are read back for the caller, but not kept on the heap, and are null if they
+   * cannot be read back.
+   */
+  static Map<SkyKey, SkyValue> valuesView(Map<SkyKey, ? extends NodeEntry> nodes) {
     return Collections.unmodifiableMap(
         Maps.transformValues(
-            nodeMap,
+            nodes,
             entry -> {
               try {
-                return entry.toValue();
+                return entry instanceof InMemoryNodeEntry
+                    ? ((InMemoryNodeEntry) entry).toValueWithoutReloading()
+                    : entry.toValue();
               } catch (InterruptedException e) {
                 throw new IllegalStateException(e);
               }
             }));
   }
 
-  @Override
-  public Map<SkyKey, SkyValue> getDoneValues() {
+  /**
+   * Returns a read-only live view of the done values of the given nodes, as in {@link
+   * #getDoneValues}. Like {@link #valuesView}, it does not keep offloaded values on the heap.
+   */
+  static Map<SkyKey, SkyValue> doneValuesView(Map<SkyKey, ? extends NodeEntry> nodes) {
     return Collections.unmodifiableMap(
         Maps.filterValues(
             Maps.transformValues(
-                nodeMap,
+                nodes,
                 entry -> {
                   if (!entry.isDone()) {
                     return null;
                   }
+                  if (entry instanceof InMemoryNodeEntry) {
+                    return ((InMemoryNodeEntry) entry).getValueWithoutReloading();
+                  }
                   try {
                     return entry.getValue();
                   } catch (InterruptedException e) {
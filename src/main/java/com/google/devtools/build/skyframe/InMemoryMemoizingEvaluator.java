@@ -55,6 +55,8 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
   // Not final only for testing.
   private InMemoryGraph graph;
   private IntVersion lastGraphVersion = null;
+  // The graph version at the previous call of offloadColdValues.
+  @Nullable private IntVersion lastOffloadVersion = null;
 
   // State related to invalidation and deletion.
   private Set<SkyKey> valuesToDelete = new LinkedHashSet<>();
@@ -104,12 +106,32 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       EventFilter eventFilter,
       EmittedEventState emittedEventState,
       boolean keepEdges) {
+    this(
+        skyFunctions,
+        differencer,
+        progressReceiver,
+        graphInconsistencyReceiver,
+        eventFilter,
+        emittedEventState,
+        keepEdges,
+        InMemoryGraphImpl::new);
+  }
+
+  public InMemoryMemoizingEvaluator(
+      Map<SkyFunctionName, ? extends SkyFunction> skyFunctions,
+      Differencer differencer,
+      @Nullable EvaluationProgressReceiver progressReceiver,
+      GraphInconsistencyReceiver graphInconsistencyReceiver,
+      EventFilter eventFilter,
+      EmittedEventState emittedEventState,
+      boolean keepEdges,
+      GraphFactory graphFactory) {
     this.skyFunctions = ImmutableMap.copyOf(skyFunctions);
     this.differencer = Preconditions.checkNotNull(differencer);
     this.progressReceiver = new DirtyTrackingProgressReceiver(progressReceiver);
     this.graphInconsistencyReceiver = Preconditions.checkNotNull(graphInconsistencyReceiver);
     this.eventFilter = eventFilter;
-    this.graph = new InMemoryGraphImpl(keepEdges);
+    this.graph = graphFactory.create(keepEdges);
     this.emittedEventState = emittedEventState;
     this.keepEdges = keepEdges;
   }
@@ -289,11 +311,69 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
         "Re-entrant evaluation for request: %s", requestInfo);
   }
 
+  @Override
+  public int offloadColdValues(Predicate<SkyKey> keysToOffload, SkyValueOffloader offloader)
+      throws InterruptedException {
+    IntVersion coldVersion = lastOffloadVersion;
+    lastOffloadVersion = lastGraphVersion;
+    if (coldVersion == null || !keepEdges) {
+      return 0;
+    }
+    int offloaded = 0;
+    try (SilentCloseable c = Profiler.instance().profile("offloadColdValues")) {
+      for (Map.Entry<SkyKey, ? extends NodeEntry> entry : graph.getAllValues().entrySet()) {
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (entry.getValue() instanceof InMemoryNodeEntry
+            && keysToOffload.apply(entry.getKey())
+            && ((InMemoryNodeEntry) entry.getValue())
+                .offloadValueIfEvaluatedAtMost(coldVersion, entry.getKey(), offloader)) {
+          offloaded++;
+        }
+      }
+    }
+    return offloaded;
+  }
+
+  @Override
+  public int moveOffloadedValues(SkyValueOffloader offloader) throws InterruptedException {
+    int failed = 0;
+    for (Map.Entry<SkyKey, ? extends NodeEntry> entry : graph.getAllValues().entrySet()) {
+      if (Thread.interrupted()) {
+        throw new InterruptedException();
+      }
+      if (entry.getValue() instanceof InMemoryNodeEntry) {
+        InMemoryNodeEntry nodeEntry = (InMemoryNodeEntry) entry.getValue();
+        if (!nodeEntry.moveOffloadedValue(entry.getKey(), offloader)
+            && nodeEntry.isValueOffloaded()) {
+          failed++;
+        }
+      }
+    }
+    return failed;
+  }
+
+  @Override
+  public void deleteOffloadedValues() {
+    for (Map.Entry<SkyKey, ? extends NodeEntry> entry : graph.getAllValues().entrySet()) {
+      if (entry.getValue() instanceof InMemoryNodeEntry
+          && ((InMemoryNodeEntry) entry.getValue()).isValueOffloaded()) {
+        valuesToDelete.add(entry.getKey());
+      }
+    }
+  }
+
   @Override
   public Map<SkyKey, SkyValue> getValues() {
     return graph.getValues();
   }
 
+  @Override
+  public Map<SkyKey, SkyValue> getValuesForFunction(SkyFunctionName functionName) {
+    return graph.getValuesForFunction(functionName);
+  }
+
   @Override
   public Iterable<? extends Map.Entry<SkyKey, ? extends NodeEntry>> getGraphEntries() {
     return graph.getAllValuesMutable().entrySet();
@@ -416,4 +496,29 @@ public final class InMemoryMemoizingEvaluator implements MemoizingEvaluator {
       };
 
   public static final EvaluatorSupplier SUPPLIER = InMemoryMemoizingEvaluator::new;
+
+  /** Creates the graph backing an {@link InMemoryMemoizingEvaluator}. */
+  public interface GraphFactory {
+    InMemoryGraph create(boolean keepEdges);
+  }
+
+  /** Returns a supplier of evaluators whose graphs are created by {@code graphFactory}. */
+  public static EvaluatorSupplier supplier(GraphFactory graphFactory) {
+    return (skyFunctions,
+        differencer,
+        progressReceiver,
+        graphInconsistencyReceiver,
+        eventFilter,
+        emittedEventState,
+        keepEdges) ->
+        new InMemoryMemoizingEvaluator(
+            skyFunctions,
+            differencer,
+            progressReceiver,
+            graphInconsistencyReceiver,
+            eventFilter,
+            emittedEventState,
+            keepEdges,
+            graphFactory);
+  }
 }
@@ -67,7 +67,10 @@ import javax.annotation.Nullable;
  */
 public class InMemoryNodeEntry implements NodeEntry {
 
-  /** Actual data stored in this entry when it is done. */
+  /**
+   * Actual data stored in this entry when it is done, or an {@link OffloadedValue} standing in for
+   * it. Read it with {@link #loadValue} unless the placeholder will do.
+   */
   protected volatile SkyValue value = null;
 
   /**
@@ -177,19 +180,150 @@ public class InMemoryNodeEntry implements NodeEntry {
   }
 
   @Override
-  public SkyValue getValue() {
+  public SkyValue getValue() throws InterruptedException {
     Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
-    return ValueWithMetadata.justValue(value);
+    return ValueWithMetadata.justValue(loadValue());
   }
 
   @Override
   @Nullable
-  public SkyValue getValueMaybeWithMetadata() {
-    return value;
+  public SkyValue getValueMaybeWithMetadata() throws InterruptedException {
+    return loadValue();
+  }
+
+  /**
+   * Returns {@link #value}, first reading it back and keeping it on the heap again if it was
+   * offloaded.
+   *
+   * @throws InterruptedException if the value was offloaded and cannot be read back. The evaluation
+   *     is aborted as if it was interrupted, and the offloaded values are recomputed before the next
+   *     command, see {@link MemoizingEvaluator#deleteOffloadedValues}.
+   */
+  @Nullable
+  protected final SkyValue loadValue() throws InterruptedException {
+    SkyValue currentValue = value;
+    if (!(currentValue instanceof OffloadedValue)) {
+      return currentValue;
+    }
+    SkyValue retrieved = ((OffloadedValue) currentValue).retrieve();
+    if (retrieved == null) {
+      // Stores are checked before each command, so this only happens if the store is damaged while
+      // a command runs.
+      throw new InterruptedException("Offloaded value cannot be read back: " + this);
+    }
+    synchronized (this) {
+      // Another thread may have retrieved it too, or the node may have been dirtied meanwhile.
+      if (value == currentValue) {
+        value = retrieved;
+      }
+    }
+    return retrieved;
+  }
+
+  /**
+   * Returns {@link #value}, reading it back without keeping it on the heap if it was offloaded, or
+   * null if it cannot be read back.
+   */
+  @Nullable
+  private SkyValue peekValue() {
+    SkyValue currentValue = value;
+    return currentValue instanceof OffloadedValue
+        ? ((OffloadedValue) currentValue).retrieve()
+        : currentValue;
+  }
+
+  /**
+   * Like {@link #toValue}, but does not keep an offloaded value on the heap again, so that iterating
+   * over the values of all nodes does not undo the offloading. Returns null if the value cannot be
+   * read back.
+   */
+  @Nullable
+  public SkyValue toValueWithoutReloading() throws InterruptedException {
+    if (!isDone()) {
+      return toValue();
+    }
+    return getErrorInfo() == null ? ValueWithMetadata.justValue(peekValue()) : null;
+  }
+
+  /**
+   * Like {@link #getValue}, but does not keep an offloaded value on the heap again. Returns null if
+   * the value cannot be read back.
+   */
+  @Nullable
+  public SkyValue getValueWithoutReloading() {
+    Preconditions.checkState(isDone(), "no value until done. ValueEntry: %s", this);
+    return ValueWithMetadata.justValue(peekValue());
+  }
+
+  /**
+   * Replaces the value of this node by a placeholder from which it can be read back, if the node
+   * is done, its value was last evaluated at or before {@code version}, and it is not already
+   * offloaded. Values with errors or other metadata are kept, and so are values that are compared
+   * by identity. Returns whether the value was offloaded.
+   *
+   * <p>The value is stored without holding the lock of this node, so that evaluations are not
+   * blocked meanwhile; it is only replaced if the node did not change in the meantime.
+   */
+  public boolean offloadValueIfEvaluatedAtMost(
+      Version version, SkyKey key, SkyValueOffloader offloader) throws InterruptedException {
+    SkyValue currentValue;
+    synchronized (this) {
+      currentValue = value;
+      if (!isDone()
+          || currentValue instanceof OffloadedValue
+          || currentValue instanceof ValueWithMetadata
+          || !lastEvaluatedVersion.atMost(version)) {
+        return false;
+      }
+    }
+    if (currentValue instanceof NotComparableSkyValue
+        || currentValue.mustBeReferenceComparedOnRecomputation()) {
+      // A copy read back would not be the same value.
+      return false;
+    }
+    Object handle = offloader.offload(key, currentValue);
+    if (handle == null) {
+      return false;
+    }
+    return replaceValue(currentValue, new OffloadedValue(offloader, key, handle));
+  }
+
+  /**
+   * Moves an offloaded value of this node to {@code offloader}, or back onto the heap if {@code
+   * offloader} cannot store it. Returns false if the value is not offloaded, or cannot be read back
+   * from where it is, in which case the node must be evaluated again.
+   */
+  public boolean moveOffloadedValue(SkyKey key, SkyValueOffloader offloader)
+      throws InterruptedException {
+    SkyValue currentValue = value;
+    if (!(currentValue instanceof OffloadedValue)) {
+      return false;
+    }
+    SkyValue retrieved = ((OffloadedValue) currentValue).retrieve();
+    if (retrieved == null) {
+      return false;
+    }
+    Object handle = offloader.offload(key, retrieved);
+    return replaceValue(
+        currentValue, handle == null ? retrieved : new OffloadedValue(offloader, key, handle));
+  }
+
+  /** Returns whether the value of this node is currently offloaded. */
+  public boolean isValueOffloaded() {
+    return value instanceof OffloadedValue;
+  }
+
+  private synchronized boolean replaceValue(SkyValue expected, SkyValue replacement) {
+    // The node may have been dirtied, or its value read back, meanwhile.
+    if (value != expected || !isDone()) {
+      return false;
+    }
+    value = replacement;
+    return true;
   }
 
   @Override
-  public SkyValue toValue() {
+  public SkyValue toValue() throws InterruptedException {
     if (isDone()) {
       return getErrorInfo() == null ? getValue() : null;
     } else if (isChanged() || isDirty()) {
@@ -505,9 +639,15 @@ public class InMemoryNodeEntry implements NodeEntry {
     // Can't process a dirty node without its deps.
     assertKeepDeps();
     if (isDone()) {
+      // The value is dropped below, so an offloaded value is not kept on the heap.
+      SkyValue lastBuildValue = peekValue();
+      if (lastBuildValue == null) {
+        // The offloaded value cannot be read back, so the node must be evaluated again.
+        dirtyType = DirtyType.CHANGE;
+      }
       dirtyBuildingState =
           DirtyBuildingState.create(
-              dirtyType, GroupedList.create(getCompressedDirectDepsForDoneEntry()), value);
+              dirtyType, GroupedList.create(getCompressedDirectDepsForDoneEntry()), lastBuildValue);
       value = null;
       directDeps = null;
       return new MarkedDirtyResult(ReverseDepsUtility.getReverseDeps(this));
@@ -292,32 +292,32 @@ public abstract class InvalidatingNodeVisitor<GraphT extends QueryableGraph> {
                             + entry,
                         e);
                   }
-                  Map<SkyKey, ? extends NodeEntry> depMap =
-                      graph.getBatch(key, Reason.INVALIDATION, directDeps);
-                  for (Map.Entry<SkyKey, ? extends NodeEntry> directDepEntry : depMap.entrySet()) {
-                    NodeEntry dep = directDepEntry.getValue();
-                    if (dep != null) {
-                      if (dep.isDone() || !signalingDeps.contains(directDepEntry.getKey())) {
-                        try {
-                          dep.removeReverseDep(key);
-                        } catch (InterruptedException e) {
-                          throw new IllegalStateException(
-                              "Deletion cannot happen on a graph that may have blocking "
-                                  + "operations: "
-                                  + key
-                                  + ", "
-                                  + entry,
-                              e);
+                  // Avoid allocating a map for the deps, since they are only looked at once.
+                  graph.processBatch(
+                      key,
+                      Reason.INVALIDATION,
+                      directDeps,
+                      (depKey, dep) -> {
+                        if (dep.isDone() || !signalingDeps.contains(depKey)) {
+                          try {
+                            dep.removeReverseDep(key);
+                          } catch (InterruptedException e) {
+                            throw new IllegalStateException(
+                                "Deletion cannot happen on a graph that may have blocking "
+                                    + "operations: "
+                                    + key
+                                    + ", "
+                                    + entry,
+                                e);
+                          }
+                        } else {
+                          // This step is not strictly necessary, since all in-progress nodes are
+                          // deleted during graph cleaning, which happens in a single
+                          // DeletingNodeVisitor visitation, aka the one right now. We leave this
+                          // here in case the logic changes.
+                          dep.removeInProgressReverseDep(key);
                         }
-                      } else {
-                        // This step is not strictly necessary, since all in-progress nodes are
-                        // deleted during graph cleaning, which happens in a single
-                        // DeletingNodeVisitor visitation, aka the one right now. We leave this
-                        // here in case the logic changes.
-                        dep.removeInProgressReverseDep(key);
-                      }
-                    }
-                  }
+                      });
                 }
 
                 // Allow custom key-specific logic to update dirtiness status.
@@ -16,6 +16,7 @@ package com.google.devtools.build.skyframe;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetVisitor;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadHostile;
 import com.google.devtools.build.lib.events.ExtendedEventHandler;
@@ -87,6 +88,16 @@ public interface MemoizingEvaluator {
   // require some care because getValues gives access to the previous value for changed/dirty nodes.
   Map<SkyKey, SkyValue> getValues();
 
+  /**
+   * Returns the values in the graph whose keys belong to {@code functionName}, as in {@link
+   * #getValues}.
+   *
+   * <p>The returned map may be a live view of the graph.
+   */
+  default Map<SkyKey, SkyValue> getValuesForFunction(SkyFunctionName functionName) {
+    return Maps.filterKeys(getValues(), key -> key.functionName().equals(functionName));
+  }
+
   /**
    * Returns the node entries in the graph. Should only be called between evaluations. The returned
    * iterable is mutable, but do not mutate it unless you know what you are doing! Naively deleting
@@ -112,6 +123,35 @@ public interface MemoizingEvaluator {
    */
   default void postLoggingStats(ExtendedEventHandler eventHandler) {}
 
+  /**
+   * Moves the values of done nodes whose keys satisfy {@code keysToOffload} out of the heap using
+   * {@code offloader}, if the nodes were not evaluated since the previous call of this method. The
+   * values are read back when they are next requested. Should only be called between evaluations.
+   *
+   * <p>Returns the number of values offloaded. Evaluators that cannot offload values return 0.
+   */
+  default int offloadColdValues(Predicate<SkyKey> keysToOffload, SkyValueOffloader offloader)
+      throws InterruptedException {
+    return 0;
+  }
+
+  /**
+   * Moves the values offloaded by {@link #offloadColdValues} to {@code offloader}, for instance to
+   * compact the storage of the previous one. Values that cannot be read back are left in place.
+   * Should only be called between evaluations.
+   *
+   * <p>Returns the number of values that were not moved because they could not be read back.
+   */
+  default int moveOffloadedValues(SkyValueOffloader offloader) throws InterruptedException {
+    return 0;
+  }
+
+  /**
+   * Schedules the nodes whose values are offloaded for deletion at the next evaluation, so that
+   * they are evaluated again, for instance because their values can no longer be read back.
+   */
+  default void deleteOffloadedValues() {}
+
   /**
    * Returns the done (without error) values in the graph.
    *
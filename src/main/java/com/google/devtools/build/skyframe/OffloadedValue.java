@@ -0,0 +1,42 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import javax.annotation.Nullable;
+
+/**
+ * The placeholder that an {@link InMemoryNodeEntry} keeps instead of a value moved out of the heap
+ * by a {@link SkyValueOffloader}. Never returned to callers of the node entry.
+ */
+final class OffloadedValue implements SkyValue {
+  private final SkyValueOffloader offloader;
+  private final SkyKey key;
+  private final Object handle;
+
+  OffloadedValue(SkyValueOffloader offloader, SkyKey key, Object handle) {
+    this.offloader = offloader;
+    this.key = key;
+    this.handle = handle;
+  }
+
+  @Nullable
+  SkyValue retrieve() {
+    return offloader.retrieve(key, handle);
+  }
+
+  @Override
+  public String toString() {
+    return "OffloadedValue: " + handle;
+  }
+}
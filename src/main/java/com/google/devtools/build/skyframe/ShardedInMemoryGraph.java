@@ -0,0 +1,252 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterators;
+import com.google.devtools.build.lib.collect.compacthashmap.CompactHashMap;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * An {@link InMemoryGraph} that keeps one node map per {@link SkyFunctionName}.
+ *
+ * <p>Compared to {@link InMemoryGraphImpl}, which keeps all nodes in a single {@link
+ * ConcurrentHashMap}, each map is smaller, so resizes are cheaper and contention on hot buckets is
+ * spread across more maps. Each shard is pre-sized from the number of nodes its function had in the
+ * graph that was created before by the same {@link Factory}, which avoids most resizes when the
+ * graph is rebuilt. Per-function views, as returned by {@link #getValuesForFunction}, only iterate
+ * over a single shard.
+ */
+public final class ShardedInMemoryGraph implements InMemoryGraph {
+
+  private static final int DEFAULT_SHARD_CAPACITY = 16;
+
+  /** Shards by function name. There are only a few hundred function names, so this map is tiny. */
+  private final ConcurrentHashMap<SkyFunctionName, ConcurrentHashMap<SkyKey, NodeEntry>> shards;
+
+  private final ImmutableMap<SkyFunctionName, Integer> expectedShardSizes;
+  private final boolean keepEdges;
+  private final Map<SkyKey, NodeEntry> allNodes = new AllNodesView();
+
+  /**
+   * This is used to create shards from within computeIfAbsent. Instantiated here to avoid lambda
+   * instantiation overhead.
+   */
+  @SuppressWarnings("UnnecessaryLambda")
+  private final Function<SkyFunctionName, ConcurrentHashMap<SkyKey, NodeEntry>> newShardFunction =
+      this::newShard;
+
+  /**
+   * This is used to call newNodeEntry() from within computeIfAbsent. Instantiated here to avoid
+   * lambda instantiation overhead.
+   */
+  @SuppressWarnings("UnnecessaryLambda")
+  private final Function<SkyKey, NodeEntry> newNodeEntryFunction = k -> newNodeEntry();
+
+  @VisibleForTesting
+  ShardedInMemoryGraph(boolean keepEdges) {
+    this(keepEdges, ImmutableMap.of());
+  }
+
+  private ShardedInMemoryGraph(
+      boolean keepEdges, ImmutableMap<SkyFunctionName, Integer> expectedShardSizes) {
+    this.keepEdges = keepEdges;
+    this.expectedShardSizes = expectedShardSizes;
+    this.shards = new ConcurrentHashMap<>(Math.max(expectedShardSizes.size(), 64));
+  }
+
+  @Nullable
+  private ConcurrentHashMap<SkyKey, NodeEntry> getShard(SkyKey key) {
+    return shards.get(key.functionName());
+  }
+
+  private ConcurrentHashMap<SkyKey, NodeEntry> getOrCreateShard(SkyKey key) {
+    ConcurrentHashMap<SkyKey, NodeEntry> shard = shards.get(key.functionName());
+    return shard != null ? shard : shards.computeIfAbsent(key.functionName(), newShardFunction);
+  }
+
+  private ConcurrentHashMap<SkyKey, NodeEntry> newShard(SkyFunctionName functionName) {
+    return new ConcurrentHashMap<>(
+        expectedShardSizes.getOrDefault(functionName, DEFAULT_SHARD_CAPACITY));
+  }
+
+  private NodeEntry newNodeEntry() {
+    return keepEdges ? new InMemoryNodeEntry() : new EdgelessInMemoryNodeEntry();
+  }
+
+  @Override
+  public void remove(SkyKey skyKey) {
+    ConcurrentHashMap<SkyKey, NodeEntry> shard = getShard(skyKey);
+    if (shard != null) {
+      shard.remove(skyKey);
+    }
+  }
+
+  @Nullable
+  @Override
+  public NodeEntry get(@Nullable SkyKey requestor, Reason reason, SkyKey skyKey) {
+    ConcurrentHashMap<SkyKey, NodeEntry> shard = getShard(skyKey);
+    return shard == null ? null : shard.get(skyKey);
+  }
+
+  @Override
+  public Map<SkyKey, NodeEntry> getBatch(
+      @Nullable SkyKey requestor, Reason reason, Iterable<? extends SkyKey> keys) {
+    // The keys have not been deduplicated yet, so the expected size is an upper bound.
+    Map<SkyKey, NodeEntry> result =
+        CompactHashMap.createWithExpectedSize(
+            keys instanceof Collection ? ((Collection<?>) keys).size() : DEFAULT_SHARD_CAPACITY);
+    processBatch(requestor, reason, keys, result::put);
+    return result;
+  }
+
+  @Override
+  public Map<SkyKey, NodeEntry> createIfAbsentBatch(
+      @Nullable SkyKey requestor, Reason reason, Iterable<SkyKey> keys) {
+    Map<SkyKey, NodeEntry> result =
+        CompactHashMap.createWithExpectedSize(
+            keys instanceof Collection ? ((Collection<?>) keys).size() : DEFAULT_SHARD_CAPACITY);
+    for (SkyKey key : keys) {
+      result.put(key, getOrCreateShard(key).computeIfAbsent(key, newNodeEntryFunction));
+    }
+    return result;
+  }
+
+  @Override
+  public DepsReport analyzeDepsDoneness(SkyKey parent, Collection<SkyKey> deps) {
+    return DepsReport.NO_INFORMATION;
+  }
+
+  @Override
+  public Map<SkyKey, SkyValue> getValues() {
+    return InMemoryGraphImpl.valuesView(allNodes);
+  }
+
+  @Override
+  public Map<SkyKey, SkyValue> getDoneValues() {
+    return InMemoryGraphImpl.doneValuesView(allNodes);
+  }
+
+  @Override
+  public Map<SkyKey, SkyValue> getValuesForFunction(SkyFunctionName functionName) {
+    // Create the shard if necessary, so that the view reflects nodes added later.
+    return InMemoryGraphImpl.valuesView(shards.computeIfAbsent(functionName, newShardFunction));
+  }
+
+  @Override
+  public Map<SkyKey, NodeEntry> getAllValues() {
+    return Collections.unmodifiableMap(allNodes);
+  }
+
+  @Override
+  public Map<SkyKey, ? extends NodeEntry> getAllValuesMutable() {
+    return allNodes;
+  }
+
+  /** Returns the number of nodes per function name, for sizing the shards of a successor graph. */
+  private ImmutableMap<SkyFunctionName, Integer> getShardSizes() {
+    ImmutableMap.Builder<SkyFunctionName, Integer> sizes = ImmutableMap.builder();
+    for (Map.Entry<SkyFunctionName, ConcurrentHashMap<SkyKey, NodeEntry>> shard :
+        shards.entrySet()) {
+      sizes.put(shard.getKey(), shard.getValue().size());
+    }
+    return sizes.build();
+  }
+
+  /** A live, mutable view of the union of all shards. */
+  private final class AllNodesView extends AbstractMap<SkyKey, NodeEntry> {
+    @Override
+    public NodeEntry get(Object key) {
+      return key instanceof SkyKey
+          ? ShardedInMemoryGraph.this.get(null, Reason.OTHER, (SkyKey) key)
+          : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public NodeEntry remove(Object key) {
+      if (!(key instanceof SkyKey)) {
+        return null;
+      }
+      ConcurrentHashMap<SkyKey, NodeEntry> shard = getShard((SkyKey) key);
+      return shard == null ? null : shard.remove(key);
+    }
+
+    @Override
+    public int size() {
+      long size = 0;
+      for (ConcurrentHashMap<SkyKey, NodeEntry> shard : shards.values()) {
+        size += shard.mappingCount();
+      }
+      return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean isEmpty() {
+      for (ConcurrentHashMap<SkyKey, NodeEntry> shard : shards.values()) {
+        if (!shard.isEmpty()) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public Set<Entry<SkyKey, NodeEntry>> entrySet() {
+      return new AbstractSet<Entry<SkyKey, NodeEntry>>() {
+        @Override
+        public Iterator<Entry<SkyKey, NodeEntry>> iterator() {
+          return Iterators.concat(
+              Iterators.transform(shards.values().iterator(), s -> s.entrySet().iterator()));
+        }
+
+        @Override
+        public int size() {
+          return AllNodesView.this.size();
+        }
+      };
+    }
+  }
+
+  /**
+   * Creates {@link ShardedInMemoryGraph}s. Each graph is pre-sized from the graph that the factory
+   * created before it, which is usually the graph of the evaluator that is being reset.
+   */
+  public static final class Factory implements InMemoryMemoizingEvaluator.GraphFactory {
+    @Nullable private ShardedInMemoryGraph lastGraph;
+
+    @Override
+    public synchronized InMemoryGraph create(boolean keepEdges) {
+      ImmutableMap<SkyFunctionName, Integer> expectedShardSizes =
+          lastGraph == null ? ImmutableMap.of() : lastGraph.getShardSizes();
+      // This releases the previous graph: only its shard sizes are needed.
+      lastGraph = new ShardedInMemoryGraph(keepEdges, expectedShardSizes);
+      return lastGraph;
+    }
+  }
+}
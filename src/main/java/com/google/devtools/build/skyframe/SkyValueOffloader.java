@@ -0,0 +1,45 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import javax.annotation.Nullable;
+
+/**
+ * Moves the values of done nodes out of the heap, and reads them back when they are requested.
+ *
+ * <p>An offloaded node keeps only the handle returned by {@link #offload}. The value is read back
+ * with {@link #retrieve} the first time it is requested after that, and kept on the heap again.
+ * Implementations should therefore be cheap to call repeatedly with a value they already stored.
+ *
+ * @see MemoizingEvaluator#offloadColdValues
+ */
+public interface SkyValueOffloader {
+  /**
+   * Stores {@code value}, the value of the done node {@code key}, and returns a handle from which
+   * {@link #retrieve} can read it back, or null if the value cannot be stored. Must not return
+   * {@code value} itself or anything else holding on to it, and must return null for values that
+   * would not be equal to the copies read back, since callers may rely on their identity.
+   */
+  @Nullable
+  Object offload(SkyKey key, SkyValue value) throws InterruptedException;
+
+  /**
+   * Reads back a value equal to the one {@link #offload} stored under {@code handle}, or returns
+   * null if it cannot be read back any more. The node must then be evaluated again; see {@link
+   * MemoizingEvaluator#deleteOffloadedValues}. Until then, an evaluation that needs the value is
+   * aborted as if it was interrupted.
+   */
+  @Nullable
+  SkyValue retrieve(SkyKey key, Object handle);
+}
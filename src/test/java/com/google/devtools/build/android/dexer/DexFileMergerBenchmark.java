@@ -0,0 +1,136 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.android.dexer;
+
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.IADD;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.IRETURN;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_7;
+
+import com.android.dx.command.dexer.DxContext;
+import com.android.dx.dex.code.PositionList;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Measures {@link DexFileMerger} on a generated archive of per-class {@code .dex} files, like those
+ * written by {@link DexBuilder}, that is merged into about 40 shards.
+ */
+public class DexFileMergerBenchmark {
+  private static final int CLASSES = 10000;
+  private static final int MEMBERS_PER_CLASS = 20;
+  private static final int MAX_NUMBER_OF_IDX_PER_DEX = 5000;
+
+  @Param({"0", "4"})
+  int readThreads;
+
+  private Path dir;
+  private Path input;
+  private Path output;
+
+  @BeforeExperiment
+  void setUp() throws IOException {
+    dir = Files.createTempDirectory("dex-file-merger-benchmark");
+    input = dir.resolve("input.dex.zip");
+    output = dir.resolve("output.dex.zip");
+    Dexing.DexingOptions dexingOptions = new Dexing.DexingOptions();
+    dexingOptions.optimize = true;
+    dexingOptions.positionInfo = PositionList.LINES;
+    DexConverter converter = new DexConverter(new Dexing(new DxContext(), dexingOptions));
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+      for (int i = 0; i < CLASSES; i++) {
+        String name = className(i);
+        out.putNextEntry(new ZipEntry(name + ".class.dex"));
+        out.write(DexFiles.encode(converter.toDexFile(createClass(i), name + ".class")));
+        out.closeEntry();
+      }
+    }
+  }
+
+  private static String className(int i) {
+    return "com/example/p" + (i / 100) + "/C" + i;
+  }
+
+  /**
+   * Returns a class with static fields and methods, each of which reads a field of its own class
+   * and calls the method of the same name of the next class.
+   */
+  private static byte[] createClass(int i) {
+    String name = className(i);
+    String next = className((i + 1) % CLASSES);
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(V1_7, ACC_PUBLIC, name, null, "java/lang/Object", null);
+    MethodVisitor init = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+    init.visitCode();
+    init.visitVarInsn(ALOAD, 0);
+    init.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+    init.visitInsn(RETURN);
+    init.visitMaxs(0, 0);
+    init.visitEnd();
+    for (int j = 0; j < MEMBERS_PER_CLASS; j++) {
+      cw.visitField(ACC_PUBLIC | ACC_STATIC, "f" + j, "I", null, null).visitEnd();
+      MethodVisitor mv = cw.visitMethod(ACC_PUBLIC | ACC_STATIC, "m" + j, "()I", null, null);
+      mv.visitCode();
+      mv.visitFieldInsn(GETSTATIC, name, "f" + j, "I");
+      mv.visitMethodInsn(INVOKESTATIC, next, "m" + j, "()I", false);
+      mv.visitInsn(IADD);
+      mv.visitInsn(IRETURN);
+      mv.visitMaxs(0, 0);
+      mv.visitEnd();
+    }
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  @AfterExperiment
+  void tearDown() throws IOException {
+    Files.deleteIfExists(input);
+    Files.deleteIfExists(output);
+    Files.deleteIfExists(dir);
+  }
+
+  @Benchmark
+  long merge(int reps) throws IOException {
+    long size = 0;
+    for (int i = 0; i < reps; i++) {
+      DexFileMerger.Options options = new DexFileMerger.Options();
+      options.inputArchives = ImmutableList.of(input);
+      options.outputArchive = output;
+      options.multidexMode = MultidexStrategy.MINIMAL;
+      options.maxNumberOfIdxPerDex = MAX_NUMBER_OF_IDX_PER_DEX;
+      options.dexPrefix = "classes";
+      options.readThreads = readThreads;
+      DexFileMerger.buildMergedDexFiles(options);
+      size += Files.size(output);
+    }
+    return size;
+  }
+}
@@ -170,6 +170,36 @@ public class DexFileMergerTest {
     assertMultidexOutput(expectedClassCount, outputArchive, ImmutableSet.<String>of());
   }
 
+  /** Checks that reading inputs on several threads doesn't change the output. */
+  @Test
+  public void testMergeDexArchive_readThreads() throws Exception {
+    Path dexArchive = buildDexArchive();
+    byte[] expected = null;
+    for (int readThreads : new int[] {0, 1, 4}) {
+      DexFileMerger.Options options = new DexFileMerger.Options();
+      options.inputArchives = ImmutableList.of(dexArchive);
+      options.outputArchive =
+          FileSystems.getDefault()
+              .getPath(System.getenv("TEST_TMPDIR"), "read_threads_" + readThreads + ".dex.zip");
+      options.multidexMode = MultidexStrategy.MINIMAL;
+      options.maxNumberOfIdxPerDex = 200;
+      options.dexPrefix = DEX_PREFIX;
+      options.readThreads = readThreads;
+      DexFileMerger.buildMergedDexFiles(options);
+
+      byte[] output = Files.readAllBytes(options.outputArchive);
+      if (expected == null) {
+        int expectedClassCount = matchingFileCount(dexArchive, ".*\\.class.dex$");
+        assertMultidexOutput(expectedClassCount, options.outputArchive, ImmutableSet.<String>of());
+        expected = output;
+      } else {
+        assertWithMessage("output with %s read threads", readThreads)
+            .that(output)
+            .isEqualTo(expected);
+      }
+    }
+  }
+
   @Test
   public void testMergeDexArchive_mainDexList() throws Exception {
     Path dexArchive = buildDexArchive();
@@ -16,19 +16,25 @@ package com.google.devtools.build.android.ziputils;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 /** Unit tests for {@link BufferedFile}. */
 @RunWith(JUnit4.class)
 public class BufferedFileTest {
-
   private static final FakeFileSystem fileSystem = new FakeFileSystem();
 
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
+
   @Test
   public void testBufferedFile() throws Exception {
     int fileSize = 64;
@@ -184,6 +190,30 @@ public class BufferedFileTest {
     assertCase("Realloc supersize", instance, cacheOff, maxAlloc + 5, maxAlloc + 5, maxAlloc + 5);
   }
 
+  @Test
+  public void testGetBufferMemoryMapped() throws Exception {
+    int fileSize = 64;
+    File file = tmp.newFile("bytes64");
+    Files.write(file.toPath(), fileData(fileSize));
+    int regionOff = 5;
+    int regionSize = 50;
+    try (FileChannel channel = new FileInputStream(file).getChannel()) {
+      BufferedFile instance =
+          new BufferedFile(channel, regionOff, regionSize, 0, /*memoryMapped=*/ true);
+      assertWithMessage("mapped").that(instance.isMemoryMapped()).isTrue();
+      assertCase("Mapped start", instance, regionOff, 5, 5, regionSize);
+      assertCase("Mapped middle", instance, regionOff + 20, 10, 10, regionSize - 20);
+      assertCase("Mapped before", instance, regionOff + 1, 5, 5, regionSize - 1);
+      assertCase("Mapped request more",
+          instance, regionOff + 45, 10, 5, 5);
+      assertException("Mapped upper bound",
+          instance, regionOff + regionSize + 1, 0, IllegalArgumentException.class);
+      assertWithMessage("not mapped")
+          .that(new BufferedFile(channel, regionOff, regionSize, 0).isMemoryMapped())
+          .isFalse();
+    }
+  }
+
   void assertException(String msg, FileChannel file, long off, long len, int maxAlloc,
       Class<?> expect) {
     Exception ex =
@@ -0,0 +1,92 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.android.ziputils;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures {@link SplitZip} splitting a synthetic 1 GiB jar of stored entries into a few shards,
+ * reading the input through buffers or through a memory mapping.
+ */
+public class SplitZipBenchmark {
+  private static final int ENTRIES = 16 * 1024;
+  private static final int ENTRY_SIZE = 64 * 1024;
+  private static final int SHARDS = 4;
+
+  @Param({"false", "true"})
+  boolean memoryMapped;
+
+  private File dir;
+  private File input;
+
+  @BeforeExperiment
+  void setUp() throws IOException {
+    dir = Files.createTempDirectory("split-zip-benchmark").toFile();
+    input = new File(dir, "input.jar");
+    Random random = new Random(0);
+    byte[] content = new byte[ENTRY_SIZE];
+    try (ZipOutputStream out =
+        new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(input)))) {
+      for (int i = 0; i < ENTRIES; i++) {
+        random.nextBytes(content);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        ZipEntry entry = new ZipEntry("com/example/p" + (i / 100) + "/C" + i + ".class");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+      }
+    }
+  }
+
+  @AfterExperiment
+  void tearDown() {
+    for (File file : dir.listFiles()) {
+      file.delete();
+    }
+    dir.delete();
+  }
+
+  @Benchmark
+  long split(int reps) throws IOException {
+    long size = 0;
+    for (int i = 0; i < reps; i++) {
+      SplitZip splitZip = new SplitZip().setMemoryMapped(memoryMapped).useDefaultEntryDate();
+      for (int j = 0; j < SHARDS; j++) {
+        splitZip.addOutput(new File(dir, "shard" + j + ".jar").getPath());
+      }
+      splitZip.addInput(input.getPath()).run().close();
+      for (int j = 0; j < SHARDS; j++) {
+        size += new File(dir, "shard" + j + ".jar").length();
+      }
+    }
+    return size;
+  }
+}
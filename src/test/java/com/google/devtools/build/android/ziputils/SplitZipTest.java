@@ -16,23 +16,32 @@ package com.google.devtools.build.android.ziputils;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth.assertWithMessage;
 import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableSet;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
 /** Unit tests for {@link SplitZip}. */
 @RunWith(JUnit4.class)
 public class SplitZipTest {
+  @Rule public final TemporaryFolder tmp = new TemporaryFolder();
   private FakeFileSystem fileSystem;
 
   @Before
@@ -569,6 +578,40 @@ public class SplitZipTest {
         .isEqualTo(fileSystem.toByteArray("expected/shard2.jar"));
   }
 
+  @Test
+  public void testMemoryMappedInputs() throws IOException {
+    File input = tmp.newFile("input.jar");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(input))) {
+      for (int i = 0; i < 100; i++) {
+        out.putNextEntry(new ZipEntry("pkg" + (i % 7) + "/Test" + i + ".class"));
+        for (int j = 0; j <= i; j++) {
+          out.write(("content of class " + i).getBytes(UTF_8));
+        }
+        out.closeEntry();
+      }
+      out.putNextEntry(new ZipEntry("META-INF/resource.txt"));
+      out.write("resource".getBytes(UTF_8));
+      out.closeEntry();
+    }
+
+    for (boolean memoryMapped : new boolean[] {false, true}) {
+      new SplitZip()
+          .setMemoryMapped(memoryMapped)
+          .addOutput(tmp.getRoot() + "/shard1_" + memoryMapped + ".jar")
+          .addOutput(tmp.getRoot() + "/shard2_" + memoryMapped + ".jar")
+          .addInput(input.getPath())
+          .run()
+          .close();
+    }
+
+    for (String shard : new String[] {"shard1", "shard2"}) {
+      byte[] expected = Files.readAllBytes(new File(tmp.getRoot(), shard + "_false.jar").toPath());
+      byte[] actual = Files.readAllBytes(new File(tmp.getRoot(), shard + "_true.jar").toPath());
+      assertWithMessage(shard).that(expected.length).isGreaterThan(0);
+      assertWithMessage(shard).that(actual).isEqualTo(expected);
+    }
+  }
+
   @Test
   public void testVerbose() {
     SplitZip instance = new SplitZip();
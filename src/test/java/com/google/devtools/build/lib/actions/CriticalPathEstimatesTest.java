@@ -0,0 +1,81 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.vfs.PathFragment;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CriticalPathEstimates}. */
+@RunWith(JUnit4.class)
+public class CriticalPathEstimatesTest {
+
+  private static final PathFragment A = PathFragment.create("out/a");
+  private static final PathFragment B = PathFragment.create("out/b");
+  private static final PathFragment C = PathFragment.create("out/c");
+
+  private static CriticalPathEstimates build(PathFragment... outputs) {
+    CriticalPathEstimates estimates = new CriticalPathEstimates();
+    for (PathFragment output : outputs) {
+      estimates.put(output, 10, 100);
+    }
+    return estimates;
+  }
+
+  @Test
+  public void mergeKeepsEstimatesOfActionsNotInTheBuild() {
+    CriticalPathEstimates estimates = new CriticalPathEstimates();
+    estimates.mergeFrom(build(A, B));
+
+    CriticalPathEstimates incremental = new CriticalPathEstimates();
+    incremental.put(B, 20, 200);
+    estimates.mergeFrom(incremental);
+
+    assertThat(estimates.size()).isEqualTo(2);
+    assertThat(estimates.getDurationMillis(A, -1)).isEqualTo(10);
+    assertThat(estimates.getDurationMillis(B, -1)).isEqualTo(20);
+  }
+
+  @Test
+  public void mergeDropsEstimatesOfLeastRecentBuilds() {
+    CriticalPathEstimates estimates = new CriticalPathEstimates(2);
+    estimates.mergeFrom(build(A));
+    estimates.mergeFrom(build(B));
+    estimates.mergeFrom(build(C));
+
+    assertThat(estimates.size()).isEqualTo(2);
+    assertThat(estimates.getDurationMillis(A, -1)).isEqualTo(-1);
+    assertThat(estimates.getDurationMillis(B, -1)).isEqualTo(10);
+    assertThat(estimates.getDurationMillis(C, -1)).isEqualTo(10);
+
+    // Updating an estimate keeps it.
+    estimates.mergeFrom(build(B));
+    estimates.mergeFrom(build(A));
+    assertThat(estimates.getDurationMillis(B, -1)).isEqualTo(10);
+    assertThat(estimates.getDurationMillis(C, -1)).isEqualTo(-1);
+  }
+
+  @Test
+  public void mergeKeepsAllEstimatesOfLatestBuild() {
+    CriticalPathEstimates estimates = new CriticalPathEstimates(2);
+    estimates.mergeFrom(build(A));
+    estimates.mergeFrom(build(B, C, PathFragment.create("out/d")));
+
+    assertThat(estimates.size()).isEqualTo(3);
+    assertThat(estimates.getDurationMillis(A, -1)).isEqualTo(-1);
+  }
+}
@@ -44,8 +44,9 @@ import org.junit.runners.JUnit4;
 public class DigestUtilsTest {
 
   @After
-  public void tearDown() {
+  public void tearDown() throws IOException {
     DigestUtils.configureCache(0);
+    DigestUtils.configurePersistentCache(null, DigestHashFunction.MD5, 0);
   }
 
   private static void assertDigestCalculationConcurrency(
@@ -219,4 +220,113 @@ public class DigestUtilsTest {
 
     assertThat(digest3).isEqualTo(digest1);
   }
+
+  /** A file system that counts the digests it computes. */
+  private static class DigestCountingFileSystem extends InMemoryFileSystem {
+    private final AtomicInteger getDigestCounter = new AtomicInteger(0);
+
+    DigestCountingFileSystem() {
+      super(BlazeClock.instance());
+    }
+
+    @Override
+    protected byte[] getFastDigest(Path path) throws IOException {
+      return null;
+    }
+
+    @Override
+    protected byte[] getDigest(Path path) throws IOException {
+      getDigestCounter.incrementAndGet();
+      return super.getDigest(path);
+    }
+  }
+
+  /** Reconfigures the caches like a new server does. */
+  private static void restartServer(FileSystem fs, Path cacheFile) throws IOException {
+    DigestUtils.configureCache(0);
+    DigestUtils.configureCache(10);
+    DigestUtils.configurePersistentCache(cacheFile, fs.getDigestFunction(), 10);
+  }
+
+  @Test
+  public void testPersistentCache() throws Exception {
+    DigestCountingFileSystem fs = new DigestCountingFileSystem();
+    Path cacheFile = fs.getPath("/output_base/action_cache/file_digests.blaze");
+    Path file = fs.getPath("/1.txt");
+    FileSystemUtils.writeContentAsLatin1(file, "some contents");
+
+    restartServer(fs, cacheFile);
+    byte[] digest1 = DigestUtils.getDigestOrFail(file, file.getFileSize());
+    assertThat(fs.getDigestCounter.get()).isEqualTo(1);
+    DigestUtils.flushPersistentCache();
+
+    restartServer(fs, cacheFile);
+    byte[] digest2 = DigestUtils.getDigestOrFail(file, file.getFileSize());
+    assertThat(fs.getDigestCounter.get()).isEqualTo(1);
+    assertThat(digest2).isEqualTo(digest1);
+    assertThat(DigestUtils.getPersistentCacheStats().hitCount()).isEqualTo(1);
+    assertThat(DigestUtils.getPersistentCacheStats().missCount()).isEqualTo(0);
+
+    // A changed file is hashed again.
+    FileSystemUtils.writeContentAsLatin1(file, "some other contents");
+    DigestUtils.getDigestOrFail(file, file.getFileSize());
+    assertThat(fs.getDigestCounter.get()).isEqualTo(2);
+    assertThat(DigestUtils.getPersistentCacheStats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testPersistentCacheEvictsLeastRecentlyUsedEntries() throws Exception {
+    DigestCountingFileSystem fs = new DigestCountingFileSystem();
+    Path cacheFile = fs.getPath("/output_base/action_cache/file_digests.blaze");
+    Path[] files = new Path[11];
+    for (int i = 0; i < files.length; i++) {
+      files[i] = fs.getPath("/" + i + ".txt");
+      FileSystemUtils.writeContentAsLatin1(files[i], "contents " + i);
+    }
+
+    restartServer(fs, cacheFile);
+    for (Path file : files) {
+      DigestUtils.getDigestOrFail(file, file.getFileSize());
+    }
+    assertThat(fs.getDigestCounter.get()).isEqualTo(11);
+    // The cache holds 10 entries, so the digest of the first file was evicted.
+    assertThat(DigestUtils.getPersistentCacheStats().evictionCount()).isEqualTo(1);
+    DigestUtils.flushPersistentCache();
+
+    restartServer(fs, cacheFile);
+    DigestUtils.getDigestOrFail(files[10], files[10].getFileSize());
+    assertThat(fs.getDigestCounter.get()).isEqualTo(11);
+    DigestUtils.getDigestOrFail(files[0], files[0].getFileSize());
+    assertThat(fs.getDigestCounter.get()).isEqualTo(12);
+  }
+
+  @Test
+  public void testPersistentCacheRecoversFromTruncatedFile() throws Exception {
+    DigestCountingFileSystem fs = new DigestCountingFileSystem();
+    Path cacheFile = fs.getPath("/output_base/action_cache/file_digests.blaze");
+    Path file1 = fs.getPath("/1.txt");
+    Path file2 = fs.getPath("/2.txt");
+    FileSystemUtils.writeContentAsLatin1(file1, "some contents");
+    FileSystemUtils.writeContentAsLatin1(file2, "some other contents");
+
+    restartServer(fs, cacheFile);
+    DigestUtils.getDigestOrFail(file1, file1.getFileSize());
+    DigestUtils.flushPersistentCache();
+    DigestUtils.getDigestOrFail(file2, file2.getFileSize());
+    DigestUtils.flushPersistentCache();
+    // Cut the second entry short, as if the server died while writing it.
+    byte[] contents = FileSystemUtils.readContent(cacheFile);
+    FileSystemUtils.writeContent(cacheFile, Arrays.copyOf(contents, contents.length - 3));
+
+    restartServer(fs, cacheFile);
+    DigestUtils.getDigestOrFail(file1, file1.getFileSize());
+    DigestUtils.getDigestOrFail(file2, file2.getFileSize());
+    assertThat(fs.getDigestCounter.get()).isEqualTo(3);
+    DigestUtils.flushPersistentCache();
+
+    restartServer(fs, cacheFile);
+    DigestUtils.getDigestOrFail(file1, file1.getFileSize());
+    DigestUtils.getDigestOrFail(file2, file2.getFileSize());
+    assertThat(fs.getDigestCounter.get()).isEqualTo(3);
+  }
 }
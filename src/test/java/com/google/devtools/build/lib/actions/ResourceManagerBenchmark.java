@@ -0,0 +1,120 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil.NullAction;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the wall time of executing a synthetic action graph with the actions waiting for local
+ * resources in arrival order, and in the order of their remaining critical path.
+ *
+ * <p>The graph is a chain of long actions next to many short independent actions, all of which are
+ * ready at the start except for the rest of the chain. Served in arrival order, the actions of the
+ * chain queue up behind the short actions; by critical path, they go first and the short actions
+ * fill the remaining CPUs.
+ */
+public class ResourceManagerBenchmark {
+  private static final int CPUS = 4;
+  private static final int CHAIN_LENGTH = 10;
+  private static final long CHAIN_ACTION_MILLIS = 20;
+  private static final int SHORT_ACTIONS = 200;
+  private static final long SHORT_ACTION_MILLIS = 10;
+
+  @Param({"false", "true"})
+  boolean prioritizeByCriticalPath;
+
+  private final ResourceManager resourceManager = ResourceManager.instanceForTestingOnly();
+  private final List<Action> chain = new ArrayList<>();
+  private final List<Action> shortActions = new ArrayList<>();
+  private ExecutorService executor;
+
+  @BeforeExperiment
+  void setUp() {
+    resourceManager.setAvailableResources(ResourceSet.create(1000, CPUS, 0));
+    resourceManager.setPrioritizeByCriticalPath(prioritizeByCriticalPath);
+    ArtifactRoot root = ArtifactRoot.asSourceRoot(Root.absoluteRoot(new InMemoryFileSystem()));
+    CriticalPathEstimates estimates = resourceManager.getCriticalPathEstimates();
+    for (int i = 0; i < CHAIN_LENGTH; i++) {
+      Action action = new NullAction(output(root, "/chain/" + i));
+      chain.add(action);
+      estimates.put(
+          action.getPrimaryOutput().getExecPath(),
+          CHAIN_ACTION_MILLIS,
+          (CHAIN_LENGTH - i) * CHAIN_ACTION_MILLIS);
+    }
+    for (int i = 0; i < SHORT_ACTIONS; i++) {
+      Action action = new NullAction(output(root, "/short/" + i));
+      shortActions.add(action);
+      estimates.put(
+          action.getPrimaryOutput().getExecPath(), SHORT_ACTION_MILLIS, SHORT_ACTION_MILLIS);
+    }
+    // More threads than CPUs, like --jobs, so that actions wait in the resource manager.
+    executor = Executors.newFixedThreadPool(CHAIN_LENGTH + SHORT_ACTIONS);
+  }
+
+  @AfterExperiment
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  private static Artifact output(ArtifactRoot root, String path) {
+    return new Artifact.SourceArtifact(
+        root, PathFragment.create(path), ActionsTestUtil.NULL_ARTIFACT_OWNER);
+  }
+
+  @Benchmark
+  void executeGraph(int reps) throws InterruptedException {
+    for (int i = 0; i < reps; i++) {
+      CountDownLatch done = new CountDownLatch(CHAIN_LENGTH + SHORT_ACTIONS);
+      executor.execute(() -> runChain(0, done));
+      for (Action action : shortActions) {
+        executor.execute(() -> run(action, SHORT_ACTION_MILLIS, done));
+      }
+      done.await();
+    }
+  }
+
+  /** Runs the chain from the given action on, submitting each action once its input is done. */
+  private void runChain(int index, CountDownLatch done) {
+    run(chain.get(index), CHAIN_ACTION_MILLIS, done);
+    if (index + 1 < CHAIN_LENGTH) {
+      executor.execute(() -> runChain(index + 1, done));
+    }
+  }
+
+  private void run(Action action, long millis, CountDownLatch done) {
+    try (ResourceHandle handle =
+        resourceManager.acquireResources(action, ResourceSet.createWithRamCpu(0, 1))) {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    done.countDown();
+  }
+}
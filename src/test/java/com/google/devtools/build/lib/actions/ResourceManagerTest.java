@@ -19,9 +19,17 @@ import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.devtools.build.lib.actions.ResourceManager.ResourceHandle;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil.NullAction;
 import com.google.devtools.build.lib.analysis.platform.PlatformInfo;
 import com.google.devtools.build.lib.testutil.TestThread;
 import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Root;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -333,6 +341,89 @@ public class ResourceManagerTest {
     thread2.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
   }
 
+  @Test
+  public void testWaitingThreadsAreServedByCriticalPath() throws Exception {
+    rm.setPrioritizeByCriticalPath(true);
+    ArtifactRoot root = ArtifactRoot.asSourceRoot(Root.absoluteRoot(new InMemoryFileSystem()));
+    Artifact shortOutput =
+        new Artifact.SourceArtifact(
+            root, PathFragment.create("/short"), ActionsTestUtil.NULL_ARTIFACT_OWNER);
+    Artifact longOutput =
+        new Artifact.SourceArtifact(
+            root, PathFragment.create("/long"), ActionsTestUtil.NULL_ARTIFACT_OWNER);
+    rm.getCriticalPathEstimates().put(shortOutput.getExecPath(), 10, 10);
+    rm.getCriticalPathEstimates().put(longOutput.getExecPath(), 10, 1000);
+    List<Artifact> order = Collections.synchronizedList(new ArrayList<>());
+
+    // Take all CPU, so that both actions have to wait.
+    acquire(0, 1, 0);
+    TestThread shortThread = new WaitingActionThread(new NullAction(shortOutput), order);
+    shortThread.start();
+    while (rm.getWaitCount() < 1) {
+      Thread.yield();
+    }
+    TestThread longThread = new WaitingActionThread(new NullAction(longOutput), order);
+    longThread.start();
+    while (rm.getWaitCount() < 2) {
+      Thread.yield();
+    }
+    release(0, 1, 0);
+    shortThread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+    longThread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+
+    // The action that arrived last goes first, because more of the build depends on it.
+    assertThat(order).containsExactly(longOutput, shortOutput).inOrder();
+  }
+
+  @Test
+  public void testConcurrentAcquireAndReleaseNeverOverallocates() throws Exception {
+    AtomicInteger holders = new AtomicInteger();
+    AtomicInteger maxHolders = new AtomicInteger();
+    List<TestThread> threads = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      TestThread thread =
+          new TestThread() {
+            @Override
+            public void runTest() throws Exception {
+              for (int j = 0; j < 500; j++) {
+                // A second holder would need 1 + 0.6 of the single CPU, so it has to wait.
+                try (ResourceHandle handle = acquire(0, 1, 0)) {
+                  maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+                  holders.decrementAndGet();
+                }
+              }
+            }
+          };
+      threads.add(thread);
+      thread.start();
+    }
+    for (TestThread thread : threads) {
+      thread.joinAndAssertState(TestUtils.WAIT_TIMEOUT_MILLISECONDS);
+    }
+
+    assertThat(maxHolders.get()).isEqualTo(1);
+    assertThat(rm.inUse()).isFalse();
+    assertThat(rm.getWaitCount()).isEqualTo(0);
+  }
+
+  /** Acquires all CPU for an action and records the order in which actions got it. */
+  private class WaitingActionThread extends TestThread {
+    private final ActionExecutionMetadata action;
+    private final List<Artifact> order;
+
+    private WaitingActionThread(ActionExecutionMetadata action, List<Artifact> order) {
+      this.action = action;
+      this.order = order;
+    }
+
+    @Override
+    public void runTest() throws Exception {
+      try (ResourceHandle handle = rm.acquireResources(action, ResourceSet.create(0, 1, 0))) {
+        order.add(action.getPrimaryOutput());
+      }
+    }
+  }
+
   @Test
   public void testOutOfOrderAllocation() throws Exception {
     final CyclicBarrier sync3 = new CyclicBarrier(2);
@@ -20,6 +20,9 @@ import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.actions.FileArtifactValue;
 import com.google.devtools.build.lib.testutil.ManualClock;
 import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import java.io.IOException;
@@ -137,6 +140,39 @@ public class CompactPersistentActionCacheTest {
     assertFullSave();
   }
 
+  @Test
+  public void testMappedStorage() throws Exception {
+    // Memory mapping needs a real file system.
+    Path mappedRoot =
+        new JavaIoFileSystem(DigestHashFunction.DEFAULT_HASH_FOR_TESTS)
+            .getPath(TestUtils.tmpDir())
+            .getRelative("mapped_action_cache");
+    mappedRoot.deleteTree();
+    CompactPersistentActionCache mappedCache =
+        new CompactPersistentActionCache(mappedRoot, clock, /*useMappedStorage=*/ true);
+    for (int i = 0; i < 100; i++) {
+      putKey(Integer.toString(i), mappedCache, true);
+    }
+    mappedCache.remove("0");
+    mappedCache.save();
+    putKey("not saved", mappedCache, false);
+    assertThat(CompactPersistentActionCache.mappedCacheFile(mappedRoot).exists()).isTrue();
+    assertThat(CompactPersistentActionCache.cacheFile(mappedRoot).exists()).isFalse();
+
+    CompactPersistentActionCache newcache =
+        new CompactPersistentActionCache(mappedRoot, clock, /*useMappedStorage=*/ true);
+    assertThat(newcache.get("0")).isNull();
+    for (int i = 1; i < 100; i++) {
+      assertKeyEquals(mappedCache, newcache, Integer.toString(i));
+    }
+    assertThat(newcache.get("not saved")).isNull();
+
+    // Switching back to the heap format starts from an empty cache.
+    CompactPersistentActionCache heapCache = new CompactPersistentActionCache(mappedRoot, clock);
+    assertThat(heapCache.get("1")).isNull();
+    assertThat(CompactPersistentActionCache.mappedCacheFile(mappedRoot).exists()).isFalse();
+  }
+
   // Regression test to check that CompactActionCacheEntry.toString does not mutate the object.
   // Mutations may result in IllegalStateException.
   @Test
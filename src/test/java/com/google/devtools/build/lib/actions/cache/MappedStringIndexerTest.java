@@ -0,0 +1,112 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions.cache;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Test for the MappedStringIndexer class. */
+@RunWith(JUnit4.class)
+public class MappedStringIndexerTest {
+  private final ManualClock clock = new ManualClock();
+  private Path dataPath;
+  private MappedStringIndexer indexer;
+
+  @Before
+  public final void createIndexer() throws Exception {
+    // Memory mapping needs a real file system.
+    Path root =
+        new JavaIoFileSystem(DigestHashFunction.DEFAULT_HASH_FOR_TESTS)
+            .getPath(TestUtils.tmpDir())
+            .getRelative("mapped_string_indexer_test");
+    root.deleteTree();
+    dataPath = root.getRelative("index.blaze");
+    indexer = newIndexer();
+  }
+
+  private MappedStringIndexer newIndexer() throws IOException {
+    return MappedStringIndexer.newMappedStringIndexer(
+        dataPath, clock, MoreExecutors.directExecutor());
+  }
+
+  @Test
+  public void testNormalOperation() throws Exception {
+    assertThat(indexer.size()).isEqualTo(0);
+    assertThat(indexer.getOrCreateIndex("abc")).isEqualTo(0);
+    assertThat(indexer.getOrCreateIndex("abcdef")).isEqualTo(1);
+    assertThat(indexer.getOrCreateIndex("abc")).isEqualTo(0);
+    assertThat(indexer.addString("")).isTrue();
+    assertThat(indexer.addString("abcdef")).isFalse();
+
+    assertThat(indexer.size()).isEqualTo(3);
+    assertThat(indexer.getIndex("abcdef")).isEqualTo(1);
+    assertThat(indexer.getIndex("xyz")).isEqualTo(-1);
+    assertThat(indexer.getStringForIndex(2)).isEmpty();
+    assertThat(indexer.getStringForIndex(3)).isNull();
+  }
+
+  @Test
+  public void testSaveAndReload() throws Exception {
+    for (int i = 0; i < 50000; i++) {
+      assertThat(indexer.getOrCreateIndex("foo/bar/file" + i + ".ä")).isEqualTo(i);
+    }
+    indexer.save();
+    indexer.getOrCreateIndex("not saved");
+
+    indexer = newIndexer();
+
+    assertThat(indexer.size()).isEqualTo(50000);
+    for (int i = 0; i < 50000; i += 97) {
+      assertThat(indexer.getIndex("foo/bar/file" + i + ".ä")).isEqualTo(i);
+      assertThat(indexer.getStringForIndex(i)).isEqualTo("foo/bar/file" + i + ".ä");
+    }
+    assertThat(indexer.getIndex("not saved")).isEqualTo(-1);
+    assertThat(indexer.getOrCreateIndex("new")).isEqualTo(50000);
+  }
+
+  @Test
+  public void testFlushWritesAfterInterval() throws Exception {
+    indexer.getOrCreateIndex("abc");
+    long initialSize = dataPath.getFileSize();
+
+    clock.advanceMillis(4000);
+    indexer.getOrCreateIndex("def");
+
+    assertThat(dataPath.getFileSize()).isGreaterThan(initialSize);
+    assertThat(newIndexer().getIndex("def")).isEqualTo(1);
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    indexer.getOrCreateIndex("abc");
+    indexer.save();
+
+    indexer.clear();
+
+    assertThat(indexer.size()).isEqualTo(0);
+    assertThat(indexer.getIndex("abc")).isEqualTo(-1);
+    assertThat(indexer.getOrCreateIndex("def")).isEqualTo(0);
+  }
+}
@@ -0,0 +1,180 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link NestedSetExpander} and the expansion strategies of {@link NestedSet}. */
+@RunWith(JUnit4.class)
+public class NestedSetExpanderTest {
+
+  @After
+  public void restoreDefaults() {
+    NestedSetExpander.setParallelThreshold(0);
+    NestedSetExpander.clearCacheForTesting();
+  }
+
+  /** Builds a random DAG of nested sets; the same seed yields structurally identical sets. */
+  private static List<NestedSet<String>> randomSets(Order order, long seed, int count) {
+    Random random = new Random(seed);
+    List<NestedSet<String>> sets = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      NestedSetBuilder<String> builder = new NestedSetBuilder<>(order);
+      int directCount = random.nextInt(4);
+      for (int j = 0; j < directCount; j++) {
+        builder.add("e" + random.nextInt(3 * count));
+      }
+      if (!sets.isEmpty()) {
+        int transitiveCount = random.nextInt(5);
+        for (int j = 0; j < transitiveCount; j++) {
+          builder.addTransitive(sets.get(random.nextInt(sets.size())));
+        }
+      }
+      sets.add(builder.build());
+    }
+    return sets;
+  }
+
+  private static List<ImmutableList<String>> expandSequentially(List<NestedSet<String>> sets) {
+    NestedSetExpander.setParallelThreshold(0);
+    List<ImmutableList<String>> expansions = new ArrayList<>();
+    for (NestedSet<String> set : sets) {
+      expansions.add(set.toList());
+    }
+    return expansions;
+  }
+
+  @Test
+  public void parallelExpansionMatchesSequentialExpansion() {
+    for (Order order : Order.values()) {
+      List<ImmutableList<String>> expected = expandSequentially(randomSets(order, 1, 300));
+
+      NestedSetExpander.setParallelThreshold(1);
+      List<NestedSet<String>> sets = randomSets(order, 1, 300);
+      // From the largest set down, so that smaller sets find their nodes in the cache.
+      for (int i = sets.size() - 1; i >= 0; i--) {
+        assertThat(sets.get(i).toList()).containsExactlyElementsIn(expected.get(i)).inOrder();
+        assertThat(ImmutableList.copyOf(sets.get(i).iterator()))
+            .containsExactlyElementsIn(expected.get(i))
+            .inOrder();
+      }
+      NestedSetExpander.clearCacheForTesting();
+    }
+  }
+
+  @Test
+  public void iteratorReplaysFirstExpansion() {
+    for (Order order : Order.values()) {
+      List<NestedSet<String>> sets = randomSets(order, 2, 200);
+      List<ImmutableList<String>> expected = expandSequentially(sets);
+
+      for (int i = 0; i < sets.size(); i++) {
+        assertThat(ImmutableList.copyOf(sets.get(i).iterator()))
+            .containsExactlyElementsIn(expected.get(i))
+            .inOrder();
+      }
+    }
+  }
+
+  @Test
+  public void iteratorOnFirstExpansion() {
+    List<NestedSet<String>> sets = randomSets(Order.STABLE_ORDER, 3, 200);
+    List<ImmutableList<String>> expected =
+        expandSequentially(randomSets(Order.STABLE_ORDER, 3, 200));
+
+    for (int i = 0; i < sets.size(); i++) {
+      assertThat(ImmutableList.copyOf(sets.get(i).iterator()))
+          .containsExactlyElementsIn(expected.get(i))
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void largeSetsAreExpandedByExpander() {
+    NestedSetExpander.setParallelThreshold(1_000);
+    NestedSetBuilder<String> wide = NestedSetBuilder.stableOrder();
+    for (int i = 0; i < 10; i++) {
+      NestedSetBuilder<String> part = NestedSetBuilder.stableOrder();
+      for (int j = 0; j < 200; j++) {
+        part.add("e" + (i * 100 + j));
+      }
+      wide.addTransitive(part.build());
+    }
+    NestedSet<String> set = wide.build();
+
+    ImmutableList<String> expansion = set.toList();
+
+    assertThat(NestedSetExpander.getComputedExpansionsForTesting()).isEqualTo(1);
+    // Parts overlap by half.
+    assertThat(expansion).hasSize(1_100);
+    assertThat(expansion.get(0)).isEqualTo("e0");
+    assertThat(expansion.get(1_099)).isEqualTo("e1099");
+    assertThat(set.toList()).isEqualTo(expansion);
+    assertThat(ImmutableList.copyOf(set.iterator())).isEqualTo(expansion);
+    // Later expansions are memoized.
+    assertThat(NestedSetExpander.getComputedExpansionsForTesting()).isEqualTo(1);
+  }
+
+  @Test
+  public void setsSmallerThanEstimatedKeepTheirExpansion() {
+    NestedSetExpander.setParallelThreshold(1_500);
+    NestedSetBuilder<String> wide = NestedSetBuilder.stableOrder();
+    for (int i = 0; i < 10; i++) {
+      NestedSetBuilder<String> part = NestedSetBuilder.stableOrder();
+      for (int j = 0; j < 200; j++) {
+        part.add("e" + (i * 100 + j));
+      }
+      wide.addTransitive(part.build());
+    }
+    NestedSet<String> set = wide.build();
+
+    // The estimate of 2000 elements is above the threshold, the actual size of 1100 is not.
+    ImmutableList<String> expansion = set.toList();
+    Object[] memoized = NestedSetExpander.getIfExpanded((Object[]) set.getChildren());
+
+    assertThat(memoized).hasLength(1_100);
+    assertThat(set.toList()).isEqualTo(expansion);
+    assertThat(ImmutableList.copyOf(set.iterator())).isEqualTo(expansion);
+    assertThat(NestedSetExpander.getIfExpanded((Object[]) set.getChildren()))
+        .isSameInstanceAs(memoized);
+    assertThat(NestedSetExpander.getComputedExpansionsForTesting()).isEqualTo(1);
+
+    // The set was not walked, which would have memoized it in the set itself instead.
+    NestedSetExpander.clearCacheForTesting();
+    NestedSetExpander.setParallelThreshold(1);
+    assertThat(set.toList()).isEqualTo(expansion);
+    assertThat(NestedSetExpander.getComputedExpansionsForTesting()).isEqualTo(1);
+  }
+
+  @Test
+  public void smallSetsAreNotExpandedByExpander() {
+    NestedSetExpander.setParallelThreshold(1_000);
+    NestedSetBuilder<String> builder = NestedSetBuilder.stableOrder();
+    for (int i = 0; i < 10; i++) {
+      builder.addTransitive(NestedSetBuilder.create(Order.STABLE_ORDER, "e" + i, "f" + i));
+    }
+
+    assertThat(builder.build().toList()).hasSize(20);
+    assertThat(NestedSetExpander.getComputedExpansionsForTesting()).isEqualTo(0);
+  }
+}
@@ -0,0 +1,103 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.collect.nestedset;
+
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures the first expansion of nested sets built on top of large shared subsets, as for the
+ * inputs of actions that share a transitive classpath, sequentially and with {@link
+ * NestedSetExpander}.
+ */
+public class NestedSetExpansionBenchmark {
+  /** The shape of the shared subsets. */
+  public enum Shape {
+    /** A chain of sets, each adding a few elements to the previous one. */
+    DEEP,
+    /** Many overlapping leaf sets, grouped into a few intermediate sets. */
+    WIDE
+  }
+
+  @Param Shape shape;
+
+  @Param({"false", "true"})
+  boolean parallel;
+
+  private final List<NestedSet<String>> shared = new ArrayList<>();
+
+  @BeforeExperiment
+  void setUp() {
+    NestedSetExpander.setParallelThreshold(parallel ? 1 << 14 : 0);
+    Random random = new Random(0);
+    switch (shape) {
+      case DEEP:
+        NestedSet<String> previous = NestedSetBuilder.emptySet(Order.STABLE_ORDER);
+        for (int i = 0; i < 5_000; i++) {
+          NestedSetBuilder<String> builder = NestedSetBuilder.stableOrder();
+          for (int j = 0; j < 10; j++) {
+            builder.add("deep-" + i + "-" + j);
+          }
+          previous = builder.addTransitive(previous).build();
+          if (i % 500 == 499) {
+            shared.add(previous);
+          }
+        }
+        break;
+      case WIDE:
+        List<NestedSet<String>> leaves = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+          NestedSetBuilder<String> builder = NestedSetBuilder.stableOrder();
+          for (int j = 0; j < 200; j++) {
+            builder.add("wide-" + (i * 100 + j));
+          }
+          leaves.add(builder.build());
+        }
+        for (int i = 0; i < 20; i++) {
+          NestedSetBuilder<String> builder = NestedSetBuilder.stableOrder();
+          for (int j = 0; j < 50; j++) {
+            builder.addTransitive(leaves.get(random.nextInt(leaves.size())));
+          }
+          shared.add(builder.build());
+        }
+        break;
+    }
+  }
+
+  @AfterExperiment
+  void tearDown() {
+    NestedSetExpander.setParallelThreshold(0);
+    NestedSetExpander.clearCacheForTesting();
+  }
+
+  @Benchmark
+  int expandNewSets(int reps) {
+    int size = 0;
+    for (int i = 0; i < reps; i++) {
+      // A new set each time, so that its memo cannot be reused.
+      NestedSetBuilder<String> builder = NestedSetBuilder.stableOrder();
+      builder.add("action-" + i);
+      for (NestedSet<String> set : shared) {
+        builder.addTransitive(set);
+      }
+      size += builder.build().toList().size();
+    }
+    return size;
+  }
+}
@@ -0,0 +1,185 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.graph;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.util.Random;
+
+/**
+ * Compares {@link Digraph} and {@link CompactDigraph} on synthetic dependency graphs: the time and
+ * allocations to build them, and to run the algorithms used by query.
+ *
+ * <p>The graphs are layered like build graphs: each node depends on the node at the same position
+ * in the next layer, so that there are paths across all layers, and on a few random others. Layers
+ * are wide enough that the recursive algorithms of {@link Digraph} do not overflow the stack.
+ */
+public class CompactDigraphBenchmark {
+  /** The graph class being measured. */
+  public enum Implementation {
+    DIGRAPH,
+    COMPACT
+  }
+
+  private static final int LAYER_WIDTH = 1000;
+  private static final int DEPENDENCIES_PER_NODE = 4;
+
+  @Param({"100000", "1000000"})
+  int nodes;
+
+  @Param Implementation implementation;
+
+  private Integer[] labels;
+  private int[] from;
+  private int[] to;
+  private Digraph<Integer> digraph;
+  private CompactDigraph<Integer> compactDigraph;
+
+  @BeforeExperiment
+  void setUp() {
+    labels = new Integer[nodes];
+    for (int i = 0; i < nodes; i++) {
+      labels[i] = i;
+    }
+    Random random = new Random(0);
+    int numEdges = (nodes - LAYER_WIDTH) * DEPENDENCIES_PER_NODE;
+    from = new int[numEdges];
+    to = new int[numEdges];
+    int e = 0;
+    for (int i = 0; i < nodes - LAYER_WIDTH; i++) {
+      int nextLayer = (i / LAYER_WIDTH + 1) * LAYER_WIDTH;
+      for (int j = 0; j < DEPENDENCIES_PER_NODE; j++) {
+        from[e] = i;
+        to[e] =
+            j == 0
+                ? i + LAYER_WIDTH
+                : nextLayer + random.nextInt(Math.min(LAYER_WIDTH, nodes - nextLayer));
+        e++;
+      }
+    }
+    switch (implementation) {
+      case DIGRAPH:
+        digraph = buildDigraph();
+        break;
+      case COMPACT:
+        compactDigraph = buildCompactDigraph();
+        break;
+    }
+  }
+
+  private Digraph<Integer> buildDigraph() {
+    Digraph<Integer> graph = new Digraph<>();
+    for (Integer label : labels) {
+      graph.createNode(label);
+    }
+    for (int e = 0; e < from.length; e++) {
+      graph.addEdge(labels[from[e]], labels[to[e]]);
+    }
+    return graph;
+  }
+
+  private CompactDigraph<Integer> buildCompactDigraph() {
+    CompactDigraph.Builder<Integer> builder = CompactDigraph.builder();
+    for (Integer label : labels) {
+      builder.addNode(label);
+    }
+    for (int e = 0; e < from.length; e++) {
+      builder.addEdgeById(from[e], to[e]);
+    }
+    return builder.build();
+  }
+
+  @Benchmark
+  int build(int reps) {
+    int size = 0;
+    for (int i = 0; i < reps; i++) {
+      switch (implementation) {
+        case DIGRAPH:
+          size += buildDigraph().getNodeCount();
+          break;
+        case COMPACT:
+          size += buildCompactDigraph().size();
+          break;
+      }
+    }
+    return size;
+  }
+
+  @Benchmark
+  int topologicalOrder(int reps) {
+    int size = 0;
+    for (int i = 0; i < reps; i++) {
+      switch (implementation) {
+        case DIGRAPH:
+          size += digraph.getTopologicalOrder().size();
+          break;
+        case COMPACT:
+          size += compactDigraph.getTopologicalOrder().length;
+          break;
+      }
+    }
+    return size;
+  }
+
+  @Benchmark
+  int stronglyConnectedComponents(int reps) {
+    int size = 0;
+    for (int i = 0; i < reps; i++) {
+      switch (implementation) {
+        case DIGRAPH:
+          size += digraph.getStronglyConnectedComponents().size();
+          break;
+        case COMPACT:
+          size += compactDigraph.getStronglyConnectedComponents().length;
+          break;
+      }
+    }
+    return size;
+  }
+
+  @Benchmark
+  int fwdReachable(int reps) {
+    int size = 0;
+    for (int i = 0; i < reps; i++) {
+      switch (implementation) {
+        case DIGRAPH:
+          size += digraph.getFwdReachable(digraph.getNode(labels[0])).size();
+          break;
+        case COMPACT:
+          size += compactDigraph.getFwdReachable(0).cardinality();
+          break;
+      }
+    }
+    return size;
+  }
+
+  @Benchmark
+  int shortestPath(int reps) {
+    int size = 0;
+    for (int i = 0; i < reps; i++) {
+      switch (implementation) {
+        case DIGRAPH:
+          Node<Integer> last = digraph.getNode(labels[nodes - LAYER_WIDTH]);
+          size += digraph.getShortestPath(digraph.getNode(labels[0]), last).size();
+          break;
+        case COMPACT:
+          size += compactDigraph.getShortestPath(0, nodes - LAYER_WIDTH).length;
+          break;
+      }
+    }
+    return size;
+  }
+}
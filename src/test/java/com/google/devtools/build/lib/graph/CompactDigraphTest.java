@@ -0,0 +1,280 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.graph;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompactDigraph}. */
+@RunWith(JUnit4.class)
+public class CompactDigraphTest {
+
+  /**
+   * Returns the labels of the nodes of each level, sorted, as the order of the nodes of a {@link
+   * Digraph} is unspecified.
+   */
+  private static Map<Integer, List<String>> levels(
+      CompactDigraph<String> graph, boolean maxRank) {
+    Map<Integer, List<String>> levels = new LinkedHashMap<>();
+    CompactDigraph.LevelVisitor<String, RuntimeException> visitor =
+        (level, labels) -> {
+          labels = new ArrayList<>(labels);
+          Collections.sort(labels);
+          assertThat(levels.put(level, labels)).isNull();
+        };
+    if (maxRank) {
+      graph.visitByMaxRank(visitor);
+    } else {
+      graph.visitByMinRank(visitor);
+    }
+    return levels;
+  }
+
+  /** a -> b -> c -> d, with a shortcut a -> d and a cycle c -> e -> c. */
+  private static Digraph<String> createGraph() {
+    Digraph<String> digraph = new Digraph<>();
+    digraph.addEdge("a", "b");
+    digraph.addEdge("b", "c");
+    digraph.addEdge("c", "d");
+    digraph.addEdge("a", "d");
+    digraph.addEdge("c", "e");
+    digraph.addEdge("e", "c");
+    return digraph;
+  }
+
+  @Test
+  public void testMinRank() {
+    Map<Integer, List<String>> levels = levels(CompactDigraph.of(createGraph()), false);
+    assertThat(levels).containsExactly(0, list("a"), 1, list("b", "d"), 2, list("c", "e"));
+  }
+
+  @Test
+  public void testMaxRank() {
+    Map<Integer, List<String>> levels = levels(CompactDigraph.of(createGraph()), true);
+    assertThat(levels)
+        .containsExactly(0, list("a"), 1, list("b"), 2, list("c", "e"), 3, list("d"))
+        .inOrder();
+  }
+
+  @Test
+  public void testGraphThatIsOneCycle() {
+    Digraph<String> digraph = new Digraph<>();
+    digraph.addEdge("a", "b");
+    digraph.addEdge("b", "a");
+    assertThat(levels(CompactDigraph.of(digraph), false)).containsExactly(0, list("a", "b"));
+    assertThat(levels(CompactDigraph.of(digraph), true)).containsExactly(0, list("a", "b"));
+  }
+
+  @Test
+  public void testStronglyConnectedComponents() {
+    CompactDigraph<String> graph = CompactDigraph.of(createGraph());
+    int[] components = graph.getStronglyConnectedComponents();
+    Map<String, Integer> componentOf = new LinkedHashMap<>();
+    for (int id = 0; id < graph.size(); id++) {
+      componentOf.put(graph.getLabel(id), components[id]);
+    }
+    assertThat(componentOf.get("c")).isEqualTo(componentOf.get("e"));
+    assertThat(ImmutableSet.copyOf(componentOf.values())).containsExactly(0, 1, 2, 3);
+    // Successors have lower numbers.
+    assertThat(componentOf.get("d")).isLessThan(componentOf.get("c"));
+    assertThat(componentOf.get("c")).isLessThan(componentOf.get("b"));
+    assertThat(componentOf.get("b")).isLessThan(componentOf.get("a"));
+  }
+
+  @Test
+  public void testPartitionByNeighbors() {
+    Digraph<String> digraph = new Digraph<>();
+    digraph.addEdge("a", "x");
+    digraph.addEdge("a", "y");
+    digraph.addEdge("x", "z");
+    digraph.addEdge("y", "z");
+    digraph.addEdge("a", "w");
+    Collection<Set<String>> partition = CompactDigraph.of(digraph).partitionByNeighbors();
+    assertThat(partition)
+        .containsExactly(
+            ImmutableSet.of("a"), ImmutableSet.of("x", "y"), ImmutableSet.of("z"),
+            ImmutableSet.of("w"));
+  }
+
+  @Test
+  public void testLargeLevelsAreSweptInParallel() {
+    // A root with many children, each with a child of its own, all joined by a single sink.
+    int width = 20000;
+    Digraph<String> digraph = new Digraph<>();
+    for (int i = 0; i < width; i++) {
+      digraph.addEdge("root", "child" + i);
+      digraph.addEdge("child" + i, "grandchild" + i);
+      digraph.addEdge("grandchild" + i, "sink");
+    }
+    digraph.addEdge("root", "sink");
+    CompactDigraph<String> graph = CompactDigraph.of(digraph);
+
+    Map<Integer, List<String>> minRank = levels(graph, false);
+    assertThat(minRank.keySet()).containsExactly(0, 1, 2).inOrder();
+    assertThat(minRank.get(1)).hasSize(width + 1);
+    assertThat(minRank.get(2)).hasSize(width);
+
+    Map<Integer, List<String>> maxRank = levels(graph, true);
+    assertThat(maxRank.keySet()).containsExactly(0, 1, 2, 3).inOrder();
+    assertThat(maxRank.get(1)).hasSize(width);
+    assertThat(maxRank.get(2)).hasSize(width);
+    assertThat(maxRank.get(3)).containsExactly("sink");
+  }
+
+  @Test
+  public void testBuilder() {
+    CompactDigraph.Builder<String> builder = CompactDigraph.builder();
+    assertThat(builder.addNode("a")).isEqualTo(0);
+    builder.addEdge("a", "c").addEdge("b", "a").addEdge("a", "c");
+    assertThat(builder.addNode("c")).isEqualTo(1);
+    CompactDigraph<String> graph = builder.build();
+
+    assertThat(graph.size()).isEqualTo(3);
+    assertThat(graph.getEdgeCount()).isEqualTo(2);
+    assertThat(graph.getLabel(2)).isEqualTo("b");
+    assertThat(graph.getId("b")).isEqualTo(2);
+    assertThat(graph.getId("d")).isEqualTo(-1);
+    assertThat(graph.getSuccessors(0)).asList().containsExactly(1);
+    assertThat(graph.getPredecessors(0)).asList().containsExactly(2);
+    assertThat(graph.getSuccessors(1)).isEmpty();
+  }
+
+  @Test
+  public void testBuilderGrowsPastItsInitialCapacity() {
+    CompactDigraph.Builder<Integer> builder = CompactDigraph.builder();
+    for (int i = 1; i < 1000; i++) {
+      builder.addEdge(i / 2, i);
+    }
+    CompactDigraph<Integer> graph = builder.build();
+    assertThat(graph.size()).isEqualTo(1000);
+    assertThat(graph.getEdgeCount()).isEqualTo(999);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(graph.getLabel(graph.getId(i))).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void testIsCyclic() {
+    assertThat(CompactDigraph.of(createGraph()).isCyclic()).isTrue();
+    assertThat(CompactDigraph.<String>builder().addEdge("a", "b").build().isCyclic()).isFalse();
+    assertThat(CompactDigraph.<String>builder().addEdge("a", "a").build().isCyclic()).isTrue();
+  }
+
+  @Test
+  public void testTopologicalOrder() {
+    CompactDigraph<String> graph =
+        CompactDigraph.<String>builder()
+            .addEdge("d", "e")
+            .addEdge("b", "c")
+            .addEdge("a", "b")
+            .addEdge("a", "d")
+            .addEdge("c", "e")
+            .build();
+    int[] order = graph.getTopologicalOrder();
+    assertThat(order).hasLength(graph.size());
+    int[] position = new int[graph.size()];
+    for (int i = 0; i < order.length; i++) {
+      position[order[i]] = i;
+    }
+    for (int id = 0; id < graph.size(); id++) {
+      for (int successor : graph.getSuccessors(id)) {
+        assertThat(position[id]).isLessThan(position[successor]);
+      }
+    }
+  }
+
+  @Test
+  public void testReachability() {
+    CompactDigraph<String> graph = CompactDigraph.of(createGraph());
+    assertThat(labels(graph, graph.getFwdReachable(graph.getId("b"))))
+        .containsExactly("b", "c", "d", "e");
+    assertThat(labels(graph, graph.getFwdReachable(graph.getId("d"), graph.getId("e"))))
+        .containsExactly("c", "d", "e");
+    assertThat(labels(graph, graph.getBackReachable(graph.getId("e"))))
+        .containsExactly("a", "b", "c", "e");
+  }
+
+  @Test
+  public void testShortestPath() {
+    CompactDigraph<String> graph = CompactDigraph.of(createGraph());
+    assertThat(path(graph, "a", "d")).containsExactly("a", "d").inOrder();
+    assertThat(path(graph, "a", "e")).containsExactly("a", "b", "c", "e").inOrder();
+    assertThat(path(graph, "e", "d")).containsExactly("e", "c", "d").inOrder();
+    assertThat(path(graph, "c", "c")).containsExactly("c");
+    assertThat(graph.getShortestPath(graph.getId("d"), graph.getId("a"))).isNull();
+  }
+
+  @Test
+  public void testShortestPathBreaksTiesLikeDigraph() {
+    // Many paths of the same length from "root" to "leaf", through "m0" to "m49".
+    Digraph<String> digraph = new Digraph<>();
+    for (int i = 49; i >= 0; i--) {
+      digraph.addEdge("root", "m" + ((i * 17) % 50));
+    }
+    for (int i = 0; i < 50; i++) {
+      digraph.addEdge("m" + i, "leaf");
+    }
+    CompactDigraph<String> graph = CompactDigraph.of(digraph);
+
+    List<String> expected = new ArrayList<>();
+    for (Node<String> node :
+        digraph.getShortestPath(digraph.getNode("root"), digraph.getNode("leaf"))) {
+      expected.add(node.getLabel());
+    }
+    assertThat(path(graph, "root", "leaf")).containsExactlyElementsIn(expected).inOrder();
+    List<String> successors = new ArrayList<>();
+    for (int id : graph.getSuccessors(graph.getId("root"))) {
+      successors.add(graph.getLabel(id));
+    }
+    List<String> expectedSuccessors = new ArrayList<>();
+    for (Node<String> node : digraph.getNode("root").getSuccessors()) {
+      expectedSuccessors.add(node.getLabel());
+    }
+    assertThat(successors).containsExactlyElementsIn(expectedSuccessors).inOrder();
+  }
+
+  private static List<String> labels(CompactDigraph<String> graph, BitSet ids) {
+    List<String> labels = new ArrayList<>();
+    for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+      labels.add(graph.getLabel(id));
+    }
+    return labels;
+  }
+
+  private static List<String> path(CompactDigraph<String> graph, String from, String to) {
+    List<String> labels = new ArrayList<>();
+    for (int id : graph.getShortestPath(graph.getId(from), graph.getId(to))) {
+      labels.add(graph.getLabel(id));
+    }
+    return labels;
+  }
+
+  private static List<String> list(String... labels) {
+    return Arrays.asList(labels);
+  }
+}
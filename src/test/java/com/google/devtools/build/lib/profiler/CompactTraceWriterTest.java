@@ -0,0 +1,246 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.profiler;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link CompactTraceWriter} and {@link CompactTraceConverter}. */
+@RunWith(JUnit4.class)
+public class CompactTraceWriterTest {
+  private static final long START_TIME_NANOS = TimeUnit.SECONDS.toNanos(100);
+
+  private static JsonObject convert(ByteArrayOutputStream profile) throws IOException {
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    CompactTraceConverter.convert(new ByteArrayInputStream(profile.toByteArray()), json);
+    return new JsonParser()
+        .parse(new String(json.toByteArray(), StandardCharsets.UTF_8))
+        .getAsJsonObject();
+  }
+
+  private static List<JsonObject> eventsOfPhase(JsonObject trace, String phase) {
+    List<JsonObject> events = new ArrayList<>();
+    for (JsonElement element : trace.getAsJsonArray("traceEvents")) {
+      JsonObject event = element.getAsJsonObject();
+      if (event.get("ph").getAsString().equals(phase)) {
+        events.add(event);
+      }
+    }
+    return events;
+  }
+
+  @Test
+  public void convertsToJsonTrace() throws Exception {
+    ByteArrayOutputStream profile = new ByteArrayOutputStream();
+    CompactTraceWriter writer =
+        new CompactTraceWriter(profile, START_TIME_NANOS, "build-id", "output-base");
+    writer.start();
+    writer.record(START_TIME_NANOS + 5_000_000, 2_000_000, ProfilerTask.INFO, "parent");
+    writer.record(START_TIME_NANOS + 3_000_000, 1_000_000, ProfilerTask.ACTION, "child");
+    writer.record(START_TIME_NANOS + 7_000_000, 0, ProfilerTask.INFO, "event");
+    writer.record(
+        START_TIME_NANOS + 8_000_000,
+        4_000_000,
+        ProfilerTask.CRITICAL_PATH_COMPONENT,
+        "critical");
+    writer.shutdown();
+
+    JsonObject trace = convert(profile);
+
+    JsonObject otherData = trace.getAsJsonObject("otherData");
+    assertThat(otherData.get("build_id").getAsString()).isEqualTo("build-id");
+    assertThat(otherData.get("output_base").getAsString()).isEqualTo("output-base");
+    assertThat(otherData.has("dropped_events")).isFalse();
+
+    List<String> threadNames = new ArrayList<>();
+    for (JsonObject metadata : eventsOfPhase(trace, "M")) {
+      threadNames.add(metadata.getAsJsonObject("args").get("name").getAsString());
+    }
+    assertThat(threadNames).containsExactly("Critical Path", Thread.currentThread().getName());
+
+    List<JsonObject> complete = eventsOfPhase(trace, "X");
+    assertThat(complete).hasSize(3);
+    JsonObject parent = complete.get(0);
+    assertThat(parent.get("name").getAsString()).isEqualTo("parent");
+    assertThat(parent.get("cat").getAsString()).isEqualTo(ProfilerTask.INFO.description);
+    assertThat(parent.get("ts").getAsLong()).isEqualTo(5_000);
+    assertThat(parent.get("dur").getAsLong()).isEqualTo(2_000);
+    assertThat(parent.get("tid").getAsLong()).isEqualTo(Thread.currentThread().getId());
+    JsonObject child = complete.get(1);
+    assertThat(child.get("name").getAsString()).isEqualTo("child");
+    assertThat(child.get("ts").getAsLong()).isEqualTo(3_000);
+    JsonObject critical = complete.get(2);
+    assertThat(critical.get("name").getAsString()).isEqualTo("critical");
+    assertThat(critical.get("tid").getAsLong()).isEqualTo(0);
+
+    List<JsonObject> instant = eventsOfPhase(trace, "i");
+    assertThat(instant).hasSize(1);
+    assertThat(instant.get(0).get("name").getAsString()).isEqualTo("event");
+    assertThat(instant.get(0).get("ts").getAsLong()).isEqualTo(7_000);
+  }
+
+  @Test
+  public void recordsEventsOfAllThreads() throws Exception {
+    ByteArrayOutputStream profile = new ByteArrayOutputStream();
+    CompactTraceWriter writer =
+        new CompactTraceWriter(
+            profile,
+            START_TIME_NANOS,
+            "build-id",
+            "output-base",
+            /* eventsPerChunk= */ 16,
+            /* maxChunks= */ 64);
+    writer.start();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                for (int j = 0; j < 100; j++) {
+                  writer.record(START_TIME_NANOS + j, 1_000, ProfilerTask.INFO, "task " + j);
+                }
+              },
+              "worker " + i);
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    writer.shutdown();
+
+    JsonObject trace = convert(profile);
+
+    assertThat(writer.getDroppedEvents()).isEqualTo(0);
+    assertThat(eventsOfPhase(trace, "X")).hasSize(400);
+    // The critical path and the four workers.
+    assertThat(eventsOfPhase(trace, "M")).hasSize(5);
+  }
+
+  @Test
+  public void dropsEventsWhenAllChunksAreInUse() throws Exception {
+    ByteArrayOutputStream profile = new ByteArrayOutputStream();
+    CompactTraceWriter writer =
+        new CompactTraceWriter(
+            profile,
+            START_TIME_NANOS,
+            "build-id",
+            "output-base",
+            /* eventsPerChunk= */ 2,
+            /* maxChunks= */ 1);
+    // The writer thread is not started yet, so the only chunk is not returned to the pool.
+    for (int i = 0; i < 5; i++) {
+      writer.record(START_TIME_NANOS + i, 1_000, ProfilerTask.INFO, "task " + i);
+    }
+    writer.start();
+    writer.shutdown();
+
+    JsonObject trace = convert(profile);
+
+    assertThat(writer.getDroppedEvents()).isEqualTo(3);
+    assertThat(trace.getAsJsonObject("otherData").get("dropped_events").getAsLong())
+        .isEqualTo(3);
+    JsonArray events = trace.getAsJsonArray("traceEvents");
+    // The critical path thread name, the thread name and the two recorded events.
+    assertThat(events.size()).isEqualTo(4);
+  }
+
+  @Test
+  public void chunksOfExitedAndIdleThreadsAreReclaimed() throws Exception {
+    ByteArrayOutputStream profile = new ByteArrayOutputStream();
+    CompactTraceWriter writer =
+        new CompactTraceWriter(
+            profile,
+            START_TIME_NANOS,
+            "build-id",
+            "output-base",
+            /* eventsPerChunk= */ 10,
+            /* maxChunks= */ 1,
+            /* idleFlushIntervalNanos= */ TimeUnit.MILLISECONDS.toNanos(10));
+    writer.start();
+    Thread thread =
+        new Thread(() -> writer.record(START_TIME_NANOS, 1_000, ProfilerTask.INFO, "exited"));
+    thread.start();
+    thread.join();
+    awaitNoThreadChunks(writer);
+
+    writer.record(START_TIME_NANOS + 1, 1_000, ProfilerTask.INFO, "idle");
+    awaitNoThreadChunks(writer);
+
+    // Takes the only chunk again.
+    writer.record(START_TIME_NANOS + 2, 1_000, ProfilerTask.INFO, "last");
+    writer.shutdown();
+
+    assertThat(writer.getDroppedEvents()).isEqualTo(0);
+    List<String> names = new ArrayList<>();
+    for (JsonObject event : eventsOfPhase(convert(profile), "X")) {
+      names.add(event.get("name").getAsString());
+    }
+    assertThat(names).containsExactly("exited", "idle", "last");
+  }
+
+  private static void awaitNoThreadChunks(CompactTraceWriter writer) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (writer.getThreadChunkCount() > 0) {
+      assertThat(System.nanoTime() - deadline).isLessThan(0L);
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void repeatedDescriptionsAreResolved() throws Exception {
+    ByteArrayOutputStream profile = new ByteArrayOutputStream();
+    CompactTraceWriter writer =
+        new CompactTraceWriter(profile, START_TIME_NANOS, "build-id", "output-base");
+    writer.start();
+    for (int i = 0; i < 1_000; i++) {
+      writer.record(START_TIME_NANOS + i * 1_000L, 500, ProfilerTask.INFO, "task " + (i % 3));
+    }
+    writer.shutdown();
+
+    List<JsonObject> events = eventsOfPhase(convert(profile), "X");
+
+    assertThat(events).hasSize(1_000);
+    for (int i = 0; i < 1_000; i++) {
+      assertThat(events.get(i).get("name").getAsString()).isEqualTo("task " + (i % 3));
+      assertThat(events.get(i).get("ts").getAsLong()).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void rejectsOtherFormats() throws Exception {
+    ByteArrayOutputStream notAProfile = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(notAProfile)) {
+      out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    assertThrows(IOException.class, () -> convert(notAProfile));
+  }
+}
@@ -724,4 +724,23 @@ public class ProfilerTest {
     long slimProfileLineCount = slimOutput.split("\n").length;
     assertThat(fatProfileLineCount).isAtLeast(8 * slimProfileLineCount);
   }
+
+  @Test
+  public void testCompactTraceFormatConvertsToJson() throws Exception {
+    ByteArrayOutputStream buffer =
+        start(getAllProfilerTasks(), Profiler.Format.COMPACT_TRACE_FILE_FORMAT);
+    try (SilentCloseable c = profiler.profile(ProfilerTask.ACTION, "action task")) {
+      clock.advanceMillis(10);
+      profiler.logSimpleTaskDuration(
+          Profiler.nanoTimeMaybe(), Duration.ofMillis(20), ProfilerTask.INFO, "simple task");
+    }
+    profiler.stop();
+
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    CompactTraceConverter.convert(new ByteArrayInputStream(buffer.toByteArray()), json);
+    String output = json.toString(ISO_8859_1.name());
+    assertThat(output).contains("\"name\":\"action task\"");
+    assertThat(output).contains("\"name\":\"simple task\"");
+    assertThat(output).contains("\"dur\":20000");
+  }
 }
@@ -0,0 +1,170 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.query2.query.output;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.packages.util.PackageLoadingTestCase;
+import com.google.devtools.build.lib.query2.engine.OutputFormatterCallback;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build.QueryResult;
+import com.google.devtools.build.lib.query2.query.aspectresolvers.NullAspectResolver;
+import com.google.devtools.common.options.Options;
+import java.io.ByteArrayOutputStream;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Tests that the XML and proto output formatters, which write the targets as they are received,
+ * produce the same bytes as serializing the whole result at once.
+ */
+@RunWith(JUnit4.class)
+public class StreamedOutputFormatterTest extends PackageLoadingTestCase {
+
+  private QueryOptions options;
+  private ImmutableList<Target> targets;
+
+  @Before
+  public final void createTargets() throws Exception {
+    scratch.file(
+        "pkg/BUILD",
+        "package_group(name = 'friends', packages = ['//pkg/...'])",
+        "exports_files(['in.txt'], visibility = [':friends'])",
+        "filegroup(name = 'files', srcs = ['in.txt', 'a&b\"<c>.txt'])",
+        "genrule(",
+        "    name = 'gen',",
+        "    srcs = [':files'],",
+        "    outs = ['out.txt'],",
+        "    cmd = 'cat $(SRCS) > \"$@\" && echo \"\u00e9\\t\ud83d\ude00\" >> $@',",
+        "    tags = [],",
+        ")");
+    targets =
+        ImmutableList.of(
+            getTarget("//pkg:BUILD"),
+            getTarget("//pkg:friends"),
+            getTarget("//pkg:in.txt"),
+            getTarget("//pkg:files"),
+            getTarget("//pkg:gen"),
+            getTarget("//pkg:out.txt"));
+    options = Options.getDefaults(QueryOptions.class);
+  }
+
+  private byte[] streamXml(Iterable<Target> targets, boolean failFast) throws Exception {
+    XmlOutputFormatter formatter = new XmlOutputFormatter();
+    formatter.setOptions(options, new NullAspectResolver());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputFormatterCallback<Target> callback =
+        formatter.createPostFactoStreamCallback(out, options);
+    callback.start();
+    callback.processOutput(targets);
+    callback.close(failFast);
+    return out.toByteArray();
+  }
+
+  /** Serializes the whole result with a {@link Transformer}, as the formatter used to do. */
+  private byte[] transformXml(Iterable<Target> targets) throws Exception {
+    XmlOutputFormatter formatter = new XmlOutputFormatter();
+    formatter.setOptions(options, new NullAspectResolver());
+    Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+    doc.setXmlVersion("1.1");
+    Element queryElem = doc.createElement("query");
+    queryElem.setAttribute("version", "2");
+    doc.appendChild(queryElem);
+    for (Target target : targets) {
+      queryElem.appendChild(formatter.createTargetElement(doc, target));
+    }
+    Transformer transformer = TransformerFactory.newInstance().newTransformer();
+    transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    transformer.transform(new DOMSource(doc), new StreamResult(out));
+    return out.toByteArray();
+  }
+
+  private byte[] streamProto(Iterable<Target> targets) throws Exception {
+    ProtoOutputFormatter formatter = new ProtoOutputFormatter();
+    formatter.setOptions(options, new NullAspectResolver());
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OutputFormatterCallback<Target> callback =
+        formatter.createPostFactoStreamCallback(out, options);
+    callback.start();
+    // Several batches, as the query engine may deliver them.
+    for (Target target : targets) {
+      callback.processOutput(ImmutableList.of(target));
+    }
+    callback.close(/*failFast=*/ false);
+    return out.toByteArray();
+  }
+
+  @Test
+  public void xmlOutputMatchesTransformer() throws Exception {
+    assertThat(new String(streamXml(targets, /*failFast=*/ false), UTF_8))
+        .isEqualTo(new String(transformXml(targets), UTF_8));
+  }
+
+  @Test
+  public void xmlOutputOfDefaultValuesMatchesTransformer() throws Exception {
+    options.xmlShowDefaultValues = true;
+    options.xmlLineNumbers = false;
+    assertThat(new String(streamXml(targets, /*failFast=*/ false), UTF_8))
+        .isEqualTo(new String(transformXml(targets), UTF_8));
+  }
+
+  @Test
+  public void emptyXmlOutputMatchesTransformer() throws Exception {
+    assertThat(new String(streamXml(ImmutableList.of(), /*failFast=*/ false), UTF_8))
+        .isEqualTo(new String(transformXml(ImmutableList.of()), UTF_8));
+  }
+
+  @Test
+  public void failedQueryWithoutTargetsWritesNoXml() throws Exception {
+    assertThat(streamXml(ImmutableList.of(), /*failFast=*/ true)).isEmpty();
+  }
+
+  @Test
+  public void failedQueryWritesCompleteXmlDocument() throws Exception {
+    assertThat(new String(streamXml(targets, /*failFast=*/ true), UTF_8))
+        .isEqualTo(new String(transformXml(targets), UTF_8));
+  }
+
+  @Test
+  public void protoOutputMatchesQueryResult() throws Exception {
+    ProtoOutputFormatter formatter = new ProtoOutputFormatter();
+    formatter.setOptions(options, new NullAspectResolver());
+    QueryResult.Builder result = QueryResult.newBuilder();
+    for (Target target : targets) {
+      result.addTarget(formatter.toTargetProtoBuffer(target));
+    }
+    byte[] streamed = streamProto(targets);
+    assertThat(streamed).isEqualTo(result.build().toByteArray());
+    assertThat(QueryResult.parseFrom(streamed)).isEqualTo(result.build());
+  }
+
+  @Test
+  public void emptyProtoOutputMatchesQueryResult() throws Exception {
+    assertThat(streamProto(ImmutableList.of()))
+        .isEqualTo(QueryResult.getDefaultInstance().toByteArray());
+  }
+}
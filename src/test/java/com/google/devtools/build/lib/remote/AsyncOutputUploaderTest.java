@@ -0,0 +1,96 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link AsyncOutputUploader}. */
+@RunWith(JUnit4.class)
+public class AsyncOutputUploaderTest {
+  private final AsyncOutputUploader uploader = new AsyncOutputUploader(100, 4);
+
+  @After
+  public void tearDown() {
+    uploader.shutdownNow();
+  }
+
+  @Test
+  public void submitBlocksWhileTooManyBytesAreInFlight() throws Exception {
+    CountDownLatch firstUploadMayFinish = new CountDownLatch(1);
+    uploader.submit(60, firstUploadMayFinish::await);
+    AtomicBoolean secondUploadSubmitted = new AtomicBoolean();
+    Thread submitter =
+        new Thread(
+            () -> {
+              try {
+                uploader.submit(60, () -> {});
+                secondUploadSubmitted.set(true);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    submitter.start();
+
+    submitter.join(100);
+    assertThat(secondUploadSubmitted.get()).isFalse();
+    assertThat(uploader.getInFlightBytes()).isEqualTo(60);
+
+    firstUploadMayFinish.countDown();
+    submitter.join();
+    assertThat(secondUploadSubmitted.get()).isTrue();
+    assertThat(uploader.awaitCompletion()).isEmpty();
+    assertThat(uploader.getInFlightBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void uploadLargerThanMaximumRunsAlone() throws Exception {
+    CountDownLatch uploadMayFinish = new CountDownLatch(1);
+    uploader.submit(1000, uploadMayFinish::await);
+
+    assertThat(uploader.getInFlightBytes()).isEqualTo(100);
+    uploadMayFinish.countDown();
+    assertThat(uploader.awaitCompletion()).isEmpty();
+  }
+
+  @Test
+  public void awaitCompletionReturnsDistinctFailures() throws Exception {
+    uploader.submit(
+        1,
+        () -> {
+          throw new IOException("connection reset");
+        });
+    uploader.submit(
+        1,
+        () -> {
+          throw new IOException("connection reset");
+        });
+    uploader.submit(
+        1,
+        () -> {
+          throw new IOException();
+        });
+    uploader.submit(1, () -> {});
+
+    assertThat(uploader.awaitCompletion()).containsExactly("connection reset", "IOException");
+    assertThat(uploader.awaitCompletion()).isEmpty();
+  }
+}
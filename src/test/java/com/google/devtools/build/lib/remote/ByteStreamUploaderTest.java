@@ -56,6 +56,7 @@ import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.stub.StreamObserver;
 import io.grpc.util.MutableHandlerRegistry;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -70,6 +71,7 @@ import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.InflaterOutputStream;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -333,6 +335,115 @@ public class ByteStreamUploaderTest {
     withEmptyMetadata.detach(prevContext);
   }
 
+  @Test
+  public void compressedUploadShouldResumeFromCommittedOffset() throws Exception {
+    Context prevContext = withEmptyMetadata.attach();
+    Mockito.when(mockBackoff.getRetryAttempts()).thenReturn(0);
+    RemoteRetrier retrier =
+        TestUtils.newRemoteRetrier(() -> mockBackoff, (e) -> true, retryService);
+    ByteStreamUploader uploader =
+        new ByteStreamUploader(
+            INSTANCE_NAME, new ReferenceCountedChannel(channel), null, 3, retrier);
+
+    byte[] blob = new byte[CHUNK_SIZE * 10];
+    new Random().nextBytes(blob);
+
+    Chunker chunker =
+        Chunker.builder().setInput(blob).setChunkSize(CHUNK_SIZE).build().compressed();
+    HashCode hash = HashCode.fromString(DIGEST_UTIL.compute(blob).getHash());
+
+    serviceRegistry.addService(
+        new ByteStreamImplBase() {
+
+          ByteArrayOutputStream receivedData = new ByteArrayOutputStream();
+          String receivedResourceName = null;
+          long initialOffset = 0;
+          boolean mustQueryWriteStatus = false;
+
+          @Override
+          public StreamObserver<WriteRequest> write(StreamObserver<WriteResponse> streamObserver) {
+            return new StreamObserver<WriteRequest>() {
+              // Messages already sent may still arrive after the call failed.
+              boolean failed = false;
+
+              @Override
+              public void onNext(WriteRequest writeRequest) {
+                if (failed) {
+                  return;
+                }
+                assertThat(mustQueryWriteStatus).isFalse();
+
+                String resourceName = writeRequest.getResourceName();
+                if (receivedData.size() == initialOffset) {
+                  if (initialOffset == 0) {
+                    receivedResourceName = resourceName;
+                  }
+                  assertThat(resourceName).startsWith(INSTANCE_NAME + "/uploads");
+                  assertThat(resourceName)
+                      .endsWith("/compressed-blobs/deflate/" + hash + "/" + blob.length);
+                } else {
+                  assertThat(resourceName).isEmpty();
+                }
+
+                assertThat(writeRequest.getWriteOffset()).isEqualTo(receivedData.size());
+                byte[] data = writeRequest.getData().toByteArray();
+                receivedData.write(data, 0, data.length);
+
+                if (initialOffset == 0) {
+                  // Update the state first, as the client may query it as soon as the call fails.
+                  failed = true;
+                  mustQueryWriteStatus = true;
+                  initialOffset = receivedData.size();
+                  streamObserver.onError(Status.DEADLINE_EXCEEDED.asException());
+                }
+              }
+
+              @Override
+              public void onError(Throwable throwable) {
+                if (!failed) {
+                  fail("onError should never be called.");
+                }
+              }
+
+              @Override
+              public void onCompleted() {
+                if (failed) {
+                  return;
+                }
+                assertThat(decompress(receivedData.toByteArray())).isEqualTo(blob);
+
+                WriteResponse response =
+                    WriteResponse.newBuilder().setCommittedSize(receivedData.size()).build();
+                streamObserver.onNext(response);
+                streamObserver.onCompleted();
+              }
+            };
+          }
+
+          @Override
+          public void queryWriteStatus(
+              QueryWriteStatusRequest request, StreamObserver<QueryWriteStatusResponse> response) {
+            assertThat(request.getResourceName()).isEqualTo(receivedResourceName);
+            assertThat(mustQueryWriteStatus).isTrue();
+            mustQueryWriteStatus = false;
+            response.onNext(
+                QueryWriteStatusResponse.newBuilder()
+                    .setCommittedSize(receivedData.size())
+                    .build());
+            response.onCompleted();
+          }
+        });
+
+    uploader.uploadBlob(hash, chunker, true);
+
+    Mockito.verify(mockBackoff, Mockito.never()).nextDelayMillis();
+    Mockito.verify(mockBackoff, Mockito.times(1)).getRetryAttempts();
+
+    blockUntilInternalStateConsistent(uploader);
+
+    withEmptyMetadata.detach(prevContext);
+  }
+
   @Test
   public void unimplementedQueryShouldRestartUpload() throws Exception {
     Context prevContext = withEmptyMetadata.attach();
@@ -1197,6 +1308,17 @@ public class ByteStreamUploaderTest {
     }
   }
 
+  private static byte[] decompress(byte[] data) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InflaterOutputStream inflaterOut =
+        new InflaterOutputStream(out, BlobCompression.newInflater())) {
+      inflaterOut.write(data);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+    return out.toByteArray();
+  }
+
   private void blockUntilInternalStateConsistent(ByteStreamUploader uploader) throws Exception {
     // Poll until all upload futures have been removed from the internal hash map. The polling is
     // necessary, as listeners are executed after Future.get() calls are notified about completion.
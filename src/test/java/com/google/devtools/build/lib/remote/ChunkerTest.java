@@ -22,10 +22,13 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
+import java.util.zip.InflaterOutputStream;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -143,6 +146,59 @@ public class ChunkerTest {
     Mockito.verify(in.get()).close();
   }
 
+  @Test
+  public void compressedChunkingShouldWork() throws IOException {
+    byte[] data = new byte[1000];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = (byte) (i % 7);
+    }
+    Chunker chunker = Chunker.builder().setInput(data).setChunkSize(10).build().compressed();
+
+    assertThat(chunker.isCompressed()).isTrue();
+    List<Chunk> chunks = consume(chunker);
+    ByteArrayOutputStream compressedData = new ByteArrayOutputStream();
+    for (Chunk chunk : chunks) {
+      assertThat(chunk.getOffset()).isEqualTo(compressedData.size());
+      chunk.getData().writeTo(compressedData);
+    }
+    assertThat(compressedData.size()).isLessThan(data.length);
+    assertThat(chunker.getOffset()).isEqualTo(compressedData.size());
+    assertThat(chunker.getSize()).isEqualTo(data.length);
+    assertThat(decompress(compressedData.toByteArray())).isEqualTo(data);
+  }
+
+  @Test
+  public void compressedSeekShouldResumeStream() throws IOException {
+    byte[] data = new byte[1000];
+    new Random().nextBytes(data);
+    Chunker chunker = Chunker.builder().setInput(data).setChunkSize(100).build().compressed();
+    List<Chunk> chunks = consume(chunker);
+    assertThat(chunks.size()).isGreaterThan(3);
+
+    chunker.seek(chunks.get(3).getOffset());
+    assertThat(consume(chunker)).isEqualTo(chunks.subList(3, chunks.size()));
+
+    chunker.seek(chunks.get(1).getOffset());
+    assertThat(consume(chunker)).isEqualTo(chunks.subList(1, chunks.size()));
+  }
+
+  private static List<Chunk> consume(Chunker chunker) throws IOException {
+    List<Chunk> chunks = new ArrayList<>();
+    while (chunker.hasNext()) {
+      chunks.add(chunker.next());
+    }
+    return chunks;
+  }
+
+  private static byte[] decompress(byte[] data) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InflaterOutputStream inflaterOut =
+        new InflaterOutputStream(out, BlobCompression.newInflater())) {
+      inflaterOut.write(data);
+    }
+    return out.toByteArray();
+  }
+
   private void assertNextEquals(Chunker chunker, byte... data) throws IOException {
     assertThat(chunker.hasNext()).isTrue();
     ByteString next = chunker.next().getData();
@@ -0,0 +1,124 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Bytes;
+import com.google.devtools.build.lib.remote.ContentDefinedChunker.ChunkedBlob;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ContentDefinedChunker}. */
+@RunWith(JUnit4.class)
+public class ContentDefinedChunkerTest {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(DigestHashFunction.SHA256);
+
+  private final ContentDefinedChunker chunker = new ContentDefinedChunker(DIGEST_UTIL, 1024);
+
+  private static byte[] randomBytes(int size, long seed) {
+    byte[] data = new byte[size];
+    new Random(seed).nextBytes(data);
+    return data;
+  }
+
+  private ChunkedBlob split(byte[] data) throws IOException {
+    return chunker.split(new ByteArrayInputStream(data));
+  }
+
+  @Test
+  public void chunksConcatenateToBlob() throws IOException {
+    byte[] data = randomBytes(100_000, 1);
+    ChunkedBlob chunkedBlob = split(data);
+
+    assertThat(chunkedBlob.getDigest()).isEqualTo(DIGEST_UTIL.compute(data));
+    ImmutableList<Digest> chunkDigests = chunkedBlob.getChunkDigests();
+    long[] offsets = chunkedBlob.getChunkOffsets();
+    assertThat(chunkDigests.size()).isGreaterThan(1);
+    for (int i = 0; i < chunkDigests.size(); i++) {
+      Digest chunkDigest = chunkDigests.get(i);
+      if (i < chunkDigests.size() - 1) {
+        assertThat(chunkDigest.getSizeBytes()).isAtLeast(256L);
+      }
+      assertThat(chunkDigest.getSizeBytes()).isAtMost(4096L);
+      int offset = (int) offsets[i];
+      byte[] chunk = Arrays.copyOfRange(data, offset, offset + (int) chunkDigest.getSizeBytes());
+      assertThat(chunkDigest).isEqualTo(DIGEST_UTIL.compute(chunk));
+    }
+    Digest lastChunk = chunkDigests.get(chunkDigests.size() - 1);
+    assertThat(offsets[offsets.length - 1] + lastChunk.getSizeBytes()).isEqualTo(data.length);
+  }
+
+  @Test
+  public void emptyBlobHasOneEmptyChunk() throws IOException {
+    ChunkedBlob chunkedBlob = split(new byte[0]);
+
+    assertThat(chunkedBlob.getDigest()).isEqualTo(DIGEST_UTIL.compute(new byte[0]));
+    assertThat(chunkedBlob.getChunkDigests()).containsExactly(DIGEST_UTIL.compute(new byte[0]));
+  }
+
+  @Test
+  public void insertionOnlyChangesNearbyChunks() throws IOException {
+    byte[] data = randomBytes(200_000, 2);
+    byte[] modified =
+        Bytes.concat(
+            Arrays.copyOfRange(data, 0, 100_000),
+            randomBytes(10, 3),
+            Arrays.copyOfRange(data, 100_000, data.length));
+
+    Set<Digest> chunks = new HashSet<>(split(data).getChunkDigests());
+    ImmutableList<Digest> modifiedChunks = split(modified).getChunkDigests();
+    int newChunks = 0;
+    for (Digest chunk : modifiedChunks) {
+      if (!chunks.contains(chunk)) {
+        newChunks++;
+      }
+    }
+    // Only the chunks around the insertion differ; a fixed-size split would change half of them.
+    assertThat(newChunks).isAtLeast(1);
+    assertThat(newChunks).isAtMost(3);
+  }
+
+  @Test
+  public void manifestRoundTrip() throws IOException {
+    ChunkedBlob chunkedBlob = split(randomBytes(20_000, 4));
+
+    ChunkedBlob parsed =
+        ChunkedBlob.fromManifest(chunkedBlob.getDigest(), chunkedBlob.toManifest());
+
+    assertThat(parsed.getDigest()).isEqualTo(chunkedBlob.getDigest());
+    assertThat(parsed.getChunkDigests()).isEqualTo(chunkedBlob.getChunkDigests());
+  }
+
+  @Test
+  public void manifestOfOtherBlobIsRejected() throws IOException {
+    ChunkedBlob chunkedBlob = split(randomBytes(20_000, 5));
+    Digest otherDigest = DIGEST_UTIL.computeAsUtf8("other");
+
+    assertThrows(
+        IOException.class, () -> ChunkedBlob.fromManifest(otherDigest, chunkedBlob.toManifest()));
+  }
+}
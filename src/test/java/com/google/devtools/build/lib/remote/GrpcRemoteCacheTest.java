@@ -24,6 +24,10 @@ import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.when;
 
 import build.bazel.remote.execution.v2.Action;
+import build.bazel.remote.execution.v2.BatchReadBlobsRequest;
+import build.bazel.remote.execution.v2.BatchReadBlobsResponse;
+import build.bazel.remote.execution.v2.BatchUpdateBlobsRequest;
+import build.bazel.remote.execution.v2.BatchUpdateBlobsResponse;
 import build.bazel.remote.execution.v2.ActionCacheGrpc.ActionCacheImplBase;
 import build.bazel.remote.execution.v2.ActionResult;
 import build.bazel.remote.execution.v2.Command;
@@ -46,9 +50,11 @@ import com.google.bytestream.ByteStreamProto.ReadRequest;
 import com.google.bytestream.ByteStreamProto.ReadResponse;
 import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.primitives.Bytes;
 import com.google.common.util.concurrent.ListeningScheduledExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.lib.actions.ActionInputHelper;
@@ -75,6 +81,7 @@ import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
 import com.google.devtools.common.options.Options;
 import com.google.protobuf.ByteString;
+import com.google.rpc.Code;
 import io.grpc.CallCredentials;
 import io.grpc.CallOptions;
 import io.grpc.Channel;
@@ -88,13 +95,24 @@ import io.grpc.inprocess.InProcessChannelBuilder;
 import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.stub.StreamObserver;
 import io.grpc.util.MutableHandlerRegistry;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+import javax.annotation.Nullable;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -118,6 +136,8 @@ public class GrpcRemoteCacheTest {
   private FileOutErr outErr;
   private FakeActionInputFileCache fakeFileCache;
   private final MutableHandlerRegistry serviceRegistry = new MutableHandlerRegistry();
+  // The ByteStream calls of the in-memory cache services with compressed resource names.
+  private final AtomicInteger compressedByteStreamCalls = new AtomicInteger();
   private final String fakeServerName = "fake server for " + getClass();
   private Server fakeServer;
   private Context withEmptyMetadata;
@@ -193,6 +213,52 @@ public class GrpcRemoteCacheTest {
 
   private GrpcRemoteCache newClient(RemoteOptions remoteOptions, Supplier<Backoff> backoffSupplier)
       throws IOException {
+    return newClient(remoteOptions, backoffSupplier, /* knownDigests= */ null);
+  }
+
+  private GrpcRemoteCache newClient(
+      RemoteOptions remoteOptions,
+      Supplier<Backoff> backoffSupplier,
+      @Nullable KnownDigestsCache knownDigests)
+      throws IOException {
+    return newClient(
+        remoteOptions, backoffSupplier, knownDigests, /* maxBatchTotalSizeBytes= */ 0);
+  }
+
+  private GrpcRemoteCache newClient(
+      RemoteOptions remoteOptions,
+      Supplier<Backoff> backoffSupplier,
+      @Nullable KnownDigestsCache knownDigests,
+      long maxBatchTotalSizeBytes)
+      throws IOException {
+    return newClient(
+        remoteOptions,
+        backoffSupplier,
+        knownDigests,
+        maxBatchTotalSizeBytes,
+        /* compressionSupported= */ false,
+        /* splicingSupported= */ false);
+  }
+
+  /** Returns a client of a server that reassembles blobs from their chunks. */
+  private GrpcRemoteCache newSplicingClient(RemoteOptions remoteOptions) throws IOException {
+    return newClient(
+        remoteOptions,
+        () -> new ExponentialBackoff(remoteOptions),
+        /* knownDigests= */ null,
+        /* maxBatchTotalSizeBytes= */ 0,
+        /* compressionSupported= */ false,
+        /* splicingSupported= */ true);
+  }
+
+  private GrpcRemoteCache newClient(
+      RemoteOptions remoteOptions,
+      Supplier<Backoff> backoffSupplier,
+      @Nullable KnownDigestsCache knownDigests,
+      long maxBatchTotalSizeBytes,
+      boolean compressionSupported,
+      boolean splicingSupported)
+      throws IOException {
     AuthAndTLSOptions authTlsOptions = Options.getDefaults(AuthAndTLSOptions.class);
     authTlsOptions.useGoogleDefaultCredentials = true;
     authTlsOptions.googleCredentials = "/exec/root/creds.json";
@@ -218,13 +284,17 @@ public class GrpcRemoteCacheTest {
             .intercept(new CallCredentialsInterceptor(creds)).build());
     ByteStreamUploader uploader =
         new ByteStreamUploader(remoteOptions.remoteInstanceName, channel.retain(), creds,
-            remoteOptions.remoteTimeout, retrier);
+            remoteOptions.remoteTimeout, retrier, knownDigests);
     return new GrpcRemoteCache(channel.retain(),
         creds,
         remoteOptions,
         retrier,
         DIGEST_UTIL,
-        uploader);
+        uploader,
+        knownDigests,
+        maxBatchTotalSizeBytes,
+        compressionSupported,
+        splicingSupported);
   }
 
   @Test
@@ -969,6 +1039,625 @@ public class GrpcRemoteCacheTest {
         .write(ArgumentMatchers.<StreamObserver<WriteResponse>>any());
   }
 
+  /** Registers CAS, ByteStream and action cache services that store everything in the maps. */
+  private static boolean isCompressed(String resourceName) {
+    return resourceName.contains("compressed-blobs/deflate/");
+  }
+
+  private static ByteString compress(ByteString data) {
+    ByteString.Output out = ByteString.newOutput();
+    Deflater deflater = BlobCompression.newDeflater();
+    try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater)) {
+      data.writeTo(deflaterOut);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    } finally {
+      deflater.end();
+    }
+    return out.toByteString();
+  }
+
+  private static ByteString decompress(ByteString data) {
+    ByteString.Output out = ByteString.newOutput();
+    Inflater inflater = BlobCompression.newInflater();
+    try (InflaterOutputStream inflaterOut = new InflaterOutputStream(out, inflater)) {
+      data.writeTo(inflaterOut);
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    } finally {
+      inflater.end();
+    }
+    return out.toByteString();
+  }
+
+  private void addInMemoryCacheServices(Map<Digest, ByteString> cas, Map<Digest, ActionResult> ac) {
+    addInMemoryCacheServices(cas, ac, new AtomicInteger());
+  }
+
+  private void addInMemoryCacheServices(
+      Map<Digest, ByteString> cas,
+      Map<Digest, ActionResult> ac,
+      AtomicInteger findMissingBlobsCalls) {
+    addInMemoryCacheServices(
+        cas, ac, findMissingBlobsCalls, new AtomicInteger(), new AtomicInteger());
+  }
+
+  /**
+   * Like {@link #addInMemoryCacheServices(Map, Map)}, and also counts the calls of the batch CAS
+   * methods and of the ByteStream methods.
+   */
+  private void addInMemoryCacheServices(
+      Map<Digest, ByteString> cas,
+      Map<Digest, ActionResult> ac,
+      AtomicInteger findMissingBlobsCalls,
+      AtomicInteger batchCalls,
+      AtomicInteger byteStreamCalls) {
+    serviceRegistry.addService(
+        new ContentAddressableStorageImplBase() {
+          @Override
+          public void findMissingBlobs(
+              FindMissingBlobsRequest request,
+              StreamObserver<FindMissingBlobsResponse> responseObserver) {
+            findMissingBlobsCalls.incrementAndGet();
+            FindMissingBlobsResponse.Builder response = FindMissingBlobsResponse.newBuilder();
+            for (Digest digest : request.getBlobDigestsList()) {
+              if (!cas.containsKey(digest)) {
+                response.addMissingBlobDigests(digest);
+              }
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void batchUpdateBlobs(
+              BatchUpdateBlobsRequest request,
+              StreamObserver<BatchUpdateBlobsResponse> responseObserver) {
+            batchCalls.incrementAndGet();
+            BatchUpdateBlobsResponse.Builder response = BatchUpdateBlobsResponse.newBuilder();
+            for (BatchUpdateBlobsRequest.Request blob : request.getRequestsList()) {
+              assertThat(DIGEST_UTIL.compute(blob.getData().toByteArray()))
+                  .isEqualTo(blob.getDigest());
+              cas.put(blob.getDigest(), blob.getData());
+              response.addResponsesBuilder().setDigest(blob.getDigest());
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void batchReadBlobs(
+              BatchReadBlobsRequest request,
+              StreamObserver<BatchReadBlobsResponse> responseObserver) {
+            batchCalls.incrementAndGet();
+            BatchReadBlobsResponse.Builder response = BatchReadBlobsResponse.newBuilder();
+            for (Digest digest : request.getDigestsList()) {
+              ByteString data = cas.get(digest);
+              BatchReadBlobsResponse.Response.Builder blob =
+                  response.addResponsesBuilder().setDigest(digest);
+              if (data == null) {
+                blob.getStatusBuilder().setCode(Code.NOT_FOUND.getNumber());
+              } else {
+                blob.setData(data);
+              }
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+          }
+        });
+    serviceRegistry.addService(
+        new ByteStreamImplBase() {
+          @Override
+          public void read(ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
+            byteStreamCalls.incrementAndGet();
+            String[] parts = request.getResourceName().split("/");
+            Digest digest =
+                DigestUtil.buildDigest(
+                    parts[parts.length - 2], Long.parseLong(parts[parts.length - 1]));
+            ByteString data = cas.get(digest);
+            if (data == null) {
+              responseObserver.onError(Status.NOT_FOUND.asException());
+              return;
+            }
+            data = data.substring((int) request.getReadOffset());
+            if (isCompressed(request.getResourceName())) {
+              compressedByteStreamCalls.incrementAndGet();
+              data = compress(data);
+            }
+            responseObserver.onNext(ReadResponse.newBuilder().setData(data).build());
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public StreamObserver<WriteRequest> write(
+              StreamObserver<WriteResponse> responseObserver) {
+            byteStreamCalls.incrementAndGet();
+            return new StreamObserver<WriteRequest>() {
+              private Digest digest;
+              private boolean compressed;
+              private ByteString data = ByteString.EMPTY;
+
+              @Override
+              public void onNext(WriteRequest request) {
+                if (digest == null) {
+                  String[] parts = request.getResourceName().split("/");
+                  digest =
+                      DigestUtil.buildDigest(
+                          parts[parts.length - 2], Long.parseLong(parts[parts.length - 1]));
+                  compressed = isCompressed(request.getResourceName());
+                }
+                data = data.concat(request.getData());
+              }
+
+              @Override
+              public void onCompleted() {
+                if (compressed) {
+                  compressedByteStreamCalls.incrementAndGet();
+                  data = decompress(data);
+                }
+                assertThat(DIGEST_UTIL.compute(data.toByteArray())).isEqualTo(digest);
+                cas.put(digest, data);
+                responseObserver.onNext(
+                    WriteResponse.newBuilder().setCommittedSize(data.size()).build());
+                responseObserver.onCompleted();
+              }
+
+              @Override
+              public void onError(Throwable t) {
+                fail("An error occurred: " + t);
+              }
+            };
+          }
+        });
+    serviceRegistry.addService(
+        new ActionCacheImplBase() {
+          @Override
+          public void getActionResult(
+              GetActionResultRequest request, StreamObserver<ActionResult> responseObserver) {
+            ActionResult result = ac.get(request.getActionDigest());
+            if (result == null) {
+              responseObserver.onError(Status.NOT_FOUND.asException());
+              return;
+            }
+            responseObserver.onNext(result);
+            responseObserver.onCompleted();
+          }
+
+          @Override
+          public void updateActionResult(
+              UpdateActionResultRequest request, StreamObserver<ActionResult> responseObserver) {
+            // Reassembles blobs from their chunks, as the remote worker does.
+            Digest manifestDigest = BlobSplicing.getManifestDigest(request.getActionResult());
+            ByteString manifest = manifestDigest == null ? null : cas.get(manifestDigest);
+            if (manifest != null) {
+              Digest digest =
+                  BlobSplicing.getBlobDigest(
+                      DIGEST_UTIL,
+                      DIGEST_UTIL.asActionKey(request.getActionDigest()),
+                      manifest.toByteArray());
+              if (digest != null) {
+                ByteString blob = ByteString.EMPTY;
+                try {
+                  for (Digest chunkDigest :
+                      BlobSplicing.getChunkDigests(digest, manifest.toByteArray())) {
+                    ByteString chunk = cas.get(chunkDigest);
+                    if (chunk == null) {
+                      responseObserver.onError(Status.FAILED_PRECONDITION.asException());
+                      return;
+                    }
+                    blob = blob.concat(chunk);
+                  }
+                } catch (IOException e) {
+                  responseObserver.onError(Status.INVALID_ARGUMENT.asException());
+                  return;
+                }
+                if (!DIGEST_UTIL.compute(blob.toByteArray()).equals(digest)) {
+                  responseObserver.onError(Status.INVALID_ARGUMENT.asException());
+                  return;
+                }
+                cas.put(digest, blob);
+              }
+            }
+            ac.put(request.getActionDigest(), request.getActionResult());
+            responseObserver.onNext(request.getActionResult());
+            responseObserver.onCompleted();
+          }
+        });
+  }
+
+  @Test
+  public void testKnownDigestsAreNotLookedUpAgain() throws Exception {
+    Map<Digest, ByteString> cas = new ConcurrentHashMap<>();
+    AtomicInteger findMissingBlobsCalls = new AtomicInteger();
+    addInMemoryCacheServices(cas, new ConcurrentHashMap<>(), findMissingBlobsCalls);
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    KnownDigestsCache knownDigests = new KnownDigestsCache(1000, Duration.ofMinutes(10));
+    GrpcRemoteCache client =
+        newClient(options, () -> new ExponentialBackoff(options), knownDigests);
+    PathFragment execPath = PathFragment.create("my/exec/path");
+    VirtualActionInput virtualActionInput = new StringActionInput("hello", execPath);
+    MerkleTree merkleTree =
+        MerkleTree.build(
+            ImmutableSortedMap.of(execPath, virtualActionInput),
+            fakeFileCache,
+            execRoot,
+            DIGEST_UTIL);
+    Command command = Command.newBuilder().addArguments("echo").build();
+    Digest commandDigest = DIGEST_UTIL.compute(command);
+
+    client.ensureInputsPresent(merkleTree, ImmutableMap.of(commandDigest, command), execRoot);
+    assertThat(findMissingBlobsCalls.get()).isEqualTo(1);
+    assertThat(cas).containsKey(commandDigest);
+    assertThat(cas).containsKey(DIGEST_UTIL.computeAsUtf8("hello"));
+
+    // Uploaded blobs are known to be present, so they are not looked up again.
+    client.ensureInputsPresent(merkleTree, ImmutableMap.of(commandDigest, command), execRoot);
+    assertThat(client.uploadBlob("hello".getBytes(UTF_8)))
+        .isEqualTo(DIGEST_UTIL.computeAsUtf8("hello"));
+    assertThat(findMissingBlobsCalls.get()).isEqualTo(1);
+    assertThat(knownDigests.getSavedFindMissingBlobsCalls()).isEqualTo(2);
+    // Only the lookups of the first call missed: three directories, a file and the command.
+    assertThat(knownDigests.getLookups() - knownDigests.getHits()).isEqualTo(5);
+
+    // Blobs that are not reported missing are also known to be present.
+    Digest foo = DIGEST_UTIL.computeAsUtf8("foo");
+    cas.put(foo, ByteString.copyFromUtf8("foo"));
+    client.uploadBlob("foo".getBytes(UTF_8));
+    client.uploadBlob("foo".getBytes(UTF_8));
+    assertThat(findMissingBlobsCalls.get()).isEqualTo(2);
+
+    client.invalidateKnownDigests();
+    client.ensureInputsPresent(merkleTree, ImmutableMap.of(commandDigest, command), execRoot);
+    assertThat(findMissingBlobsCalls.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void testSmallBlobsAreTransferredInBatches() throws Exception {
+    Map<Digest, ByteString> cas = new ConcurrentHashMap<>();
+    Map<Digest, ActionResult> ac = new ConcurrentHashMap<>();
+    AtomicInteger batchCalls = new AtomicInteger();
+    AtomicInteger byteStreamCalls = new AtomicInteger();
+    addInMemoryCacheServices(cas, ac, new AtomicInteger(), batchCalls, byteStreamCalls);
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteBatchMaxBlobSize = 1024;
+    GrpcRemoteCache client = newClient(options, () -> new ExponentialBackoff(options), null, 0);
+
+    List<Path> files = new ArrayList<>();
+    Command.Builder command = Command.newBuilder();
+    for (int i = 0; i < 10; i++) {
+      Path file = execRoot.getRelative("small" + i);
+      FileSystemUtils.writeContent(file, ("contents of small" + i).getBytes(UTF_8));
+      files.add(file);
+      command.addOutputFiles("small" + i);
+    }
+    byte[] largeContents = new byte[10_000];
+    new Random(3).nextBytes(largeContents);
+    Path large = execRoot.getRelative("large");
+    FileSystemUtils.writeContent(large, largeContents);
+    files.add(large);
+    command.addOutputFiles("large");
+    outErr.getOutputStream().write("stdout".getBytes(UTF_8));
+    outErr.getOutputStream().flush();
+    Action action =
+        Action.newBuilder().setCommandDigest(DIGEST_UTIL.compute(command.build())).build();
+    ActionKey actionKey = DIGEST_UTIL.computeActionKey(action);
+
+    client.upload(actionKey, action, command.build(), execRoot, files, outErr);
+
+    // The small files, the action and the command in one batch, stdout in another one, and the
+    // large file streamed.
+    assertThat(batchCalls.get()).isEqualTo(2);
+    assertThat(byteStreamCalls.get()).isEqualTo(1);
+    assertThat(cas).containsKey(DIGEST_UTIL.compute(largeContents));
+    assertThat(cas).containsKey(DIGEST_UTIL.computeAsUtf8("stdout"));
+
+    for (Path file : files) {
+      file.delete();
+    }
+    outErr.clearOut();
+    batchCalls.set(0);
+    byteStreamCalls.set(0);
+    client.download(ac.get(actionKey.getDigest()), execRoot, outErr);
+
+    // The small files in one batch, stdout in another one, and the large file streamed.
+    assertThat(batchCalls.get()).isEqualTo(2);
+    assertThat(byteStreamCalls.get()).isEqualTo(1);
+    for (int i = 0; i < 10; i++) {
+      assertThat(FileSystemUtils.readContent(execRoot.getRelative("small" + i), UTF_8))
+          .isEqualTo("contents of small" + i);
+    }
+    assertThat(FileSystemUtils.readContent(large)).isEqualTo(largeContents);
+    assertThat(outErr.outAsLatin1()).isEqualTo("stdout");
+  }
+
+  @Test
+  public void testBatchesAreCappedByServerMaxBatchSize() throws Exception {
+    Map<Digest, ByteString> cas = new ConcurrentHashMap<>();
+    AtomicInteger batchCalls = new AtomicInteger();
+    AtomicInteger byteStreamCalls = new AtomicInteger();
+    addInMemoryCacheServices(
+        cas, new ConcurrentHashMap<>(), new AtomicInteger(), batchCalls, byteStreamCalls);
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteBatchMaxBlobSize = 1024;
+    // Fits two blobs of 100 bytes with their digests, but not three.
+    GrpcRemoteCache client =
+        newClient(options, () -> new ExponentialBackoff(options), null, 500);
+
+    ActionResult.Builder result = ActionResult.newBuilder();
+    for (int i = 0; i < 4; i++) {
+      byte[] contents = new byte[100];
+      new Random(i).nextBytes(contents);
+      Digest digest = DIGEST_UTIL.compute(contents);
+      cas.put(digest, ByteString.copyFrom(contents));
+      result.addOutputFilesBuilder().setPath("out" + i).setDigest(digest);
+    }
+    // The same blob twice is only downloaded once.
+    result.addOutputFilesBuilder().setPath("copy").setDigest(result.getOutputFiles(0).getDigest());
+    Digest missing = DIGEST_UTIL.computeAsUtf8("missing");
+
+    client.download(result.build(), execRoot, null);
+
+    assertThat(batchCalls.get()).isEqualTo(2);
+    assertThat(byteStreamCalls.get()).isEqualTo(0);
+    assertThat(DIGEST_UTIL.compute(execRoot.getRelative("copy")))
+        .isEqualTo(result.getOutputFiles(0).getDigest());
+
+    result.addOutputFilesBuilder().setPath("missing").setDigest(missing);
+    assertThrows(
+        CacheNotFoundException.class, () -> client.download(result.build(), execRoot, null));
+  }
+
+  @Test
+  public void testChunkedUploadOnlyUploadsChangedChunks() throws Exception {
+    Map<Digest, ByteString> cas = new ConcurrentHashMap<>();
+    Map<Digest, ActionResult> ac = new ConcurrentHashMap<>();
+    AtomicInteger byteStreamCalls = new AtomicInteger();
+    addInMemoryCacheServices(cas, ac, new AtomicInteger(), new AtomicInteger(), byteStreamCalls);
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteCacheChunking = true;
+    options.experimentalRemoteCacheChunkSize = 1024;
+    GrpcRemoteCache client = newSplicingClient(options);
+
+    byte[] contents = new byte[100_000];
+    new Random(1).nextBytes(contents);
+    Path file = execRoot.getRelative("out");
+    FileSystemUtils.writeContent(file, contents);
+    Command command = Command.newBuilder().addOutputFiles("out").build();
+    Action action = Action.newBuilder().setCommandDigest(DIGEST_UTIL.compute(command)).build();
+    ActionKey actionKey = DIGEST_UTIL.computeActionKey(action);
+    client.upload(actionKey, action, command, execRoot, ImmutableList.of(file), outErr);
+
+    Digest digest = DIGEST_UTIL.compute(contents);
+    // The server reassembles the file for clients and executors that don't know about chunks.
+    assertThat(cas.get(digest)).isEqualTo(ByteString.copyFrom(contents));
+    assertThat(ac.get(actionKey.getDigest()).getOutputFiles(0).getDigest()).isEqualTo(digest);
+    assertThat(getFromFuture(client.downloadBlob(digest))).isEqualTo(contents);
+
+    int blobsBefore = cas.size();
+    byteStreamCalls.set(0);
+    contents[50_000] ^= 1;
+    FileSystemUtils.writeContent(file, contents);
+    client.upload(actionKey, action, command, execRoot, ImmutableList.of(file), outErr);
+
+    // The whole file, the changed chunk, maybe its neighbor, and the new manifest, of which all
+    // but the whole file were uploaded.
+    assertThat(cas.size() - blobsBefore).isIn(ImmutableList.of(3, 4));
+    assertThat(byteStreamCalls.get()).isEqualTo(cas.size() - blobsBefore - 1);
+    Digest newDigest = DIGEST_UTIL.compute(contents);
+    assertThat(cas.get(newDigest)).isEqualTo(ByteString.copyFrom(contents));
+
+    // If the whole blob is evicted, it is reassembled from its chunks.
+    cas.remove(newDigest);
+    assertThat(getFromFuture(client.downloadBlob(newDigest))).isEqualTo(contents);
+  }
+
+  @Test
+  public void testChunkedDownloadIsVerifiedWithoutVerifyDownloads() throws Exception {
+    Map<Digest, ByteString> cas = new ConcurrentHashMap<>();
+    Map<Digest, ActionResult> ac = new ConcurrentHashMap<>();
+    addInMemoryCacheServices(cas, ac);
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteCacheChunking = true;
+    options.experimentalRemoteCacheChunkSize = 1024;
+    options.remoteVerifyDownloads = false;
+    GrpcRemoteCache client = newSplicingClient(options);
+
+    byte[] contents = new byte[100_000];
+    new Random(4).nextBytes(contents);
+    Path file = execRoot.getRelative("out");
+    FileSystemUtils.writeContent(file, contents);
+    Command command = Command.newBuilder().addOutputFiles("out").build();
+    Action action = Action.newBuilder().setCommandDigest(DIGEST_UTIL.compute(command)).build();
+    ActionKey actionKey = DIGEST_UTIL.computeActionKey(action);
+    client.upload(actionKey, action, command, execRoot, ImmutableList.of(file), outErr);
+
+    Digest digest = DIGEST_UTIL.compute(contents);
+    cas.remove(digest);
+    // Corrupt the stored copy of one of the chunks, bypassing its own digest check.
+    for (Map.Entry<Digest, ByteString> entry : cas.entrySet()) {
+      if (entry.getKey().getSizeBytes() == 0 || entry.getValue().size() < 100) {
+        continue;
+      }
+      byte[] chunk = entry.getValue().toByteArray();
+      if (Bytes.indexOf(contents, chunk) >= 0) {
+        chunk[0] ^= 1;
+        entry.setValue(ByteString.copyFrom(chunk));
+        break;
+      }
+    }
+
+    assertThrows(IOException.class, () -> getFromFuture(client.downloadBlob(digest)));
+  }
+
+  @Test
+  public void testChunkedUploadFallsBackToWholeBlobIfChunkIsMissing() throws Exception {
+    byte[] contents = new byte[100_000];
+    new Random(5).nextBytes(contents);
+    Digest evicted =
+        new ContentDefinedChunker(DIGEST_UTIL, 1024)
+            .split(new ByteArrayInputStream(contents))
+            .getChunkDigests()
+            .get(1);
+    // Evicts one of the chunks right after it is uploaded.
+    Map<Digest, ByteString> cas =
+        new ConcurrentHashMap<Digest, ByteString>() {
+          @Override
+          public ByteString put(Digest key, ByteString value) {
+            return key.equals(evicted) ? null : super.put(key, value);
+          }
+        };
+    addInMemoryCacheServices(cas, new ConcurrentHashMap<>());
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteCacheChunking = true;
+    options.experimentalRemoteCacheChunkSize = 1024;
+    GrpcRemoteCache client = newSplicingClient(options);
+
+    Path file = execRoot.getRelative("out");
+    FileSystemUtils.writeContent(file, contents);
+    Command command = Command.newBuilder().addOutputFiles("out").build();
+    Action action = Action.newBuilder().setCommandDigest(DIGEST_UTIL.compute(command)).build();
+    ActionKey actionKey = DIGEST_UTIL.computeActionKey(action);
+    client.upload(actionKey, action, command, execRoot, ImmutableList.of(file), outErr);
+
+    assertThat(cas.get(DIGEST_UTIL.compute(contents))).isEqualTo(ByteString.copyFrom(contents));
+  }
+
+  @Test
+  public void testChunkingHasNoEffectWithoutSplicingSupport() throws Exception {
+    Map<Digest, ByteString> cas = new ConcurrentHashMap<>();
+    Map<Digest, ActionResult> ac = new ConcurrentHashMap<>();
+    addInMemoryCacheServices(cas, ac);
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteCacheChunking = true;
+    options.experimentalRemoteCacheChunkSize = 1024;
+    GrpcRemoteCache client = newClient(options);
+
+    byte[] contents = new byte[100_000];
+    new Random(6).nextBytes(contents);
+    Path file = execRoot.getRelative("out");
+    FileSystemUtils.writeContent(file, contents);
+    Command command = Command.newBuilder().addOutputFiles("out").build();
+    Action action = Action.newBuilder().setCommandDigest(DIGEST_UTIL.compute(command)).build();
+    ActionKey actionKey = DIGEST_UTIL.computeActionKey(action);
+    client.upload(actionKey, action, command, execRoot, ImmutableList.of(file), outErr);
+
+    // The file, the action and the command, but no chunks, and no manifest in the action cache.
+    assertThat(cas).hasSize(3);
+    assertThat(ac.keySet()).containsExactly(actionKey.getDigest());
+  }
+
+  @Test
+  public void testChunkedDownloadFallsBackToWholeBlob() throws Exception {
+    Map<Digest, ByteString> cas = new ConcurrentHashMap<>();
+    addInMemoryCacheServices(cas, new ConcurrentHashMap<>());
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteCacheChunking = true;
+    options.experimentalRemoteCacheChunkSize = 1024;
+    GrpcRemoteCache client = newSplicingClient(options);
+
+    byte[] contents = new byte[10_000];
+    new Random(2).nextBytes(contents);
+    Digest digest = DIGEST_UTIL.compute(contents);
+    assertThrows(CacheNotFoundException.class, () -> getFromFuture(client.downloadBlob(digest)));
+
+    // A blob uploaded as a whole, e.g. by remote execution.
+    cas.put(digest, ByteString.copyFrom(contents));
+    assertThat(getFromFuture(client.downloadBlob(digest))).isEqualTo(contents);
+  }
+
+  @Test
+  public void testCompressedUploadAndDownload() throws Exception {
+    Map<Digest, ByteString> cas = new ConcurrentHashMap<>();
+    Map<Digest, ActionResult> ac = new ConcurrentHashMap<>();
+    addInMemoryCacheServices(cas, ac);
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteCacheCompression = true;
+    GrpcRemoteCache client =
+        newClient(options, () -> new ExponentialBackoff(options), null, 0, true, false);
+
+    byte[] contents = Strings.repeat("compressible ", 1000).getBytes(UTF_8);
+    Path file = execRoot.getRelative("out");
+    FileSystemUtils.writeContent(file, contents);
+    Command command = Command.newBuilder().addOutputFiles("out").build();
+    Action action = Action.newBuilder().setCommandDigest(DIGEST_UTIL.compute(command)).build();
+    ActionKey actionKey = DIGEST_UTIL.computeActionKey(action);
+    client.upload(actionKey, action, command, execRoot, ImmutableList.of(file), outErr);
+
+    // The remote cache stores blobs uncompressed.
+    Digest digest = DIGEST_UTIL.compute(contents);
+    assertThat(cas.get(digest)).isEqualTo(ByteString.copyFrom(contents));
+    int uploads = compressedByteStreamCalls.get();
+    assertThat(uploads).isGreaterThan(0);
+
+    file.delete();
+    client.download(ac.get(actionKey.getDigest()), execRoot, null);
+    assertThat(FileSystemUtils.readContent(file)).isEqualTo(contents);
+    assertThat(compressedByteStreamCalls.get()).isGreaterThan(uploads);
+  }
+
+  @Test
+  public void testCompressedDownloadResumesAtUncompressedOffset() throws Exception {
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteCacheCompression = true;
+    options.remoteVerifyDownloads = true;
+    GrpcRemoteCache client =
+        newClient(options, () -> new ExponentialBackoff(options), null, 0, true, false);
+    byte[] contents = new byte[10_000];
+    new Random(3).nextBytes(contents);
+    Digest digest = DIGEST_UTIL.compute(contents);
+    List<Long> readOffsets = new ArrayList<>();
+    serviceRegistry.addService(
+        new ByteStreamImplBase() {
+          @Override
+          public void read(ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
+            assertThat(request.getResourceName())
+                .isEqualTo("compressed-blobs/deflate/" + DIGEST_UTIL.toString(digest));
+            readOffsets.add(request.getReadOffset());
+            ByteString data =
+                compress(
+                    ByteString.copyFrom(contents).substring((int) request.getReadOffset()));
+            if (readOffsets.size() == 1) {
+              // Fail after sending half of the compressed stream.
+              responseObserver.onNext(
+                  ReadResponse.newBuilder().setData(data.substring(0, data.size() / 2)).build());
+              responseObserver.onError(Status.UNAVAILABLE.asException());
+              return;
+            }
+            responseObserver.onNext(ReadResponse.newBuilder().setData(data).build());
+            responseObserver.onCompleted();
+          }
+        });
+
+    assertThat(getFromFuture(client.downloadBlob(digest))).isEqualTo(contents);
+    assertThat(readOffsets).hasSize(2);
+    assertThat(readOffsets.get(1)).isGreaterThan(0L);
+  }
+
+  @Test
+  public void testCompressedDownloadIsVerifiedAgainstUncompressedDigest() throws Exception {
+    RemoteOptions options = Options.getDefaults(RemoteOptions.class);
+    options.experimentalRemoteCacheCompression = true;
+    options.remoteVerifyDownloads = true;
+    GrpcRemoteCache client =
+        newClient(options, () -> new ExponentialBackoff(options), null, 0, true, false);
+    Digest digest = DIGEST_UTIL.computeAsUtf8("contents");
+    serviceRegistry.addService(
+        new ByteStreamImplBase() {
+          @Override
+          public void read(ReadRequest request, StreamObserver<ReadResponse> responseObserver) {
+            responseObserver.onNext(
+                ReadResponse.newBuilder()
+                    .setData(compress(ByteString.copyFromUtf8("corrupted")))
+                    .build());
+            responseObserver.onCompleted();
+          }
+        });
+
+    IOException e =
+        assertThrows(IOException.class, () -> getFromFuture(client.downloadBlob(digest)));
+    assertThat(e).hasMessageThat().contains(digest.getHash());
+  }
+
   @Test
   public void testGetCachedActionResultWithRetries() throws Exception {
     final GrpcRemoteCache client = newClient();
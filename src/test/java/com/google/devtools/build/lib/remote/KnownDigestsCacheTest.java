@@ -0,0 +1,89 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import build.bazel.remote.execution.v2.Digest;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link KnownDigestsCache}. */
+@RunWith(JUnit4.class)
+public class KnownDigestsCacheTest {
+  private static final DigestUtil DIGEST_UTIL = new DigestUtil(DigestHashFunction.SHA256);
+
+  private final Digest foo = DIGEST_UTIL.computeAsUtf8("foo");
+  private final Digest bar = DIGEST_UTIL.computeAsUtf8("bar");
+  private final Digest baz = DIGEST_UTIL.computeAsUtf8("baz");
+
+  @Test
+  public void filterUnknownKeepsOrderAndCountsHits() {
+    KnownDigestsCache cache = new KnownDigestsCache(10, Duration.ofMinutes(1));
+    cache.markPresent(bar);
+
+    assertThat(cache.filterUnknown(ImmutableList.of(foo, bar, baz)))
+        .containsExactly(foo, baz)
+        .inOrder();
+    assertThat(cache.isKnownPresent(bar)).isTrue();
+    assertThat(cache.isKnownPresent(foo)).isFalse();
+    assertThat(cache.getLookups()).isEqualTo(5);
+    assertThat(cache.getHits()).isEqualTo(2);
+  }
+
+  @Test
+  public void invalidateAllForgetsDigests() {
+    KnownDigestsCache cache = new KnownDigestsCache(10, Duration.ofMinutes(1));
+    cache.markPresent(ImmutableList.of(foo, bar));
+
+    cache.invalidateAll();
+
+    assertThat(cache.filterUnknown(ImmutableList.of(foo, bar))).containsExactly(foo, bar);
+  }
+
+  @Test
+  public void digestsExpire() {
+    KnownDigestsCache cache = new KnownDigestsCache(10, Duration.ZERO);
+    cache.markPresent(foo);
+
+    assertThat(cache.isKnownPresent(foo)).isFalse();
+  }
+
+  @Test
+  public void sizeIsBounded() {
+    KnownDigestsCache cache = new KnownDigestsCache(1, Duration.ofMinutes(1));
+    cache.markPresent(ImmutableList.of(foo, bar, baz));
+
+    assertThat(cache.filterUnknown(ImmutableList.of(foo, bar, baz))).hasSize(2);
+  }
+
+  @Test
+  public void summaryReportsSavings() {
+    KnownDigestsCache cache = new KnownDigestsCache(10, Duration.ofMinutes(1));
+    cache.markPresent(foo);
+    cache.filterUnknown(ImmutableList.of(foo, bar));
+    cache.recordSavedFindMissingBlobsCalls(3);
+    cache.recordSavedUpload();
+
+    assertThat(cache.getSummary())
+        .isEqualTo(
+            "Remote cache: 1 of 2 digest lookups (50.0%) hit digests known to be present, "
+                + "saving 3 FindMissingBlobs calls and 1 uploads");
+  }
+}
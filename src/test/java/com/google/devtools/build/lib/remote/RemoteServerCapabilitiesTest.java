@@ -35,6 +35,8 @@ import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.util.TestUtils;
 import com.google.devtools.build.lib.remote.util.TracingMetadataUtils;
 import com.google.devtools.common.options.Options;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnknownFieldSet;
 import io.grpc.CallCredentials;
 import io.grpc.Metadata;
 import io.grpc.Server;
@@ -448,4 +450,33 @@ public class RemoteServerCapabilitiesTest {
             caps, remoteOptions, DigestFunction.SHA256);
     assertThat(st.isOk()).isTrue();
   }
+
+  @Test
+  public void testDeflateSupport() throws Exception {
+    assertThat(BlobCompression.isDeflateSupported(CacheCapabilities.getDefaultInstance()))
+        .isFalse();
+
+    ServerCapabilities caps =
+        ServerCapabilities.newBuilder()
+            .setCacheCapabilities(
+                BlobCompression.addDeflateSupport(
+                    CacheCapabilities.newBuilder().addDigestFunction(DigestFunction.SHA256)))
+            .build();
+    // The field survives the round trip through the wire format as an unknown field.
+    caps = ServerCapabilities.parseFrom(caps.toByteArray());
+    assertThat(BlobCompression.isDeflateSupported(caps.getCacheCapabilities())).isTrue();
+
+    // Packed encoding of [ZSTD, DEFLATE], as sent by servers that know the field.
+    ByteString packed = ByteString.copyFrom(new byte[] {1, BlobCompression.DEFLATE_COMPRESSOR});
+    CacheCapabilities packedCaps =
+        CacheCapabilities.newBuilder()
+            .setUnknownFields(
+                UnknownFieldSet.newBuilder()
+                    .addField(
+                        BlobCompression.SUPPORTED_COMPRESSORS_FIELD_NUMBER,
+                        UnknownFieldSet.Field.newBuilder().addLengthDelimited(packed).build())
+                    .build())
+            .build();
+    assertThat(BlobCompression.isDeflateSupported(packedCaps)).isTrue();
+  }
 }
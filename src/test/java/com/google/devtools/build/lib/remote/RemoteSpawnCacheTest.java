@@ -14,6 +14,7 @@
 package com.google.devtools.build.lib.remote;
 
 import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyCollection;
 import static org.mockito.Matchers.eq;
@@ -57,6 +58,7 @@ import com.google.devtools.build.lib.exec.SpawnInputExpander;
 import com.google.devtools.build.lib.exec.SpawnRunner.ProgressStatus;
 import com.google.devtools.build.lib.exec.SpawnRunner.SpawnExecutionContext;
 import com.google.devtools.build.lib.exec.util.FakeOwner;
+import com.google.devtools.build.lib.remote.merkletree.MerkleTreeCache;
 import com.google.devtools.build.lib.remote.options.RemoteOptions;
 import com.google.devtools.build.lib.remote.options.RemoteOutputsMode;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
@@ -76,9 +78,11 @@ import java.io.IOException;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.SortedMap;
+import java.util.concurrent.CountDownLatch;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -339,6 +343,91 @@ public class RemoteSpawnCacheTest {
         .containsExactly(Pair.of(ProgressStatus.CHECKING_CACHE, "remote-cache"));
   }
 
+  @Test
+  public void cacheMissWithAsyncUpload() throws Exception {
+    AsyncOutputUploader asyncUploader = new AsyncOutputUploader(1024, 1);
+    cache =
+        new RemoteSpawnCache(
+            execRoot,
+            Options.getDefaults(RemoteOptions.class),
+            remoteCache,
+            "build-req-id",
+            "command-id",
+            reporter,
+            digestUtil,
+            /* topLevelOutputs= */ ImmutableSet.of(),
+            asyncUploader,
+            /* merkleTreeCache= */ null);
+    Path output = fs.getPath("/random/file");
+    FileSystemUtils.createDirectoryAndParents(output.getParentDirectory());
+    FileSystemUtils.writeContentAsLatin1(output, "output");
+    outErr.getOutputStream().write("stdout".getBytes(UTF_8));
+    outErr.getOutputStream().flush();
+    CountDownLatch uploadMayStart = new CountDownLatch(1);
+    List<String> uploadedStdout = Collections.synchronizedList(new ArrayList<>());
+    Mockito.doAnswer(
+            (invocation) -> {
+              uploadMayStart.await();
+              RequestMetadata meta = TracingMetadataUtils.fromCurrentContext();
+              assertThat(meta.getCorrelatedInvocationsId()).isEqualTo("build-req-id");
+              FileOutErr uploadedOutErr = invocation.getArgument(5);
+              uploadedStdout.add(uploadedOutErr.outAsLatin1());
+              return null;
+            })
+        .when(remoteCache)
+        .upload(
+            any(ActionKey.class),
+            any(Action.class),
+            any(Command.class),
+            any(Path.class),
+            eq(ImmutableList.of(output)),
+            any(FileOutErr.class));
+
+    CacheHandle entry = cache.lookup(simpleSpawn, simplePolicy);
+    entry.store(
+        new SpawnResult.Builder()
+            .setExitCode(0)
+            .setStatus(Status.SUCCESS)
+            .setRunnerName("test")
+            .build());
+
+    // The spawn does not wait for the upload, and its outputs must not change until then.
+    assertThat(output.isWritable()).isFalse();
+    assertThat(asyncUploader.getInFlightBytes()).isEqualTo(12);
+    outErr.clearOut();
+
+    uploadMayStart.countDown();
+    assertThat(asyncUploader.awaitCompletion()).isEmpty();
+    assertThat(uploadedStdout).containsExactly("stdout");
+    assertThat(fs.getPath("/tmp/stdout.upload-1").exists()).isFalse();
+    asyncUploader.shutdownNow();
+  }
+
+  @Test
+  public void lookupReusesInputDirectoriesOfMerkleTreeCache() throws Exception {
+    MerkleTreeCache merkleTreeCache = new MerkleTreeCache(100);
+    cache =
+        new RemoteSpawnCache(
+            execRoot,
+            Options.getDefaults(RemoteOptions.class),
+            remoteCache,
+            "build-req-id",
+            "command-id",
+            reporter,
+            digestUtil,
+            /* topLevelOutputs= */ ImmutableSet.of(),
+            /* asyncUploader= */ null,
+            merkleTreeCache);
+
+    cache.lookup(simpleSpawn, simplePolicy);
+    assertThat(merkleTreeCache.getHits()).isEqualTo(0);
+    assertThat(merkleTreeCache.getMisses()).isEqualTo(1);
+
+    cache.lookup(simpleSpawn, simplePolicy);
+    assertThat(merkleTreeCache.getHits()).isEqualTo(1);
+    assertThat(merkleTreeCache.getMisses()).isEqualTo(1);
+  }
+
   @Test
   public void noCacheSpawns() throws Exception {
     // Checks that spawns satisfying Spawns.mayBeCached false are not looked up in the remote cache,
@@ -0,0 +1,220 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.blobstore;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link OnDiskBlobStore}. */
+@RunWith(JUnit4.class)
+public class OnDiskBlobStoreTest {
+
+  private Path root;
+
+  @Before
+  public final void setUp() throws Exception {
+    InMemoryFileSystem fs = new InMemoryFileSystem(new JavaClock(), DigestHashFunction.SHA256);
+    root = fs.getPath("/cache");
+    root.createDirectoryAndParents();
+  }
+
+  private OnDiskBlobStore newStore(long maxSizeBytes) {
+    return new OnDiskBlobStore(root, maxSizeBytes, MoreExecutors.directExecutor());
+  }
+
+  private static void put(OnDiskBlobStore store, String key, int size) throws Exception {
+    store.put(key, size, new ByteArrayInputStream(new byte[size]));
+  }
+
+  @Test
+  public void putAndGet() throws Exception {
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 0);
+    byte[] data = "hello".getBytes(UTF_8);
+    store.put("foo", data.length, new ByteArrayInputStream(data));
+    store.putActionResult("bar", data);
+
+    assertThat(store.contains("foo")).isTrue();
+    assertThat(store.contains("bar")).isFalse();
+    assertThat(store.containsActionResult("bar")).isTrue();
+    assertThat(store.containsActionResult("foo")).isFalse();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThat(store.get("foo", out).get()).isTrue();
+    assertThat(out.toByteArray()).isEqualTo(data);
+    out.reset();
+    assertThat(store.getActionResult("bar", out).get()).isTrue();
+    assertThat(out.toByteArray()).isEqualTo(data);
+    assertThat(store.get("baz", new ByteArrayOutputStream()).get()).isFalse();
+    assertThat(store.getTotalSizeBytes()).isEqualTo(2 * data.length);
+  }
+
+  @Test
+  public void indexIsLoadedFromExistingEntries() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(root.getChild("foo"), "12345");
+    FileSystemUtils.writeContentAsLatin1(root.getChild("ac_bar"), "123");
+
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 0);
+
+    assertThat(store.contains("foo")).isTrue();
+    assertThat(store.containsActionResult("bar")).isTrue();
+    assertThat(store.getTotalSizeBytes()).isEqualTo(8);
+  }
+
+  @Test
+  public void entriesWrittenByOtherProcessesAreFound() throws Exception {
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 0);
+    // Files added behind the back of a loaded store, e.g. by another server sharing the cache.
+    FileSystemUtils.writeContentAsLatin1(root.getChild("foo"), "12345");
+
+    assertThat(store.contains("foo")).isTrue();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThat(store.get("foo", out).get()).isTrue();
+    assertThat(out.toByteArray()).isEqualTo("12345".getBytes(UTF_8));
+    assertThat(store.getTotalSizeBytes()).isEqualTo(5);
+  }
+
+  @Test
+  public void entriesDeletedByOtherProcessesAreRemovedFromIndex() throws Exception {
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 0);
+    put(store, "foo", 5);
+    put(store, "bar", 3);
+    root.getChild("foo").delete();
+
+    assertThat(store.get("foo", new ByteArrayOutputStream()).get()).isFalse();
+    assertThat(store.getTotalSizeBytes()).isEqualTo(3);
+    assertThat(store.contains("foo")).isFalse();
+  }
+
+  @Test
+  public void entriesDeletedByOtherProcessesAreWrittenAgain() throws Exception {
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 0);
+    put(store, "foo", 5);
+    root.getChild("foo").delete();
+
+    put(store, "foo", 5);
+
+    assertThat(root.getChild("foo").getFileSize()).isEqualTo(5);
+    assertThat(store.getTotalSizeBytes()).isEqualTo(5);
+  }
+
+  @Test
+  public void tempFilesAreNotIndexed() throws Exception {
+    String temp = "0b9d2a4e-5c3f-4a61-9e2d-7f3b8c1a6d40";
+    assertThat(OnDiskBlobStore.isTempFile(temp)).isTrue();
+    FileSystemUtils.writeContentAsLatin1(root.getChild(temp), "123456789");
+    FileSystemUtils.writeContentAsLatin1(root.getChild("foo"), "12345");
+
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 10);
+    put(store, "bar", 5);
+
+    // The temp file is neither counted nor collected.
+    assertThat(store.getTotalSizeBytes()).isEqualTo(10);
+    assertThat(root.getChild(temp).exists()).isTrue();
+  }
+
+  @Test
+  public void entriesUsedByOtherProcessesAreNotCollected() throws Exception {
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 100);
+    put(store, "a", 40);
+    put(store, "b", 40);
+    // Another process reads "a", which updates its modification time.
+    root.getChild("a").setLastModifiedTime(System.currentTimeMillis() + 60_000);
+
+    put(store, "c", 40);
+
+    assertThat(root.getChild("a").exists()).isTrue();
+    assertThat(root.getChild("b").exists()).isFalse();
+    assertThat(root.getChild("c").exists()).isTrue();
+    assertThat(store.getTotalSizeBytes()).isEqualTo(80);
+  }
+
+  @Test
+  public void leastRecentlyUsedEntriesAreCollected() throws Exception {
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 100);
+    put(store, "a", 40);
+    put(store, "b", 40);
+    // Accessing "a" makes "b" the least recently used entry.
+    assertThat(store.contains("a")).isTrue();
+
+    put(store, "c", 40);
+
+    assertThat(store.contains("a")).isTrue();
+    assertThat(store.contains("b")).isFalse();
+    assertThat(store.contains("c")).isTrue();
+    assertThat(root.getChild("b").exists()).isFalse();
+    assertThat(store.getTotalSizeBytes()).isEqualTo(80);
+  }
+
+  @Test
+  public void collectsUntilLowWatermark() throws Exception {
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 100);
+    for (int i = 0; i < 10; i++) {
+      put(store, "k" + i, 10);
+    }
+    assertThat(store.getTotalSizeBytes()).isEqualTo(100);
+
+    put(store, "k10", 10);
+
+    assertThat(store.getTotalSizeBytes())
+        .isAtMost((long) (100 * OnDiskBlobStore.LOW_WATERMARK));
+    assertThat(store.contains("k0")).isFalse();
+    assertThat(store.contains("k10")).isTrue();
+  }
+
+  @Test
+  public void oversizedCacheIsCollectedOnStartup() throws Exception {
+    Path older = root.getChild("older");
+    FileSystemUtils.writeContentAsLatin1(older, "0123456789");
+    older.setLastModifiedTime(1000L);
+    Path newer = root.getChild("newer");
+    FileSystemUtils.writeContentAsLatin1(newer, "0123456789");
+    newer.setLastModifiedTime(2000L);
+
+    OnDiskBlobStore store = newStore(/* maxSizeBytes= */ 15);
+
+    assertThat(store.contains("older")).isFalse();
+    assertThat(older.exists()).isFalse();
+    assertThat(store.contains("newer")).isTrue();
+  }
+
+  @Test
+  public void combinedStoreCommitsIntoIndex() throws Exception {
+    OnDiskBlobStore diskCache = newStore(/* maxSizeBytes= */ 0);
+    ConcurrentMapBlobStore remoteCache = new ConcurrentMapBlobStore(new ConcurrentHashMap<>());
+    byte[] data = "hello".getBytes(UTF_8);
+    remoteCache.put("foo", data.length, new ByteArrayInputStream(data));
+    CombinedDiskHttpBlobStore combined = new CombinedDiskHttpBlobStore(diskCache, remoteCache);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertThat(combined.get("foo", out).get()).isTrue();
+
+    assertThat(out.toByteArray()).isEqualTo(data);
+    assertThat(diskCache.contains("foo")).isTrue();
+    assertThat(diskCache.getTotalSizeBytes()).isEqualTo(data.length);
+  }
+}
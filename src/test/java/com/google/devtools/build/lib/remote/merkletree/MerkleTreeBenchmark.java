@@ -0,0 +1,117 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.remote.merkletree;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.FileArtifactValue;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.remote.util.StaticMetadataProvider;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Measures building the merkle trees of spawns that share a large toolchain and each add a few
+ * sources of their own, with and without a {@link MerkleTreeCache}.
+ */
+public class MerkleTreeBenchmark {
+  private static final int SPAWNS = 100;
+
+  /** The number of directories of the shared toolchain. */
+  @Param({"40"})
+  int toolchainDirs;
+
+  /** The number of files in each directory of the shared toolchain. */
+  @Param({"250"})
+  int toolchainFilesPerDir;
+
+  @Param({"false", "true"})
+  boolean cache;
+
+  private Path execRoot;
+  private DigestUtil digestUtil;
+  private StaticMetadataProvider metadataProvider;
+  private final List<SortedMap<PathFragment, ActionInput>> spawnInputs = new ArrayList<>();
+
+  @BeforeExperiment
+  void setUp() {
+    FileSystem fs = new InMemoryFileSystem(new JavaClock(), DigestHashFunction.SHA256);
+    execRoot = fs.getPath("/exec");
+    digestUtil = new DigestUtil(fs.getDigestFunction());
+    Map<ActionInput, FileArtifactValue> metadata = new HashMap<>();
+    SortedMap<PathFragment, ActionInput> toolchain = new TreeMap<>();
+    for (int i = 0; i < toolchainDirs; i++) {
+      for (int j = 0; j < toolchainFilesPerDir; j++) {
+        addInput("external/toolchain/include/dir" + i + "/file" + j + ".h", toolchain, metadata);
+      }
+    }
+    for (int i = 0; i < SPAWNS; i++) {
+      SortedMap<PathFragment, ActionInput> inputs = new TreeMap<>(toolchain);
+      for (int j = 0; j < 10; j++) {
+        addInput("pkg" + i + "/src" + j + ".cc", inputs, metadata);
+      }
+      spawnInputs.add(inputs);
+    }
+    metadataProvider = new StaticMetadataProvider(metadata);
+  }
+
+  private void addInput(
+      String path,
+      SortedMap<PathFragment, ActionInput> inputs,
+      Map<ActionInput, FileArtifactValue> metadata) {
+    ActionInput input = ActionInputHelper.fromPath(path);
+    byte[] content = path.getBytes(UTF_8);
+    inputs.put(PathFragment.create(path), input);
+    metadata.put(
+        input,
+        FileArtifactValue.createNormalFile(
+            DigestUtil.toBinaryDigest(digestUtil.compute(content)),
+            /* proxy= */ null,
+            content.length,
+            /* isShareable= */ true));
+  }
+
+  @Benchmark
+  int buildMerkleTrees(int reps) throws IOException {
+    int digests = 0;
+    for (int i = 0; i < reps; i++) {
+      // A new cache for each build, as in RemoteModule.
+      MerkleTreeCache merkleTreeCache = cache ? new MerkleTreeCache(100_000) : null;
+      for (SortedMap<PathFragment, ActionInput> inputs : spawnInputs) {
+        digests +=
+            Iterables.size(
+                MerkleTree.build(inputs, metadataProvider, execRoot, digestUtil, merkleTreeCache)
+                    .getAllDigests());
+      }
+    }
+    return digests;
+  }
+}
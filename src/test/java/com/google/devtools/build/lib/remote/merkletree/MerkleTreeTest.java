@@ -137,6 +137,52 @@ public class MerkleTreeTest {
     assertThat(allDigests).asList().containsAllIn(inputDigests);
   }
 
+  @Test
+  public void buildMerkleTreeWithCache() throws IOException {
+    SortedMap<PathFragment, ActionInput> sortedInputs = new TreeMap<>();
+    Map<ActionInput, FileArtifactValue> metadata = new HashMap<>();
+    addFile("srcs/foo.cc", "foo", sortedInputs, metadata);
+    addFile("srcs/fizz/buzz.cc", "buzz", sortedInputs, metadata);
+    addFile("srcs/fizz/fizzbuzz.cc", "fizzbuzz", sortedInputs, metadata);
+    addFile("srcs/toolchain/include/a.h", "a", sortedInputs, metadata);
+    addFile("srcs/toolchain/include/b.h", "b", sortedInputs, metadata);
+    StaticMetadataProvider metadataProvider = new StaticMetadataProvider(metadata);
+    MerkleTreeCache cache = new MerkleTreeCache(100);
+
+    MerkleTree uncached = MerkleTree.build(sortedInputs, metadataProvider, execRoot, digestUtil);
+    MerkleTree cached =
+        MerkleTree.build(sortedInputs, metadataProvider, execRoot, digestUtil, cache);
+
+    // root, srcs, srcs/fizz, srcs/toolchain and srcs/toolchain/include
+    assertThat(cache.getMisses()).isEqualTo(5);
+    assertThat(cache.getHits()).isEqualTo(0);
+    assertThat(cached.getRootDigest()).isEqualTo(uncached.getRootDigest());
+    assertThat(cached.getAllDigests()).containsExactlyElementsIn(uncached.getAllDigests());
+    for (Digest digest : uncached.getAllDigests()) {
+      assertThat(cached.getDirectoryByDigest(digest))
+          .isEqualTo(uncached.getDirectoryByDigest(digest));
+      assertThat(cached.getInputByDigest(digest)).isEqualTo(uncached.getInputByDigest(digest));
+    }
+
+    // Renaming a file only rebuilds the directories on its path.
+    sortedInputs.remove(PathFragment.create("srcs/foo.cc"));
+    addFile("srcs/foo2.cc", "foo", sortedInputs, metadata);
+    MerkleTree changed =
+        MerkleTree.build(
+            sortedInputs, new StaticMetadataProvider(metadata), execRoot, digestUtil, cache);
+
+    assertThat(cache.getMisses()).isEqualTo(7);
+    assertThat(cache.getHits()).isEqualTo(3);
+    assertThat(changed.getRootDigest())
+        .isEqualTo(
+            MerkleTree.build(
+                    sortedInputs, new StaticMetadataProvider(metadata), execRoot, digestUtil)
+                .getRootDigest());
+    assertThat(changed.getRootDigest()).isNotEqualTo(uncached.getRootDigest());
+    assertThat(cache.getSummary())
+        .isEqualTo("Remote merkle tree cache: 3 of 10 input directories (30.0%) reused");
+  }
+
   private Artifact addFile(
       String path,
       String content,
@@ -81,6 +81,84 @@ public class SymlinkedSandboxedSpawnTest {
     assertThat(execRoot.getRelative("wow/writable").isDirectory()).isTrue();
   }
 
+  @Test
+  public void reuseStashedExecRoot() throws Exception {
+    Path helloTxt = workspaceDir.getRelative("hello.txt");
+    FileSystemUtils.createEmptyFile(helloTxt);
+    Path byeTxt = workspaceDir.getRelative("bye.txt");
+    FileSystemUtils.createEmptyFile(byeTxt);
+    SandboxStash stash = new SandboxStash(workspaceDir.getParentDirectory().getRelative("stash"));
+
+    SymlinkedSandboxedSpawn first =
+        new SymlinkedSandboxedSpawn(
+            sandboxDir,
+            execRoot,
+            ImmutableList.of("/bin/true"),
+            ImmutableMap.of(),
+            ImmutableMap.of(
+                PathFragment.create("such/input.txt"), helloTxt,
+                PathFragment.create("such/other.txt"), helloTxt,
+                PathFragment.create("much/input.txt"), helloTxt),
+            SandboxOutputs.create(
+                ImmutableSet.of(PathFragment.create("very/output.txt")), ImmutableSet.of()),
+            ImmutableSet.of(),
+            new SynchronousTreeDeleter(),
+            stash,
+            "Mnemonic");
+    first.createFileSystem();
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("very/output.txt"));
+    first.delete();
+    assertThat(sandboxDir.exists()).isFalse();
+
+    Path secondExecRoot = sandboxDir.getRelative("execroot");
+    secondExecRoot.createDirectoryAndParents();
+    SymlinkedSandboxedSpawn second =
+        new SymlinkedSandboxedSpawn(
+            sandboxDir,
+            secondExecRoot,
+            ImmutableList.of("/bin/true"),
+            ImmutableMap.of(),
+            ImmutableMap.of(
+                PathFragment.create("such/input.txt"), helloTxt,
+                PathFragment.create("such/other.txt"), byeTxt,
+                PathFragment.create("such/new.txt"), helloTxt),
+            SandboxOutputs.create(
+                ImmutableSet.of(PathFragment.create("very/output.txt")), ImmutableSet.of()),
+            ImmutableSet.of(),
+            new SynchronousTreeDeleter(),
+            stash,
+            "Mnemonic");
+    second.createFileSystem();
+
+    assertThat(secondExecRoot.getRelative("such/input.txt").resolveSymbolicLinks())
+        .isEqualTo(helloTxt);
+    assertThat(secondExecRoot.getRelative("such/other.txt").resolveSymbolicLinks())
+        .isEqualTo(byeTxt);
+    assertThat(secondExecRoot.getRelative("such/new.txt").resolveSymbolicLinks())
+        .isEqualTo(helloTxt);
+    assertThat(secondExecRoot.getRelative("much").exists()).isFalse();
+    assertThat(secondExecRoot.getRelative("very").isDirectory()).isTrue();
+    assertThat(secondExecRoot.getRelative("very/output.txt").exists()).isFalse();
+    assertThat(stash.getReusedSymlinks()).isEqualTo(1);
+    assertThat(stash.getCreatedSymlinks()).isEqualTo(5);
+    // The stale symlink, the other spawn's output and the directory it does not need.
+    assertThat(stash.getDeletedEntries()).isEqualTo(3);
+  }
+
+  @Test
+  public void stashIsPerMnemonic() throws Exception {
+    SandboxStash stash = new SandboxStash(workspaceDir.getParentDirectory().getRelative("stash"));
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("left.txt"));
+    stash.stashExecRoot("Mnemonic", execRoot);
+
+    Path otherExecRoot = sandboxDir.getRelative("other");
+    otherExecRoot.createDirectory();
+    assertThat(stash.takeStashedExecRoot("OtherMnemonic", otherExecRoot)).isFalse();
+    assertThat(stash.takeStashedExecRoot("Mnemonic", otherExecRoot)).isTrue();
+    assertThat(otherExecRoot.getRelative("left.txt").exists()).isTrue();
+    assertThat(stash.takeStashedExecRoot("Mnemonic", otherExecRoot)).isFalse();
+  }
+
   @Test
   public void copyOutputs() throws Exception {
     // These tests are very simple because we just rely on
@@ -0,0 +1,208 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.collect.nestedset.NestedSet;
+import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+import com.google.protobuf.ByteString;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Objects;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link SkyValueStore}. */
+@RunWith(JUnit4.class)
+public class SkyValueStoreTest {
+  private static final SkyKey KEY = PrecomputedValue.BUILD_ID.getKeyForTesting();
+
+  private Path file;
+  private SkyValueStore.FileStorageEndpoint endpoint;
+  private SkyValueStore store;
+
+  @Before
+  public void createStore() throws Exception {
+    file =
+        FileSystems.getJavaIoFileSystem()
+            .getPath(TestUtils.tmpDirFile().getAbsoluteFile() + "/offloaded");
+    endpoint = new SkyValueStore.FileStorageEndpoint(file);
+    store = new SkyValueStore(endpoint, ImmutableMap.of());
+  }
+
+  @After
+  public void closeStore() throws Exception {
+    endpoint.close();
+  }
+
+  /** A value that {@link SkyValueStore} serializes with a dynamic codec. */
+  private static final class TestValue implements SkyValue {
+    private final String name;
+    private final NestedSet<String> contents;
+
+    TestValue(String name, NestedSet<String> contents) {
+      this.name = name;
+      this.contents = contents;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      return other instanceof TestValue
+          && name.equals(((TestValue) other).name)
+          && contents.toList().equals(((TestValue) other).contents.toList());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(name, contents.toList());
+    }
+  }
+
+  /** A value that holds on to something without a codec. */
+  private static final class UnserializableValue implements SkyValue {
+    @SuppressWarnings("unused")
+    private final Thread thread = Thread.currentThread();
+  }
+
+  /** A value that is compared by identity. */
+  private static final class IdentityValue implements SkyValue {
+    @SuppressWarnings("unused")
+    private final String name;
+
+    IdentityValue(String name) {
+      this.name = name;
+    }
+  }
+
+  private static NestedSet<String> nestedSet(String... elements) {
+    return NestedSetBuilder.<String>stableOrder()
+        .add("direct")
+        .addAll(Arrays.asList(elements))
+        .build();
+  }
+
+  @Test
+  public void valuesAreReadBackFromFile() throws Exception {
+    TestValue value =
+        new TestValue(
+            "value",
+            NestedSetBuilder.<String>stableOrder()
+                .add("top")
+                .addTransitive(nestedSet("a", "b"))
+                .build());
+
+    Object handle = store.offload(KEY, value);
+    assertThat(handle).isNotNull();
+    assertThat(file.getFileSize()).isGreaterThan(0L);
+
+    SkyValue retrieved = store.retrieve(KEY, handle);
+    assertThat(retrieved).isNotSameAs(value);
+    assertThat(retrieved).isEqualTo(value);
+  }
+
+  @Test
+  public void storedValuesAreNotWrittenAgain() throws Exception {
+    TestValue value = new TestValue("value", nestedSet("a"));
+    Object handle = store.offload(KEY, value);
+    long size = file.getFileSize();
+
+    SkyValue retrieved = store.retrieve(KEY, handle);
+
+    assertThat(store.offload(KEY, value)).isEqualTo(handle);
+    assertThat(store.offload(KEY, retrieved)).isEqualTo(handle);
+    assertThat(store.offload(KEY, new TestValue("value", nestedSet("a")))).isEqualTo(handle);
+    assertThat(file.getFileSize()).isEqualTo(size);
+  }
+
+  @Test
+  public void sharedNestedSetsAreReadBackShared() throws Exception {
+    NestedSet<String> shared = nestedSet("a", "b", "c");
+    Object firstHandle = store.offload(KEY, new TestValue("first", shared));
+    Object secondHandle = store.offload(KEY, new TestValue("second", shared));
+
+    TestValue first = (TestValue) store.retrieve(KEY, firstHandle);
+    TestValue second = (TestValue) store.retrieve(KEY, secondHandle);
+
+    assertThat(first.name).isEqualTo("first");
+    assertThat(second.name).isEqualTo("second");
+    assertThat(first.contents.shallowEquals(second.contents)).isTrue();
+  }
+
+  @Test
+  public void unserializableValuesAreNotOffloaded() throws Exception {
+    assertThat(store.offload(KEY, new UnserializableValue())).isNull();
+    assertThat(file.getFileSize()).isEqualTo(0L);
+  }
+
+  @Test
+  public void valuesThatDifferFromCopiesAreNotOffloaded() throws Exception {
+    assertThat(store.offload(KEY, new IdentityValue("value"))).isNull();
+    assertThat(store.offload(KEY, new IdentityValue("other"))).isNull();
+    assertThat(file.getFileSize()).isEqualTo(0L);
+  }
+
+  @Test
+  public void unknownHandlesAreNotReadBack() {
+    assertThat(store.hasFailedReads()).isFalse();
+
+    assertThat(store.retrieve(KEY, ByteString.copyFromUtf8("not a fingerprint"))).isNull();
+    assertThat(store.hasFailedReads()).isTrue();
+  }
+
+  @Test
+  public void damagedFileIsDetected() throws Exception {
+    Object handle = store.offload(KEY, new TestValue("value", nestedSet("a")));
+    assertThat(store.hasFailedReads()).isFalse();
+
+    try (RandomAccessFile damaged = new RandomAccessFile(file.getPathFile(), "rw")) {
+      damaged.seek(damaged.length() - 1);
+      int lastByte = damaged.read();
+      damaged.seek(damaged.length() - 1);
+      damaged.write(lastByte ^ 0xff);
+    }
+    assertThat(store.hasFailedReads()).isFalse();
+    assertThat(store.retrieve(KEY, handle)).isNull();
+    assertThat(store.hasFailedReads()).isTrue();
+  }
+
+  @Test
+  public void truncatedFileIsDetected() throws Exception {
+    store.offload(KEY, new TestValue("value", nestedSet("a")));
+
+    try (RandomAccessFile truncated = new RandomAccessFile(file.getPathFile(), "rw")) {
+      truncated.setLength(truncated.length() - 1);
+    }
+
+    assertThat(store.hasFailedReads()).isTrue();
+  }
+
+  @Test
+  public void closingDeletesFile() throws Exception {
+    store.offload(KEY, new TestValue("value", nestedSet("a")));
+
+    endpoint.close();
+
+    assertThat(file.exists()).isFalse();
+  }
+}
@@ -0,0 +1,112 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.syntax.SkylarkList.MutableList;
+import com.google.devtools.build.lib.syntax.SkylarkList.Tuple;
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests of {@link CallSiteCache} and of the method calls that use it. */
+@RunWith(JUnit4.class)
+public class CallSiteCacheTest extends EvaluationTestCase {
+
+  @Test
+  public void cachesTheMethodsOfEachReceiverClass() {
+    StarlarkSemantics semantics = StarlarkSemantics.DEFAULT_SEMANTICS;
+    CallSiteCache cache = new CallSiteCache("index");
+    MethodDescriptor listIndex = cache.getMethod(semantics, MutableList.class);
+    assertThat(listIndex)
+        .isEqualTo(FuncallExpression.getMethod(semantics, MutableList.class, "index"));
+    assertThat(cache.getMethod(semantics, MutableList.class)).isSameAs(listIndex);
+    assertThat(cache.getMethod(semantics, Tuple.class))
+        .isEqualTo(FuncallExpression.getMethod(semantics, Tuple.class, "index"));
+    assertThat(cache.getMethod(semantics, Integer.class)).isNull();
+    assertThat(cache.getMethod(semantics, Integer.class)).isNull();
+    assertThat(cache.size()).isEqualTo(3);
+  }
+
+  @Test
+  public void stopsCachingMegamorphicSites() {
+    StarlarkSemantics semantics = StarlarkSemantics.DEFAULT_SEMANTICS;
+    CallSiteCache cache = new CallSiteCache("index");
+    Class<?>[] classes = {
+      MutableList.class, Tuple.class, Integer.class, Boolean.class, SkylarkDict.class
+    };
+    for (Class<?> receiverClass : classes) {
+      assertThat(cache.getMethod(semantics, receiverClass))
+          .isEqualTo(FuncallExpression.getMethod(semantics, receiverClass, "index"));
+    }
+    assertThat(cache.size()).isEqualTo(CallSiteCache.MAX_RECEIVER_CLASSES);
+    assertThat(cache.getMethod(semantics, SkylarkDict.class)).isNull();
+  }
+
+  @Test
+  public void equalSemanticsShareEntries() {
+    CallSiteCache cache = new CallSiteCache("index");
+    for (int i = 0; i < 2 * CallSiteCache.MAX_RECEIVER_CLASSES; i++) {
+      StarlarkSemantics semantics = StarlarkSemantics.DEFAULT_SEMANTICS.toBuilder().build();
+      assertThat(cache.getMethod(semantics, MutableList.class))
+          .isEqualTo(FuncallExpression.getMethod(semantics, MutableList.class, "index"));
+    }
+    assertThat(cache.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void otherSemanticsReplaceEntries() {
+    StarlarkSemantics semantics = StarlarkSemantics.DEFAULT_SEMANTICS;
+    StarlarkSemantics otherSemantics =
+        semantics.toBuilder()
+            .incompatibleNoTargetOutputGroup(!semantics.incompatibleNoTargetOutputGroup())
+            .build();
+    CallSiteCache cache = new CallSiteCache("index");
+    Class<?>[] classes = {MutableList.class, Tuple.class, Integer.class, Boolean.class};
+    for (Class<?> receiverClass : classes) {
+      cache.getMethod(semantics, receiverClass);
+    }
+    assertThat(cache.size()).isEqualTo(CallSiteCache.MAX_RECEIVER_CLASSES);
+
+    assertThat(cache.getMethod(otherSemantics, MutableList.class))
+        .isEqualTo(FuncallExpression.getMethod(otherSemantics, MutableList.class, "index"));
+    assertThat(cache.size()).isEqualTo(1);
+    cache.getMethod(otherSemantics, Tuple.class);
+    assertThat(cache.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void polymorphicCallSites() throws Exception {
+    eval(
+        "def first(x):",
+        "  return x.index('a')",
+        "firsts = [first(x) for x in [['b', 'a'], 'ba', ['a']]]");
+    assertThat(lookup("firsts")).isEqualTo(MutableList.of(env, 1, 1, 0));
+    checkEvalErrorContains(
+        "type 'int' has no method index()", "def first(x):", "  return x.index(1)", "first(1)");
+  }
+
+  @Test
+  public void positionalArgumentsAreChecked() throws Exception {
+    eval("l = [1, 2]", "l.insert(0, 3)", "s = ','.join(['a', 'b'])");
+    assertThat(lookup("l")).isEqualTo(MutableList.of(env, 3, 1, 2));
+    assertThat(lookup("s")).isEqualTo("a,b");
+    checkEvalErrorContains(
+        "expected value of type 'int' for parameter 'index'", "[1].insert('a', 2)");
+    checkEvalErrorContains("expected no more than 2 positional arguments", "[].insert(0, 1, 2)");
+    checkEvalErrorContains("parameter 'item' has no default value", "[].insert(0)");
+  }
+}
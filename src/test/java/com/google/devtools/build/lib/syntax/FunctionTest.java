@@ -397,4 +397,29 @@ public class FunctionTest extends EvaluationTestCase {
     assertThat(lookup("v2")).isEqualTo("acb|");
     assertThat(lookup("v3")).isEqualTo("a12|");
   }
+
+  @Test
+  public void testLocalVariablesInSlots() throws Exception {
+    eval(
+        "def f(a, b = 2):",
+        "  c = [a * x for x in range(b)]",
+        "  d = {x: c for x in c}",
+        "  return c, d, a",
+        "v1 = f(3)",
+        "v2 = f(1, b = 1)");
+    assertThat(eval("v1")).isEqualTo(eval("([0, 3], {0: [0, 3], 3: [0, 3]}, 3)"));
+    assertThat(eval("v2")).isEqualTo(eval("([0], {0: [0]}, 1)"));
+  }
+
+  @Test
+  public void testLocalVariableReferencedBeforeAssignment() throws Exception {
+    checkEvalErrorContains(
+        "local variable 'b' is referenced before assignment.",
+        "def f(a):",
+        "  if a:",
+        "    b = 1",
+        "  return b",
+        "f(True)",
+        "f(False)");
+  }
 }
@@ -1287,7 +1287,10 @@ public class SkylarkEvaluationTest extends EvaluationTest {
 
   @Test
   public void testStructAccessAsFuncall() throws Exception {
-    foobar.configure(getClass().getDeclaredField("foobar").getAnnotation(SkylarkSignature.class));
+    foobar.configure(
+        SkylarkEvaluationTest.class
+            .getDeclaredField("foobar")
+            .getAnnotation(SkylarkSignature.class));
     new SkylarkTest()
         .update("mock", new Mock())
         .setUp("v = mock.struct_field_callable()")
@@ -1303,7 +1306,9 @@ public class SkylarkEvaluationTest extends EvaluationTest {
   @Test
   public void testCallingInterruptedFunction() throws Exception {
     interruptedFunction.configure(
-        getClass().getDeclaredField("interruptedFunction").getAnnotation(SkylarkSignature.class));
+        SkylarkEvaluationTest.class
+            .getDeclaredField("interruptedFunction")
+            .getAnnotation(SkylarkSignature.class));
     update("interrupted_function", interruptedFunction);
     assertThrows(InterruptedException.class, () -> eval("interrupted_function()"));
   }
@@ -0,0 +1,122 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+
+import com.google.common.collect.ObjectArrays;
+import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs the tests of {@link SkylarkEvaluationTest} with the bodies of functions compiled by {@link
+ * BytecodeCompiler}, and tests the compiled functions against the interpreter.
+ */
+@RunWith(JUnit4.class)
+public class StarlarkBytecodeTest extends SkylarkEvaluationTest {
+
+  @Override
+  protected Environment newEnvironmentWithBuiltinsAndSkylarkOptions(
+      Map<String, Object> builtins, String... skylarkOptions) throws Exception {
+    return super.newEnvironmentWithBuiltinsAndSkylarkOptions(
+        builtins, ObjectArrays.concat(skylarkOptions, "--experimental_starlark_bytecode=true"));
+  }
+
+  private static final String[] PROGRAM = {
+    "def f(n, items, d):",
+    "  total = 0",
+    "  out = []",
+    "  for i in range(n):",
+    "    if i % 3 == 0:",
+    "      continue",
+    "    if i > 10:",
+    "      break",
+    "    total += i",
+    "    out.append(i * 2 if i % 2 else -i)",
+    "  a, (b, c) = items[0], items[1:3]",
+    "  d['k'] = [x + y for x in out if x > 0 for y in (a, b)]",
+    "  d['k'] += [c]",
+    "  return total, {k: v for k, v in d.items()}, out[::-1], not out and 'empty' or 'full'",
+  };
+
+  @Test
+  public void functionBodiesAreCompiled() throws Exception {
+    Object result = eval(ObjectArrays.concat(PROGRAM, "f(20, [1, 2, 3, 4], {})"));
+    UserDefinedFunction f = (UserDefinedFunction) lookup("f");
+    assertThat(BytecodeCompiler.compile(f)).isNotNull();
+
+    EvaluationTestCase interpreted = new EvaluationTestCase();
+    interpreted.initialize();
+    assertThat(interpreted.eval(ObjectArrays.concat(PROGRAM, "f(20, [1, 2, 3, 4], {})")))
+        .isEqualTo(result);
+  }
+
+  @Test
+  public void errorsHaveTheStackTraceOfTheInterpreter() throws Exception {
+    String[] program = {
+      "def g(x):", //
+      "  y = {'a': x}",
+      "  return y['b']",
+      "def f(l):",
+      "  return [g(x) for x in l]",
+      "f([1])",
+    };
+    EvalException compiled = assertThrows(EvalException.class, () -> eval(program));
+
+    EvaluationTestCase interpreted = new EvaluationTestCase();
+    interpreted.initialize();
+    EvalException expected = assertThrows(EvalException.class, () -> interpreted.eval(program));
+
+    assertThat(compiled).hasMessageThat().isEqualTo(expected.getMessage());
+    assertThat(compiled.getLocation()).isEqualTo(expected.getLocation());
+  }
+
+  @Test
+  public void collectionsAreUnlockedAfterReturn() throws Exception {
+    eval(
+        "def first(l):",
+        "  for x in l:",
+        "    for y in l:",
+        "      return x",
+        "l = [1, 2]",
+        "first(l)",
+        "l.append(3)");
+    assertThat(lookup("l")).isEqualTo(SkylarkList.MutableList.of(env, 1, 2, 3));
+  }
+
+  @Test
+  public void unknownNamesSuggestLocalVariables() throws Exception {
+    checkEvalErrorContains(
+        "name 'valeu' is not defined (did you mean 'value'?)",
+        "def f():",
+        "  value = 1",
+        "  return valeu",
+        "f()");
+  }
+
+  @Test
+  public void comprehensionVariablesAreUnbound() throws Exception {
+    checkEvalErrorContains(
+        "local variable 'x' is referenced before assignment.",
+        "def f():",
+        "  x = 1",
+        "  l = [x for x in [2]]",
+        "  return x",
+        "f()");
+  }
+}
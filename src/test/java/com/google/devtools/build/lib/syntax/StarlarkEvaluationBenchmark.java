@@ -0,0 +1,108 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.devtools.build.lib.events.Event;
+import com.google.devtools.build.lib.events.EventHandler;
+
+/**
+ * Measures calls of Starlark functions, with their bodies interpreted from the syntax tree and
+ * compiled by {@link BytecodeCompiler}.
+ */
+public class StarlarkEvaluationBenchmark {
+  /** The kind of function being called. */
+  public enum Workload {
+    /** Arithmetic on local variables in a loop. */
+    LOOP(
+        "def f(n):",
+        "  total = 0",
+        "  for i in range(n):",
+        "    if i % 3 == 0:",
+        "      total += i",
+        "    else:",
+        "      total -= 1",
+        "  return total"),
+    /** Comprehensions and calls of methods, like macros that build lists of labels. */
+    COMPREHENSION(
+        "def f(n):",
+        "  names = ['target_%d' % i for i in range(n)]",
+        "  labels = {name: ':' + name for name in names if not name.endswith('7')}",
+        "  return len([l.upper() for l in labels.values()])"),
+    /** Calls of another user-defined function with keyword arguments. */
+    CALLS(
+        "def g(a, b = 1, c = 2):",
+        "  return a + b * c",
+        "def f(n):",
+        "  x = 0",
+        "  for i in range(n):",
+        "    x = g(x, c = i)",
+        "  return x"),
+    /** Calls of methods of builtin values, like rule implementations that build command lines. */
+    BUILTINS(
+        "def f(n):",
+        "  args = []",
+        "  flags = {}",
+        "  for i in range(n):",
+        "    args.append('--input=' + str(i))",
+        "    flags['f%d' % (i % 10)] = args[-1].startswith('--')",
+        "  return len(' '.join(args).split(' ')) + len(flags.keys())");
+
+    private final String[] program;
+
+    Workload(String... program) {
+      this.program = program;
+    }
+  }
+
+  @Param Workload workload;
+
+  @Param({"false", "true"})
+  boolean compiled;
+
+  private Environment env;
+  private BaseFunction function;
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    env =
+        Environment.builder(Mutability.create("benchmark"))
+            .setSemantics(
+                StarlarkSemantics.builderWithDefaults()
+                    .experimentalStarlarkBytecode(compiled)
+                    .build())
+            .setGlobals(Environment.DEFAULT_GLOBALS)
+            .setEventHandler(
+                new EventHandler() {
+                  @Override
+                  public void handle(Event event) {
+                    throw new IllegalStateException(event.toString());
+                  }
+                })
+            .build();
+    BuildFileAST.eval(env, workload.program);
+    function = (BaseFunction) env.lookup("f");
+  }
+
+  @Benchmark
+  int callFunction(int reps) throws Exception {
+    int result = 0;
+    for (int i = 0; i < reps; i++) {
+      result += (Integer) function.call(new Object[] {100}, /*ast=*/ null, env);
+    }
+    return result;
+  }
+}
@@ -17,6 +17,7 @@ import static com.google.common.truth.Truth.assertThat;
 
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.syntax.util.EvaluationTestCase;
+import java.util.List;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -264,6 +265,41 @@ public class ValidationTest extends EvaluationTestCase {
         "fct(1, *[2], a=3)");
   }
 
+  @Test
+  public void testLocalVariablesAreResolvedToSlots() throws Exception {
+    List<Statement> statements =
+        parseFile(
+            "def f(a, b = 1, *args, **kwargs):",
+            "  c = [x for x in args if x]",
+            "  a += len(c)",
+            "  return a + b");
+    assertNoWarningsOrErrors();
+    FunctionDefStatement def = (FunctionDefStatement) statements.get(0);
+    FrameLayout layout = def.getFrameLayout();
+    assertThat(layout.getSlot("a")).isEqualTo(0);
+    assertThat(layout.getSlot("b")).isEqualTo(1);
+    assertThat(layout.getSlot("args")).isEqualTo(2);
+    assertThat(layout.getSlot("kwargs")).isEqualTo(3);
+    assertThat(layout.size()).isEqualTo(6);
+    assertThat(layout.getSlot("len")).isEqualTo(-1);
+
+    ReturnStatement ret = (ReturnStatement) def.getStatements().get(2);
+    BinaryOperatorExpression sum = (BinaryOperatorExpression) ret.getReturnExpression();
+    Identifier b = (Identifier) sum.getRhs();
+    assertThat(b.getFrameLayout()).isSameAs(layout);
+    assertThat(b.getSlot()).isEqualTo(1);
+  }
+
+  @Test
+  public void testTopLevelComprehensionVariablesHaveNoSlots() throws Exception {
+    List<Statement> statements = parseFile("l = [x for x in [1, 2]]");
+    assertNoWarningsOrErrors();
+    AbstractComprehension comprehension =
+        (AbstractComprehension) ((AssignmentStatement) statements.get(0)).getExpression();
+    Identifier x = (Identifier) comprehension.getOutputExpressions().get(0);
+    assertThat(x.getFrameLayout()).isNull();
+  }
+
   private void parse(String... lines) {
     parseFile(lines);
     assertNoWarningsOrErrors();
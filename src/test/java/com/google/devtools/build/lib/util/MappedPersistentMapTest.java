@@ -0,0 +1,226 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.util;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for the {@link MappedPersistentMap}. */
+@RunWith(JUnit4.class)
+public class MappedPersistentMapTest {
+  private Path file;
+  private MappedPersistentMap map;
+
+  @Before
+  public final void createMap() throws Exception {
+    // Memory mapping needs a real file system.
+    Path root =
+        new JavaIoFileSystem(DigestHashFunction.DEFAULT_HASH_FOR_TESTS)
+            .getPath(TestUtils.tmpDir())
+            .getRelative("mapped_persistent_map_test");
+    root.deleteTree();
+    file = root.getRelative("map.blaze");
+    map = openMap();
+  }
+
+  private MappedPersistentMap openMap() throws IOException {
+    return new MappedPersistentMap(0x1, file, MoreExecutors.directExecutor());
+  }
+
+  private static byte[] bytes(String s) {
+    return s.getBytes(UTF_8);
+  }
+
+  @Test
+  public void putGetAndRemove() throws Exception {
+    assertThat(map.put(1, bytes("one"))).isNull();
+    assertThat(map.put(-10, bytes("minus ten"))).isNull();
+
+    assertThat(map.get(1)).isEqualTo(bytes("one"));
+    assertThat(map.get(-10)).isEqualTo(bytes("minus ten"));
+    assertThat(map.get(2)).isNull();
+    assertThat(map).hasSize(2);
+
+    assertThat(map.remove(1)).isEqualTo(bytes("one"));
+    assertThat(map.get(1)).isNull();
+    assertThat(map.remove(1)).isNull();
+    assertThat(map).hasSize(1);
+  }
+
+  @Test
+  public void valuesAreReadFromFileAfterSave() throws Exception {
+    map.put(1, bytes("one"));
+    map.save();
+
+    assertThat(map.get(1)).isEqualTo(bytes("one"));
+    assertThat(map.valueEquals(1, bytes("one"))).isTrue();
+    assertThat(map.valueEquals(1, bytes("two"))).isFalse();
+    assertThat(map.put(1, bytes("uno"))).isEqualTo(bytes("one"));
+    assertThat(map.get(1)).isEqualTo(bytes("uno"));
+  }
+
+  @Test
+  public void saveOnlyAppendsUpdates() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      map.put(i, bytes("value" + i));
+    }
+    long fullSize = map.save();
+
+    map.put(7, bytes("x"));
+    long incrementalSize = map.save();
+
+    assertThat(incrementalSize - fullSize).isEqualTo(13 + 1);
+    assertThat(file.getFileSize()).isEqualTo(incrementalSize);
+  }
+
+  @Test
+  public void reloadSeesSavedUpdatesAndRemovals() throws Exception {
+    map.put(1, bytes("one"));
+    map.put(2, bytes("two"));
+    map.save();
+    map.put(1, bytes("uno"));
+    map.remove(2);
+    map.put(3, bytes("three"));
+    map.save();
+    map.put(4, bytes("not saved"));
+
+    MappedPersistentMap reloaded = openMap();
+
+    assertThat(reloaded.get(1)).isEqualTo(bytes("uno"));
+    assertThat(reloaded.get(2)).isNull();
+    assertThat(reloaded.get(3)).isEqualTo(bytes("three"));
+    assertThat(reloaded.get(4)).isNull();
+    assertThat(reloaded).hasSize(2);
+  }
+
+  @Test
+  public void truncatedRecordIsDiscarded() throws Exception {
+    map.put(1, bytes("one"));
+    map.put(2, bytes("two"));
+    long size = map.save();
+    try (OutputStream out = file.getOutputStream(/*append=*/ true)) {
+      // The start of a record whose value was never written.
+      out.write(new byte[] {(byte) 0xfe, 0, 0, 0, 3, 0, 0, 0, 100, 'x'});
+    }
+
+    MappedPersistentMap reloaded = openMap();
+
+    assertThat(reloaded).hasSize(2);
+    assertThat(reloaded.get(3)).isNull();
+    assertThat(file.getFileSize()).isEqualTo(size);
+    reloaded.put(3, bytes("three"));
+    reloaded.save();
+    assertThat(openMap().get(3)).isEqualTo(bytes("three"));
+  }
+
+  @Test
+  public void corruptedRecordIsDiscarded() throws Exception {
+    map.put(1, bytes("one"));
+    map.put(2, bytes("two"));
+    map.save();
+    byte[] content = FileSystemUtils.readContent(file);
+    // Flip a bit of the last value, which is not caught by the record framing.
+    content[content.length - 1] ^= 1;
+    FileSystemUtils.writeContent(file, content);
+
+    MappedPersistentMap reloaded = openMap();
+
+    assertThat(reloaded).hasSize(1);
+    assertThat(reloaded.get(1)).isEqualTo(bytes("one"));
+    assertThat(reloaded.get(2)).isNull();
+  }
+
+  @Test
+  public void wrongVersionIsRejected() throws Exception {
+    map.save();
+
+    assertThrows(
+        IOException.class,
+        () -> new MappedPersistentMap(0x2, file, MoreExecutors.directExecutor()));
+  }
+
+  @Test
+  public void compactionKeepsOnlyCurrentValues() throws Exception {
+    Map<Integer, byte[]> expected = new HashMap<>();
+    for (int round = 0; round < 10; round++) {
+      for (int i = 0; i < 50; i++) {
+        byte[] value = bytes("value" + i + "_" + round);
+        map.put(i, value);
+        expected.put(i, value);
+      }
+      map.save();
+    }
+    map.remove(0);
+    expected.remove(0);
+    map.save();
+    long sizeBeforeCompaction = file.getFileSize();
+
+    map.compact();
+
+    assertThat(file.getFileSize()).isLessThan((long) (sizeBeforeCompaction * 0.2));
+    for (int i = 0; i < 50; i++) {
+      assertThat(map.get(i)).isEqualTo(expected.get(i));
+    }
+    map.put(50, bytes("after compaction"));
+    map.save();
+    MappedPersistentMap reloaded = openMap();
+    assertThat(reloaded).hasSize(50);
+    assertThat(reloaded.get(0)).isNull();
+    assertThat(reloaded.get(49)).isEqualTo(expected.get(49));
+    assertThat(reloaded.get(50)).isEqualTo(bytes("after compaction"));
+  }
+
+  @Test
+  public void clearTruncatesFile() throws Exception {
+    map.put(1, bytes("one"));
+    map.save();
+
+    map.clear();
+    map.save();
+
+    assertThat(map).isEmpty();
+    assertThat(openMap()).isEmpty();
+    assertThat(FileSystemUtils.readContent(file)).hasLength(16);
+  }
+
+  @Test
+  public void entrySetReadsValues() throws Exception {
+    map.put(1, bytes("one"));
+    map.save();
+    map.put(2, bytes("two"));
+
+    Map<Integer, String> entries = new HashMap<>();
+    for (Map.Entry<Integer, byte[]> entry : map.entrySet()) {
+      entries.put(entry.getKey(), new String(entry.getValue(), UTF_8));
+    }
+
+    assertThat(entries).containsExactly(1, "one", 2, "two");
+  }
+}
@@ -0,0 +1,239 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.testutil.MoreAsserts.assertThrows;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.devtools.build.lib.shell.JavaSubprocessFactory;
+import com.google.devtools.build.lib.shell.Subprocess;
+import com.google.devtools.build.lib.shell.SubprocessBuilder;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkRequest;
+import com.google.devtools.build.lib.worker.WorkerProtocol.WorkResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link WorkerMultiplexer} and {@link WorkerProxy}. */
+@RunWith(JUnit4.class)
+public class WorkerMultiplexerTest {
+  private final FileSystem fs = new InMemoryFileSystem();
+  private final Path logFile = fs.getPath("/outputbase/bazel-workers/worker-1-Mnemonic.log");
+  private final WorkerKey key =
+      new WorkerKey(
+          ImmutableList.of("worker"),
+          ImmutableMap.of(),
+          fs.getPath("/outputbase/execroot/workspace"),
+          "Mnemonic",
+          HashCode.fromInt(0),
+          ImmutableSortedMap.of(),
+          /* mustBeSandboxed= */ false,
+          /* proxied= */ true);
+  private final WorkerMultiplexerManager manager = new WorkerMultiplexerManager();
+  private final List<FakeSubprocess> processes = new ArrayList<>();
+
+  /** A worker process whose stdin and stdout are connected to the test. */
+  private static final class FakeSubprocess implements Subprocess {
+    private final PipedInputStream stdin = new PipedInputStream(1 << 16);
+    private final PipedOutputStream stdinWriter;
+    private final PipedInputStream stdoutReader = new PipedInputStream(1 << 16);
+    private final PipedOutputStream stdout;
+    private volatile boolean finished;
+
+    private FakeSubprocess() throws IOException {
+      stdinWriter = new PipedOutputStream(stdin);
+      stdout = new PipedOutputStream(stdoutReader);
+    }
+
+    private WorkRequest readRequest() throws IOException {
+      return WorkRequest.parseDelimitedFrom(stdin);
+    }
+
+    private void respond(WorkRequest request, String output) throws IOException {
+      WorkResponse.newBuilder()
+          .setRequestId(request.getRequestId())
+          .setOutput(output)
+          .build()
+          .writeDelimitedTo(stdout);
+      stdout.flush();
+    }
+
+    private void quit() throws IOException {
+      finished = true;
+      stdout.close();
+    }
+
+    @Override
+    public boolean destroy() {
+      try {
+        quit();
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      return true;
+    }
+
+    @Override
+    public int exitValue() {
+      return 0;
+    }
+
+    @Override
+    public boolean finished() {
+      return finished;
+    }
+
+    @Override
+    public boolean timedout() {
+      return false;
+    }
+
+    @Override
+    public void waitFor() {}
+
+    @Override
+    public OutputStream getOutputStream() {
+      return stdinWriter;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return stdoutReader;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  @Before
+  public final void setUpSubprocessFactory() {
+    SubprocessBuilder.setDefaultSubprocessFactory(
+        params -> {
+          FakeSubprocess process = new FakeSubprocess();
+          processes.add(process);
+          return process;
+        });
+  }
+
+  @After
+  public final void restoreSubprocessFactory() {
+    SubprocessBuilder.setDefaultSubprocessFactory(JavaSubprocessFactory.INSTANCE);
+  }
+
+  private WorkerProxy createProxy(int workerId) {
+    return new WorkerProxy(
+        key, workerId, key.getExecRoot(), manager.acquire(key, logFile), manager);
+  }
+
+  private static WorkRequest request(String argument) {
+    return WorkRequest.newBuilder().addArguments(argument).build();
+  }
+
+  @Test
+  public void responsesAreMatchedByRequestId() throws Exception {
+    WorkerProxy first = createProxy(1);
+    WorkerProxy second = createProxy(2);
+    first.prepareExecution(null, null, null);
+    second.prepareExecution(null, null, null);
+    assertThat(processes).hasSize(1);
+    FakeSubprocess process = processes.get(0);
+
+    first.putRequest(request("first"));
+    second.putRequest(request("second"));
+    WorkRequest firstRequest = process.readRequest();
+    WorkRequest secondRequest = process.readRequest();
+    assertThat(firstRequest.getArgumentsList()).containsExactly("first");
+    assertThat(secondRequest.getArgumentsList()).containsExactly("second");
+    assertThat(firstRequest.getRequestId()).isNotEqualTo(secondRequest.getRequestId());
+
+    // Answer out of order.
+    process.respond(secondRequest, "second output");
+    assertThat(second.getResponse().getOutput()).isEqualTo("second output");
+    process.respond(firstRequest, "first output");
+    assertThat(first.getResponse().getOutput()).isEqualTo("first output");
+  }
+
+  @Test
+  public void pendingRequestsGetNoResponseWhenProcessQuits() throws Exception {
+    WorkerProxy proxy = createProxy(1);
+    proxy.prepareExecution(null, null, null);
+    proxy.putRequest(request("arg"));
+    processes.get(0).quit();
+
+    assertThat(proxy.getResponse()).isNull();
+    assertThat(proxy.isAlive()).isFalse();
+
+    // The next request starts a new process.
+    proxy.prepareExecution(null, null, null);
+    assertThat(processes).hasSize(2);
+    assertThat(proxy.isAlive()).isTrue();
+    proxy.putRequest(request("arg"));
+    FakeSubprocess process = processes.get(1);
+    process.respond(process.readRequest(), "output");
+    assertThat(proxy.getResponse().getOutput()).isEqualTo("output");
+  }
+
+  @Test
+  public void unparseableOutputFailsPendingRequests() throws Exception {
+    WorkerProxy proxy = createProxy(1);
+    proxy.prepareExecution(null, null, null);
+    proxy.putRequest(request("arg"));
+    FakeSubprocess process = processes.get(0);
+    process.stdout.write("I'm a poisoned worker and this is not a protobuf.".getBytes(UTF_8));
+    process.quit();
+
+    assertThrows(IOException.class, proxy::getResponse);
+    assertThat(proxy.getRecordingStreamMessage()).contains("this is not a protobuf");
+  }
+
+  @Test
+  public void lastProxyDestroysProcess() throws Exception {
+    WorkerProxy first = createProxy(1);
+    WorkerProxy second = createProxy(2);
+    first.prepareExecution(null, null, null);
+
+    first.destroy();
+    assertThat(processes.get(0).finished()).isFalse();
+    second.destroy();
+    assertThat(processes.get(0).finished()).isTrue();
+
+    // A new proxy gets a new multiplexer.
+    WorkerProxy third = createProxy(3);
+    third.prepareExecution(null, null, null);
+    assertThat(processes).hasSize(2);
+    third.destroy();
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.skyframe.QueryableGraph.Reason;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Microbenchmarks comparing {@link InMemoryGraphImpl} with {@link ShardedInMemoryGraph} on
+ * synthetic graphs whose keys are spread over many function names.
+ */
+public class InMemoryGraphBenchmark {
+  /** The graph implementations under comparison. */
+  enum GraphType {
+    SINGLE_MAP {
+      @Override
+      InMemoryGraph create() {
+        return new InMemoryGraphImpl(/*keepEdges=*/ true);
+      }
+    },
+    SHARDED {
+      private final ShardedInMemoryGraph.Factory factory = new ShardedInMemoryGraph.Factory();
+
+      @Override
+      InMemoryGraph create() {
+        return factory.create(/*keepEdges=*/ true);
+      }
+    };
+
+    abstract InMemoryGraph create();
+  }
+
+  private static final int NUM_FUNCTIONS = 64;
+  private static final int BATCH_SIZE = 32;
+
+  @Param GraphType graphType;
+
+  @Param({"100000", "1000000"})
+  int numNodes;
+
+  private final List<SkyFunctionName> functionNames = new ArrayList<>();
+  private ImmutableList<SkyKey> keys;
+  private List<List<SkyKey>> batches;
+  private InMemoryGraph graph;
+
+  private static final class Key extends AbstractSkyKey<Integer> {
+    private final SkyFunctionName functionName;
+
+    private Key(int arg, SkyFunctionName functionName) {
+      super(arg);
+      this.functionName = functionName;
+    }
+
+    @Override
+    public SkyFunctionName functionName() {
+      return functionName;
+    }
+  }
+
+  @BeforeExperiment
+  void setUp() throws Exception {
+    for (int i = 0; i < NUM_FUNCTIONS; i++) {
+      functionNames.add(SkyFunctionName.createHermetic("FUNCTION_" + i));
+    }
+    ImmutableList.Builder<SkyKey> keysBuilder = ImmutableList.builder();
+    for (int i = 0; i < numNodes; i++) {
+      // Skew the distribution, as in real builds a few functions own most of the nodes.
+      int function = Integer.numberOfTrailingZeros(i + 1) % NUM_FUNCTIONS;
+      keysBuilder.add(new Key(i, functionNames.get(function)));
+    }
+    keys = keysBuilder.build();
+    batches = new ArrayList<>();
+    for (List<SkyKey> batch : Iterables.partition(keys, BATCH_SIZE)) {
+      batches.add(batch);
+    }
+    // Populate a first graph so that the sharded graph can be pre-sized from it.
+    graph = graphType.create();
+    populate(graph);
+    graph = graphType.create();
+    populate(graph);
+  }
+
+  private void populate(InMemoryGraph graph) throws InterruptedException {
+    for (List<SkyKey> batch : batches) {
+      graph.createIfAbsentBatch(null, Reason.OTHER, batch);
+    }
+  }
+
+  @Benchmark
+  void rebuildGraph(int reps) throws InterruptedException {
+    for (int i = 0; i < reps; i++) {
+      graph = graphType.create();
+      populate(graph);
+    }
+  }
+
+  @Benchmark
+  int get(int reps) throws InterruptedException {
+    int found = 0;
+    for (int i = 0; i < reps; i++) {
+      for (SkyKey key : keys) {
+        if (graph.get(null, Reason.OTHER, key) != null) {
+          found++;
+        }
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  int getBatch(int reps) throws InterruptedException {
+    int found = 0;
+    for (int i = 0; i < reps; i++) {
+      for (List<SkyKey> batch : batches) {
+        found += graph.getBatch(null, Reason.OTHER, batch).size();
+      }
+    }
+    return found;
+  }
+
+  @Benchmark
+  int processBatch(int reps) {
+    int[] found = new int[1];
+    for (int i = 0; i < reps; i++) {
+      for (List<SkyKey> batch : batches) {
+        graph.processBatch(null, Reason.OTHER, batch, (key, entry) -> found[0]++);
+      }
+    }
+    return found[0];
+  }
+
+  @Benchmark
+  int iterateOneFunction(int reps) {
+    int found = 0;
+    for (int i = 0; i < reps; i++) {
+      for (SkyKey key : graph.getValuesForFunction(functionNames.get(1)).keySet()) {
+        found += key.hashCode() & 1;
+      }
+    }
+    return found;
+  }
+}
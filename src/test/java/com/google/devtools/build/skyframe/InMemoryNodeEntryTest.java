@@ -524,6 +524,224 @@ public class InMemoryNodeEntryTest {
     assertThat(entry.getVersion()).isEqualTo(ZERO_VERSION);
   }
 
+  /** Keeps offloaded values in a map, and counts how often they are read back. */
+  private static class MapOffloader implements SkyValueOffloader {
+    private final List<SkyValue> values = new ArrayList<>();
+    private int retrieved = 0;
+
+    @Override
+    public Object offload(SkyKey key, SkyValue value) {
+      values.add(value);
+      return values.size() - 1;
+    }
+
+    @Override
+    public SkyValue retrieve(SkyKey key, Object handle) {
+      retrieved++;
+      return values.get((Integer) handle);
+    }
+  }
+
+  @Test
+  public void offloadedValueIsReadBackOnce() throws InterruptedException {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    entry.markRebuilding();
+    IntegerValue value = new IntegerValue(5);
+    setValue(entry, value, /*errorInfo=*/ null, /*graphVersion=*/ 0L);
+    MapOffloader offloader = new MapOffloader();
+
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), offloader))
+        .isTrue();
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), offloader))
+        .isFalse();
+    assertThat(entry.isDone()).isTrue();
+    assertThat(entry.getErrorInfo()).isNull();
+    assertThat(offloader.retrieved).isEqualTo(0);
+
+    assertThat(entry.getValue()).isSameAs(value);
+    assertThat(entry.getValueMaybeWithMetadata()).isSameAs(value);
+    assertThat(entry.toValue()).isSameAs(value);
+    assertThat(offloader.retrieved).isEqualTo(1);
+  }
+
+  @Test
+  public void offloadedValueIsMoved() throws InterruptedException {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    entry.markRebuilding();
+    IntegerValue value = new IntegerValue(5);
+    setValue(entry, value, /*errorInfo=*/ null, /*graphVersion=*/ 0L);
+    MapOffloader first = new MapOffloader();
+    MapOffloader second = new MapOffloader();
+    assertThat(entry.moveOffloadedValue(key("entry"), second)).isFalse();
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), first)).isTrue();
+
+    assertThat(entry.moveOffloadedValue(key("entry"), second)).isTrue();
+
+    assertThat(entry.isValueOffloaded()).isTrue();
+    assertThat(first.retrieved).isEqualTo(1);
+    assertThat(second.values).containsExactly(value);
+    assertThat(entry.getValue()).isSameAs(value);
+    assertThat(second.retrieved).isEqualTo(1);
+    assertThat(entry.isValueOffloaded()).isFalse();
+  }
+
+  @Test
+  public void unreadableOffloadedValueIsNotMoved() throws InterruptedException {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    entry.markRebuilding();
+    setValue(entry, new IntegerValue(5), /*errorInfo=*/ null, /*graphVersion=*/ 0L);
+    MapOffloader lossy =
+        new MapOffloader() {
+          @Override
+          public SkyValue retrieve(SkyKey key, Object handle) {
+            return null;
+          }
+        };
+    MapOffloader second = new MapOffloader();
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), lossy)).isTrue();
+
+    assertThat(entry.moveOffloadedValue(key("entry"), second)).isFalse();
+
+    assertThat(entry.isValueOffloaded()).isTrue();
+    assertThat(second.values).isEmpty();
+  }
+
+  @Test
+  public void offloadedValueIsReadWithoutReloading() throws InterruptedException {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    entry.markRebuilding();
+    IntegerValue value = new IntegerValue(5);
+    setValue(entry, value, /*errorInfo=*/ null, /*graphVersion=*/ 0L);
+    MapOffloader offloader = new MapOffloader();
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), offloader))
+        .isTrue();
+
+    assertThat(entry.getValueWithoutReloading()).isSameAs(value);
+    assertThat(entry.toValueWithoutReloading()).isSameAs(value);
+
+    assertThat(offloader.retrieved).isEqualTo(2);
+    assertThat(entry.isValueOffloaded()).isTrue();
+  }
+
+  @Test
+  public void unreadableOffloadedValueAbortsEvaluation() throws InterruptedException {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    entry.markRebuilding();
+    setValue(entry, new IntegerValue(5), /*errorInfo=*/ null, /*graphVersion=*/ 0L);
+    MapOffloader lossy =
+        new MapOffloader() {
+          @Override
+          public SkyValue retrieve(SkyKey key, Object handle) {
+            return null;
+          }
+        };
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), lossy)).isTrue();
+
+    assertThrows(InterruptedException.class, entry::getValue);
+    assertThat(entry.getValueWithoutReloading()).isNull();
+    assertThat(entry.toValueWithoutReloading()).isNull();
+    assertThat(entry.isValueOffloaded()).isTrue();
+  }
+
+  @Test
+  public void unreadableOffloadedValueIsRebuiltWhenDirtied() throws InterruptedException {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    entry.markRebuilding();
+    SkyKey dep = key("dep");
+    addTemporaryDirectDep(entry, dep);
+    entry.signalDep(ZERO_VERSION, dep);
+    setValue(entry, new IntegerValue(5), /*errorInfo=*/ null, /*graphVersion=*/ 0L);
+    MapOffloader lossy =
+        new MapOffloader() {
+          @Override
+          public SkyValue retrieve(SkyKey key, Object handle) {
+            return null;
+          }
+        };
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), lossy)).isTrue();
+
+    entry.markDirty(DirtyType.DIRTY);
+
+    assertThat(entry.isChanged()).isTrue();
+    assertThat(entry.toValue()).isNull();
+  }
+
+  /** A value that is compared by identity. */
+  private static final class IdentityValue implements NotComparableSkyValue {}
+
+  @Test
+  public void valuesComparedByIdentityAreNotOffloaded() throws InterruptedException {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    entry.markRebuilding();
+    setValue(entry, new IdentityValue(), /*errorInfo=*/ null, /*graphVersion=*/ 0L);
+    MapOffloader offloader = new MapOffloader();
+
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), offloader))
+        .isFalse();
+    assertThat(offloader.values).isEmpty();
+  }
+
+  @Test
+  public void recentlyEvaluatedAndErrorValuesAreNotOffloaded() throws InterruptedException {
+    InMemoryNodeEntry recent = new InMemoryNodeEntry();
+    recent.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    recent.markRebuilding();
+    setValue(recent, new IntegerValue(5), /*errorInfo=*/ null, /*graphVersion=*/ 1L);
+    InMemoryNodeEntry error = new InMemoryNodeEntry();
+    error.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    error.markRebuilding();
+    ReifiedSkyFunctionException exception =
+        new ReifiedSkyFunctionException(
+            new GenericFunctionException(new SomeErrorException("oops"), Transience.PERSISTENT),
+            key("cause"));
+    setValue(
+        error,
+        new IntegerValue(5),
+        ErrorInfo.fromException(exception, false),
+        /*graphVersion=*/ 0L);
+    InMemoryNodeEntry evaluating = new InMemoryNodeEntry();
+    evaluating.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    MapOffloader offloader = new MapOffloader();
+
+    assertThat(recent.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("recent"), offloader))
+        .isFalse();
+    assertThat(error.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("error"), offloader))
+        .isFalse();
+    assertThat(
+            evaluating.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("evaluating"), offloader))
+        .isFalse();
+    assertThat(offloader.values).isEmpty();
+  }
+
+  @Test
+  public void pruneAfterOffloading() throws InterruptedException {
+    InMemoryNodeEntry entry = new InMemoryNodeEntry();
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    entry.markRebuilding();
+    SkyKey dep = key("dep");
+    addTemporaryDirectDep(entry, dep);
+    entry.signalDep(ZERO_VERSION, dep);
+    setValue(entry, new IntegerValue(5), /*errorInfo=*/ null, /*graphVersion=*/ 0L);
+    assertThat(entry.offloadValueIfEvaluatedAtMost(ZERO_VERSION, key("entry"), new MapOffloader()))
+        .isTrue();
+    entry.markDirty(DirtyType.DIRTY);
+    entry.addReverseDepAndCheckIfDone(null); // Start evaluation.
+    assertThat(entry.getNextDirtyDirectDeps()).containsExactly(dep);
+    addTemporaryDirectDep(entry, dep);
+    entry.signalDep(ONE_VERSION, /*childForDebugging=*/ null);
+    entry.markRebuilding();
+    setValue(entry, new IntegerValue(5), /*errorInfo=*/ null, /*graphVersion=*/ 1L);
+    assertThat(entry.isDone()).isTrue();
+    assertThat(entry.getVersion()).isEqualTo(ZERO_VERSION);
+  }
+
   @Test
   public void noPruneWhenDetailsChange() throws InterruptedException {
     NodeEntry entry = new InMemoryNodeEntry();
@@ -60,6 +60,7 @@ import com.google.devtools.build.skyframe.ThinNodeEntry.DirtyType;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -516,6 +517,101 @@ public class MemoizingEvaluatorTest {
     tester.evaluator.deleteDirty(0);
   }
 
+  @Test
+  public void offloadColdValues() throws Exception {
+    SkyKey leafKey = GraphTester.nonHermeticKey("leaf");
+    tester.getOrCreate("top").setComputedValue(CONCATENATE).addDependency(leafKey);
+    tester.set(leafKey, new StringValue("leaf"));
+    tester.set("other", new StringValue("other"));
+    tester.eval(true, "top", "other");
+
+    Map<Object, SkyValue> stored = new HashMap<>();
+    SkyValueOffloader offloader =
+        new SkyValueOffloader() {
+          @Override
+          public Object offload(SkyKey key, SkyValue value) {
+            stored.put(key, value);
+            return key;
+          }
+
+          @Override
+          public SkyValue retrieve(SkyKey key, Object handle) {
+            return stored.get(handle);
+          }
+        };
+    Predicate<SkyKey> nodeKeys = key -> key.functionName().equals(NODE_TYPE);
+
+    // The first sweep only marks the version after which nodes are no longer cold.
+    assertThat(tester.evaluator.offloadColdValues(nodeKeys, offloader)).isEqualTo(0);
+
+    tester.set(leafKey, new StringValue("changed"));
+    tester.invalidate();
+    tester.eval(true, "top");
+
+    // Only the node that was not evaluated since the previous sweep is offloaded.
+    assertThat(tester.evaluator.offloadColdValues(nodeKeys, offloader)).isEqualTo(1);
+    assertThat(stored.keySet()).containsExactly(skyKey("other"));
+    assertThat(tester.getExistingValue("other")).isEqualTo(new StringValue("other"));
+    assertThat(tester.evalAndGet("top")).isEqualTo(new StringValue("changed"));
+  }
+
+  @Test
+  public void deletedOffloadedValuesAreRecomputed() throws Exception {
+    tester.getOrCreate("top").setComputedValue(CONCATENATE).addDependency("leaf");
+    tester.set("leaf", new StringValue("leaf"));
+    tester.eval(true, "top");
+    SkyValueOffloader lossy =
+        new SkyValueOffloader() {
+          @Override
+          public Object offload(SkyKey key, SkyValue value) {
+            return key;
+          }
+
+          @Override
+          public SkyValue retrieve(SkyKey key, Object handle) {
+            return null;
+          }
+        };
+    Predicate<SkyKey> nodeKeys = key -> key.functionName().equals(NODE_TYPE);
+    tester.evaluator.offloadColdValues(nodeKeys, lossy);
+    tester.eval(true, "top");
+    assertThat(tester.evaluator.offloadColdValues(nodeKeys, lossy)).isEqualTo(2);
+
+    assertThat(tester.evaluator.moveOffloadedValues(lossy)).isEqualTo(2);
+    tester.evaluator.deleteOffloadedValues();
+
+    assertThat(tester.evalAndGet("top")).isEqualTo(new StringValue("leaf"));
+  }
+
+  @Test
+  public void unreadableOffloadedValuesAreRecomputedWhenInvalidated() throws Exception {
+    SkyKey leafKey = GraphTester.nonHermeticKey("leaf");
+    tester.getOrCreate("top").setComputedValue(CONCATENATE).addDependency(leafKey);
+    tester.set(leafKey, new StringValue("leaf"));
+    tester.eval(true, "top");
+    SkyValueOffloader lossy =
+        new SkyValueOffloader() {
+          @Override
+          public Object offload(SkyKey key, SkyValue value) {
+            return key;
+          }
+
+          @Override
+          public SkyValue retrieve(SkyKey key, Object handle) {
+            return null;
+          }
+        };
+    Predicate<SkyKey> nodeKeys = key -> key.functionName().equals(NODE_TYPE);
+    tester.evaluator.offloadColdValues(nodeKeys, lossy);
+    tester.eval(true, "top");
+    assertThat(tester.evaluator.offloadColdValues(nodeKeys, lossy)).isEqualTo(1);
+
+    tester.set(leafKey, new StringValue("changed"));
+    tester.invalidate();
+
+    assertThat(tester.evalAndGet("top")).isEqualTo(new StringValue("changed"));
+  }
+
   @Test
   public void deleteNonexistentValues() throws Exception {
     tester.getOrCreate("d1").setConstantValue(new StringValue("1"));
@@ -0,0 +1,128 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.skyframe.QueryableGraph.Reason;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ShardedInMemoryGraph}. */
+@RunWith(JUnit4.class)
+public class ShardedInMemoryGraphTest extends GraphTest {
+  private static final SkyFunctionName OTHER_FUNCTION = SkyFunctionName.createHermetic("OTHER");
+
+  private ShardedInMemoryGraph shardedGraph;
+
+  @Override
+  protected Version getStartingVersion() {
+    return IntVersion.of(0);
+  }
+
+  @Override
+  protected Version getNextVersion(Version v) {
+    Preconditions.checkState(v instanceof IntVersion);
+    return ((IntVersion) v).next();
+  }
+
+  @Override
+  protected void makeGraph() {
+    shardedGraph = new ShardedInMemoryGraph(/*keepEdges=*/ true);
+  }
+
+  @Override
+  protected ProcessableGraph getGraph(Version version) {
+    return shardedGraph;
+  }
+
+  private static final class OtherKey extends AbstractSkyKey<String> {
+    private OtherKey(String arg) {
+      super(arg);
+    }
+
+    @Override
+    public SkyFunctionName functionName() {
+      return OTHER_FUNCTION;
+    }
+  }
+
+  @Test
+  public void nodesOfDifferentFunctionsAreKeptApart() throws Exception {
+    SkyKey testKey = key("foo");
+    SkyKey otherKey = new OtherKey("foo");
+    shardedGraph.createIfAbsentBatch(null, Reason.OTHER, ImmutableList.of(testKey, otherKey));
+
+    assertThat(shardedGraph.getAllValues().keySet()).containsExactly(testKey, otherKey);
+    assertThat(shardedGraph.getValuesForFunction(OTHER_FUNCTION).keySet())
+        .containsExactly(otherKey);
+    assertThat(shardedGraph.getValuesForFunction(GraphTester.NODE_TYPE).keySet())
+        .containsExactly(testKey);
+
+    shardedGraph.remove(otherKey);
+    assertThat(shardedGraph.get(null, Reason.OTHER, otherKey)).isNull();
+    assertThat(shardedGraph.getAllValues()).hasSize(1);
+  }
+
+  @Test
+  public void valuesForFunctionIsLiveView() throws Exception {
+    Map<SkyKey, SkyValue> view = shardedGraph.getValuesForFunction(OTHER_FUNCTION);
+    assertThat(view).isEmpty();
+
+    SkyKey otherKey = new OtherKey("foo");
+    shardedGraph.createIfAbsentBatch(null, Reason.OTHER, ImmutableList.of(otherKey));
+
+    assertThat(view.keySet()).containsExactly(otherKey);
+  }
+
+  @Test
+  public void processBatchSkipsMissingNodes() throws Exception {
+    SkyKey present = key("present");
+    SkyKey missing = key("missing");
+    shardedGraph.createIfAbsentBatch(null, Reason.OTHER, ImmutableList.of(present));
+
+    Map<SkyKey, NodeEntry> seen = new HashMap<>();
+    shardedGraph.processBatch(
+        null, Reason.OTHER, ImmutableList.of(present, missing), seen::put);
+
+    assertThat(seen.keySet()).containsExactly(present);
+    assertThat(shardedGraph.getBatch(null, Reason.OTHER, ImmutableList.of(present, missing)))
+        .isEqualTo(seen);
+  }
+
+  @Test
+  public void allValuesMutableSupportsRemovalThroughIterator() throws Exception {
+    shardedGraph.createIfAbsentBatch(
+        null, Reason.OTHER, ImmutableList.of(key("a"), new OtherKey("b")));
+
+    shardedGraph.getAllValuesMutable().entrySet().removeIf(e -> e.getKey() instanceof OtherKey);
+
+    assertThat(shardedGraph.getAllValues().keySet()).containsExactly(key("a"));
+  }
+
+  @Test
+  public void factoryCreatesFreshGraphs() {
+    ShardedInMemoryGraph.Factory factory = new ShardedInMemoryGraph.Factory();
+    InMemoryGraph first = factory.create(/*keepEdges=*/ true);
+    InMemoryGraph second = factory.create(/*keepEdges=*/ true);
+
+    assertThat(second).isNotSameAs(first);
+    assertThat(second.getAllValues()).isEmpty();
+  }
+}
@@ -32,6 +32,7 @@ import java.util.Arrays;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.zip.ZipEntry;
+import javax.annotation.Nullable;
 
 /**
  * Merger for {@code .dex} files into larger chunks subject to {@code .dex} file limits on methods
@@ -77,21 +78,40 @@ class DexFileAggregator implements Closeable {
   }
 
   public DexFileAggregator add(Dex dexFile) {
+    return add(dexFile, references(dexFile));
+  }
+
+  /**
+   * Adds the given file like {@link #add(Dex)}, using its field and method references as
+   * previously computed with {@link #references}.
+   */
+  public DexFileAggregator add(Dex dexFile, @Nullable DexLimitTracker.References references) {
     if (multidex.isMultidexAllowed()) {
+      checkArgument(references != null, "Need references to track with multidex enabled");
       // To determine whether currentShard is "full" we track unique field and method signatures,
       // which predicts precisely the number of field and method indices.
-      if (tracker.track(dexFile) && !currentShard.isEmpty()) {
+      if (tracker.track(references) && !currentShard.isEmpty()) {
         // For simplicity just start a new shard to fit the given file.
         // Don't bother with waiting for a later file that might fit the old shard as in the extreme
         // we'd have to wait until the end to write all shards.
         rotateDexFile();
-        tracker.track(dexFile);
+        tracker.track(references);
       }
     }
     currentShard.add(dexFile);
     return this;
   }
 
+  /**
+   * Returns the field and method references of the given file needed to {@link #add} it, or
+   * {@code null} if they aren't needed because multidex isn't allowed.  Unlike {@link #add}, this
+   * method is safe to call from any thread.
+   */
+  @Nullable
+  public DexLimitTracker.References references(Dex dexFile) {
+    return multidex.isMultidexAllowed() ? DexLimitTracker.references(dexFile) : null;
+  }
+
   @Override
   public void close() throws IOException {
     try {
@@ -29,6 +29,8 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.devtools.build.android.Converters.ExistingPathConverter;
@@ -47,6 +49,7 @@ import java.io.PrintStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
@@ -57,6 +60,7 @@ import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
+import javax.annotation.Nullable;
 
 /**
  * Tool used by Bazel as a replacement for Android's {@code dx} tool that assembles a single or, if
@@ -186,8 +190,35 @@ class DexFileMerger {
       help = "Dex file output prefix."
     )
     public String dexPrefix;
+
+    @Option(
+      name = "read-threads",
+      defaultValue = "0",
+      category = "misc",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.UNKNOWN},
+      help =
+          "Number of threads that read input .dex files and index their references ahead of "
+              + "merging them, or 0 to do that on the main thread.  The output doesn't depend on "
+              + "this setting."
+    )
+    public int readThreads;
+  }
+
+  /** A {@code .dex} file read from an input archive, with the references to track for it. */
+  private static final class ReadDexFile {
+    private final Dex dex;
+    @Nullable private final DexLimitTracker.References references;
+
+    ReadDexFile(Dex dex, @Nullable DexLimitTracker.References references) {
+      this.dex = dex;
+      this.references = references;
+    }
   }
 
+  /** Number of files per read thread that may be read ahead of the one being added. */
+  private static final int READ_AHEAD_PER_THREAD = 4;
+
   public static class MultidexStrategyConverter extends EnumConverter<MultidexStrategy> {
     public MultidexStrategyConverter() {
       super(MultidexStrategy.class, "multidex strategy");
@@ -207,6 +238,7 @@ class DexFileMerger {
   static void buildMergedDexFiles(Options options) throws IOException {
     ListeningExecutorService executor;
     checkArgument(!options.inputArchives.isEmpty(), "Need at least one --input");
+    checkArgument(options.readThreads >= 0, "--read-threads must not be negative");
     checkArgument(
         options.mainDexListFile == null || options.inputArchives.size() == 1,
         "--main-dex-list only supported with exactly one --input, use DexFileSplitter for more");
@@ -228,6 +260,13 @@ class DexFileMerger {
     ImmutableSet<String> classesInMainDex = options.mainDexListFile != null
         ? ImmutableSet.copyOf(Files.readAllLines(options.mainDexListFile, UTF_8))
         : null;
+    // Files are read, in parallel if requested, ahead of being added to the output in their
+    // original order, which keeps the output independent of the number of threads.
+    ListeningExecutorService readers =
+        options.readThreads > 0
+            ? MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(options.readThreads))
+            : null;
+    int readAhead = READ_AHEAD_PER_THREAD * options.readThreads;
     PrintStream originalStdOut = System.out;
     try (DexFileAggregator out = createDexFileAggregator(options, executor)) {
       if (!options.verbose) {
@@ -244,14 +283,15 @@ class DexFileMerger {
         try (ZipFile zip = new ZipFile(inputArchive.toFile())) {
           ArrayList<ZipEntry> dexFiles = filesToProcess(zip);
           if (classesInMainDex == null) {
-            processDexFiles(zip, dexFiles, seen, out);
+            processDexFiles(zip, dexFiles, seen, out, readers, readAhead);
           } else {
             // To honor --main_dex_list make two passes:
             // 1. process only the classes listed in the given file
             // 2. process the remaining files
             Predicate<ZipEntry> mainDexFilter =
                 ZipEntryPredicates.classFileFilter(classesInMainDex);
-            processDexFiles(zip, Iterables.filter(dexFiles, mainDexFilter), seen, out);
+            processDexFiles(
+                zip, Iterables.filter(dexFiles, mainDexFilter), seen, out, readers, readAhead);
             // Fail if main_dex_list is too big, following dx's example
             checkState(out.getDexFilesWritten() == 0, "Too many classes listed in main dex list "
                 + "file %s, main dex capacity exceeded", options.mainDexListFile);
@@ -259,13 +299,21 @@ class DexFileMerger {
               out.flush(); // Start new .dex file if requested
             }
             processDexFiles(
-                zip, Iterables.filter(dexFiles, Predicates.not(mainDexFilter)), seen, out);
+                zip,
+                Iterables.filter(dexFiles, Predicates.not(mainDexFilter)),
+                seen,
+                out,
+                readers,
+                readAhead);
           }
         }
       }
     } finally {
       // Kill threads in the pool so we don't hang
       MoreExecutors.shutdownAndAwaitTermination(executor, 1, SECONDS);
+      if (readers != null) {
+        MoreExecutors.shutdownAndAwaitTermination(readers, 1, SECONDS);
+      }
       System.setOut(originalStdOut);
     }
   }
@@ -285,22 +333,57 @@ class DexFileMerger {
     return result;
   }
 
+  /**
+   * Adds the given files to the output in order.  If {@code readers} is given, up to
+   * {@code readAhead} files are read and indexed on it while earlier files are being added.
+   */
   private static void processDexFiles(
-      ZipFile zip, Iterable<ZipEntry> filesToProcess, HashSet<String> seen, DexFileAggregator out)
+      ZipFile zip,
+      Iterable<ZipEntry> filesToProcess,
+      HashSet<String> seen,
+      DexFileAggregator out,
+      @Nullable ListeningExecutorService readers,
+      int readAhead)
       throws IOException {
+    ArrayDeque<ListenableFuture<ReadDexFile>> pending = new ArrayDeque<>();
     for (ZipEntry entry : filesToProcess) {
       String filename = entry.getName();
       checkState(filename.endsWith(".dex"), "Input shouldn't contain .class files: %s", filename);
       if (!seen.add(filename)) {
         continue;  // pick first occurrence of each file to match how JVM treats dupes on classpath
       }
-      try (InputStream content = zip.getInputStream(entry)) {
-        // We don't want to use the Dex(InputStream) constructor because it closes the stream,
-        // which will break the for loop, and it has its own bespoke way of reading the file into
-        // a byte buffer before effectively calling Dex(byte[]) anyway.
-        out.add(new Dex(ByteStreams.toByteArray(content)));
+      if (readers == null) {
+        out.add(readDex(zip, entry));
+        continue;
+      }
+      pending.add(
+          readers.submit(
+              () -> {
+                Dex dex = readDex(zip, entry);
+                return new ReadDexFile(dex, out.references(dex));
+              }));
+      if (pending.size() > readAhead) {
+        addReadDexFile(pending.remove(), out);
       }
     }
+    while (!pending.isEmpty()) {
+      addReadDexFile(pending.remove(), out);
+    }
+  }
+
+  private static void addReadDexFile(ListenableFuture<ReadDexFile> file, DexFileAggregator out)
+      throws IOException {
+    ReadDexFile read = Futures.getChecked(file, IOException.class);
+    out.add(read.dex, read.references);
+  }
+
+  private static Dex readDex(ZipFile zip, ZipEntry entry) throws IOException {
+    try (InputStream content = zip.getInputStream(entry)) {
+      // We don't want to use the Dex(InputStream) constructor because it closes the stream, and
+      // it has its own bespoke way of reading the file into a byte buffer before effectively
+      // calling Dex(byte[]) anyway.
+      return new Dex(ByteStreams.toByteArray(content));
+    }
   }
 
   private static DexFileAggregator createDexFileAggregator(
@@ -21,6 +21,7 @@ import com.android.dex.TypeList;
 import com.google.auto.value.AutoValue;
 import com.google.auto.value.extension.memoized.Memoized;
 import com.google.common.collect.ImmutableList;
+import java.util.Collections;
 import java.util.HashSet;
 
 /**
@@ -45,7 +46,18 @@ class DexLimitTracker {
    *     are within limits.
    */
   public boolean track(Dex dexFile) {
-    trackFieldsAndMethods(dexFile);
+    return track(references(dexFile));
+  }
+
+  /**
+   * Tracks the given field and method references and returns whether we're within limits.
+   *
+   * @return {@code true} if method or field references are outside limits, {@code false} both
+   *     are within limits.
+   */
+  public boolean track(References references) {
+    Collections.addAll(fieldsSeen, references.fields);
+    Collections.addAll(methodsSeen, references.methods);
     return fieldsSeen.size() > maxNumberOfIdxPerDex
         || methodsSeen.size() > maxNumberOfIdxPerDex;
   }
@@ -55,21 +67,37 @@ class DexLimitTracker {
     methodsSeen.clear();
   }
 
-  private void trackFieldsAndMethods(Dex dexFile) {
-    int fieldCount = dexFile.fieldIds().size();
-    for (int fieldIndex = 0; fieldIndex < fieldCount; ++fieldIndex) {
-      fieldsSeen.add(FieldDescriptor.fromDex(dexFile, fieldIndex));
+  /**
+   * Returns the field and method references in the given file.  This doesn't depend on any
+   * tracker, so it can be computed concurrently for many files before they are tracked in order.
+   */
+  public static References references(Dex dexFile) {
+    FieldDescriptor[] fields = new FieldDescriptor[dexFile.fieldIds().size()];
+    for (int fieldIndex = 0; fieldIndex < fields.length; ++fieldIndex) {
+      fields[fieldIndex] = FieldDescriptor.fromDex(dexFile, fieldIndex);
     }
-    int methodCount = dexFile.methodIds().size();
-    for (int methodIndex = 0; methodIndex < methodCount; ++methodIndex) {
-      methodsSeen.add(MethodDescriptor.fromDex(dexFile, methodIndex));
+    MethodDescriptor[] methods = new MethodDescriptor[dexFile.methodIds().size()];
+    for (int methodIndex = 0; methodIndex < methods.length; ++methodIndex) {
+      methods[methodIndex] = MethodDescriptor.fromDex(dexFile, methodIndex);
     }
+    return new References(fields, methods);
   }
 
   private static String typeName(Dex dex, int typeIndex) {
     return dex.typeNames().get(typeIndex);
   }
 
+  /** Field and method references of a single {@code .dex} file. */
+  static final class References {
+    private final FieldDescriptor[] fields;
+    private final MethodDescriptor[] methods;
+
+    private References(FieldDescriptor[] fields, MethodDescriptor[] methods) {
+      this.fields = fields;
+      this.methods = methods;
+    }
+  }
+
   @AutoValue
   abstract static class FieldDescriptor {
     static FieldDescriptor fromDex(Dex dex, int fieldIndex) {
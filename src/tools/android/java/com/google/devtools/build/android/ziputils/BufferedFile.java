@@ -17,6 +17,7 @@ import com.google.common.base.Preconditions;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 /**
  * An API for reading big files through a direct byte buffer spanning a region of the file.
@@ -32,6 +33,10 @@ import java.nio.channels.FileChannel;
  * <p>This is optimized for forward scanning of files. Random access is supported, but will likely
  * be inefficient, especially if the entire file doesn't fit in the internal buffer.
  *
+ * <p>Alternatively, the region can be memory mapped when the {@code BufferedFile} is created. The
+ * internal buffer is then the mapping of the whole region, and requests are served as slices of it
+ * without copying file content, regardless of the access pattern.
+ *
  * <p>Clients of this API should take care not to keep references to returned buffers indefinitely,
  * as this would prevent collection of buffers discarded by the {@code BufferedFile} object.
  */
@@ -43,6 +48,7 @@ public class BufferedFile {
    private FileChannel channel;
    private ByteBuffer current;
    private long currOff;
+   private boolean mapped;
 
   /**
    * Same as {@code BufferedFile(channel, 0, channel.size(), blockSize)}.
@@ -71,6 +77,27 @@ public class BufferedFile {
    * @throws IOException if thrown by the underlying file channel.
    */
   public BufferedFile(FileChannel channel, long off, long len, int blockSize) throws IOException {
+    this(channel, off, len, blockSize, false);
+  }
+
+  /**
+   * Allocates a buffered file, optionally memory mapping the readable region. If
+   * {@code memoryMapped} is {@code true}, and the region is no larger than {@link
+   * Integer#MAX_VALUE} bytes, the whole region is mapped read-only and {@code blockSize} is not
+   * used. Otherwise, this is the same as {@code BufferedFile(channel, off, len, blockSize)}.
+   *
+   * @param channel file channel opened for reading.
+   * @param off the first byte that can be read through this object.
+   * @param len the max number of bytes that can be read through this object.
+   * @param blockSize default max buffer allocation size is {@code Math.min(blockSize, len)}.
+   * @param memoryMapped whether to map the readable region to memory.
+   * @throws NullPointerException if {@code channel} is {@code null}.
+   * @throws IllegalArgumentException if {@code blockSize}, {@code off}, or {@code len} are negative
+   * or if {@code off + len > channel.size()}.
+   * @throws IOException if thrown by the underlying file channel.
+   */
+  public BufferedFile(FileChannel channel, long off, long len, int blockSize, boolean memoryMapped)
+      throws IOException {
     Preconditions.checkNotNull(channel);
     Preconditions.checkArgument(blockSize >= 0);
     Preconditions.checkArgument(off >= 0);
@@ -82,6 +109,20 @@ public class BufferedFile {
     this.channel = channel;
     this.current = null;
     currOff = -1;
+    if (memoryMapped && len <= Integer.MAX_VALUE) {
+      // The mapping is filled up to its capacity, so getBuffer never allocates or reads more.
+      current = channel.map(MapMode.READ_ONLY, off, len);
+      currOff = off;
+      mapped = true;
+    }
+  }
+
+  /**
+   * Returns whether the readable region is memory mapped.
+   * @return {@code true} iff requests are served from a mapping of the readable region.
+   */
+  public boolean isMemoryMapped() {
+    return mapped;
   }
 
   /**
@@ -62,6 +62,7 @@ public class DexMapper {
           .setVerbose(false)
           .useDefaultEntryDate()
           .setSplitDexedClasses(options.splitDexedClasses)
+          .setMemoryMapped(options.memoryMappedInputs)
           .addInputs(inputs)
           .addOutputs(outputs)
           .setInputFilter(inputFilter)
@@ -147,5 +148,16 @@ public class DexMapper {
               + "are copied over."
     )
     public String inclusionFilterJar;
+
+    @Option(
+      name = "memory_mapped_inputs",
+      defaultValue = "false",
+      documentationCategory = OptionDocumentationCategory.UNCATEGORIZED,
+      effectTags = {OptionEffectTag.EXECUTION},
+      help =
+          "Read input jars through memory mappings, copying entries to the outputs without "
+              + "intermediate buffers. Faster for large inputs."
+    )
+    public boolean memoryMappedInputs;
   }
 }
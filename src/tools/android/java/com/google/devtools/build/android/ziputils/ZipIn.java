@@ -25,6 +25,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.util.Map;
 
 /**
@@ -62,6 +63,7 @@ public class ZipIn {
   private final boolean useDirectory;
   private final boolean ignoreDeleted;
   private final boolean verbose = false;
+  private final boolean memoryMapped;
 
   /**
    * Creates a {@code ZipIn} view of a file, with a (nick)name.
@@ -70,10 +72,25 @@ public class ZipIn {
    * @param filename filename or nickname.
    */
   public ZipIn(FileChannel channel, String filename) {
+    this(channel, filename, false);
+  }
+
+  /**
+   * Creates a {@code ZipIn} view of a file, with a (nick)name. If {@code memoryMapped} is
+   * {@code true}, the entries and the central directory are read through a memory mapping of the
+   * file, and entry content is returned as slices of the mapping, without copying it. This avoids
+   * the buffer allocations and reads of the default mode, which are costly for large archives.
+   *
+   * @param channel File channel open for reading.
+   * @param filename filename or nickname.
+   * @param memoryMapped whether to memory map the file.
+   */
+  public ZipIn(FileChannel channel, String filename, boolean memoryMapped) {
     this.fileChannel = channel;
     this.filename = filename;
     this.useDirectory = true;
     this.ignoreDeleted = useDirectory;
+    this.memoryMapped = memoryMapped;
   }
 
   /**
@@ -498,9 +515,9 @@ public class ZipIn {
 
     if (eocd != null) {
       bufferedFile = new BufferedFile(fileChannel, 0, eocd.get(ENDOFF),
-          READ_BLOCK_SIZE);
+          READ_BLOCK_SIZE, memoryMapped);
     } else {
-      bufferedFile = new BufferedFile(fileChannel, READ_BLOCK_SIZE);
+      bufferedFile = new BufferedFile(fileChannel, 0, size, READ_BLOCK_SIZE, memoryMapped);
     }
   }
 
@@ -520,15 +537,18 @@ public class ZipIn {
     long cdOffset = eocd.get(ENDOFF);
     long len = eocd.fileOffset() - cdOffset;
     verbose("-- CDIR: " + cdOffset + " size: " + len + " count: " + eocd.get(ENDSUB));
-    // Read directory to buffer.
     // TODO(bazel-team): we currently assume the directory fits in memory (and int).
-    ByteBuffer buffer = ByteBuffer.allocateDirect((int) len);
-    while (len > 0) {
-      int read = fileChannel.read(buffer, cdOffset);
-      len -= read;
-      cdOffset += read;
+    ByteBuffer buffer;
+    if (memoryMapped) {
+      buffer = fileChannel.map(MapMode.READ_ONLY, cdOffset, len);
+    } else {
+      // Read directory to buffer.
+      buffer = ByteBuffer.allocateDirect((int) len);
+      for (long pos = cdOffset; buffer.hasRemaining(); ) {
+        pos += fileChannel.read(buffer, pos);
+      }
+      buffer.rewind();
     }
-    buffer.rewind();
     cdir = CentralDirectory.viewOf(buffer).at(cdOffset).parse();
     cdir.buffer.flip();
   }
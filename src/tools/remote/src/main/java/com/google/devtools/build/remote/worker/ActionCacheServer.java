@@ -14,27 +14,43 @@
 
 package com.google.devtools.build.remote.worker;
 
+import static com.google.devtools.build.lib.remote.util.Utils.getFromFuture;
 import static java.util.logging.Level.WARNING;
 
 import build.bazel.remote.execution.v2.ActionCacheGrpc.ActionCacheImplBase;
 import build.bazel.remote.execution.v2.ActionResult;
+import build.bazel.remote.execution.v2.Digest;
 import build.bazel.remote.execution.v2.GetActionResultRequest;
 import build.bazel.remote.execution.v2.UpdateActionResultRequest;
+import com.google.devtools.build.lib.remote.BlobSplicing;
+import com.google.devtools.build.lib.remote.CacheNotFoundException;
 import com.google.devtools.build.lib.remote.SimpleBlobStoreActionCache;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import com.google.devtools.build.lib.remote.util.DigestUtil.ActionKey;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import io.grpc.StatusException;
 import io.grpc.stub.StreamObserver;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
 import java.util.logging.Logger;
 
-/** A basic implementation of an {@link ActionCacheImplBase} service. */
+/**
+ * A basic implementation of an {@link ActionCacheImplBase} service. It reassembles blobs uploaded
+ * in chunks as described in {@link BlobSplicing}.
+ */
 final class ActionCacheServer extends ActionCacheImplBase {
   private static final Logger logger = Logger.getLogger(ActionCacheImplBase.class.getName());
 
   private final SimpleBlobStoreActionCache cache;
+  private final Path workPath;
   private final DigestUtil digestUtil;
 
-  public ActionCacheServer(SimpleBlobStoreActionCache cache, DigestUtil digestUtil) {
+  public ActionCacheServer(SimpleBlobStoreActionCache cache, Path workPath, DigestUtil digestUtil) {
     this.cache = cache;
+    this.workPath = workPath;
     this.digestUtil = digestUtil;
   }
 
@@ -63,12 +79,72 @@ final class ActionCacheServer extends ActionCacheImplBase {
       UpdateActionResultRequest request, StreamObserver<ActionResult> responseObserver) {
     try {
       ActionKey actionKey = digestUtil.asActionKey(request.getActionDigest());
+      Digest manifestDigest = BlobSplicing.getManifestDigest(request.getActionResult());
+      if (manifestDigest != null) {
+        spliceBlob(actionKey, manifestDigest);
+      }
       cache.setCachedActionResult(actionKey, request.getActionResult());
       responseObserver.onNext(request.getActionResult());
       responseObserver.onCompleted();
+    } catch (StatusException e) {
+      responseObserver.onError(e);
     } catch (Exception e) {
       logger.log(WARNING, "updateActionResult request failed.", e);
       responseObserver.onError(StatusUtils.internalError(e));
     }
   }
+
+  /**
+   * If the manifest with the given digest is stored under the key of the blob it describes,
+   * concatenates the chunks of the blob and stores the blob in the CAS.
+   */
+  private void spliceBlob(ActionKey actionKey, Digest manifestDigest)
+      throws IOException, InterruptedException, StatusException {
+    byte[] manifest;
+    try {
+      manifest = getFromFuture(cache.downloadBlob(manifestDigest));
+    } catch (CacheNotFoundException e) {
+      throw StatusUtils.missingBlobError(manifestDigest);
+    }
+    Digest digest = BlobSplicing.getBlobDigest(digestUtil, actionKey, manifest);
+    if (digest == null || cache.containsKey(digest)) {
+      // An action that happens to have a single output named like a manifest.
+      return;
+    }
+    Iterable<Digest> chunkDigests;
+    try {
+      chunkDigests = BlobSplicing.getChunkDigests(digest, manifest);
+    } catch (IOException e) {
+      throw StatusUtils.invalidArgumentError("action_result", e.getMessage());
+    }
+
+    Path temp = workPath.getRelative("splice").getRelative(UUID.randomUUID().toString());
+    try {
+      FileSystemUtils.createDirectoryAndParents(temp.getParentDirectory());
+      try (OutputStream out = temp.getOutputStream()) {
+        for (Digest chunkDigest : chunkDigests) {
+          try {
+            out.write(getFromFuture(cache.downloadBlob(chunkDigest)));
+          } catch (CacheNotFoundException e) {
+            throw StatusUtils.missingBlobError(chunkDigest);
+          }
+        }
+      }
+      Digest d = digestUtil.compute(temp);
+      if (!d.equals(digest)) {
+        throw StatusUtils.invalidArgumentError(
+            "action_result",
+            "Chunks of " + digestUtil.toString(digest) + " add up to " + digestUtil.toString(d));
+      }
+      try (InputStream in = temp.getInputStream()) {
+        cache.uploadStream(digest, in);
+      }
+    } finally {
+      try {
+        temp.delete();
+      } catch (IOException e) {
+        logger.log(WARNING, "Could not delete temp file.", e);
+      }
+    }
+  }
 }
@@ -24,6 +24,8 @@ import com.google.bytestream.ByteStreamProto.ReadRequest;
 import com.google.bytestream.ByteStreamProto.ReadResponse;
 import com.google.bytestream.ByteStreamProto.WriteRequest;
 import com.google.bytestream.ByteStreamProto.WriteResponse;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.remote.BlobCompression;
 import com.google.devtools.build.lib.remote.CacheNotFoundException;
 import com.google.devtools.build.lib.remote.Chunker;
 import com.google.devtools.build.lib.remote.SimpleBlobStoreActionCache;
@@ -33,11 +35,16 @@ import com.google.devtools.build.lib.vfs.Path;
 import io.grpc.Status;
 import io.grpc.protobuf.StatusProto;
 import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.UUID;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
 import javax.annotation.Nullable;
 
 /** A basic implementation of a {@link ByteStreamImplBase} service. */
@@ -62,6 +69,49 @@ final class ByteStreamServer extends ByteStreamImplBase {
     }
   }
 
+  /**
+   * Returns the compressor of a {@code compressed-blobs} resource name, or {@code null} if the
+   * resource name refers to an uncompressed blob.
+   */
+  @Nullable
+  static String parseCompressorFromResourceName(String resourceName) {
+    String[] tokens = resourceName.split("/");
+    if (tokens.length < 4
+        || !tokens[tokens.length - 4].equals(BlobCompression.COMPRESSED_BLOBS)) {
+      return null;
+    }
+    return tokens[tokens.length - 3];
+  }
+
+  private static boolean isSupportedCompressor(@Nullable String compressor) {
+    return compressor == null || compressor.equals(BlobCompression.DEFLATE);
+  }
+
+  /** Compresses the bytes of {@code data} from {@code offset} on. */
+  private static byte[] compress(byte[] data, int offset) throws IOException {
+    Deflater deflater = BlobCompression.newDeflater();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DeflaterOutputStream deflaterOut = new DeflaterOutputStream(out, deflater)) {
+      deflaterOut.write(data, offset, data.length - offset);
+    } finally {
+      deflater.end();
+    }
+    return out.toByteArray();
+  }
+
+  /** Decompresses {@code from} into {@code to}. Returns false if the compressed data is cut off. */
+  private static boolean decompress(Path from, Path to) throws IOException {
+    Inflater inflater = BlobCompression.newInflater();
+    try (InputStream in = from.getInputStream();
+        InflaterOutputStream out = new InflaterOutputStream(to.getOutputStream(), inflater)) {
+      ByteStreams.copy(in, out);
+      out.finish();
+      return inflater.finished();
+    } finally {
+      inflater.end();
+    }
+  }
+
   public ByteStreamServer(SimpleBlobStoreActionCache cache, Path workPath, DigestUtil digestUtil) {
     this.cache = cache;
     this.workPath = workPath;
@@ -79,10 +129,30 @@ final class ByteStreamServer extends ByteStreamImplBase {
               "Failed parsing digest from resource_name:" + request.getResourceName()));
     }
 
+    String compressor = parseCompressorFromResourceName(request.getResourceName());
+    if (!isSupportedCompressor(compressor)) {
+      responseObserver.onError(
+          StatusUtils.invalidArgumentError(
+              "resource_name", "Unsupported compressor: " + compressor));
+      return;
+    }
+
     try {
       // This still relies on the blob size to be small enough to fit in memory.
       // TODO(olaola): refactor to fix this if the need arises.
-      Chunker c = Chunker.builder().setInput(getFromFuture(cache.downloadBlob(digest))).build();
+      byte[] blob = getFromFuture(cache.downloadBlob(digest));
+      if (compressor != null) {
+        // The read offset of a compressed blob refers to the uncompressed blob.
+        long readOffset = request.getReadOffset();
+        if (readOffset < 0 || readOffset > blob.length) {
+          responseObserver.onError(
+              StatusUtils.invalidArgumentError(
+                  "read_offset", "Out of range for " + blob.length + " bytes: " + readOffset));
+          return;
+        }
+        blob = compress(blob, (int) readOffset);
+      }
+      Chunker c = Chunker.builder().setInput(blob).build();
       while (c.hasNext()) {
         responseObserver.onNext(
             ReadResponse.newBuilder().setData(c.next().getData()).build());
@@ -111,8 +181,10 @@ final class ByteStreamServer extends ByteStreamImplBase {
     }
     return new StreamObserver<WriteRequest>() {
       private Digest digest;
+      private boolean compressed;
       private long offset;
       private String resourceName;
+      private boolean finished;
       private boolean closed;
 
       @Override
@@ -124,6 +196,15 @@ final class ByteStreamServer extends ByteStreamImplBase {
         if (digest == null) {
           resourceName = request.getResourceName();
           digest = parseDigestFromResourceName(resourceName);
+          String compressor = parseCompressorFromResourceName(resourceName);
+          if (!isSupportedCompressor(compressor)) {
+            responseObserver.onError(
+                StatusUtils.invalidArgumentError(
+                    "resource_name", "Unsupported compressor: " + compressor));
+            closed = true;
+            return;
+          }
+          compressed = compressor != null;
         }
 
         if (digest == null) {
@@ -188,6 +269,12 @@ final class ByteStreamServer extends ByteStreamImplBase {
           offset += size;
         }
 
+        if (compressed) {
+          // The size of compressed data is only known to the client.
+          finished = request.getFinishWrite();
+          return;
+        }
+
         boolean shouldFinishWrite = offset == digest.getSizeBytes();
 
         if (shouldFinishWrite != request.getFinishWrite()) {
@@ -206,11 +293,7 @@ final class ByteStreamServer extends ByteStreamImplBase {
           logger.log(WARNING, "Write request failed remotely.", t);
         }
         closed = true;
-        try {
-          temp.delete();
-        } catch (IOException e) {
-          logger.log(WARNING, "Could not delete temp file.", e);
-        }
+        deleteTempFile(temp);
       }
 
       @Override
@@ -219,7 +302,7 @@ final class ByteStreamServer extends ByteStreamImplBase {
           return;
         }
 
-        if (digest == null || offset != digest.getSizeBytes()) {
+        if (digest == null || (compressed ? !finished : offset != digest.getSizeBytes())) {
           responseObserver.onError(
               StatusProto.toStatusRuntimeException(
                   com.google.rpc.Status.newBuilder()
@@ -231,15 +314,24 @@ final class ByteStreamServer extends ByteStreamImplBase {
         }
 
         try {
-          Digest d = digestUtil.compute(temp);
-          try (InputStream in = temp.getInputStream()) {
-            cache.uploadStream(d, in);
+          Path blob = temp;
+          if (compressed) {
+            blob = temp.getParentDirectory().getRelative(temp.getBaseName() + ".inflated");
+            boolean complete = decompress(temp, blob);
+            deleteTempFile(temp);
+            if (!complete) {
+              deleteTempFile(blob);
+              responseObserver.onError(
+                  StatusUtils.invalidArgumentError("data", "Truncated compressed data"));
+              closed = true;
+              return;
+            }
           }
-          try {
-            temp.delete();
-          } catch (IOException e) {
-            logger.log(WARNING, "Could not delete temp file.", e);
+          Digest d = digestUtil.compute(blob);
+          try (InputStream in = blob.getInputStream()) {
+            cache.uploadStream(d, in);
           }
+          deleteTempFile(blob);
 
           if (!d.equals(digest)) {
             responseObserver.onError(
@@ -261,6 +353,14 @@ final class ByteStreamServer extends ByteStreamImplBase {
     };
   }
 
+  private static void deleteTempFile(Path file) {
+    try {
+      file.delete();
+    } catch (IOException e) {
+      logger.log(WARNING, "Could not delete temp file.", e);
+    }
+  }
+
   private static class NoOpStreamObserver<T> implements StreamObserver<T> {
     @Override
     public void onNext(T value) {
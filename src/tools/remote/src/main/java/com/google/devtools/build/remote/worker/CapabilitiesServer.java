@@ -24,6 +24,8 @@ import build.bazel.remote.execution.v2.GetCapabilitiesRequest;
 import build.bazel.remote.execution.v2.ServerCapabilities;
 import build.bazel.semver.SemVer;
 import com.google.devtools.build.lib.remote.ApiVersion;
+import com.google.devtools.build.lib.remote.BlobCompression;
+import com.google.devtools.build.lib.remote.BlobSplicing;
 import com.google.devtools.build.lib.remote.util.DigestUtil;
 import io.grpc.stub.StreamObserver;
 
@@ -47,12 +49,17 @@ final class CapabilitiesServer extends CapabilitiesImplBase {
             .setLowApiVersion(current)
             .setHighApiVersion(current)
             .setCacheCapabilities(
-                CacheCapabilities.newBuilder()
-                    .addDigestFunction(df)
-                    .setSymlinkAbsolutePathStrategy(SymlinkAbsolutePathStrategy.DISALLOWED)
-                    .setActionCacheUpdateCapabilities(
-                        ActionCacheUpdateCapabilities.newBuilder().setUpdateEnabled(true).build())
-                    .setMaxBatchTotalSizeBytes(CasServer.MAX_BATCH_SIZE_BYTES)
+                BlobSplicing.addSplicingSupport(
+                        BlobCompression.addDeflateSupport(
+                            CacheCapabilities.newBuilder()
+                                .addDigestFunction(df)
+                                .setSymlinkAbsolutePathStrategy(
+                                    SymlinkAbsolutePathStrategy.DISALLOWED)
+                                .setActionCacheUpdateCapabilities(
+                                    ActionCacheUpdateCapabilities.newBuilder()
+                                        .setUpdateEnabled(true)
+                                        .build())
+                                .setMaxBatchTotalSizeBytes(CasServer.MAX_BATCH_SIZE_BYTES)))
                     .build());
     if (execEnabled) {
       response.setExecutionCapabilities(
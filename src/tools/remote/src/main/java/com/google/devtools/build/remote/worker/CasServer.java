@@ -14,14 +14,21 @@
 
 package com.google.devtools.build.remote.worker;
 
+import static com.google.devtools.build.lib.remote.util.Utils.getFromFuture;
+
+import build.bazel.remote.execution.v2.BatchReadBlobsRequest;
+import build.bazel.remote.execution.v2.BatchReadBlobsResponse;
 import build.bazel.remote.execution.v2.BatchUpdateBlobsRequest;
 import build.bazel.remote.execution.v2.BatchUpdateBlobsResponse;
 import build.bazel.remote.execution.v2.ContentAddressableStorageGrpc.ContentAddressableStorageImplBase;
 import build.bazel.remote.execution.v2.Digest;
 import build.bazel.remote.execution.v2.FindMissingBlobsRequest;
 import build.bazel.remote.execution.v2.FindMissingBlobsResponse;
+import com.google.devtools.build.lib.remote.CacheNotFoundException;
 import com.google.devtools.build.lib.remote.SimpleBlobStoreActionCache;
+import com.google.protobuf.ByteString;
 import com.google.rpc.Code;
+import io.grpc.StatusException;
 import io.grpc.stub.StreamObserver;
 import java.io.IOException;
 
@@ -61,9 +68,18 @@ final class CasServer extends ContentAddressableStorageImplBase {
   @Override
   public void batchUpdateBlobs(
       BatchUpdateBlobsRequest request, StreamObserver<BatchUpdateBlobsResponse> responseObserver) {
+    long totalSize = 0;
+    for (BatchUpdateBlobsRequest.Request r : request.getRequestsList()) {
+      totalSize += r.getData().size();
+    }
+    if (totalSize > MAX_BATCH_SIZE_BYTES) {
+      responseObserver.onError(batchTooLargeError(totalSize));
+      return;
+    }
     BatchUpdateBlobsResponse.Builder batchResponse = BatchUpdateBlobsResponse.newBuilder();
     for (BatchUpdateBlobsRequest.Request r : request.getRequestsList()) {
-      BatchUpdateBlobsResponse.Response.Builder resp = batchResponse.addResponsesBuilder();
+      BatchUpdateBlobsResponse.Response.Builder resp =
+          batchResponse.addResponsesBuilder().setDigest(r.getDigest());
       try {
         Digest digest = cache.uploadBlob(r.getData().toByteArray());
         if (!r.getDigest().equals(digest)) {
@@ -80,4 +96,44 @@ final class CasServer extends ContentAddressableStorageImplBase {
     responseObserver.onNext(batchResponse.build());
     responseObserver.onCompleted();
   }
+
+  @Override
+  public void batchReadBlobs(
+      BatchReadBlobsRequest request, StreamObserver<BatchReadBlobsResponse> responseObserver) {
+    long totalSize = 0;
+    for (Digest digest : request.getDigestsList()) {
+      totalSize += digest.getSizeBytes();
+    }
+    if (totalSize > MAX_BATCH_SIZE_BYTES) {
+      responseObserver.onError(batchTooLargeError(totalSize));
+      return;
+    }
+    BatchReadBlobsResponse.Builder batchResponse = BatchReadBlobsResponse.newBuilder();
+    for (Digest digest : request.getDigestsList()) {
+      BatchReadBlobsResponse.Response.Builder resp =
+          batchResponse.addResponsesBuilder().setDigest(digest);
+      try {
+        resp.setData(ByteString.copyFrom(getFromFuture(cache.downloadBlob(digest))));
+        resp.getStatusBuilder().setCode(Code.OK.getNumber());
+      } catch (CacheNotFoundException e) {
+        resp.setStatus(StatusUtils.notFoundStatus(digest));
+      } catch (InterruptedException e) {
+        responseObserver.onError(StatusUtils.interruptedError(digest));
+        Thread.currentThread().interrupt();
+        return;
+      } catch (Exception e) {
+        resp.setStatus(StatusUtils.internalErrorStatus(e));
+      }
+    }
+    responseObserver.onNext(batchResponse.build());
+    responseObserver.onCompleted();
+  }
+
+  private static StatusException batchTooLargeError(long totalSize) {
+    return StatusUtils.invalidArgumentError(
+        "requests",
+        String.format(
+            "The blobs of the batch total %d bytes, more than the maximum of %d bytes",
+            totalSize, MAX_BATCH_SIZE_BYTES));
+  }
 }
@@ -118,7 +118,6 @@ public final class RemoteWorker {
       DigestUtil digestUtil)
       throws IOException {
     this.workerOptions = workerOptions;
-    this.actionCacheServer = new ActionCacheServer(cache, digestUtil);
     Path workPath;
     if (workerOptions.workPath != null) {
       workPath = fs.getPath(workerOptions.workPath);
@@ -135,6 +134,7 @@ public final class RemoteWorker {
       // For now, we use a temporary path if no work path was provided.
       workPath = fs.getPath("/tmp/remote-worker");
     }
+    this.actionCacheServer = new ActionCacheServer(cache, workPath, digestUtil);
     this.bsServer = new ByteStreamServer(cache, workPath, digestUtil);
     this.casServer = new CasServer(cache);
 
@@ -19,6 +19,7 @@ import com.google.protobuf.Any;
 import com.google.rpc.BadRequest;
 import com.google.rpc.BadRequest.FieldViolation;
 import com.google.rpc.Code;
+import com.google.rpc.PreconditionFailure;
 import com.google.rpc.Status;
 import io.grpc.StatusException;
 import io.grpc.protobuf.StatusProto;
@@ -74,4 +75,21 @@ final class StatusUtils {
         .addDetails(Any.pack(BadRequest.newBuilder().addFieldViolations(v).build()))
         .build();
   }
+
+  static StatusException missingBlobError(Digest digest) {
+    return StatusProto.toStatusException(missingBlobStatus(digest));
+  }
+
+  static com.google.rpc.Status missingBlobStatus(Digest digest) {
+    PreconditionFailure.Violation v =
+        PreconditionFailure.Violation.newBuilder()
+            .setType("MISSING")
+            .setSubject("blobs/" + digest.getHash() + "/" + digest.getSizeBytes())
+            .build();
+    return Status.newBuilder()
+        .setCode(Code.FAILED_PRECONDITION.getNumber())
+        .setMessage("Missing blob:" + digest)
+        .addDetails(Any.pack(PreconditionFailure.newBuilder().addViolations(v).build()))
+        .build();
+  }
 }
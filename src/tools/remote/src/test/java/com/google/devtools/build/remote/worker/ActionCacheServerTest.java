@@ -0,0 +1,147 @@
+// Copyright 2019 The Bazel Authors. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.remote.worker;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.devtools.build.lib.remote.util.Utils.getFromFuture;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import build.bazel.remote.execution.v2.ActionResult;
+import build.bazel.remote.execution.v2.Digest;
+import build.bazel.remote.execution.v2.UpdateActionResultRequest;
+import com.google.devtools.build.lib.clock.JavaClock;
+import com.google.devtools.build.lib.remote.BlobSplicing;
+import com.google.devtools.build.lib.remote.SimpleBlobStoreActionCache;
+import com.google.devtools.build.lib.remote.blobstore.ConcurrentMapBlobStore;
+import com.google.devtools.build.lib.remote.options.RemoteOptions;
+import com.google.devtools.build.lib.remote.util.DigestUtil;
+import com.google.devtools.build.lib.vfs.DigestHashFunction;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.common.options.Options;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Tests for {@link ActionCacheServer}. */
+@RunWith(JUnit4.class)
+public class ActionCacheServerTest {
+  private final FileSystem fs = new InMemoryFileSystem(new JavaClock(), DigestHashFunction.SHA256);
+  private final DigestUtil digestUtil = new DigestUtil(DigestHashFunction.SHA256);
+  private SimpleBlobStoreActionCache cache;
+  private ActionCacheServer server;
+
+  @Before
+  public final void setUp() {
+    cache =
+        new SimpleBlobStoreActionCache(
+            Options.getDefaults(RemoteOptions.class),
+            new ConcurrentMapBlobStore(new ConcurrentHashMap<>()),
+            digestUtil);
+    server = new ActionCacheServer(cache, fs.getPath("/work"), digestUtil);
+  }
+
+  private static byte[] manifest(Digest digest, Digest... chunkDigests) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    digest.writeDelimitedTo(out);
+    for (Digest chunkDigest : chunkDigests) {
+      chunkDigest.writeDelimitedTo(out);
+    }
+    return out.toByteArray();
+  }
+
+  /** Stores the given manifest under the given key, and returns the error, or null on success. */
+  private Throwable updateManifest(Digest key, byte[] manifest) throws Exception {
+    Digest manifestDigest = cache.uploadBlob(manifest);
+    Throwable[] error = new Throwable[1];
+    server.updateActionResult(
+        UpdateActionResultRequest.newBuilder()
+            .setActionDigest(key)
+            .setActionResult(BlobSplicing.manifestEntry(manifestDigest))
+            .build(),
+        new StreamObserver<ActionResult>() {
+          @Override
+          public void onNext(ActionResult result) {}
+
+          @Override
+          public void onError(Throwable t) {
+            error[0] = t;
+          }
+
+          @Override
+          public void onCompleted() {}
+        });
+    return error[0];
+  }
+
+  @Test
+  public void splicesBlobFromChunks() throws Exception {
+    Digest foo = cache.uploadBlob("foo".getBytes(UTF_8));
+    Digest bar = cache.uploadBlob("bar".getBytes(UTF_8));
+    Digest digest = digestUtil.computeAsUtf8("foobarfoo");
+    Digest key = BlobSplicing.manifestKey(digestUtil, digest).getDigest();
+
+    assertThat(updateManifest(key, manifest(digest, foo, bar, foo))).isNull();
+
+    assertThat(new String(getFromFuture(cache.downloadBlob(digest)), UTF_8))
+        .isEqualTo("foobarfoo");
+    assertThat(cache.getCachedActionResult(digestUtil.asActionKey(key))).isNotNull();
+    assertThat(fs.getPath("/work/splice").getDirectoryEntries()).isEmpty();
+  }
+
+  @Test
+  public void missingChunkFailsPrecondition() throws Exception {
+    Digest foo = cache.uploadBlob("foo".getBytes(UTF_8));
+    Digest bar = digestUtil.computeAsUtf8("bar");
+    Digest digest = digestUtil.computeAsUtf8("foobar");
+    Digest key = BlobSplicing.manifestKey(digestUtil, digest).getDigest();
+
+    Throwable error = updateManifest(key, manifest(digest, foo, bar));
+
+    assertThat(Status.fromThrowable(error).getCode()).isEqualTo(Status.Code.FAILED_PRECONDITION);
+    assertThat(cache.containsKey(digest)).isFalse();
+    assertThat(cache.getCachedActionResult(digestUtil.asActionKey(key))).isNull();
+  }
+
+  @Test
+  public void wrongChunksAreRejected() throws Exception {
+    Digest foo = cache.uploadBlob("foo".getBytes(UTF_8));
+    Digest bar = cache.uploadBlob("bar".getBytes(UTF_8));
+    Digest digest = digestUtil.computeAsUtf8("barfoo");
+    Digest key = BlobSplicing.manifestKey(digestUtil, digest).getDigest();
+
+    Throwable error = updateManifest(key, manifest(digest, foo, bar));
+
+    assertThat(Status.fromThrowable(error).getCode()).isEqualTo(Status.Code.INVALID_ARGUMENT);
+    assertThat(cache.containsKey(digest)).isFalse();
+  }
+
+  @Test
+  public void manifestUnderOtherKeyIsStoredAsIs() throws Exception {
+    Digest foo = cache.uploadBlob("foo".getBytes(UTF_8));
+    Digest digest = digestUtil.computeAsUtf8("foofoo");
+    Digest key = digestUtil.computeAsUtf8("some action");
+
+    assertThat(updateManifest(key, manifest(digest, foo, foo))).isNull();
+
+    assertThat(cache.containsKey(digest)).isFalse();
+    assertThat(cache.getCachedActionResult(digestUtil.asActionKey(key))).isNotNull();
+  }
+}